@@ -1,5 +1,6 @@
 package main;
 
+import java.io.*;
 import java.util.*;
 
 /**
@@ -17,13 +18,13 @@ import java.util.*;
  * javax.json-1.0.4.jar
  */
 public class AccuracyChecker {
-    private static final String EXCEL_FILE = "src/data/Master Excel_with column codes_a.xlsx";
+    static final String EXCEL_FILE = "src/data/Master Excel_with column codes_a.xlsx";
 
     // The sheets in the Excel file to parse
-    private static final String[] EXCEL_SHEETS = { "#3" };
+    static final String[] EXCEL_SHEETS = { "#3" };
 
     // The letters of the Excel columns containing the expected data
-    private static final String[] EXCEL_DATA_COLUMNS = { "P", // client ID
+    static final String[] EXCEL_DATA_COLUMNS = { "P", // client ID
             "AA", // age
             "AP", // EDD
             "BB", // num_preg
@@ -41,11 +42,11 @@ public class AccuracyChecker {
     };
 
     // Whether each field is a bubble field or not.
-    private static final boolean[] IS_BUBBLE = { false, false, false, false, false, true, true, false, false, false,
+    static final boolean[] IS_BUBBLE = { false, false, false, false, false, true, true, false, false, false,
             false, true, false, true, false };
 
     // Hard-coded strings for the bubble fields
-    private static final String[] COLUMN_NAMES = { "client_id", "age", "EDD", "num_preg", "live_births", "regCCPF",
+    static final String[] COLUMN_NAMES = { "client_id", "age", "EDD", "num_preg", "live_births", "regCCPF",
             "CCPF_form", "monthpreg_ANC", "ANC_v1", "ANC_v3", "TTV2", "health_cond", "date_delivery", "V1_topics",
             "V2_date" };
 
@@ -59,6 +60,38 @@ public class AccuracyChecker {
             { "7", "breastfeeding" }, { "8", "family planning" }, { "9", "postnatal danger signs" },
             { "10", "neonatal care/ danger signs" } };
 
+    /**
+     * How digit strings (numbers and the parts of dates) are scored.
+     */
+    public enum DigitScoring {
+        /**
+         * Compare the strings digit by digit, starting from the right. A
+         * missing or extra digit makes every digit to its left count as wrong.
+         */
+        POSITIONAL,
+
+        /**
+         * Align the strings by edit distance (see DigitAligner) and count the
+         * aligned matches. Substitutions, insertions and deletions are
+         * reported separately.
+         */
+        ALIGNED
+    }
+
+    // The digit scoring mode used when none is given (see --digits)
+    static final DigitScoring DIGIT_SCORING = DigitScoring.POSITIONAL;
+
+    // Indexes of the error breakdown returned (after the correct/total counts)
+    // by the comparison methods when digits are scored with
+    // DigitScoring.ALIGNED
+    private static final int SUBSTITUTIONS = 2;
+    private static final int INSERTIONS = 3;
+    private static final int DELETIONS = 4;
+
+    // Number of digit comparisons scoreForms collects before scoring them
+    // together (see DigitBatch)
+    private static final int DIGIT_BATCH_SIZE = 4096;
+
     /**
      * Runs the Scan accuracy checker.
      * 
@@ -67,23 +100,183 @@ public class AccuracyChecker {
      * [0]: The path to the root of the folder containing the Scan output (i.e.
      * C:\\Users\\Joshua\\Downloads\\scanOutput). The folder should contain
      * sub-folders for each form that was scanned.
+     * 
+     * [1] (optional): The path to a checkpoint file. If given, folders that
+     * cannot be read are reported and skipped instead of stopping the crawl,
+     * and an interrupted crawl resumes from the checkpoint (see
+     * ResumableCrawl).
+     * 
+     * --fields=[list] (optional, anywhere): Evaluate only the listed fields,
+     * given by name or index and separated by commas (i.e.
+     * --fields=health_cond,V1_topics or --fields=11,13). The other columns of
+     * the Excel file and the rest of each output.json file are not read (also
+     * with a checkpoint file).
+     * 
+     * --duplicates=flag|skip (optional, anywhere): Look for folders that hold
+     * the same scan under a different client ID or folder name (see
+     * DuplicateScans), and report them ("flag") or also leave all but the
+     * first of each group out of the comparison ("skip").
+     * 
+     * --history=[file] (optional, anywhere): Append the results of the run,
+     * fingerprints of its inputs and the time taken by each phase to the given
+     * run history (see RunHistory), given without extension. Cancelled runs
+     * are not recorded; runs with --fields are recorded with their fields, and
+     * only compared with runs of the same fields.
+     * 
+     * --export=[file] (optional, anywhere): Also export the outcome of every
+     * compared field to the given file (see OutcomeExporter; e.g.
+     * outcomes.bin, or outcomes.csv.gz for gzip CSV). If the export fails,
+     * the error is reported and the evaluation goes on without it.
+     * 
+     * --digits=aligned|positional (optional, anywhere): How digit strings are
+     * scored (see DigitScoring; default positional). With "aligned", the
+     * number of substituted, inserted and deleted digits of each field is
+     * printed as well.
      */
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.out.println("Command-line argument: <Root of scan output folder>");
+        List<String> arguments = new ArrayList<String>();
+        int[] fields = null;
+        String duplicates = null;
+        String history = null;
+        String export = null;
+        DigitScoring digitScoring = DIGIT_SCORING;
+        boolean badDigits = false;
+        for (String arg : args) {
+            if (arg.startsWith("--fields=")) {
+                fields = parseFields(arg.substring("--fields=".length()));
+            } else if (arg.startsWith("--duplicates=")) {
+                duplicates = arg.substring("--duplicates=".length());
+            } else if (arg.startsWith("--history=")) {
+                history = arg.substring("--history=".length());
+            } else if (arg.startsWith("--export=")) {
+                export = arg.substring("--export=".length());
+            } else if (arg.startsWith("--digits=")) {
+                String mode = arg.substring("--digits=".length());
+                badDigits = !mode.equals("aligned") && !mode.equals("positional");
+                digitScoring = mode.equals("aligned") ? DigitScoring.ALIGNED : DigitScoring.POSITIONAL;
+            } else {
+                arguments.add(arg);
+            }
+        }
+        if (arguments.size() < 1 || arguments.size() > 2 || (fields != null && fields.length == 0)
+                || (duplicates != null && !duplicates.equals("flag") && !duplicates.equals("skip")) || badDigits) {
+            System.out.println("Command-line arguments: <Root of scan output folder> [checkpoint file]"
+                    + " [--fields=<field name or index>,...] [--duplicates=flag|skip] [--history=<file>]"
+                    + " [--export=<file>] [--digits=aligned|positional]");
             System.exit(1);
         }
-        String scanOutputRoot = args[0];
+        String scanOutputRoot = arguments.get(0);
+
+        // Ctrl-C stops the run cleanly, printing the results so far
+        Progress.reportTo(System.err);
+        Progress.cancelOnInterrupt();
+        try {
+            run(scanOutputRoot, arguments.size() == 2 ? arguments.get(1) : null, fields, duplicates, history,
+                    export, digitScoring);
+        } finally {
+            Progress.finished();
+        }
+    }
+
+    /**
+     * Parses a comma-separated list of fields, each given by its name (see
+     * COLUMN_NAMES) or its index.
+     * 
+     * @return The indexes of the listed fields, in increasing order and
+     *         without repeats, or an empty array if any of them is not a
+     *         field
+     */
+    public static int[] parseFields(String list) {
+        SortedSet<Integer> fields = new TreeSet<Integer>();
+        for (String name : list.split(",")) {
+            name = name.trim();
+            int field = Arrays.asList(COLUMN_NAMES).indexOf(name);
+            if (field < 0 && name.matches("[0-9]{1,2}")) {
+                field = Integer.parseInt(name);
+            }
+            if (field < 0 || field >= COLUMN_NAMES.length) {
+                System.err.println("Not a field: " + name);
+                return new int[0];
+            }
+            fields.add(field);
+        }
+        int[] result = new int[fields.size()];
+        int k = 0;
+        for (int field : fields) {
+            result[k++] = field;
+        }
+        return result;
+    }
+
+    /*
+     * Reads the expected and actual data and compares them (see main). If
+     * fields is not null, only those fields are read and compared; if
+     * duplicates is not null, duplicate scans are flagged or skipped; if
+     * history or export is not null, the run is recorded or its outcomes
+     * exported there. Digit strings are scored with the given mode.
+     */
+    private static void run(String scanOutputRoot, String checkpointFile, int[] fields, String duplicates,
+            String history, String export, DigitScoring digitScoring) {
+        // Time taken by each phase, in milliseconds
+        Map<String, Long> phaseMillis = new LinkedHashMap<String, Long>();
+        long start = System.currentTimeMillis();
 
         // Get the expected data from the Excel file
         Map<String, List<String>> expectedData = ExcelParser.parseCorrectFile(EXCEL_FILE, EXCEL_SHEETS,
-                EXCEL_DATA_COLUMNS);
+                EXCEL_DATA_COLUMNS, fields);
+        start = endPhase(phaseMillis, "excel", start);
 
         // Get the actual data outputted by Scan
-        Map<String, ScanOutput> actualOutput = JsonParser.crawlDirectories(scanOutputRoot);
+        Map<String, ScanOutput> actualOutput;
+        if (checkpointFile != null) {
+            ResumableCrawl crawl = ResumableCrawl.crawl(scanOutputRoot, checkpointFile, fields);
+            crawl.printErrorReport();
+            actualOutput = crawl.getResults();
+        } else {
+            actualOutput = JsonParser.crawlDirectories(scanOutputRoot, fields);
+        }
+        start = endPhase(phaseMillis, "crawl", start);
+
+        // Find the same scan in several folders
+        if (duplicates != null) {
+            DuplicateScans scans = DuplicateScans.scan(scanOutputRoot, DuplicateScans.HASH_CACHE_FILE);
+            scans.printReport();
+            if (duplicates.equals("skip")) {
+                actualOutput = scans.skipDuplicates(actualOutput);
+            }
+            start = endPhase(phaseMillis, "duplicates", start);
+        }
 
         // Compare the results and print out statistics
-        compareResults(actualOutput, expectedData);
+        int[][] counts = compareResults(actualOutput, expectedData, fields, export, digitScoring);
+        endPhase(phaseMillis, "compare", start);
+
+        if (history != null && !Progress.isCancelled()) {
+            recordRun(history, scanOutputRoot, fields, counts, phaseMillis);
+        }
+    }
+
+    private static long endPhase(Map<String, Long> phaseMillis, String phase, long start) {
+        long end = System.currentTimeMillis();
+        phaseMillis.put(phase, end - start);
+        return end;
+    }
+
+    /*
+     * Appends the results of a run to the run history.
+     */
+    private static void recordRun(String history, String scanOutputRoot, int[] fields, int[][] counts,
+            Map<String, Long> phaseMillis) {
+        try (RunHistory runs = RunHistory.open(history, EXCEL_DATA_COLUMNS.length)) {
+            Map<String, String> fingerprints = new LinkedHashMap<String, String>();
+            fingerprints.put("excel", RunHistory.fingerprintFile(EXCEL_FILE));
+            fingerprints.put("output", RunHistory.fingerprintFolder(scanOutputRoot));
+            RunHistory.RunSummary run = runs.append(scanOutputRoot, fingerprints, fields, counts[0], counts[1],
+                    IS_BUBBLE, phaseMillis);
+            System.out.println("Recorded as run " + run.runId + " of " + history);
+        } catch (IOException e) {
+            System.err.println("Could not record the run: " + e);
+        }
     }
 
     /**
@@ -101,6 +294,42 @@ public class AccuracyChecker {
      *        represent the correct values for each field within that form.
      */
     public static void compareResults(Map<String, ScanOutput> actual, Map<String, List<String>> expected) {
+        compareResults(actual, expected, null);
+    }
+
+    /**
+     * Same as compareResults(actual, expected), but compares and prints only
+     * the given fields.
+     * 
+     * @param fields The (increasing) indexes of the fields to compare, or null
+     *        to compare every field
+     * @return The number of correct digits/bubbles of each field in index 0,
+     *         and the number of total digits/bubbles in index 1
+     */
+    public static int[][] compareResults(Map<String, ScanOutput> actual, Map<String, List<String>> expected,
+            int[] fields) {
+        return compareResults(actual, expected, fields, null);
+    }
+
+    /**
+     * Same as compareResults(actual, expected, fields), but also exports the
+     * outcome of every compared field to the given file (if not null; see
+     * OutcomeExporter). If the export fails, the error is reported and the
+     * comparison goes on without it.
+     */
+    public static int[][] compareResults(Map<String, ScanOutput> actual, Map<String, List<String>> expected,
+            int[] fields, String exportFile) {
+        return compareResults(actual, expected, fields, exportFile, DIGIT_SCORING);
+    }
+
+    /**
+     * Same as compareResults(actual, expected, fields, exportFile), but scores
+     * digit strings with the given mode. With DigitScoring.ALIGNED, the number
+     * of substituted, inserted and deleted digits of each field is printed
+     * after the results.
+     */
+    public static int[][] compareResults(Map<String, ScanOutput> actual, Map<String, List<String>> expected,
+            int[] fields, String exportFile, DigitScoring digitScoring) {
         // Contains the number of correct/total digits for the i-th field
         /*int[] numCorrectLittle = new int[EXCEL_DATA_COLUMNS.length];
         int[] numCorrectModerate = new int[EXCEL_DATA_COLUMNS.length];
@@ -112,6 +341,10 @@ public class AccuracyChecker {
         int[] numCorrect = new int[EXCEL_DATA_COLUMNS.length];
         int[] numTotal = new int[EXCEL_DATA_COLUMNS.length];
 
+        // Number of substituted/inserted/deleted digits for the i-th field
+        // (only filled in when digits are aligned)
+        int[][] numErrors = new int[EXCEL_DATA_COLUMNS.length][3];
+
         /*Set<String> littleShadow = FolderUtils
                 .getClientIds("C:\\Users\\Joshua\\Downloads\\ScanPreAlignedImages\\shadow-little");
         Set<String> moderateShadow = FolderUtils
@@ -146,20 +379,65 @@ public class AccuracyChecker {
 
         // Loop through all client IDs in the expected data set, and try to find
         // a matching client ID in the actual data set. If there is a match,
-        // compare these results.
+        // compare these results. If the run is cancelled, stop and print the
+        // results of the forms compared so far. (If it was cancelled while
+        // the data was being read, compare all of the data that was read.)
+        boolean cancelledBefore = Progress.isCancelled();
+        OutcomeExporter exporter = null;
+        if (exportFile != null) {
+            try {
+                exporter = OutcomeExporter.open(exportFile);
+            } catch (IOException e) {
+                System.err.println("Not exporting outcomes: " + e);
+            }
+        }
+        Progress progress = new Progress("Comparing forms", expected.size());
         for (String clientId : expected.keySet()) {
+            if (!cancelledBefore && Progress.isCancelled()) {
+                break;
+            }
+            progress.advance();
             ScanOutput output = actual.get(clientId);
             if (null != output) {
                 List<String> actualResults = output.outputData;
                 List<String> expectedResults = expected.get(clientId);
-                compareResults(actualResults, expectedResults, numCorrect, numTotal, clientId, output.folderName);
+                compareResults(actualResults, expectedResults, numCorrect, numTotal, numErrors, exporter, fields,
+                        digitScoring, clientId, output.folderName);
+                if (exporter != null && exporter.getFailure() != null) {
+                    System.err.println("Stopped exporting outcomes: " + exporter.getFailure());
+                    try {
+                        exporter.close();
+                    } catch (IOException e) {
+                        // Already reported
+                    }
+                    exporter = null;
+                }
+            }
+        }
+        if (exporter != null) {
+            try {
+                exporter.close();
+            } catch (IOException e) {
+                System.err.println("Could not finish exporting outcomes: " + e);
             }
         }
 
         /*printResults(numCorrectLittle, numTotalLittle, "Little shadow");
         printResults(numCorrectModerate, numTotalModerate, "Moderate shadow");
         printResults(numCorrectMajor, numTotalMajor, "Major shadow");*/
-        printResults(numCorrect, numTotal, "TOTAL");
+        progress.finish();
+        if (cancelledBefore) {
+            printResults(numCorrect, numTotal, "PARTIAL (cancelled while reading; " + expected.size()
+                    + " Excel rows and " + actual.size() + " folders were read)", fields);
+        } else if (Progress.isCancelled()) {
+            printResults(numCorrect, numTotal, "PARTIAL (cancelled after " + progress.getDone() + " of "
+                    + expected.size() + " forms)", fields);
+        } else {
+            printResults(numCorrect, numTotal, "TOTAL", fields);
+        }
+        if (digitScoring == DigitScoring.ALIGNED) {
+            printErrorBreakdown(numErrors);
+        }
 
         // Stats on how many client IDs we were able to match
         Set<String> matching = new TreeSet<String>();
@@ -181,6 +459,7 @@ public class AccuracyChecker {
         System.out.println("Matching Client IDs: " + matching.size());
         System.out.println("Only in Excel file: " + onlyExcel.size());
         System.out.println("Not in Excel file: " + notInExcel.size());
+        return new int[][] { numCorrect, numTotal };
     }
 
     /**
@@ -191,6 +470,17 @@ public class AccuracyChecker {
      * @param s String describing results
      */
     public static void printResults(int[] numCorrect, int[] numTotal, String s) {
+        printResults(numCorrect, numTotal, s, null);
+    }
+
+    /**
+     * Same as printResults(numCorrect, numTotal, s), but prints (and combines)
+     * only the given fields.
+     * 
+     * @param fields The (increasing) indexes of the fields to print, or null
+     *        to print every field
+     */
+    public static void printResults(int[] numCorrect, int[] numTotal, String s, int[] fields) {
         System.out.println();
         System.out.println("Final Results: " + s);
         int bubbleCorrect = 0;
@@ -198,7 +488,9 @@ public class AccuracyChecker {
         int digitCorrect = 0;
         int digitTotal = 0;
 
-        for (int i = 0; i < numCorrect.length; i++) {
+        int numFields = fields == null ? numCorrect.length : fields.length;
+        for (int k = 0; k < numFields; k++) {
+            int i = fields == null ? k : fields[k];
             double percentage = numCorrect[i] * 100.0 / numTotal[i];
             String type = "digit";
             if (IS_BUBBLE[i]) {
@@ -224,6 +516,25 @@ public class AccuracyChecker {
         System.out.printf("DIGIT FIELDS: " + digitCorrect + "/" + digitTotal + " correct (%.2f%%)\n", digitPercentage);
     }
 
+    /**
+     * Prints the number of substituted, inserted and deleted digits for each
+     * digit field (as counted when digits are scored with
+     * DigitScoring.ALIGNED).
+     * 
+     * @param numErrors numErrors[i] holds the number of substitutions,
+     *        insertions and deletions for the i-th field
+     */
+    public static void printErrorBreakdown(int[][] numErrors) {
+        System.out.println();
+        System.out.println("Digit errors (substitutions/insertions/deletions):");
+        for (int i = 0; i < numErrors.length; i++) {
+            if (!IS_BUBBLE[i]) {
+                System.out.println("Field " + i + " (" + COLUMN_NAMES[i] + "): " + numErrors[i][0] + "/"
+                        + numErrors[i][1] + "/" + numErrors[i][2]);
+            }
+        }
+    }
+
     /*
      * For a single instance of a form, compares the correct values of the form
      * (passed in as "expectedResult") with the results obtained by Scan after
@@ -246,56 +557,280 @@ public class AccuracyChecker {
      */
     public static void compareResults(List<String> actualResult, List<String> expectedResult, int[] numCorrect,
             int[] numTotal, String clientId, String folderName) {
+        compareResults(actualResult, expectedResult, numCorrect, numTotal, null, clientId, folderName);
+    }
+
+    /*
+     * Same as above, but also adds the number of substituted, inserted and
+     * deleted digits of each field to numErrors[i] (if numErrors is not null
+     * and digits are scored with DigitScoring.ALIGNED).
+     */
+    public static void compareResults(List<String> actualResult, List<String> expectedResult, int[] numCorrect,
+            int[] numTotal, int[][] numErrors, String clientId, String folderName) {
+        compareResults(actualResult, expectedResult, numCorrect, numTotal, numErrors, null, clientId, folderName);
+    }
+
+    /*
+     * Same as above, but also exports the outcome of every field (including
+     * skipped ones) if exporter is not null. Export errors do not stop the
+     * comparison; see OutcomeExporter.tryAdd.
+     */
+    public static void compareResults(List<String> actualResult, List<String> expectedResult, int[] numCorrect,
+            int[] numTotal, int[][] numErrors, OutcomeExporter exporter, String clientId, String folderName) {
+        compareResults(actualResult, expectedResult, numCorrect, numTotal, numErrors, exporter, null, clientId,
+                folderName);
+    }
+
+    /*
+     * Same as above, but compares (and exports) only the given fields, in
+     * increasing order, or every field if fields is null.
+     */
+    public static void compareResults(List<String> actualResult, List<String> expectedResult, int[] numCorrect,
+            int[] numTotal, int[][] numErrors, OutcomeExporter exporter, int[] fields, String clientId,
+            String folderName) {
+        compareResults(actualResult, expectedResult, numCorrect, numTotal, numErrors, exporter, fields,
+                DIGIT_SCORING, clientId, folderName);
+    }
+
+    /*
+     * Same as above, but scores digit strings with the given mode.
+     */
+    public static void compareResults(List<String> actualResult, List<String> expectedResult, int[] numCorrect,
+            int[] numTotal, int[][] numErrors, OutcomeExporter exporter, int[] fields, DigitScoring digitScoring,
+            String clientId, String folderName) {
         assert actualResult.size() == expectedResult.size();
 
         System.out.println("CLIENT ID " + clientId + " (Output folder: " + folderName + ")");
 
-        // Loop through each field in the form
-        for (int i = 0; i < actualResult.size(); i++) {
+        // Loop through each (selected) field in the form
+        int numFields = fields == null ? actualResult.size() : fields.length;
+        for (int k = 0; k < numFields; k++) {
+            int i = fields == null ? k : fields[k];
 
             // Grab the correct expected value for that field in the form, as
             // well as the value that Scan produced.
             String actual = actualResult.get(i);
             String expected = expectedResult.get(i);
 
-            // If either the expected or actual value of that field is null or
-            // empty, move on to the next field
-            if (actual == null || expected == null || expected.equals("") || expected.equals("null")) {
-                continue;
-            }
-
-            // If this is a "select-many" bubble field, tell the program what
-            // the options were
-            String[][] bubbleOptions = null;
-            if (i == 11) {
-                bubbleOptions = HEALTH_CONDITIONS;
-            }
-            if (i == 13) {
-                bubbleOptions = V1_TOPICS;
+            // Compare results
+            int[] comparison = compareField(i, actual, expected, digitScoring);
+            if (exporter != null) {
+                exporter.tryAdd(clientId, folderName, i, actual, expected, comparison);
             }
-
-            // If this is a Client ID and is not 5 digits, pad the left side
-            // with zeroes until it is 5 digits.
-            if (i == 0) {
-                actual = padWithZeroes(actual);
-                expected = padWithZeroes(expected);
+            if (comparison == null) {
+                continue;
             }
 
-            // Compare results
-            int[] comparison = compareSingleResult(actual, expected, bubbleOptions);
-
             // If results were different (# total != # correct), print the
             // discrepancy
             if (comparison[0] != comparison[1]) {
+                if (i == 0) {
+                    actual = padWithZeroes(actual);
+                    expected = padWithZeroes(expected);
+                }
+                String breakdown = "";
+                if (comparison.length > 2) {
+                    breakdown = ", " + comparison[SUBSTITUTIONS] + " substituted, " + comparison[INSERTIONS]
+                            + " inserted, " + comparison[DELETIONS] + " deleted";
+                }
                 System.out.println("Field " + i + " (" + COLUMN_NAMES[i] + "): actual = " + actual + ", expected = "
-                        + expected + " (" + comparison[0] + "/" + comparison[1] + " correct)");
+                        + expected + " (" + comparison[0] + "/" + comparison[1] + " correct" + breakdown + ")");
             }
             numCorrect[i] += comparison[0];
             numTotal[i] += comparison[1];
+            if (numErrors != null && comparison.length > 2) {
+                numErrors[i][0] += comparison[SUBSTITUTIONS];
+                numErrors[i][1] += comparison[INSERTIONS];
+                numErrors[i][2] += comparison[DELETIONS];
+            }
         }
         System.out.println();
     }
 
+    /**
+     * Compares the actual vs. expected value of the i-th field of a form,
+     * applying the field-specific handling used by compareResults (bubble
+     * options for the "select-many" fields, zero-padding for the Client ID).
+     * 
+     * @param i The index of the field
+     * @param actual The value produced by Scan (may be null)
+     * @param expected The expected value (may be null)
+     * @return An array with the number of correct digits in index 0 and the
+     *         total number of digits in index 1, or null if the field should
+     *         be skipped because either value is missing
+     */
+    public static int[] compareField(int i, String actual, String expected) {
+        return compareField(i, actual, expected, DIGIT_SCORING);
+    }
+
+    /**
+     * Same as compareField(i, actual, expected), but scores digit strings with
+     * the given mode (see compareSingleResult).
+     */
+    public static int[] compareField(int i, String actual, String expected, DigitScoring digitScoring) {
+        // If either the expected or actual value of that field is null or
+        // empty, move on to the next field
+        if (actual == null || expected == null || expected.equals("") || expected.equals("null")) {
+            return null;
+        }
+
+        // If this is a "select-many" bubble field, tell the program what
+        // the options were
+        String[][] bubbleOptions = getBubbleOptions(i);
+
+        // If this is a Client ID and is not 5 digits, pad the left side
+        // with zeroes until it is 5 digits.
+        if (i == 0) {
+            actual = padWithZeroes(actual);
+            expected = padWithZeroes(expected);
+        }
+
+        return compareSingleResult(actual, expected, bubbleOptions, digitScoring);
+    }
+
+    /*
+     * Returns the options of the i-th field if it is a "select-many" bubble
+     * field, or null otherwise.
+     */
+    static String[][] getBubbleOptions(int i) {
+        if (i == 11) {
+            return HEALTH_CONDITIONS;
+        }
+        if (i == 13) {
+            return V1_TOPICS;
+        }
+        return null;
+    }
+
+    /**
+     * Scores every form whose client ID appears in both data sets, without
+     * printing anything. See compareResults for the format of the parameters.
+     * 
+     * @return The per-form, per-field correct/total counts
+     */
+    public static FormScores scoreForms(Map<String, ScanOutput> actual, Map<String, List<String>> expected) {
+        return scoreForms(expected.keySet(), actual, expected);
+    }
+
+    /**
+     * Scores the forms with the given client IDs (in iteration order),
+     * skipping any client ID that is missing from either data set.
+     * 
+     * @return The per-form, per-field correct/total counts
+     */
+    public static FormScores scoreForms(Collection<String> clientIds, Map<String, ScanOutput> actual,
+            Map<String, List<String>> expected) {
+        return scoreForms(clientIds, actual, expected, DigitBatch.isVectorized());
+    }
+
+    /**
+     * Same as scoreForms(clientIds, actual, expected), but says whether plain
+     * digit comparisons are collected and scored in batches (see DigitBatch).
+     * By default they are only batched when the Vector API kernel is
+     * available, since the fallback kernel is no faster than comparing them
+     * one at a time.
+     */
+    public static FormScores scoreForms(Collection<String> clientIds, Map<String, ScanOutput> actual,
+            Map<String, List<String>> expected, boolean batchDigits) {
+        return scoreForms(clientIds, actual, expected, batchDigits, DIGIT_SCORING);
+    }
+
+    /**
+     * Same as scoreForms(clientIds, actual, expected, batchDigits), but scores
+     * digit strings with the given mode. Aligned digit strings are never
+     * batched.
+     */
+    public static FormScores scoreForms(Collection<String> clientIds, Map<String, ScanOutput> actual,
+            Map<String, List<String>> expected, boolean batchDigits, DigitScoring digitScoring) {
+        FormScores scores = new FormScores(EXCEL_DATA_COLUMNS.length);
+
+        // Plain digit comparisons are collected and scored in batches
+        DigitBatch batch = batchDigits && digitScoring == DigitScoring.POSITIONAL ? new DigitBatch(DIGIT_BATCH_SIZE)
+                : null;
+        for (String clientId : clientIds) {
+            ScanOutput output = actual.get(clientId);
+            if (null != output && expected.containsKey(clientId)) {
+                int form = scores.addForm(clientId, output.folderName);
+                List<String> actualResults = output.outputData;
+                List<String> expectedResults = expected.get(clientId);
+                for (int i = 0; i < actualResults.size(); i++) {
+                    if (batch != null && batchDigits(i, actualResults.get(i), expectedResults.get(i), batch, scores,
+                            form * scores.getNumFields() + i)) {
+                        continue;
+                    }
+                    int[] comparison = compareField(i, actualResults.get(i), expectedResults.get(i), digitScoring);
+                    if (comparison != null) {
+                        scores.set(form, i, comparison[0], comparison[1]);
+                    }
+                }
+            }
+        }
+        if (batch != null) {
+            batch.flush(scores.correctArray(), scores.totalArray());
+        }
+        return scores;
+    }
+
+    /*
+     * If compareField(i, actual, expected) would only compare digit strings
+     * positionally (a number field, or a date whose actual value is also a
+     * date), adds those comparisons to the batch, to be added to the counts
+     * at the given index of the flat FormScores arrays, and returns true.
+     * Otherwise returns false and leaves the field to compareField. The checks
+     * below follow compareField and compareSingleResult.
+     */
+    private static boolean batchDigits(int i, String actual, String expected, DigitBatch batch, FormScores scores,
+            int slot) {
+        if (actual == null || expected == null || expected.equals("") || expected.equals("null")) {
+            return false;
+        }
+        if (i == 0) {
+            actual = padWithZeroes(actual);
+            expected = padWithZeroes(expected);
+        }
+        String trimmed = expected.trim();
+        if (trimmed.equals("") || trimmed.equals("null") || trimmed.equals("inconclusive")) {
+            return false;
+        }
+
+        if (isDate(expected)) {
+            if (!isDate(actual)) {
+                return false;
+            }
+            String[] actualDate = actual.split("/");
+            String[] expectedDate = expected.split("/");
+            for (int j = 0; j < actualDate.length; j++) {
+                String actualDateSection = actualDate[j];
+                String expectedDateSection = expectedDate[j];
+                if (j == 2) {
+                    if (actualDateSection.length() == 4) {
+                        actualDateSection = actualDateSection.substring(2);
+                    }
+                    if (expectedDateSection.length() == 4) {
+                        expectedDateSection = expectedDateSection.substring(2);
+                    }
+                }
+                addToBatch(batch, scores, actualDateSection, expectedDateSection, slot);
+            }
+            return true;
+        }
+
+        // Bubble fields and yes/no fields are not digit comparisons
+        if (i == 11 || i == 13 || !isNumber(expected) || actual.length() > DigitBatch.LANE_WIDTH
+                || expected.length() > DigitBatch.LANE_WIDTH) {
+            return false;
+        }
+        addToBatch(batch, scores, actual, expected, slot);
+        return true;
+    }
+
+    private static void addToBatch(DigitBatch batch, FormScores scores, String actual, String expected, int slot) {
+        if (batch.isFull()) {
+            batch.flush(scores.correctArray(), scores.totalArray());
+        }
+        batch.add(actual, expected, slot);
+    }
+
     /**
      * Compares the actual vs. expected results for a single form field.
      * 
@@ -317,6 +852,19 @@ public class AccuracyChecker {
      *         total number of digits in index 1
      */
     public static int[] compareSingleResult(String actual, String expected, String[][] bubbleOptions) {
+        return compareSingleResult(actual, expected, bubbleOptions, DIGIT_SCORING);
+    }
+
+    /**
+     * Same as compareSingleResult(actual, expected, bubbleOptions), but scores
+     * digit strings (numbers and dates) with the given mode. With
+     * DigitScoring.ALIGNED, the returned array for a digit string has three
+     * more entries: the number of substituted, inserted and deleted digits.
+     * The total number of digits is then the number of expected digits plus
+     * the number of inserted digits.
+     */
+    public static int[] compareSingleResult(String actual, String expected, String[][] bubbleOptions,
+            DigitScoring digitScoring) {
 
         // If either the expected or actual value of that field is null or
         // empty, ignore it
@@ -326,7 +874,7 @@ public class AccuracyChecker {
 
         // If the strings represent dates, process them
         if (isDate(expected)) {
-            return compareDateStrings(actual, expected);
+            return compareDateStrings(actual, expected, digitScoring);
         }
 
         // If it is a bubble field, Run through each bubble and determine if the
@@ -353,7 +901,7 @@ public class AccuracyChecker {
 
         // If it is a number field, compare it that way
         else if (isNumber(expected)) {
-            return compareNumberStrings(actual, expected);
+            return compareDigitStrings(actual, expected, digitScoring);
         }
 
         // Otherwise, assume that it is a "yes/no" field, so check for
@@ -384,10 +932,13 @@ public class AccuracyChecker {
      * containing the number of matching digits at index 0, and the total
      * number of digits at index 1. Note that non-digit characters are ignored.
      */
-    private static int[] compareDateStrings(String actual, String expected) {
+    private static int[] compareDateStrings(String actual, String expected, DigitScoring digitScoring) {
         String[] actualDate = actual.split("/");
         String[] expectedDate = expected.split("/");
-        int[] result = new int[2];
+        int[] result = new int[digitScoring == DigitScoring.ALIGNED ? 5 : 2];
+
+        // The aligned counts of each section, reused for every section
+        int[] sectionCounts = digitScoring == DigitScoring.ALIGNED ? new int[5] : null;
         if (isDate(actual)) {
             for (int j = 0; j < actualDate.length; j++) {
                 String actualDateSection = actualDate[j];
@@ -406,14 +957,83 @@ public class AccuracyChecker {
                     }
                 }
 
-                int[] comparison = compareNumberStrings(actualDateSection, expectedDateSection);
-                result[0] += comparison[0];
-                result[1] += comparison[1];
+                // When aligning, a missing leading zero (e.g. "5" vs. "05")
+                // would count as a deleted digit, so drop leading zeroes.
+                // (The positional comparison already ignores them.)
+                if (digitScoring == DigitScoring.ALIGNED) {
+                    actualDateSection = trimTrailingZeroes(actualDateSection);
+                    expectedDateSection = trimTrailingZeroes(expectedDateSection);
+                }
+
+                int[] comparison = digitScoring == DigitScoring.ALIGNED
+                        ? alignNumberStrings(actualDateSection, expectedDateSection, sectionCounts)
+                        : compareNumberStrings(actualDateSection, expectedDateSection);
+                for (int k = 0; k < comparison.length; k++) {
+                    result[k] += comparison[k];
+                }
             }
         }
         return result;
     }
 
+    /*
+     * Compares two numerical-digit strings with the given scoring mode.
+     */
+    private static int[] compareDigitStrings(String actual, String expected, DigitScoring digitScoring) {
+        if (digitScoring == DigitScoring.ALIGNED) {
+            return alignNumberStrings(actual, expected, new int[5]);
+        }
+        return compareNumberStrings(actual, expected);
+    }
+
+    /*
+     * Aligns two numerical-digit strings ("actual" and "expected") by edit
+     * distance, and returns an array which contains the number of aligned
+     * matching digits at index 0, the total number of digits (expected digits
+     * plus inserted digits) at index 1, and the number of substituted,
+     * inserted and deleted digits at indexes 2-4. As in compareNumberStrings,
+     * characters that are expected to be non-numeric (and non-space) are
+     * ignored. Falls back to the positional comparison (with no insertions or
+     * deletions) if the expected string is too long to align.
+     *
+     * The counts are written into (and returned in) the given array, which
+     * must have at least 5 entries, so aligning allocates nothing.
+     */
+    private static int[] alignNumberStrings(String actual, String expected, int[] counts) {
+        // A correctly read string needs neither the aligner nor the
+        // rearranging below
+        int exact = DigitAligner.exactMatches(actual, expected);
+        if (exact >= 0) {
+            counts[0] = exact;
+            counts[1] = exact;
+            counts[SUBSTITUTIONS] = 0;
+            counts[INSERTIONS] = 0;
+            counts[DELETIONS] = 0;
+            return counts;
+        }
+        if (!DigitAligner.get().align(actual, expected, counts)) {
+            int[] comparison = compareNumberStrings(actual, expected);
+            counts[0] = comparison[0];
+            counts[1] = comparison[1];
+            counts[SUBSTITUTIONS] = comparison[1] - comparison[0];
+            counts[INSERTIONS] = 0;
+            counts[DELETIONS] = 0;
+            return counts;
+        }
+
+        // Rearrange the aligner's counts into this method's layout
+        int matches = counts[DigitAligner.MATCHES];
+        int substitutions = counts[DigitAligner.SUBSTITUTIONS];
+        int insertions = counts[DigitAligner.INSERTIONS];
+        int deletions = counts[DigitAligner.DELETIONS];
+        counts[0] = matches;
+        counts[1] = matches + substitutions + insertions + deletions;
+        counts[SUBSTITUTIONS] = substitutions;
+        counts[INSERTIONS] = insertions;
+        counts[DELETIONS] = deletions;
+        return counts;
+    }
+
     /*
      * Compares two numerical-digit strings ("actual" and "expected") with each
      * other, and returns an array which contains the number of matching/correct
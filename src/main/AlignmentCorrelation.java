@@ -0,0 +1,284 @@
+package main;
+
+import java.util.*;
+
+/**
+ * Relates the alignment score of each form (see AlignmentScore) to how
+ * accurately Scan read it, in a single pass over the forms (add is called once
+ * per form, and no list of forms is kept):
+ *
+ * - Pearson correlation, computed online (Welford-style co-moments).
+ *
+ * - Spearman rank correlation (with tied values given their mid-rank),
+ * computed exactly from the number of forms with each distinct (alignment
+ * score, accuracy) pair. Alignment scores are averages of a few discrete
+ * ratings, and accuracies are ratios of small digit/bubble counts, so there
+ * are far fewer distinct pairs than forms; memory grows with the number of
+ * pairs.
+ *
+ * - A histogram of accuracies for each alignment score bucket.
+ *
+ * - The k forms with the lowest accuracy, kept in a bounded heap.
+ *
+ * (main itself reads the expected data and the Scan output into maps first,
+ * as AccuracyChecker does, so the tool as a whole needs memory for every
+ * form.)
+ */
+public class AlignmentCorrelation {
+    // Alignment scores range from 0 (no misalignment) to 10 (large)
+    private static final double MAX_ALIGNMENT = 10.0;
+
+    // Resolution of the printed accuracy histograms
+    private static final int ALIGNMENT_BUCKETS = 10;
+    private static final int ACCURACY_BUCKETS = 10;
+
+    private static final int DEFAULT_WORST_FORMS = 20;
+
+    /**
+     * A form with its accuracy and alignment score.
+     */
+    public static class FormAccuracy {
+        public final String clientId;
+        public final String folderName;
+        public final double accuracy;
+        public final double alignmentScore;
+
+        public FormAccuracy(String clientId, String folderName, double accuracy, double alignmentScore) {
+            this.clientId = clientId;
+            this.folderName = folderName;
+            this.accuracy = accuracy;
+            this.alignmentScore = alignmentScore;
+        }
+    }
+
+    // Online Pearson correlation
+    private long count;
+    private double meanAlignment;
+    private double meanAccuracy;
+    private double alignmentSquares;
+    private double accuracySquares;
+    private double coMoment;
+
+    // Number of forms with each (alignment score, accuracy) pair
+    private final Map<Double, Map<Double, Long>> pairCounts = new HashMap<Double, Map<Double, Long>>();
+
+    // Histogram
+    private final long[][] bucketHistogram = new long[ALIGNMENT_BUCKETS][ACCURACY_BUCKETS];
+
+    // The worst forms seen so far; the head is the best of them
+    private final int numWorst;
+    private final PriorityQueue<FormAccuracy> worst;
+
+    public AlignmentCorrelation(int numWorst) {
+        this.numWorst = numWorst;
+        this.worst = new PriorityQueue<FormAccuracy>(Math.max(1, numWorst), new Comparator<FormAccuracy>() {
+            public int compare(FormAccuracy a, FormAccuracy b) {
+                return Double.compare(b.accuracy, a.accuracy);
+            }
+        });
+    }
+
+    /**
+     * Runs the analysis.
+     *
+     * Command-line arguments:
+     *
+     * [0]: The path to the root of the folder containing the Scan output.
+     *
+     * [1] (optional): How many of the worst forms to list (default 20).
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Command-line arguments: <Root of scan output folder> [number of worst forms]");
+            System.exit(1);
+        }
+        int numWorst = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_WORST_FORMS;
+
+        Map<String, Double> alignmentScores = AlignmentScore.getAlignmentRatingFromExcel();
+        Map<String, List<String>> expectedData = ExcelParser.parseCorrectFile(AccuracyChecker.EXCEL_FILE,
+                AccuracyChecker.EXCEL_SHEETS, AccuracyChecker.EXCEL_DATA_COLUMNS);
+        Map<String, ScanOutput> actualOutput = JsonParser.crawlDirectories(args[0]);
+
+        AlignmentCorrelation correlation = new AlignmentCorrelation(numWorst);
+        for (Map.Entry<String, ScanOutput> entry : actualOutput.entrySet()) {
+            String clientId = entry.getKey();
+            Double alignmentScore = alignmentScores.get(clientId);
+            List<String> expectedResults = expectedData.get(clientId);
+            if (alignmentScore == null || alignmentScore.isNaN() || expectedResults == null) {
+                continue;
+            }
+
+            // Accuracy of this form over all of its fields
+            List<String> actualResults = entry.getValue().outputData;
+            int correct = 0;
+            int total = 0;
+            for (int i = 0; i < actualResults.size(); i++) {
+                int[] comparison = AccuracyChecker.compareField(i, actualResults.get(i), expectedResults.get(i));
+                if (comparison != null) {
+                    correct += comparison[0];
+                    total += comparison[1];
+                }
+            }
+            if (total > 0) {
+                correlation.add(new FormAccuracy(clientId, entry.getValue().folderName, correct * 1.0 / total,
+                        alignmentScore));
+            }
+        }
+        correlation.print();
+    }
+
+    /**
+     * Adds a form to the analysis.
+     */
+    public void add(FormAccuracy form) {
+        // (Adding 0.0 turns -0.0 into 0.0, which Double.equals would tell
+        // apart)
+        double x = form.alignmentScore + 0.0;
+        double y = form.accuracy + 0.0;
+
+        // Pearson
+        count++;
+        double dx = x - meanAlignment;
+        meanAlignment += dx / count;
+        double dy = y - meanAccuracy;
+        meanAccuracy += dy / count;
+        alignmentSquares += dx * (x - meanAlignment);
+        accuracySquares += dy * (y - meanAccuracy);
+        coMoment += dx * (y - meanAccuracy);
+
+        // Pair counts and histogram
+        Map<Double, Long> accuracyCounts = pairCounts.get(x);
+        if (accuracyCounts == null) {
+            accuracyCounts = new HashMap<Double, Long>();
+            pairCounts.put(x, accuracyCounts);
+        }
+        Long n = accuracyCounts.get(y);
+        accuracyCounts.put(y, n == null ? 1 : n + 1);
+        bucketHistogram[bucket(x / MAX_ALIGNMENT, ALIGNMENT_BUCKETS)][bucket(y, ACCURACY_BUCKETS)]++;
+
+        // Worst forms
+        if (worst.size() < numWorst) {
+            worst.add(form);
+        } else if (numWorst > 0 && form.accuracy < worst.peek().accuracy) {
+            worst.poll();
+            worst.add(form);
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the Pearson correlation between alignment score and accuracy.
+     */
+    public double pearson() {
+        return coMoment / Math.sqrt(alignmentSquares * accuracySquares);
+    }
+
+    /**
+     * Returns the Spearman rank correlation between alignment score and
+     * accuracy (see the class comment).
+     */
+    public double spearman() {
+        // Number of forms with each alignment score and each accuracy
+        Map<Double, Long> alignmentCounts = new TreeMap<Double, Long>();
+        Map<Double, Long> accuracyCounts = new TreeMap<Double, Long>();
+        for (Map.Entry<Double, Map<Double, Long>> row : pairCounts.entrySet()) {
+            for (Map.Entry<Double, Long> pair : row.getValue().entrySet()) {
+                addCount(alignmentCounts, row.getKey(), pair.getValue());
+                addCount(accuracyCounts, pair.getKey(), pair.getValue());
+            }
+        }
+        Map<Double, Double> alignmentRanks = midRanks(alignmentCounts);
+        Map<Double, Double> accuracyRanks = midRanks(accuracyCounts);
+
+        // Pearson correlation of the ranks, weighted by the pair counts
+        double meanRank = (count + 1) / 2.0;
+        double sxx = 0;
+        double syy = 0;
+        double sxy = 0;
+        for (Map.Entry<Double, Map<Double, Long>> row : pairCounts.entrySet()) {
+            double dx = alignmentRanks.get(row.getKey()) - meanRank;
+            for (Map.Entry<Double, Long> pair : row.getValue().entrySet()) {
+                long n = pair.getValue();
+                double dy = accuracyRanks.get(pair.getKey()) - meanRank;
+                sxx += n * dx * dx;
+                syy += n * dy * dy;
+                sxy += n * dx * dy;
+            }
+        }
+        return sxy / Math.sqrt(sxx * syy);
+    }
+
+    /**
+     * Returns the worst forms, from worst to best.
+     */
+    public List<FormAccuracy> getWorstForms() {
+        List<FormAccuracy> forms = new ArrayList<FormAccuracy>(worst);
+        Collections.sort(forms, Collections.reverseOrder(worst.comparator()));
+        return forms;
+    }
+
+    /**
+     * Prints the correlations, the accuracy histogram of each alignment bucket
+     * and the worst forms.
+     */
+    public void print() {
+        System.out.println();
+        System.out.println("Forms with an alignment score: " + count);
+        System.out.printf("Pearson correlation (alignment score vs. accuracy): %.4f\n", pearson());
+        System.out.printf("Spearman correlation (alignment score vs. accuracy): %.4f\n", spearman());
+
+        System.out.println();
+        StringBuilder header = new StringBuilder("Alignment score | forms | accuracy histogram (");
+        for (int b = 0; b < ACCURACY_BUCKETS; b++) {
+            header.append(b == 0 ? "" : " ").append(b * 100 / ACCURACY_BUCKETS).append('%');
+        }
+        System.out.println(header.append("+)"));
+        double bucketWidth = MAX_ALIGNMENT / ALIGNMENT_BUCKETS;
+        for (int a = 0; a < ALIGNMENT_BUCKETS; a++) {
+            long forms = 0;
+            StringBuilder line = new StringBuilder();
+            for (int b = 0; b < ACCURACY_BUCKETS; b++) {
+                forms += bucketHistogram[a][b];
+                line.append(' ').append(bucketHistogram[a][b]);
+            }
+            System.out.printf("%4.1f-%4.1f | %d |%s\n", a * bucketWidth, (a + 1) * bucketWidth, forms, line);
+        }
+
+        System.out.println();
+        System.out.println("Worst forms:");
+        for (FormAccuracy form : getWorstForms()) {
+            System.out.printf("%s (Output folder: %s): %.2f%% correct, alignment score %.2f\n", form.clientId,
+                    form.folderName, form.accuracy * 100, form.alignmentScore);
+        }
+    }
+
+    private static void addCount(Map<Double, Long> counts, double value, long n) {
+        Long sum = counts.get(value);
+        counts.put(value, sum == null ? n : sum + n);
+    }
+
+    /*
+     * Returns the average (1-based) rank of the forms with each value, given
+     * the number of forms with each value (in increasing order of value).
+     */
+    private static Map<Double, Double> midRanks(Map<Double, Long> counts) {
+        Map<Double, Double> ranks = new HashMap<Double, Double>();
+        long below = 0;
+        for (Map.Entry<Double, Long> entry : counts.entrySet()) {
+            ranks.put(entry.getKey(), below + (entry.getValue() + 1) / 2.0);
+            below += entry.getValue();
+        }
+        return ranks;
+    }
+
+    /*
+     * Maps a value in [0, 1] to one of "buckets" equal-width ranges (the last
+     * range includes 1).
+     */
+    private static int bucket(double fraction, int buckets) {
+        return Math.min((int) (Math.max(fraction, 0) * buckets), buckets - 1);
+    }
+}
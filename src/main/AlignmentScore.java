@@ -2,8 +2,6 @@ package main;
 
 import java.util.*;
 
-import org.apache.poi.xssf.usermodel.*;
-
 /**
  * Parses the Excel file's alignment evaluations to compute an "alignment score"
  * for each form. Higher scores indicate worse alignment.
@@ -23,8 +21,8 @@ public class AlignmentScore {
 
         // Create ID -> folder name map
         String relevantExamplesPath = "C:\\Users\\Joshua\\Downloads\\ScanPreAlignedImages\\relevant-training-examples\\";
-        Map<String, String> idToFolderName = new HashMap<String, String>();
-        FolderUtils.buildMap(relevantExamplesPath, idToFolderName, false);
+        Map<String, String> idToFolderName = FolderIndex
+                .open(FolderUtils.FOLDER_INDEX_FILE, Arrays.asList(relevantExamplesPath)).toFolderMap(false);
 
         // Produce a folder name -> alignment score tree map (sorted)
         Map<String, Double> folderNameToAlignmentScore = new TreeMap<String, Double>();
@@ -45,28 +43,33 @@ public class AlignmentScore {
         String file = "src/data/Master Excel_with column codes_a.xlsx";
         String[] sheets = { "#3" };
         try {
-            XSSFWorkbook wb = ExcelParser.readFile(file);
+            // Read the client ID column (at index 0) and the misalignment
+            // columns of every sheet, with the sheets being read concurrently
+            int[] columns = new int[MISALIGNMENT_COLUMNS.length + 1];
+            columns[0] = CLIENT_ID_COLUMN;
+            for (int i = 0; i < MISALIGNMENT_COLUMNS.length; i++) {
+                columns[i + 1] = ExcelParser.toIndex(MISALIGNMENT_COLUMNS[i]);
+            }
+            List<List<ConcurrentSheetReader.SheetRow>> sheetRows = ConcurrentSheetReader.readSheets(file, sheets,
+                    columns);
 
             // We don't want to include any IDs that appear in multiple rows, so
             // keep track of those
             Set<String> duplicateClientIds = new HashSet<String>();
 
-            // For each sheet, iterate through all rows except for the 0th row
-            for (String sheetName : sheets) {
-                XSSFSheet sheet = wb.getSheet(sheetName);
-
-                // Iterate through each data row
-                for (int r = 1; r < sheet.getPhysicalNumberOfRows(); r++) {
-                    XSSFRow row = sheet.getRow(r);
-                    if (row == null) {
-                        continue;
-                    }
+            // For each sheet (in order), go through all rows except for the 0th
+            // row
+            for (int s = 0; s < sheetRows.size(); s++) {
+                if (sheetRows.get(s) == null) {
+                    // Keep the scores of the sheets before the missing one
+                    throw ConcurrentSheetReader.noSuchSheet(file, sheets[s]);
+                }
+                for (ConcurrentSheetReader.SheetRow row : sheetRows.get(s)) {
 
                     // Get the correct client ID from the table for that row.
                     // Note that any trailing zeroes are trimmed from the Client
                     // ID.
-                    String clientId = AccuracyChecker
-                            .trimTrailingZeroes(ExcelParser.getStringCellContent(row.getCell(CLIENT_ID_COLUMN)));
+                    String clientId = AccuracyChecker.trimTrailingZeroes(row.values[0]);
 
                     // If this is a duplicate ID, we throw that ID out from the
                     // collected data
@@ -93,10 +96,8 @@ public class AlignmentScore {
                     // score based on the cell content.
                     int misalignmentScore = 0;
                     int count = 0; // number of columns with misalignment data
-                    for (String colLetters : MISALIGNMENT_COLUMNS) {
-                        int columnIndex = ExcelParser.toIndex(colLetters);
-                        XSSFCell cell = row.getCell(columnIndex);
-                        String value = ExcelParser.getStringCellContent(cell);
+                    for (int i = 1; i < row.values.length; i++) {
+                        String value = row.values[i];
                         if (value != null && !value.isEmpty()) {
                             value = value.trim();
                             if (value.equals("small")) {
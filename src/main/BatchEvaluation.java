@@ -0,0 +1,573 @@
+package main;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Evaluates several (form template, Excel file, Scan output root) jobs in one
+ * run, and prints a combined report. Every job is split into tasks (reading
+ * its Excel file, listing its output root, parsing its folders a chunk at a
+ * time, and comparing its forms a chunk at a time), and the tasks of all jobs
+ * run on one shared work-stealing pool, so that small jobs finish early and
+ * large jobs keep every core busy.
+ *
+ * Tasks are handed to the pool by a scheduler that takes one task from each
+ * job with work in turn (so a large job cannot starve the others), keeps
+ * twice as many tasks in flight as there are threads, and runs at most a
+ * given number of file-reading tasks at once (so that the jobs do not thrash
+ * the disk).
+ *
+ * As in ExcelParser, the client ID of each row is read from column P,
+ * whatever the template.
+ */
+public class BatchEvaluation {
+    private static final int DEFAULT_IO_LIMIT = 4;
+
+    // Folders parsed, and forms compared, by a single task
+    private static final int FOLDERS_PER_TASK = 128;
+    private static final int FORMS_PER_TASK = 1024;
+
+    /**
+     * One template, Excel file and output root to evaluate, and its results.
+     */
+    public static class Job {
+        public final FormTemplate template;
+        public final String workbook;
+        public final String scanOutputRoot;
+
+        private Map<String, List<String>> expected;
+        private List<Path> folders;
+
+        // The parsed forms of each chunk of folders (null for unreadable
+        // folders), and the client IDs found in them
+        private ScanOutput[][] chunkOutputs;
+        private String[][] chunkClientIds;
+        private Map<String, ScanOutput> actual;
+
+        private final int[] numCorrect;
+        private final int[] numTotal;
+        private int numCompared;
+        private int numErrors;
+
+        // The first exception thrown by a task of the job
+        private Throwable failure;
+
+        // Tasks of a phase that have not finished yet
+        private int pendingReads = 2;
+        private int pendingParses;
+        private int pendingCompares;
+
+        private final long startNanos = System.nanoTime();
+        private long readNanos;
+        private long crawlNanos;
+        private long compareStartNanos;
+        private long endNanos;
+
+        public Job(FormTemplate template, String workbook, String scanOutputRoot) {
+            this.template = template;
+            this.workbook = workbook;
+            this.scanOutputRoot = scanOutputRoot;
+            numCorrect = new int[template.getNumFields()];
+            numTotal = new int[template.getNumFields()];
+        }
+
+        public int[] getNumCorrect() {
+            return numCorrect;
+        }
+
+        public int[] getNumTotal() {
+            return numTotal;
+        }
+
+        /**
+         * Returns the number of forms found in both the Excel file and the
+         * output root.
+         */
+        public int getNumCompared() {
+            return numCompared;
+        }
+
+        /**
+         * Returns the number of folders that could not be read.
+         */
+        public int getNumErrors() {
+            return numErrors;
+        }
+
+        /**
+         * Returns the exception that stopped the job (e.g. a workbook that
+         * could not be read), or null if it ran to completion.
+         */
+        public synchronized Throwable getFailure() {
+            return failure;
+        }
+    }
+
+    /*
+     * A task of a job. I/O tasks count against the I/O limit.
+     *
+     * A task does its work in execute(), then, holding the job's lock, its
+     * bookkeeping in release(), even if execute() threw (in which case the
+     * exception is recorded on the job, and the job finishes without being
+     * compared once its pending tasks are done).
+     */
+    private static abstract class Task implements Runnable {
+        final Job job;
+        final boolean io;
+
+        Task(Job job, boolean io) {
+            this.job = job;
+            this.io = io;
+        }
+
+        abstract void execute() throws Exception;
+
+        abstract void release();
+
+        public final void run() {
+            try {
+                execute();
+            } catch (Exception | Error e) {
+                synchronized (job) {
+                    if (job.failure == null) {
+                        job.failure = e;
+                    }
+                }
+            } finally {
+                synchronized (job) {
+                    release();
+                }
+            }
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final int maxInFlight;
+    private final int ioLimit;
+    private final Progress progress = new Progress("Evaluating folders", 0);
+
+    // Pending tasks of each job, and the jobs with pending tasks in the order
+    // they take turns
+    private final Map<Job, Deque<Task>> queues = new HashMap<Job, Deque<Task>>();
+    private final Deque<Job> turns = new ArrayDeque<Job>();
+    private int inFlight;
+    private int ioInFlight;
+    private final CountDownLatch done;
+
+    private BatchEvaluation(int numJobs, int ioLimit) {
+        pool = new ForkJoinPool();
+        maxInFlight = 2 * pool.getParallelism();
+        this.ioLimit = ioLimit;
+        done = new CountDownLatch(numJobs);
+    }
+
+    /**
+     * Runs a batch of jobs.
+     *
+     * Command-line arguments:
+     *
+     * [0]: A jobs file, with one job per line: the template file (see
+     * FormTemplate.load, or "default" for the template of AccuracyChecker),
+     * the Excel (or CSV/TSV) file and the root of the Scan output folder,
+     * separated by tabs. Empty lines and lines starting with '#' are ignored.
+     *
+     * [1] (optional): The maximum number of tasks reading files at once
+     * (default 4).
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Command-line arguments: <jobs file> [max concurrent file readers]");
+            System.exit(1);
+        }
+        List<Job> jobs = new ArrayList<Job>();
+        try {
+            for (String line : Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\t");
+                if (parts.length != 3) {
+                    System.err.println("Expected template, Excel file and output root: " + line);
+                    System.exit(1);
+                }
+                FormTemplate template = parts[0].equals("default") ? FormTemplate.DEFAULT
+                        : FormTemplate.load(parts[0]);
+                jobs.add(new Job(template, parts[1], parts[2]));
+            }
+        } catch (IOException e) {
+            System.err.println(e);
+            System.exit(1);
+        }
+
+        Progress.reportTo(System.err);
+        Progress.cancelOnInterrupt();
+        try {
+            run(jobs, args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_IO_LIMIT);
+            printReport(jobs);
+        } finally {
+            Progress.finished();
+        }
+    }
+
+    /**
+     * Runs the given jobs to completion (or until the run is cancelled).
+     *
+     * @param ioLimit The maximum number of tasks reading files at once
+     */
+    public static void run(List<Job> jobs, int ioLimit) {
+        BatchEvaluation batch = new BatchEvaluation(jobs.size(), Math.max(1, ioLimit));
+        for (Job job : jobs) {
+            batch.submit(batch.new ReadWorkbook(job));
+            batch.submit(batch.new ListFolders(job));
+        }
+        try {
+            batch.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            batch.pool.shutdownNow();
+        }
+        batch.progress.finish();
+    }
+
+    /*
+     * Queues a task behind the other tasks of its job.
+     */
+    private synchronized void submit(Task task) {
+        Deque<Task> queue = queues.get(task.job);
+        if (queue == null) {
+            queue = new ArrayDeque<Task>();
+            queues.put(task.job, queue);
+        }
+        if (queue.isEmpty()) {
+            turns.addLast(task.job);
+        }
+        queue.addLast(task);
+        dispatch();
+    }
+
+    /*
+     * Hands tasks to the pool, taking turns between the jobs, while there is
+     * room in flight. A job whose next task reads files is passed over while
+     * the I/O limit is reached.
+     */
+    private synchronized void dispatch() {
+        int skipped = 0;
+        while (inFlight < maxInFlight && skipped < turns.size()) {
+            Job job = turns.pollFirst();
+            Deque<Task> queue = queues.get(job);
+            if (queue.peekFirst().io && ioInFlight >= ioLimit) {
+                turns.addLast(job);
+                skipped++;
+                continue;
+            }
+            final Task task = queue.pollFirst();
+            if (!queue.isEmpty()) {
+                turns.addLast(job);
+            }
+            skipped = 0;
+            inFlight++;
+            if (task.io) {
+                ioInFlight++;
+            }
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        finished(task);
+                    }
+                }
+            });
+        }
+    }
+
+    private synchronized void finished(Task task) {
+        inFlight--;
+        if (task.io) {
+            ioInFlight--;
+        }
+        dispatch();
+    }
+
+    /*
+     * Called (holding the job's lock) when one of its reading tasks has
+     * finished; once the Excel file and every folder have been read, merges
+     * the folders and queues the comparisons (or, if a task failed, finishes
+     * the job).
+     */
+    private void readFinished(Job job) {
+        if (job.pendingReads > 0 || job.pendingParses > 0) {
+            return;
+        }
+        job.crawlNanos = System.nanoTime() - job.startNanos;
+        if (job.failure != null) {
+            job.compareStartNanos = System.nanoTime();
+            jobFinished(job);
+            return;
+        }
+
+        // Merge the folders in name order, leaving out duplicate client IDs
+        // (as JsonParser.crawlDirectories does)
+        Set<String> duplicateClientIds = new HashSet<String>();
+        job.actual = new HashMap<String, ScanOutput>();
+        for (int c = 0; c < job.chunkOutputs.length; c++) {
+            for (int k = 0; k < job.chunkOutputs[c].length; k++) {
+                ScanOutput output = job.chunkOutputs[c][k];
+                String clientId = job.chunkClientIds[c][k];
+                if (output == null) {
+                    job.numErrors++;
+                } else if (job.actual.containsKey(clientId)) {
+                    job.actual.remove(clientId);
+                    duplicateClientIds.add(clientId);
+                } else if (!duplicateClientIds.contains(clientId)) {
+                    job.actual.put(clientId, output);
+                }
+            }
+        }
+        job.chunkOutputs = null;
+        job.chunkClientIds = null;
+
+        List<String> clientIds = new ArrayList<String>();
+        for (String clientId : job.expected.keySet()) {
+            if (job.actual.containsKey(clientId)) {
+                clientIds.add(clientId);
+            }
+        }
+        job.numCompared = clientIds.size();
+        job.compareStartNanos = System.nanoTime();
+        job.pendingCompares = (clientIds.size() + FORMS_PER_TASK - 1) / FORMS_PER_TASK;
+        if (job.pendingCompares == 0) {
+            jobFinished(job);
+        }
+        for (int start = 0; start < clientIds.size(); start += FORMS_PER_TASK) {
+            submit(new Compare(job, clientIds.subList(start, Math.min(start + FORMS_PER_TASK, clientIds.size()))));
+        }
+    }
+
+    private void jobFinished(Job job) {
+        job.endNanos = System.nanoTime();
+        done.countDown();
+    }
+
+    /*
+     * Reads the expected data of a job.
+     */
+    private class ReadWorkbook extends Task {
+        ReadWorkbook(Job job) {
+            super(job, true);
+        }
+
+        void execute() throws Exception {
+            // A workbook that cannot be read fails the job, rather than
+            // leaving it with no forms
+            Map<String, List<String>> expected = new HashMap<String, List<String>>();
+            if (!Progress.isCancelled()) {
+                ExcelParser.readCorrectFile(job.workbook, job.template.getSheets(), job.template.getDataColumns(),
+                        expected);
+            }
+            synchronized (job) {
+                job.expected = expected;
+            }
+        }
+
+        void release() {
+            job.readNanos = System.nanoTime() - job.startNanos;
+            job.pendingReads--;
+            readFinished(job);
+        }
+    }
+
+    /*
+     * Lists the folders of a job and queues their parsing.
+     */
+    private class ListFolders extends Task {
+        ListFolders(Job job) {
+            super(job, true);
+        }
+
+        void execute() {
+            List<Path> folders = new ArrayList<Path>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(job.scanOutputRoot))) {
+                for (Path entry : stream) {
+                    if (Files.isDirectory(entry)) {
+                        folders.add(entry);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+            Collections.sort(folders);
+            progress.addToTotal(folders.size());
+
+            int numChunks = (folders.size() + FOLDERS_PER_TASK - 1) / FOLDERS_PER_TASK;
+            synchronized (job) {
+                job.folders = folders;
+                job.chunkOutputs = new ScanOutput[numChunks][];
+                job.chunkClientIds = new String[numChunks][];
+                job.pendingParses = numChunks;
+            }
+            for (int c = 0; c < numChunks; c++) {
+                submit(new ParseFolders(job, c));
+            }
+        }
+
+        void release() {
+            job.pendingReads--;
+            readFinished(job);
+        }
+    }
+
+    /*
+     * Parses one chunk of the folders of a job.
+     */
+    private class ParseFolders extends Task {
+        private final int chunk;
+
+        ParseFolders(Job job, int chunk) {
+            super(job, true);
+            this.chunk = chunk;
+        }
+
+        void execute() {
+            List<Path> folders = job.folders.subList(chunk * FOLDERS_PER_TASK,
+                    Math.min((chunk + 1) * FOLDERS_PER_TASK, job.folders.size()));
+            ScanOutput[] outputs = new ScanOutput[folders.size()];
+            String[] clientIds = new String[folders.size()];
+            for (int k = 0; k < folders.size() && !Progress.isCancelled(); k++) {
+                Path folder = folders.get(k);
+                try (Reader reader = Files.newBufferedReader(folder.resolve("output.json"),
+                        StandardCharsets.UTF_8)) {
+                    clientIds[k] = JsonParser.readClientId(folder);
+                    outputs[k] = new ScanOutput(JsonParser.parseActualJsonAt(reader, job.template.getJsonIndexes()),
+                            folder.getFileName().toString());
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Could not read " + folder + ": " + e);
+                }
+                progress.advance();
+            }
+            synchronized (job) {
+                job.chunkOutputs[chunk] = outputs;
+                job.chunkClientIds[chunk] = clientIds;
+            }
+        }
+
+        void release() {
+            job.pendingParses--;
+            readFinished(job);
+        }
+    }
+
+    /*
+     * Compares one chunk of the forms of a job.
+     */
+    private class Compare extends Task {
+        private final List<String> clientIds;
+
+        Compare(Job job, List<String> clientIds) {
+            super(job, false);
+            this.clientIds = clientIds;
+        }
+
+        void execute() {
+            int numFields = job.template.getNumFields();
+            int[] correct = new int[numFields];
+            int[] total = new int[numFields];
+            for (String clientId : clientIds) {
+                if (Progress.isCancelled()) {
+                    break;
+                }
+                List<String> actualValues = job.actual.get(clientId).outputData;
+                List<String> expectedValues = job.expected.get(clientId);
+                for (int i = 0; i < numFields; i++) {
+                    int[] comparison = job.template.compareField(i, actualValues.get(i), expectedValues.get(i));
+                    if (comparison != null) {
+                        correct[i] += comparison[0];
+                        total[i] += comparison[1];
+                    }
+                }
+            }
+            synchronized (job) {
+                for (int i = 0; i < numFields; i++) {
+                    job.numCorrect[i] += correct[i];
+                    job.numTotal[i] += total[i];
+                }
+            }
+        }
+
+        void release() {
+            if (--job.pendingCompares == 0) {
+                jobFinished(job);
+            }
+        }
+    }
+
+    /**
+     * Prints the results of each job (in the layout of
+     * AccuracyChecker.printResults), then a summary line per job and the
+     * bubble and digit accuracy over all jobs.
+     */
+    public static void printReport(List<Job> jobs) {
+        long allBubbleCorrect = 0;
+        long allBubbleTotal = 0;
+        long allDigitCorrect = 0;
+        long allDigitTotal = 0;
+        StringBuilder summary = new StringBuilder();
+        for (int j = 0; j < jobs.size(); j++) {
+            Job job = jobs.get(j);
+            FormTemplate template = job.template;
+            System.out.println();
+            System.out.println("Job " + (j + 1) + ": template " + template.getName() + ", " + job.workbook + ", "
+                    + job.scanOutputRoot);
+            boolean failed = job.getFailure() != null;
+            if (failed) {
+                System.out.println("FAILED: " + job.getFailure());
+            }
+            long bubbleCorrect = 0;
+            long bubbleTotal = 0;
+            long digitCorrect = 0;
+            long digitTotal = 0;
+            for (int i = 0; i < template.getNumFields(); i++) {
+                String type = template.isBubble(i) ? "bubble" : "digit";
+                System.out.println("Field " + i + " (" + template.getFieldName(i) + ": " + type + "): "
+                        + job.numCorrect[i] + "/" + job.numTotal[i] + " correct ("
+                        + percentage(job.numCorrect[i], failed ? 0 : job.numTotal[i]) + ")");
+                if (template.isBubble(i)) {
+                    bubbleCorrect += job.numCorrect[i];
+                    bubbleTotal += job.numTotal[i];
+                } else {
+                    digitCorrect += job.numCorrect[i];
+                    digitTotal += job.numTotal[i];
+                }
+            }
+            allBubbleCorrect += bubbleCorrect;
+            allBubbleTotal += bubbleTotal;
+            allDigitCorrect += digitCorrect;
+            allDigitTotal += digitTotal;
+            summary.append(String.format("%d\t%s\t%d\t%d\t%s\t%s\t%.1f\t%.1f\t%.1f\t%.1f\n", j + 1,
+                    template.getName(), job.numCompared, job.numErrors,
+                    percentage(bubbleCorrect, failed ? 0 : bubbleTotal),
+                    percentage(digitCorrect, failed ? 0 : digitTotal), job.readNanos / 1e9, job.crawlNanos / 1e9,
+                    (job.endNanos - job.compareStartNanos) / 1e9, (job.endNanos - job.startNanos) / 1e9));
+        }
+
+        System.out.println();
+        System.out.println("Job\tTemplate\tForms\tErrors\tBubble\tDigit\tRead (s)\tCrawl (s)\tCompare (s)\tTotal (s)");
+        System.out.print(summary);
+        System.out.println();
+        System.out.println("ALL JOBS BUBBLE FIELDS: " + allBubbleCorrect + "/" + allBubbleTotal + " correct ("
+                + percentage(allBubbleCorrect, allBubbleTotal) + ")");
+        System.out.println("ALL JOBS DIGIT FIELDS: " + allDigitCorrect + "/" + allDigitTotal + " correct ("
+                + percentage(allDigitCorrect, allDigitTotal) + ")");
+    }
+
+    /*
+     * Formats an accuracy, or "n/a" if there was nothing to score.
+     */
+    private static String percentage(long correct, long total) {
+        return total == 0 ? "n/a" : String.format("%.2f%%", correct * 100.0 / total);
+    }
+}
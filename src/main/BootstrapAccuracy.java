@@ -0,0 +1,239 @@
+package main;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Estimates how uncertain the accuracy percentages printed by AccuracyChecker
+ * are, by bootstrapping: the scored forms are resampled with replacement many
+ * times, and the spread of the accuracy over those replicates gives a
+ * percentile confidence interval for each field, as well as for the combined
+ * bubble and digit accuracy.
+ *
+ * The replicates are split across a fork-join pool. Each task draws its
+ * samples from its own SplittableRandom (split off from the seeded root
+ * generator before the task is forked), so the result only depends on the
+ * seed, not on how the work was scheduled.
+ */
+public class BootstrapAccuracy {
+    private static final int DEFAULT_REPLICATES = 10000;
+    private static final double DEFAULT_CONFIDENCE = 0.95;
+
+    // Replicates computed sequentially by a single task
+    private static final int REPLICATES_PER_TASK = 64;
+
+    /**
+     * Runs the bootstrap.
+     *
+     * Command-line arguments:
+     *
+     * [0]: The path to the root of the folder containing the Scan output.
+     *
+     * [1] (optional): The number of bootstrap replicates (default 10000).
+     *
+     * [2] (optional): The seed of the random number generator.
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 3) {
+            System.out.println("Command-line arguments: <Root of scan output folder> [replicates] [seed]");
+            System.exit(1);
+        }
+        int replicates = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_REPLICATES;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : System.nanoTime();
+
+        Map<String, List<String>> expectedData = ExcelParser.parseCorrectFile(AccuracyChecker.EXCEL_FILE,
+                AccuracyChecker.EXCEL_SHEETS, AccuracyChecker.EXCEL_DATA_COLUMNS);
+        Map<String, ScanOutput> actualOutput = JsonParser.crawlDirectories(args[0]);
+        FormScores scores = AccuracyChecker.scoreForms(actualOutput, expectedData);
+
+        double[][] intervals = confidenceIntervals(scores, AccuracyChecker.IS_BUBBLE, replicates, DEFAULT_CONFIDENCE,
+                seed);
+        printIntervals(scores, intervals, replicates, DEFAULT_CONFIDENCE);
+    }
+
+    /**
+     * Computes percentile bootstrap confidence intervals for the accuracy of
+     * each field, followed by the combined bubble accuracy and the combined
+     * digit accuracy.
+     *
+     * @param scores The per-form scores to resample
+     * @param isBubble Whether each field is a bubble field
+     * @param replicates The number of bootstrap replicates
+     * @param confidence The confidence level (e.g. 0.95)
+     * @param seed The seed of the random number generator
+     * @return An array with one entry per field plus two (bubble, digit). Each
+     *         entry holds the lower and upper bound of the interval as a
+     *         percentage, or NaN if no replicate had any data for it.
+     */
+    public static double[][] confidenceIntervals(FormScores scores, boolean[] isBubble, int replicates,
+            double confidence, long seed) {
+        return confidenceIntervals(scores, isBubble, replicates, confidence, seed, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Same as confidenceIntervals(scores, isBubble, replicates, confidence,
+     * seed), but computes the replicates in the given pool (which does not
+     * change the result).
+     */
+    public static double[][] confidenceIntervals(FormScores scores, boolean[] isBubble, int replicates,
+            double confidence, long seed, ForkJoinPool pool) {
+        int numMetrics = scores.getNumFields() + 2;
+
+        // accuracies[m][r] is the accuracy of metric m in replicate r
+        double[][] accuracies = new double[numMetrics][replicates];
+        pool.invoke(new ReplicateTask(scores, isBubble, accuracies, 0, replicates, new SplittableRandom(seed)));
+
+        double[][] intervals = new double[numMetrics][];
+        double tail = (1 - confidence) / 2;
+        for (int m = 0; m < numMetrics; m++) {
+            intervals[m] = percentileInterval(accuracies[m], tail);
+        }
+        return intervals;
+    }
+
+    /*
+     * Sorts the replicate accuracies and returns the values at the given lower
+     * and upper tail fractions, ignoring replicates without any data (NaN).
+     */
+    private static double[] percentileInterval(double[] values, double tail) {
+        Arrays.sort(values);
+        int n = values.length;
+        while (n > 0 && Double.isNaN(values[n - 1])) {
+            n--;
+        }
+        if (n == 0) {
+            return new double[] { Double.NaN, Double.NaN };
+        }
+        int lower = (int) Math.floor(tail * (n - 1));
+        int upper = (int) Math.ceil((1 - tail) * (n - 1));
+        return new double[] { values[lower], values[upper] };
+    }
+
+    /*
+     * Prints the point estimate and interval of each metric, in the same
+     * layout as AccuracyChecker.printResults.
+     */
+    private static void printIntervals(FormScores scores, double[][] intervals, int replicates, double confidence) {
+        int numFields = scores.getNumFields();
+        int[] numCorrect = new int[numFields];
+        int[] numTotal = new int[numFields];
+        scores.sumFields(numCorrect, numTotal);
+
+        System.out.println();
+        System.out.printf("Bootstrap results: %d forms, %d replicates, %.0f%% confidence intervals\n",
+                scores.getNumForms(), replicates, confidence * 100);
+        int bubbleCorrect = 0;
+        int bubbleTotal = 0;
+        int digitCorrect = 0;
+        int digitTotal = 0;
+        for (int i = 0; i < numFields; i++) {
+            String type = AccuracyChecker.IS_BUBBLE[i] ? "bubble" : "digit";
+            System.out.printf("Field " + i + " (" + AccuracyChecker.COLUMN_NAMES[i] + ": " + type
+                    + "): %.2f%% [%.2f%%, %.2f%%]\n", numCorrect[i] * 100.0 / numTotal[i], intervals[i][0],
+                    intervals[i][1]);
+            if (AccuracyChecker.IS_BUBBLE[i]) {
+                bubbleCorrect += numCorrect[i];
+                bubbleTotal += numTotal[i];
+            } else {
+                digitCorrect += numCorrect[i];
+                digitTotal += numTotal[i];
+            }
+        }
+        System.out.println();
+        System.out.printf("BUBBLE FIELDS: %.2f%% [%.2f%%, %.2f%%]\n", bubbleCorrect * 100.0 / bubbleTotal,
+                intervals[numFields][0], intervals[numFields][1]);
+        System.out.printf("DIGIT FIELDS: %.2f%% [%.2f%%, %.2f%%]\n", digitCorrect * 100.0 / digitTotal,
+                intervals[numFields + 1][0], intervals[numFields + 1][1]);
+    }
+
+    /*
+     * Computes the replicates in [from, to), splitting the range in half until
+     * it is small enough to compute directly.
+     */
+    private static class ReplicateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FormScores scores;
+        private final boolean[] isBubble;
+        private final double[][] accuracies;
+        private final int from;
+        private final int to;
+        private final SplittableRandom random;
+
+        ReplicateTask(FormScores scores, boolean[] isBubble, double[][] accuracies, int from, int to,
+                SplittableRandom random) {
+            this.scores = scores;
+            this.isBubble = isBubble;
+            this.accuracies = accuracies;
+            this.from = from;
+            this.to = to;
+            this.random = random;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > REPLICATES_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ReplicateTask(scores, isBubble, accuracies, from, mid, random.split()),
+                        new ReplicateTask(scores, isBubble, accuracies, mid, to, random.split()));
+                return;
+            }
+
+            int numForms = scores.getNumForms();
+            int numFields = scores.getNumFields();
+            int[] correct = scores.correctArray();
+            int[] total = scores.totalArray();
+            long[] sampleCorrect = new long[numFields];
+            long[] sampleTotal = new long[numFields];
+
+            // How many times each form was drawn in the current replicate
+            int[] draws = new int[numForms];
+
+            for (int r = from; r < to; r++) {
+                Arrays.fill(sampleCorrect, 0);
+                Arrays.fill(sampleTotal, 0);
+                Arrays.fill(draws, 0);
+
+                // Draw numForms forms with replacement. Counting the draws
+                // first and then walking the forms in order is much faster
+                // than summing each drawn form directly, since the (large)
+                // score arrays are then read sequentially.
+                for (int n = 0; n < numForms; n++) {
+                    draws[random.nextInt(numForms)]++;
+                }
+                for (int f = 0; f < numForms; f++) {
+                    int weight = draws[f];
+                    if (weight == 0) {
+                        continue;
+                    }
+                    int base = f * numFields;
+                    for (int i = 0; i < numFields; i++) {
+                        sampleCorrect[i] += weight * correct[base + i];
+                        sampleTotal[i] += weight * total[base + i];
+                    }
+                }
+
+                long bubbleCorrect = 0;
+                long bubbleTotal = 0;
+                long digitCorrect = 0;
+                long digitTotal = 0;
+                for (int i = 0; i < numFields; i++) {
+                    accuracies[i][r] = percentage(sampleCorrect[i], sampleTotal[i]);
+                    if (isBubble[i]) {
+                        bubbleCorrect += sampleCorrect[i];
+                        bubbleTotal += sampleTotal[i];
+                    } else {
+                        digitCorrect += sampleCorrect[i];
+                        digitTotal += sampleTotal[i];
+                    }
+                }
+                accuracies[numFields][r] = percentage(bubbleCorrect, bubbleTotal);
+                accuracies[numFields + 1][r] = percentage(digitCorrect, digitTotal);
+            }
+        }
+
+        private static double percentage(long correct, long total) {
+            return total == 0 ? Double.NaN : correct * 100.0 / total;
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package main;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.xml.parsers.*;
+
+import org.apache.poi.openxml4j.opc.*;
+import org.apache.poi.xssf.eventusermodel.*;
+import org.xml.sax.*;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Reads selected columns from several sheets of an Excel (.xlsx) file at the
+ * same time, one worker per sheet. Instead of loading the whole workbook into
+ * memory (as XSSFWorkbook does), each worker streams its sheet's XML with a
+ * SAX parser. The shared-strings table is read once, up front, and then only
+ * read from by the workers.
+ *
+ * Cell contents are converted to Strings the same way as
+ * ExcelParser.getStringCellContent: the formula of a formula cell, the integer
+ * part of a numeric cell, the text of a string cell, null for blank, boolean
+ * and error cells, and "" for cells that are not present in the row. As with
+ * XSSFSheet.getPhysicalNumberOfRows, only rows whose index is less than the
+ * number of rows physically present in the sheet are returned.
+ */
+public class ConcurrentSheetReader {
+    private static final String RELATIONSHIPS_NAMESPACE =
+            "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+    /**
+     * A data row of a sheet.
+     */
+    public static class SheetRow {
+        // The zero-based index of the row within its sheet
+        public final int rowIndex;
+
+        // The content of each requested column, in the requested order
+        public final String[] values;
+
+        SheetRow(int rowIndex, String[] values) {
+            this.rowIndex = rowIndex;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Receives rows as they are read, for callers that do not want to hold a
+     * whole sheet in memory.
+     */
+    public interface RowHandler {
+        /**
+         * Called for each data row, in row order.
+         *
+         * @param sheet The position of the row's sheet in "sheets"
+         */
+        void handleRow(int sheet, SheetRow row) throws IOException;
+    }
+
+    /**
+     * Reads the given columns from every row (except the 0th row) of each of
+     * the given sheets.
+     *
+     * @param file The Excel file to read
+     * @param sheets The names of the sheets to read
+     * @param columns The zero-based indexes of the columns to read
+     * @return The rows of each sheet (in row order), in the same order as
+     *         "sheets". If a sheet does not exist, the list ends with null in
+     *         its place and the sheets after it are not read, so that the
+     *         caller can still use the sheets before it.
+     */
+    public static List<List<SheetRow>> readSheets(String file, String[] sheets, int[] columns) throws Exception {
+        return readSheets(file, sheets, columns, null);
+    }
+
+    /**
+     * Same as readSheets(file, sheets, columns), but advances the given
+     * progress (if not null) for every data row read, adding the number of
+     * rows each sheet declares to its total. If the run is cancelled (see
+     * Progress), reading stops early and only the rows read so far are
+     * returned.
+     */
+    public static List<List<SheetRow>> readSheets(final String file, String[] sheets, final int[] columns,
+            final Progress progress) throws Exception {
+        final ReadOnlySharedStringsTable sharedStrings = readSharedStrings(file);
+        String[] relationIds = findSheets(file, sheets);
+        int numSheets = 0;
+        while (numSheets < relationIds.length && relationIds[numSheets] != null) {
+            numSheets++;
+        }
+
+        ExecutorService pool = Executors
+                .newFixedThreadPool(Math.max(1, Math.min(sheets.length, Runtime.getRuntime().availableProcessors())));
+        try {
+            List<Future<List<SheetRow>>> workers = new ArrayList<Future<List<SheetRow>>>();
+            for (int s = 0; s < numSheets; s++) {
+                final String relationId = relationIds[s];
+                workers.add(pool.submit(new Callable<List<SheetRow>>() {
+                    public List<SheetRow> call() throws Exception {
+                        SheetHandler handler = new SheetHandler(sharedStrings, columns, progress, null, 0);
+                        readSheet(file, relationId, handler);
+                        return handler.getRows();
+                    }
+                }));
+            }
+
+            List<List<SheetRow>> result = new ArrayList<List<SheetRow>>();
+            for (Future<List<SheetRow>> worker : workers) {
+                try {
+                    result.add(worker.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : e;
+                }
+            }
+            if (numSheets < relationIds.length) {
+                result.add(null);
+            }
+            return result;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Same as readSheets(file, sheets, columns, progress), but passes each row
+     * to the given handler as soon as it is read, instead of returning them.
+     * The sheets are read one after another on the calling thread, so only a
+     * few rows are in memory at any time and the handler need not be
+     * thread-safe.
+     *
+     * @throws IllegalArgumentException if one of the sheets does not exist
+     *         (after the rows of the sheets before it have been handled)
+     */
+    public static void readSheets(String file, String[] sheets, int[] columns, Progress progress,
+            RowHandler handler) throws Exception {
+        ReadOnlySharedStringsTable sharedStrings = readSharedStrings(file);
+        String[] relationIds = findSheets(file, sheets);
+        for (int s = 0; s < relationIds.length; s++) {
+            if (relationIds[s] == null) {
+                throw noSuchSheet(file, sheets[s]);
+            }
+            readSheet(file, relationIds[s], new SheetHandler(sharedStrings, columns, progress, handler, s));
+        }
+    }
+
+    private static ReadOnlySharedStringsTable readSharedStrings(String file) throws Exception {
+        OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ);
+        try {
+            return new ReadOnlySharedStringsTable(pkg);
+        } finally {
+            pkg.revert();
+        }
+    }
+
+    /*
+     * Returns the relationship id of each of the given sheets, or null for a
+     * sheet that does not exist.
+     */
+    private static String[] findSheets(String file, String[] sheets) throws Exception {
+        OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ);
+        Map<String, String> sheetRelationIds;
+        try (InputStream workbook = new XSSFReader(pkg).getWorkbookData()) {
+            sheetRelationIds = readSheetRelationIds(workbook);
+        } finally {
+            pkg.revert();
+        }
+        String[] relationIds = new String[sheets.length];
+        for (int s = 0; s < sheets.length; s++) {
+            relationIds[s] = sheetRelationIds.get(sheets[s]);
+        }
+        return relationIds;
+    }
+
+    static IllegalArgumentException noSuchSheet(String file, String sheet) {
+        return new IllegalArgumentException("There is no sheet named " + sheet + " in " + file);
+    }
+
+    /*
+     * Reads one sheet. Each worker opens its own view of the package, since
+     * package parts are not safe to read from several threads.
+     */
+    private static void readSheet(String file, String relationId, SheetHandler handler) throws Exception {
+        OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ);
+        try (InputStream sheet = new XSSFReader(pkg).getSheet(relationId)) {
+            newParser().parse(new InputSource(sheet), handler);
+        } catch (CancellationException e) {
+            // Keep the rows read so far
+        } catch (SAXException e) {
+            // An exception thrown by the RowHandler
+            if (e.getException() instanceof IOException) {
+                throw e.getException();
+            }
+            throw e;
+        } finally {
+            pkg.revert();
+        }
+    }
+
+    /*
+     * Reads the sheet name -> relationship id mapping from workbook.xml.
+     */
+    private static Map<String, String> readSheetRelationIds(InputStream workbook) throws Exception {
+        final Map<String, String> ids = new HashMap<String, String>();
+        newParser().parse(new InputSource(workbook), new DefaultHandler() {
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                if (localName.equals("sheet")) {
+                    ids.put(attributes.getValue("name"), attributes.getValue(RELATIONSHIPS_NAMESPACE, "id"));
+                }
+            }
+        });
+        return ids;
+    }
+
+    private static SAXParser newParser() throws Exception {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newSAXParser();
+    }
+
+    /**
+     * Converts an Excel cell reference (e.g. "BD12") to the zero-based index
+     * of its column.
+     */
+    static int columnOf(String cellReference) {
+        int total = 0;
+        for (int i = 0; i < cellReference.length(); i++) {
+            char letter = cellReference.charAt(i);
+            if (letter < 'A' || letter > 'Z') {
+                break;
+            }
+            total = total * 26 + (letter - 'A' + 1);
+        }
+        return total - 1;
+    }
+
+    /*
+     * Collects the requested columns of each row of a sheet, or passes them to
+     * a RowHandler.
+     */
+    private static class SheetHandler extends DefaultHandler {
+        private final ReadOnlySharedStringsTable sharedStrings;
+        private final int[] columns;
+        private final Progress progress;
+
+        // slots[c] lists the positions in "columns" that request column c
+        private final int[][] slots;
+
+        private final RowHandler rowHandler;
+        private final int sheet;
+
+        // Rows that have been read but not yet returned (or handled), since
+        // there may not be as many rows present as their index says
+        private final ArrayDeque<SheetRow> pending = new ArrayDeque<SheetRow>();
+        private final List<SheetRow> rows = new ArrayList<SheetRow>();
+        private int physicalRows;
+
+        // State of the current row and cell
+        private String[] rowValues;
+        private int rowIndex = -1;
+        private int columnIndex;
+        private String cellType;
+        private boolean cellWanted;
+        private boolean hasFormula;
+        private boolean hasValue;
+        private final StringBuilder value = new StringBuilder();
+        private final StringBuilder formula = new StringBuilder();
+        private StringBuilder text;
+
+        SheetHandler(ReadOnlySharedStringsTable sharedStrings, int[] columns, Progress progress,
+                RowHandler rowHandler, int sheet) {
+            this.sharedStrings = sharedStrings;
+            this.columns = columns;
+            this.progress = progress;
+            this.rowHandler = rowHandler;
+            this.sheet = sheet;
+            int maxColumn = 0;
+            for (int column : columns) {
+                maxColumn = Math.max(maxColumn, column);
+            }
+            List<List<Integer>> slotLists = new ArrayList<List<Integer>>();
+            for (int c = 0; c <= maxColumn; c++) {
+                slotLists.add(new ArrayList<Integer>());
+            }
+            for (int k = 0; k < columns.length; k++) {
+                slotLists.get(columns[k]).add(k);
+            }
+            slots = new int[maxColumn + 1][];
+            for (int c = 0; c <= maxColumn; c++) {
+                slots[c] = new int[slotLists.get(c).size()];
+                for (int k = 0; k < slots[c].length; k++) {
+                    slots[c][k] = slotLists.get(c).get(k);
+                }
+            }
+        }
+
+        List<SheetRow> getRows() {
+            return rows;
+        }
+
+        /*
+         * Like XSSFSheet.getPhysicalNumberOfRows, only rows whose index is
+         * below the number of rows that are present are returned. The number
+         * of rows only grows while reading, so a row can be returned as soon
+         * as the rows read so far outnumber its index.
+         */
+        private void releaseRows() throws SAXException {
+            while (!pending.isEmpty() && pending.peekFirst().rowIndex < physicalRows) {
+                SheetRow row = pending.removeFirst();
+                if (rowHandler == null) {
+                    rows.add(row);
+                } else {
+                    try {
+                        rowHandler.handleRow(sheet, row);
+                    } catch (IOException e) {
+                        throw new SAXException(e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if (localName.equals("dimension") && progress != null) {
+                // The used range, e.g. "A1:BZ500"; every row but the 0th is
+                // a data row
+                String ref = attributes.getValue("ref");
+                int colon = ref == null ? -1 : ref.indexOf(':');
+                if (colon >= 0) {
+                    String lastCell = ref.substring(colon + 1);
+                    int firstDigit = 0;
+                    while (firstDigit < lastCell.length() && Character.isLetter(lastCell.charAt(firstDigit))) {
+                        firstDigit++;
+                    }
+                    progress.addToTotal(Math.max(0, Integer.parseInt(lastCell.substring(firstDigit)) - 1));
+                }
+            } else if (localName.equals("row")) {
+                if (Progress.isCancelled()) {
+                    throw new CancellationException("Cancelled while reading the sheet");
+                }
+                String r = attributes.getValue("r");
+                rowIndex = r != null ? Integer.parseInt(r) - 1 : rowIndex + 1;
+                physicalRows++;
+                columnIndex = -1;
+                rowValues = new String[columns.length];
+                Arrays.fill(rowValues, "");
+            } else if (localName.equals("c")) {
+                String r = attributes.getValue("r");
+                columnIndex = r != null ? columnOf(r) : columnIndex + 1;
+                cellWanted = columnIndex < slots.length && slots[columnIndex].length > 0;
+                cellType = attributes.getValue("t");
+                hasFormula = false;
+                hasValue = false;
+                value.setLength(0);
+                formula.setLength(0);
+            } else if (cellWanted && localName.equals("v")) {
+                hasValue = true;
+                text = value;
+            } else if (cellWanted && localName.equals("f")) {
+                hasFormula = true;
+                text = formula;
+            } else if (cellWanted && localName.equals("t")) {
+                // Text of an inline string
+                hasValue = true;
+                text = value;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (text != null) {
+                text.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if (localName.equals("v") || localName.equals("f") || localName.equals("t")) {
+                text = null;
+            } else if (localName.equals("c") && cellWanted) {
+                String content = cellContent();
+                for (int slot : slots[columnIndex]) {
+                    rowValues[slot] = content;
+                }
+            } else if (localName.equals("row")) {
+                if (rowIndex >= 1) {
+                    pending.addLast(new SheetRow(rowIndex, rowValues));
+                    if (progress != null) {
+                        progress.advance();
+                    }
+                }
+                releaseRows();
+            }
+        }
+
+        /*
+         * Converts the current cell to a String, like
+         * ExcelParser.getStringCellContent.
+         */
+        private String cellContent() {
+            if (hasFormula) {
+                return formula.toString();
+            }
+            if (cellType == null || cellType.equals("n")) {
+                return hasValue ? String.valueOf((int) Double.parseDouble(value.toString())) : null;
+            }
+            if (cellType.equals("s")) {
+                return sharedStrings.getEntryAt(Integer.parseInt(value.toString()));
+            }
+            if (cellType.equals("inlineStr") || cellType.equals("str")) {
+                return value.toString();
+            }
+            // Boolean and error cells
+            return null;
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package main;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Reads the expected data from a CSV (comma-separated) or TSV (tab-separated)
+ * export of the master sheet, as an alternative to the Excel file. Columns
+ * are named by their Excel letters, as with ExcelParser, and the result is the
+ * same Map, with the same client ID trimming and duplicate exclusion.
+ *
+ * The file is memory-mapped and tokenized in place: only the requested columns
+ * of each row are turned into Strings. Large files are split into chunks
+ * that start at line boundaries, and the chunks are parsed in parallel and
+ * merged in file order. A chunk is parsed as if it started outside quotes;
+ * when the quotes before a chunk turn out to be unbalanced (its first line
+ * break was inside a quoted, multi-line value), the chunks around that
+ * boundary are parsed again as one.
+ *
+ * The first line is a header and is skipped (like the 0th row of a sheet), as
+ * are empty lines. Values may be quoted ("a, b" or "say ""yes"""), and quoted
+ * values may span several lines (as Excel writes cells with line breaks).
+ * Values are taken as they are
+ * written, so cells that Excel stores as numbers should be exported as whole
+ * numbers (as ExcelParser reads only their integer part).
+ */
+public class CsvParser {
+    // Chunks are at most this large, so that each one can be mapped
+    private static final long MAX_CHUNK_BYTES = 1L << 28;
+
+    // Files smaller than this are not worth splitting
+    private static final long MIN_CHUNK_BYTES = 1L << 20;
+
+    /**
+     * Returns whether the given file should be read with this class rather
+     * than as an Excel file, based on its extension.
+     */
+    public static boolean isDelimitedFile(String file) {
+        String name = file.toLowerCase();
+        return name.endsWith(".csv") || name.endsWith(".tsv");
+    }
+
+    /**
+     * Parses a CSV or TSV file containing the expected data; see
+     * ExcelParser.parseCorrectFile. Files ending in ".tsv" are tab-separated,
+     * any other file is comma-separated.
+     *
+     * @param file The file to parse
+     * @param dataColumns The letters of the columns to extract
+     * @return a Map from (client ID) to a List of Strings, which contains the
+     *         expected results for that Client ID for each requested field.
+     *         Note that any duplicate Client IDs are excluded.
+     */
+    public static Map<String, List<String>> parseCorrectFile(String file, String[] dataColumns) {
+        Map<String, List<String>> data = new HashMap<String, List<String>>();
+        try {
+            readCorrectFile(file, dataColumns, data);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return data;
+    }
+
+    /*
+     * Same as parseCorrectFile(file, dataColumns), but adds the rows to "data"
+     * and throws if the file cannot be read (leaving the rows read before the
+     * error in "data").
+     */
+    static void readCorrectFile(String file, String[] dataColumns, Map<String, List<String>> data)
+            throws Exception {
+        long size = Files.size(Paths.get(file));
+        int numChunks = (int) Math.max((size + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES,
+                Math.min(Runtime.getRuntime().availableProcessors(), size / MIN_CHUNK_BYTES));
+        readCorrectFile(file, dataColumns, Math.max(1, numChunks), data);
+    }
+
+    /**
+     * Same as parseCorrectFile(file, dataColumns), but splits the file into
+     * (about) the given number of chunks. Each chunk must be smaller than
+     * 2 GB.
+     */
+    public static Map<String, List<String>> parseCorrectFile(String file, String[] dataColumns, int numChunks) {
+        Map<String, List<String>> data = new HashMap<String, List<String>>();
+        try {
+            readCorrectFile(file, dataColumns, numChunks, data);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return data;
+    }
+
+    private static void readCorrectFile(String file, String[] dataColumns, int numChunks,
+            Map<String, List<String>> data) throws Exception {
+        final byte delimiter = (byte) (file.toLowerCase().endsWith(".tsv") ? '\t' : ',');
+
+        // Column 0 is the client ID, as in ExcelParser
+        final int[] columns = new int[dataColumns.length + 1];
+        columns[0] = ExcelParser.CLIENT_ID_COLUMN;
+        for (int i = 0; i < dataColumns.length; i++) {
+            columns[i + 1] = ExcelParser.toIndex(dataColumns[i]);
+        }
+
+        ExecutorService pool = Executors
+                .newFixedThreadPool(Math.max(1, Math.min(numChunks, Runtime.getRuntime().availableProcessors())));
+        try (final FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            final long[] starts = chunkStarts(channel, numChunks);
+            List<Future<ChunkTokenizer>> chunks = new ArrayList<Future<ChunkTokenizer>>();
+            for (int c = 0; c + 1 < starts.length; c++) {
+                final int chunk = c;
+                chunks.add(pool.submit(new Callable<ChunkTokenizer>() {
+                    public ChunkTokenizer call() throws IOException {
+                        return tokenize(channel, starts[chunk], starts[chunk + 1], delimiter, columns, chunk == 0);
+                    }
+                }));
+            }
+
+            // Merge the chunks in file order. A chunk that ends inside quotes
+            // (counting from the last chunk that started outside quotes) has
+            // a torn last row, and the rows of the next chunk are wrong: that
+            // run of chunks is parsed again in one piece.
+            Set<String> duplicateClientIds = new HashSet<String>();
+            int groupStart = 0;
+            boolean inQuotes = false;
+            for (int c = 0; c < chunks.size(); c++) {
+                inQuotes ^= chunks.get(c).get().endsInQuotes();
+                if (inQuotes && c + 1 < chunks.size()) {
+                    continue;
+                }
+                List<String[]> rows = groupStart == c ? chunks.get(c).get().getRows()
+                        : tokenize(channel, starts[groupStart], starts[c + 1], delimiter, columns, groupStart == 0)
+                                .getRows();
+                for (String[] values : rows) {
+                    ExcelParser.addRow(data, duplicateClientIds, values);
+                }
+                groupStart = c + 1;
+            }
+            if (inQuotes) {
+                System.err.println(file + " ends inside a quoted value");
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /*
+     * Maps the bytes [start, end) of the file and reads their rows.
+     */
+    private static ChunkTokenizer tokenize(FileChannel channel, long start, long end, byte delimiter, int[] columns,
+            boolean skipHeader) throws IOException {
+        if (end - start > Integer.MAX_VALUE) {
+            throw new IOException("A quoted value spans more than 2 GB of the file (unbalanced quotes?)");
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        ChunkTokenizer tokenizer = new ChunkTokenizer(buffer, delimiter, columns);
+        tokenizer.readRows(skipHeader);
+        return tokenizer;
+    }
+
+    /*
+     * Splits the file into about numChunks pieces that each start at the
+     * beginning of a line. Returns the start of each chunk followed by the end
+     * of the file.
+     */
+    private static long[] chunkStarts(FileChannel channel, int numChunks) throws IOException {
+        long size = channel.size();
+        List<Long> starts = new ArrayList<Long>();
+        starts.add(0L);
+        for (int c = 1; c < numChunks; c++) {
+            long start = nextLineStart(channel, c * (size / numChunks));
+            if (start > starts.get(starts.size() - 1) && start < size) {
+                starts.add(start);
+            }
+        }
+        starts.add(size);
+        long[] result = new long[starts.size()];
+        for (int c = 0; c < result.length; c++) {
+            result[c] = starts.get(c);
+        }
+        return result;
+    }
+
+    /*
+     * Returns the position just after the first line break at or after the
+     * given position (or the end of the file).
+     */
+    private static long nextLineStart(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (true) {
+            buffer.clear();
+            int n = channel.read(buffer, position);
+            if (n <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < n; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += n;
+        }
+    }
+
+    /*
+     * Turns the lines of one chunk into rows of the requested columns.
+     */
+    private static class ChunkTokenizer {
+        private final ByteBuffer buffer;
+        private final byte delimiter;
+        private final int numColumns;
+        private byte[] scratch = new byte[256];
+        private List<String[]> rows;
+        private boolean endsInQuotes;
+
+        // slots[c] lists the positions in the requested columns that request
+        // column c
+        private final int[][] slots;
+
+        ChunkTokenizer(ByteBuffer buffer, byte delimiter, int[] columns) {
+            this.buffer = buffer;
+            this.delimiter = delimiter;
+            this.numColumns = columns.length;
+            int maxColumn = 0;
+            for (int column : columns) {
+                maxColumn = Math.max(maxColumn, column);
+            }
+            int[] counts = new int[maxColumn + 1];
+            for (int column : columns) {
+                counts[column]++;
+            }
+            slots = new int[maxColumn + 1][];
+            for (int c = 0; c <= maxColumn; c++) {
+                slots[c] = new int[counts[c]];
+                counts[c] = 0;
+            }
+            for (int k = 0; k < columns.length; k++) {
+                slots[columns[k]][counts[columns[k]]++] = k;
+            }
+        }
+
+        /*
+         * Reads the rows of the chunk, taking it to start outside quotes. A
+         * row ends at the first line break outside quotes. (The doubled
+         * quotes inside a quoted value flip the state twice, so they need no
+         * special case.)
+         */
+        void readRows(boolean skipHeader) {
+            rows = new ArrayList<String[]>();
+            int limit = buffer.limit();
+            int lineStart = 0;
+            boolean first = true;
+            boolean inQuotes = false;
+            while (lineStart < limit) {
+                int lineEnd = lineStart;
+                while (lineEnd < limit) {
+                    byte b = buffer.get(lineEnd);
+                    if (b == '"') {
+                        inQuotes = !inQuotes;
+                    } else if (b == '\n' && !inQuotes) {
+                        break;
+                    }
+                    lineEnd++;
+                }
+                int next = lineEnd + 1;
+                if (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') {
+                    lineEnd--;
+                }
+                if (!(first && skipHeader) && lineEnd > lineStart) {
+                    rows.add(readLine(lineStart, lineEnd));
+                }
+                first = false;
+                lineStart = next;
+            }
+            endsInQuotes = inQuotes;
+        }
+
+        List<String[]> getRows() {
+            return rows;
+        }
+
+        /*
+         * Returns whether the chunk holds an odd number of quotes, i.e. ends
+         * inside a quoted value if it started outside one.
+         */
+        boolean endsInQuotes() {
+            return endsInQuotes;
+        }
+
+        /*
+         * Reads the requested columns of the row [start, end). Columns past
+         * the end of the row are "" (like cells missing from a row).
+         */
+        private String[] readLine(int start, int end) {
+            String[] values = new String[numColumns];
+            Arrays.fill(values, "");
+            int column = 0;
+            int p = start;
+            while (p <= end && column < slots.length) {
+                boolean wanted = slots[column].length > 0;
+                String value = null;
+                if (p < end && buffer.get(p) == '"') {
+                    // Quoted value: runs to the next quote that is not doubled
+                    int q = p + 1;
+                    boolean escapedQuotes = false;
+                    while (q < end) {
+                        if (buffer.get(q) == '"') {
+                            if (q + 1 < end && buffer.get(q + 1) == '"') {
+                                escapedQuotes = true;
+                                q += 2;
+                                continue;
+                            }
+                            break;
+                        }
+                        q++;
+                    }
+                    if (wanted) {
+                        value = decode(p + 1, q);
+                        if (escapedQuotes) {
+                            value = value.replace("\"\"", "\"");
+                        }
+                    }
+                    p = q + 1;
+                    while (p < end && buffer.get(p) != delimiter) {
+                        p++;
+                    }
+                } else {
+                    int q = p;
+                    while (q < end && buffer.get(q) != delimiter) {
+                        q++;
+                    }
+                    if (wanted) {
+                        value = decode(p, q);
+                    }
+                    p = q;
+                }
+                if (wanted) {
+                    for (int slot : slots[column]) {
+                        values[slot] = value;
+                    }
+                }
+                column++;
+                p++;
+            }
+            return values;
+        }
+
+        private String decode(int start, int end) {
+            int length = end - start;
+            if (length <= 0) {
+                return "";
+            }
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                scratch[i] = buffer.get(start + i);
+            }
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
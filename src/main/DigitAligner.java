@@ -0,0 +1,207 @@
+package main;
+
+/**
+ * Aligns an actual digit string produced by Scan against the expected digit
+ * string, using the bit-parallel edit distance algorithm of Myers (as
+ * formulated by Hyyro for global alignment). Unlike the positional comparison
+ * in AccuracyChecker, a single inserted or dropped digit only counts as one
+ * error, rather than shifting every digit to its left out of place.
+ *
+ * The expected string is the "pattern": only its digits and spaces are
+ * aligned (other characters are ignored, like in the positional comparison),
+ * and it may have at most 64 such characters, so each column of the edit
+ * distance matrix fits in one long. The vertical deltas of every column are
+ * kept so the optimal alignment can be traced back, which gives the number of
+ * matches, substitutions, insertions (extra characters in the actual string)
+ * and deletions (expected characters missing from the actual string).
+ *
+ * An aligner reuses its work arrays between calls, so align() does not
+ * allocate (except to grow the arrays for an unusually long actual string).
+ * Aligners are not thread-safe; use get() for the current thread's aligner.
+ *
+ * A string that was read correctly is recognized by exactMatches, in one
+ * positional pass, so on typical data (a few percent of strings misread)
+ * aligned scoring costs about as much as the positional comparison. A string
+ * that does need aligning costs about three times as much as comparing it
+ * positionally, for filling in the matrix and tracing back; that gap remains.
+ */
+public class DigitAligner {
+    // Indexes of the counts written by align()
+    public static final int MATCHES = 0;
+    public static final int SUBSTITUTIONS = 1;
+    public static final int INSERTIONS = 2;
+    public static final int DELETIONS = 3;
+
+    // The maximum number of digits/spaces in the expected string
+    public static final int MAX_PATTERN_LENGTH = 64;
+
+    private static final ThreadLocal<DigitAligner> ALIGNERS = new ThreadLocal<DigitAligner>() {
+        @Override
+        protected DigitAligner initialValue() {
+            return new DigitAligner();
+        }
+    };
+
+    // peq[c] has bit i set iff pattern[i] == c (only digits and space are set)
+    private final long[] peq = new long[128];
+    private final char[] pattern = new char[MAX_PATTERN_LENGTH];
+
+    // Vertical positive/negative deltas of each column of the matrix
+    private long[] vp = new long[32];
+    private long[] vn = new long[32];
+
+    /**
+     * Returns the aligner for the current thread.
+     */
+    public static DigitAligner get() {
+        return ALIGNERS.get();
+    }
+
+    /**
+     * Aligns "actual" against the digits and spaces of "expected", and writes
+     * the number of matches, substitutions, insertions and deletions of an
+     * optimal alignment into "counts" (at the indexes MATCHES, SUBSTITUTIONS,
+     * INSERTIONS and DELETIONS).
+     *
+     * @requires counts.length >= 4
+     * @return false (leaving counts untouched) if expected has more than
+     *         MAX_PATTERN_LENGTH digits and spaces, unless actual is exactly
+     *         those digits and spaces (see exactMatches)
+     */
+    public boolean align(String actual, String expected, int[] counts) {
+        // Most strings are read correctly, and then the alignment is all
+        // matches; check for that before filling in the matrix
+        int exact = exactMatches(actual, expected);
+        if (exact >= 0) {
+            counts[MATCHES] = exact;
+            counts[SUBSTITUTIONS] = 0;
+            counts[INSERTIONS] = 0;
+            counts[DELETIONS] = 0;
+            return true;
+        }
+
+        // Build the pattern from the characters of "expected" that are scored
+        int m = 0;
+        for (int i = 0; i < expected.length(); i++) {
+            char c = expected.charAt(i);
+            if (c == ' ' || (c >= '0' && c <= '9')) {
+                if (m == MAX_PATTERN_LENGTH) {
+                    clearPeq(m);
+                    return false;
+                }
+                pattern[m] = c;
+                peq[c] |= 1L << m;
+                m++;
+            }
+        }
+
+        int n = actual.length();
+        if (vp.length <= n) {
+            vp = new long[Math.max(n + 1, vp.length * 2)];
+            vn = new long[vp.length];
+        }
+
+        // Column 0: D[i][0] = i, so every vertical delta is +1
+        long mask = m == 64 ? -1L : (1L << m) - 1;
+        long verticalPositive = mask;
+        long verticalNegative = 0;
+        vp[0] = verticalPositive;
+        vn[0] = verticalNegative;
+
+        for (int j = 1; j <= n; j++) {
+            char c = actual.charAt(j - 1);
+            long eq = c < 128 ? peq[c] : 0;
+            long x = eq | verticalNegative;
+            long diagonalZero = (((x & verticalPositive) + verticalPositive) ^ verticalPositive) | x;
+            long horizontalPositive = verticalNegative | ~(diagonalZero | verticalPositive);
+            long horizontalNegative = verticalPositive & diagonalZero;
+
+            // Row 0 is D[0][j] = j, so a +1 horizontal delta enters at the top
+            x = (horizontalPositive << 1) | 1;
+            verticalNegative = x & diagonalZero & mask;
+            verticalPositive = ((horizontalNegative << 1) | ~(x | diagonalZero)) & mask;
+            vp[j] = verticalPositive;
+            vn[j] = verticalNegative;
+        }
+
+        // Trace an optimal alignment back from the bottom-right corner
+        int matches = 0;
+        int substitutions = 0;
+        int insertions = 0;
+        int deletions = 0;
+        int i = m;
+        int j = n;
+        while (i > 0 || j > 0) {
+            int d = distance(i, j);
+            if (i > 0 && j > 0) {
+                boolean same = pattern[i - 1] == actual.charAt(j - 1);
+                int diagonal = distance(i - 1, j - 1);
+                if (same && diagonal == d) {
+                    matches++;
+                    i--;
+                    j--;
+                    continue;
+                }
+                if (!same && diagonal + 1 == d) {
+                    substitutions++;
+                    i--;
+                    j--;
+                    continue;
+                }
+            }
+            if (i > 0 && distance(i - 1, j) + 1 == d) {
+                deletions++;
+                i--;
+            } else {
+                insertions++;
+                j--;
+            }
+        }
+
+        clearPeq(m);
+        counts[MATCHES] = matches;
+        counts[SUBSTITUTIONS] = substitutions;
+        counts[INSERTIONS] = insertions;
+        counts[DELETIONS] = deletions;
+        return true;
+    }
+
+    /**
+     * Returns the number of digits and spaces in "expected" if "actual" is
+     * exactly those characters (so that an optimal alignment is all matches),
+     * or -1 otherwise. This is as cheap as a positional comparison, and needs
+     * no aligner.
+     */
+    public static int exactMatches(String actual, String expected) {
+        int j = 0;
+        for (int i = 0; i < expected.length(); i++) {
+            char c = expected.charAt(i);
+            if (c == ' ' || (c >= '0' && c <= '9')) {
+                if (j == actual.length() || actual.charAt(j) != c) {
+                    return -1;
+                }
+                j++;
+            }
+        }
+        return j == actual.length() ? j : -1;
+    }
+
+    /*
+     * Returns D[i][j], the edit distance between the first i pattern
+     * characters and the first j actual characters: the top of column j is
+     * D[0][j] = j, plus the vertical deltas of rows 1..i.
+     */
+    private int distance(int i, int j) {
+        long rows = i == 64 ? -1L : (1L << i) - 1;
+        return j + Long.bitCount(vp[j] & rows) - Long.bitCount(vn[j] & rows);
+    }
+
+    /*
+     * Resets the entries of peq set for the first m pattern characters.
+     */
+    private void clearPeq(int m) {
+        for (int i = 0; i < m; i++) {
+            peq[pattern[i]] = 0;
+        }
+    }
+}
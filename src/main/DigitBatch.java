@@ -0,0 +1,158 @@
+package main;
+
+/**
+ * Scores many digit-string comparisons at once, with the same result as
+ * comparing each pair with AccuracyChecker's positional digit comparison
+ * (compareNumberStrings).
+ *
+ * Each pair is packed, right-aligned, into a lane of LANE_WIDTH bytes (held
+ * in WORDS_PER_LANE longs): one array holds the actual strings and one the
+ * expected strings. Expected characters that are not digits or spaces (which
+ * the comparison skips), and positions beyond the shorter of the two strings,
+ * are packed as 0; actual characters that cannot match a digit or space are
+ * packed as 0xff. A position then counts towards the total iff its expected
+ * byte is not 0, and is correct iff additionally both bytes are equal, so a
+ * whole batch is scored by a kernel that only compares bytes and counts bits.
+ *
+ * The kernel uses the Vector API (see VectorDigitKernel, in the "vector"
+ * folder, which is built by hand) when that class has been compiled and the
+ * jdk.incubator.vector module is present at run time (java --add-modules
+ * jdk.incubator.vector); otherwise it compares 8 bytes at a time in a long.
+ * The fallback kernel is no faster than comparing pairs one at a time, so
+ * callers only batch when isVectorized() is true.
+ */
+public class DigitBatch {
+    // Longest digit string that fits in a lane; longer pairs are not batched
+    public static final int LANE_WIDTH = 16;
+    static final int WORDS_PER_LANE = LANE_WIDTH / 8;
+
+    private static final long LOW_BITS = 0x7f7f7f7f7f7f7f7fL;
+
+    /**
+     * Counts, for each lane, the positions whose expected byte is not 0
+     * (total) and, of those, the positions whose bytes are equal (correct).
+     */
+    interface Kernel {
+        void count(long[] actual, long[] expected, int numLanes, int[] correct, int[] total);
+    }
+
+    private static final Kernel KERNEL = loadKernel();
+
+    private final long[] actual;
+    private final long[] expected;
+    private final int[] slots;
+    private final int[] laneCorrect;
+    private final int[] laneTotal;
+    private int numLanes;
+
+    /**
+     * @param capacity The number of pairs to collect before they are scored
+     */
+    public DigitBatch(int capacity) {
+        actual = new long[capacity * WORDS_PER_LANE];
+        expected = new long[capacity * WORDS_PER_LANE];
+        slots = new int[capacity];
+        laneCorrect = new int[capacity];
+        laneTotal = new int[capacity];
+    }
+
+    /**
+     * Returns whether the batch is full, i.e. must be flushed before the next
+     * add.
+     */
+    public boolean isFull() {
+        return numLanes == slots.length;
+    }
+
+    /**
+     * Adds a pair of digit strings, whose counts will be added to
+     * correct[slot] and total[slot] when the batch is flushed.
+     *
+     * @return false (and nothing is added) if either string is longer than
+     *         LANE_WIDTH
+     */
+    public boolean add(String actualString, String expectedString, int slot) {
+        if (actualString.length() > LANE_WIDTH || expectedString.length() > LANE_WIDTH) {
+            return false;
+        }
+        // Byte p of the lane holds the p-th character from the right (the
+        // order of the bytes within a lane does not affect the counts)
+        int overlap = Math.min(actualString.length(), expectedString.length());
+        int lane = numLanes * WORDS_PER_LANE;
+        for (int w = 0; w < WORDS_PER_LANE; w++) {
+            actual[lane + w] = 0;
+            expected[lane + w] = 0;
+        }
+        for (int p = 0; p < overlap; p++) {
+            char e = expectedString.charAt(expectedString.length() - 1 - p);
+            if (e == ' ' || (e >= '0' && e <= '9')) {
+                char a = actualString.charAt(actualString.length() - 1 - p);
+                int shift = (p & 7) * 8;
+                expected[lane + (p >>> 3)] |= (long) e << shift;
+                actual[lane + (p >>> 3)] |= (a < 0x80 ? (long) a : 0xffL) << shift;
+            }
+        }
+        slots[numLanes++] = slot;
+        return true;
+    }
+
+    /**
+     * Scores the collected pairs, adds their counts to the given arrays, and
+     * empties the batch.
+     */
+    public void flush(int[] correct, int[] total) {
+        KERNEL.count(actual, expected, numLanes, laneCorrect, laneTotal);
+        for (int k = 0; k < numLanes; k++) {
+            correct[slots[k]] += laneCorrect[k];
+            total[slots[k]] += laneTotal[k];
+        }
+        numLanes = 0;
+    }
+
+    /**
+     * Returns whether the Vector API kernel is in use.
+     */
+    public static boolean isVectorized() {
+        return !(KERNEL instanceof ScalarKernel);
+    }
+
+    /**
+     * Returns the name of the kernel in use.
+     */
+    public static String getKernelName() {
+        return KERNEL.getClass().getSimpleName();
+    }
+
+    private static Kernel loadKernel() {
+        try {
+            return (Kernel) Class.forName("main.VectorDigitKernel").getDeclaredConstructor().newInstance();
+        } catch (Exception | LinkageError e) {
+            // Not compiled in, or the module is not present
+            return new ScalarKernel();
+        }
+    }
+
+    /*
+     * Compares 8 bytes at a time: a byte of x is 0 iff its high bit is set in
+     * zeroBytes(x).
+     */
+    static class ScalarKernel implements Kernel {
+        public void count(long[] actual, long[] expected, int numLanes, int[] correct, int[] total) {
+            for (int k = 0; k < numLanes; k++) {
+                int numCorrect = 0;
+                int numTotal = 0;
+                for (int w = k * WORDS_PER_LANE; w < (k + 1) * WORDS_PER_LANE; w++) {
+                    long used = ~zeroBytes(expected[w]) & ~LOW_BITS;
+                    numTotal += Long.bitCount(used);
+                    numCorrect += Long.bitCount(zeroBytes(actual[w] ^ expected[w]) & used);
+                }
+                correct[k] = numCorrect;
+                total[k] = numTotal;
+            }
+        }
+
+        private static long zeroBytes(long x) {
+            return ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package main;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Finds output folders that hold the same scan, even when they have different
+ * client IDs or folder names: the output.json file and the primary scan image
+ * (the largest image file) of every folder are hashed (in parallel), and
+ * folders that share the content of either are grouped together. The first
+ * folder of each group (by name) is kept as the original; the others can be
+ * reported or removed from the actual data before it is compared.
+ *
+ * Empty files are ignored, and so is an image shared by more than
+ * MAX_SHARING_FOLDERS folders (such as a blank page or a placeholder image),
+ * since it does not identify a scan and would otherwise chain unrelated
+ * folders into one group. An output.json file is never taken as common, so a
+ * scan stored in many folders is still grouped by its output.json.
+ *
+ * Hashes are cached in a file, keyed by the path, size and modification time
+ * of each file, so that a rerun only reads the files that have changed. The
+ * cache file can be shared by scans of different roots: each scan only
+ * replaces the entries of its own root.
+ */
+public class DuplicateScans {
+    public static final String HASH_CACHE_FILE = "content-hashes.tsv";
+
+    // Source images are the files with these extensions
+    private static final String[] IMAGE_EXTENSIONS = { ".jpg", ".jpeg", ".png", ".tif", ".tiff", ".bmp" };
+
+    // An image found in more folders than this is not taken as the same scan
+    private static final int MAX_SHARING_FOLDERS = 4;
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    // Each hashing thread reuses one direct buffer, so that file contents are
+    // read without being copied onto the Java heap
+    private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    /*
+     * The cached hash of one file.
+     */
+    private static class CachedHash {
+        final long size;
+        final long modified;
+        final String hash;
+
+        CachedHash(long size, long modified, String hash) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+
+    private final List<List<String>> groups = new ArrayList<List<String>>();
+    private final Set<String> duplicateFolders = new HashSet<String>();
+    private int numCommonHashes;
+    private int numFilesHashed;
+    private int numFilesCached;
+
+    private DuplicateScans() {
+    }
+
+    /**
+     * Prints the groups of duplicate scans in a Scan output folder.
+     *
+     * Command-line arguments:
+     *
+     * [0]: The path to the root of the folder containing the Scan output.
+     *
+     * [1] (optional): The hash cache file (default content-hashes.tsv).
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Command-line arguments: <Root of scan output folder> [hash cache file]");
+            System.exit(1);
+        }
+        Progress.reportTo(System.err);
+        DuplicateScans scans = scan(args[0], args.length > 1 ? args[1] : HASH_CACHE_FILE);
+        scans.printReport();
+    }
+
+    /**
+     * Hashes the output.json file and primary scan image of every sub-folder
+     * of the given root, and groups the folders that share either of them.
+     *
+     * @param scanOutputRoot The root of the scan output directory
+     * @param cacheFile The file where hashes are cached between runs
+     */
+    public static DuplicateScans scan(String scanOutputRoot, String cacheFile) {
+        DuplicateScans scans = new DuplicateScans();
+        Path cachePath = Paths.get(cacheFile);
+        final Map<String, CachedHash> cache = loadCache(cachePath);
+        final Map<String, CachedHash> current = new ConcurrentHashMap<String, CachedHash>();
+
+        List<Path> folders = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(scanOutputRoot))) {
+            for (Path entry : stream) {
+                if (Files.isDirectory(entry)) {
+                    folders.add(entry);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+        Collections.sort(folders);
+
+        // Hash the folders in parallel
+        final Progress progress = new Progress("Hashing folders", folders.size());
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        List<Future<List<String>>> hashes = new ArrayList<Future<List<String>>>();
+        try {
+            for (final Path folder : folders) {
+                hashes.add(pool.submit(new Callable<List<String>>() {
+                    public List<String> call() throws IOException {
+                        if (Progress.isCancelled()) {
+                            return Collections.emptyList();
+                        }
+                        List<String> folderHashes = hashFolder(folder, cache, current);
+                        progress.advance();
+                        return folderHashes;
+                    }
+                }));
+            }
+
+            // Find the folders (in name order) that have each hash
+            Map<String, List<Integer>> foldersByHash = new HashMap<String, List<Integer>>();
+            for (int f = 0; f < folders.size(); f++) {
+                Set<String> folderHashes;
+                try {
+                    folderHashes = new LinkedHashSet<String>(hashes.get(f).get());
+                } catch (ExecutionException e) {
+                    System.err.println("Could not hash " + folders.get(f) + ": " + e.getCause());
+                    continue;
+                }
+                for (String hash : folderHashes) {
+                    List<Integer> sharing = foldersByHash.get(hash);
+                    if (sharing == null) {
+                        sharing = new ArrayList<Integer>();
+                        foldersByHash.put(hash, sharing);
+                    }
+                    sharing.add(f);
+                }
+            }
+
+            // Group the folders that share a hash (with a union-find over the
+            // folder indexes), leaving out common images
+            int[] parent = new int[folders.size()];
+            for (int f = 0; f < parent.length; f++) {
+                parent[f] = f;
+            }
+            for (Map.Entry<String, List<Integer>> entry : foldersByHash.entrySet()) {
+                List<Integer> sharing = entry.getValue();
+                if (entry.getKey().startsWith("image:") && sharing.size() > MAX_SHARING_FOLDERS) {
+                    scans.numCommonHashes++;
+                    continue;
+                }
+                for (int k = 1; k < sharing.size(); k++) {
+                    int a = root(parent, sharing.get(0));
+                    int b = root(parent, sharing.get(k));
+                    parent[Math.max(a, b)] = Math.min(a, b);
+                }
+            }
+            // The root of a group is its first folder, so the groups come out
+            // sorted by their first folder name
+            Map<Integer, List<String>> groupOfRoot = new TreeMap<Integer, List<String>>();
+            for (int f = 0; f < folders.size(); f++) {
+                int r = root(parent, f);
+                List<String> group = groupOfRoot.get(r);
+                if (group == null) {
+                    group = new ArrayList<String>();
+                    groupOfRoot.put(r, group);
+                }
+                group.add(folders.get(f).getFileName().toString());
+            }
+            for (List<String> group : groupOfRoot.values()) {
+                if (group.size() > 1) {
+                    scans.groups.add(group);
+                    scans.duplicateFolders.addAll(group.subList(1, group.size()));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+        progress.finish();
+
+        for (String file : current.keySet()) {
+            if (cache.get(file) == current.get(file)) {
+                scans.numFilesCached++;
+            } else {
+                scans.numFilesHashed++;
+            }
+        }
+
+        // A cancelled scan has not seen every file of the root, so it cannot
+        // tell which of the cached files are gone
+        if (Progress.isCancelled()) {
+            return scans;
+        }
+
+        // Replace the entries of this root, keeping those of other roots
+        String rootPrefix = Paths.get(scanOutputRoot).toAbsolutePath().toString() + File.separator;
+        boolean removed = false;
+        for (Iterator<String> it = cache.keySet().iterator(); it.hasNext();) {
+            String file = it.next();
+            if (file.startsWith(rootPrefix) && !current.containsKey(file)) {
+                it.remove();
+                removed = true;
+            }
+        }
+        if (scans.numFilesHashed > 0 || removed) {
+            cache.putAll(current);
+            saveCache(cachePath, cache);
+        }
+        return scans;
+    }
+
+    private static int root(int[] parent, int f) {
+        while (parent[f] != f) {
+            parent[f] = parent[parent[f]];
+            f = parent[f];
+        }
+        return f;
+    }
+
+    /**
+     * Returns the groups of folders that hold the same scan. Each group has at
+     * least two folder names, sorted, and the groups are sorted by their first
+     * folder name.
+     */
+    public List<List<String>> getGroups() {
+        return Collections.unmodifiableList(groups);
+    }
+
+    /**
+     * Returns true if the given folder holds the same scan as a folder that
+     * comes before it (i.e. it is in a group, but not first).
+     */
+    public boolean isDuplicate(String folderName) {
+        return duplicateFolders.contains(folderName);
+    }
+
+    /**
+     * Returns a copy of the actual data without the forms whose folder is a
+     * duplicate.
+     */
+    public Map<String, ScanOutput> skipDuplicates(Map<String, ScanOutput> actual) {
+        Map<String, ScanOutput> kept = new HashMap<String, ScanOutput>();
+        for (Map.Entry<String, ScanOutput> entry : actual.entrySet()) {
+            if (!isDuplicate(entry.getValue().folderName)) {
+                kept.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Returns the number of files hashed in this run (rather than taken from
+     * the cache).
+     */
+    public int getNumFilesHashed() {
+        return numFilesHashed;
+    }
+
+    public int getNumFilesCached() {
+        return numFilesCached;
+    }
+
+    /**
+     * Returns the number of hashes that were ignored because too many folders
+     * share them.
+     */
+    public int getNumCommonHashes() {
+        return numCommonHashes;
+    }
+
+    /**
+     * Prints each group of duplicate scans.
+     */
+    public void printReport() {
+        System.out.println();
+        System.out.println("Duplicate scans: " + duplicateFolders.size() + " folders in " + groups.size()
+                + " groups (" + numFilesHashed + " files hashed, " + numFilesCached + " cached, " + numCommonHashes
+                + " common files ignored)");
+        for (List<String> group : groups) {
+            System.out.println(group.get(0) + " duplicated by " + group.subList(1, group.size()));
+        }
+    }
+
+    /*
+     * Returns the hashes of the output.json file and the primary scan image
+     * (the largest image, or the first by name of the largest) in a folder,
+     * skipping empty files, taking them from the cache where the file is
+     * unchanged, and adds them to "current".
+     */
+    private static List<String> hashFolder(Path folder, Map<String, CachedHash> cache,
+            Map<String, CachedHash> current) throws IOException {
+        List<Path> candidates = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path file : stream) {
+                if (isHashed(file.getFileName().toString()) && Files.isRegularFile(file)) {
+                    candidates.add(file);
+                }
+            }
+        }
+        Collections.sort(candidates);
+        List<Path> files = new ArrayList<Path>();
+        Path primaryImage = null;
+        long primarySize = 0;
+        for (Path file : candidates) {
+            long size = Files.size(file);
+            if (size == 0) {
+                continue;
+            }
+            if (file.getFileName().toString().equals("output.json")) {
+                files.add(file);
+            } else if (size > primarySize) {
+                primaryImage = file;
+                primarySize = size;
+            }
+        }
+        if (primaryImage != null) {
+            files.add(primaryImage);
+        }
+
+        List<String> hashes = new ArrayList<String>();
+        for (Path file : files) {
+            String key = file.toAbsolutePath().toString();
+            long size = Files.size(file);
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            CachedHash cached = cache.get(key);
+            if (cached == null || cached.size != size || cached.modified != modified) {
+                cached = new CachedHash(size, modified, hashFile(file));
+            }
+            current.put(key, cached);
+
+            // The same bytes only count as the same scan if they are the same
+            // kind of file
+            hashes.add(file.getFileName().toString().equals("output.json") ? "json:" + cached.hash
+                    : "image:" + cached.hash);
+        }
+        return hashes;
+    }
+
+    private static boolean isHashed(String fileName) {
+        String name = fileName.toLowerCase();
+        if (name.equals("output.json")) {
+            return true;
+        }
+        for (String extension : IMAGE_EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Hashes a file by streaming it through this thread's direct buffer.
+     */
+    private static String hashFile(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = BUFFERS.get();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /*
+     * Reads the hash cache. A missing or unreadable cache is empty.
+     */
+    private static Map<String, CachedHash> loadCache(Path cacheFile) {
+        Map<String, CachedHash> cache = new HashMap<String, CachedHash>();
+        if (!Files.exists(cacheFile)) {
+            return cache;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+                if (parts.length == 4) {
+                    cache.put(parts[0], new CachedHash(Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3]));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Ignoring unreadable hash cache " + cacheFile + ": " + e);
+            cache.clear();
+        }
+        return cache;
+    }
+
+    /*
+     * Writes the given hashes to the cache file, via a temporary file (as
+     * FolderIndex.save does).
+     */
+    private static void saveCache(Path cacheFile, Map<String, CachedHash> hashes) {
+        Path temp = cacheFile.toAbsolutePath().resolveSibling(cacheFile.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, CachedHash> entry : new TreeMap<String, CachedHash>(hashes).entrySet()) {
+                CachedHash hash = entry.getValue();
+                writer.write(entry.getKey() + "\t" + hash.size + "\t" + hash.modified + "\t" + hash.hash);
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write hash cache " + temp + ": " + e);
+            return;
+        }
+        try {
+            Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not replace hash cache " + cacheFile + ": " + e);
+        }
+    }
+}
@@ -18,7 +18,12 @@ public class ExcelParser {
      * as a Map from each Client ID to a List of Strings representing the values
      * of each field. (The fields to be extracted are specified in the
      * "dataColumns" parameter.) Note that any IDs which appear multiple times
-     * in the Excel file are not included in the returned map.
+     * in the Excel file are not included in the returned map. The sheets are
+     * read concurrently (see ConcurrentSheetReader), but rows are merged in
+     * sheet order, so the result is the same as reading them one by one.
+     * 
+     * If the file is a CSV or TSV export (".csv" or ".tsv") of a single sheet,
+     * it is read with CsvParser instead, and "sheets" is ignored.
      * 
      * @param file The Excel file to parse
      * @param sheets The sheets within that Excel file to parse
@@ -31,70 +36,161 @@ public class ExcelParser {
     public static Map<String, List<String>> parseCorrectFile(String file, String[] sheets, String[] dataColumns) {
         Map<String, List<String>> data = new HashMap<String, List<String>>();
         try {
-            XSSFWorkbook wb = ExcelParser.readFile(file);
-
-            // We don't want to include any IDs that appear in multiple rows, so
-            // keep track of those
-            Set<String> duplicateClientIds = new HashSet<String>();
-
-            // For each sheet, iterate through all rows except for the 0th row
-            for (String sheetName : sheets) {
-                XSSFSheet sheet = wb.getSheet(sheetName);
-
-                // Iterate through each data row
-                for (int r = 1; r < sheet.getPhysicalNumberOfRows(); r++) {
-                    List<String> currentRowData = new ArrayList<String>();
-                    XSSFRow row = sheet.getRow(r);
-                    if (row == null) {
-                        continue;
-                    }
-
-                    // Get the correct client ID from the table for that row.
-                    // Note that any trailing zeroes are trimmed from the Client
-                    // ID.
-                    String clientId = AccuracyChecker
-                            .trimTrailingZeroes(getStringCellContent(row.getCell(CLIENT_ID_COLUMN)));
-
-                    // If this is a duplicate ID, we throw that ID out from the
-                    // collected data
-                    if (data.containsKey(clientId)) {
-                        data.remove(clientId);
-                        duplicateClientIds.add(clientId);
-                        continue;
-                    }
-                    if (duplicateClientIds.contains(clientId)) {
-                        continue;
-                    }
-
-                    // Throw out ones in light pencil or user error
-                    /*int notesIndex = toIndex("T");
-                    XSSFCell cellT = row.getCell(notesIndex);
-                    String valueT = getStringCellContent(cellT);
-                    if (valueT != null) {
-                        if ((valueT.contains("pencil") && valueT.contains("light")) || valueT.contains("error")) {
-                            continue;
+            readCorrectFile(file, sheets, dataColumns, data);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return data;
+    }
+
+    /**
+     * Same as parseCorrectFile(file, sheets, dataColumns), but adds the rows
+     * to "data" and throws if the file cannot be read, for callers that must
+     * tell a missing or broken file from one without rows. The rows read
+     * before the error are left in "data".
+     */
+    public static void readCorrectFile(String file, String[] sheets, String[] dataColumns,
+            Map<String, List<String>> data) throws Exception {
+        if (CsvParser.isDelimitedFile(file)) {
+            CsvParser.readCorrectFile(file, dataColumns, data);
+            return;
+        }
+
+        // Read the client ID column (at index 0) and the data columns of
+        // every sheet, with the sheets being read concurrently
+        int[] columns = new int[dataColumns.length + 1];
+        columns[0] = CLIENT_ID_COLUMN;
+        for (int i = 0; i < dataColumns.length; i++) {
+            columns[i + 1] = toIndex(dataColumns[i]);
+        }
+        Progress progress = new Progress("Reading Excel rows", 0);
+        List<List<ConcurrentSheetReader.SheetRow>> sheetRows = ConcurrentSheetReader.readSheets(file, sheets,
+                columns, progress);
+        progress.finish();
+        if (Progress.isCancelled()) {
+            System.err.println("Cancelled while reading " + file + "; using the rows read so far");
+        }
+
+        // We don't want to include any IDs that appear in multiple rows, so
+        // keep track of those
+        Set<String> duplicateClientIds = new HashSet<String>();
+
+        // For each sheet (in order), go through all rows except for the 0th
+        // row
+        for (int s = 0; s < sheetRows.size(); s++) {
+            if (sheetRows.get(s) == null) {
+                // Keep the rows of the sheets before the missing one
+                throw ConcurrentSheetReader.noSuchSheet(file, sheets[s]);
+            }
+            for (ConcurrentSheetReader.SheetRow row : sheetRows.get(s)) {
+                addRow(data, duplicateClientIds, row.values);
+            }
+        }
+    }
+
+    /**
+     * Same as parseCorrectFile(file, sheets, dataColumns), but reads only the
+     * columns of the given fields. The lists still have one entry for each
+     * data column, with null for the fields that were not read.
+     *
+     * @param fields The (increasing) indexes into dataColumns of the fields to
+     *        read, or null to read every field
+     */
+    public static Map<String, List<String>> parseCorrectFile(String file, String[] sheets, String[] dataColumns,
+            int[] fields) {
+        if (fields == null) {
+            return parseCorrectFile(file, sheets, dataColumns);
+        }
+        String[] selectedColumns = new String[fields.length];
+        for (int k = 0; k < fields.length; k++) {
+            selectedColumns[k] = dataColumns[fields[k]];
+        }
+        Map<String, List<String>> data = parseCorrectFile(file, sheets, selectedColumns);
+
+        // Put each value back at the index of its field
+        for (Map.Entry<String, List<String>> entry : data.entrySet()) {
+            List<String> values = new ArrayList<String>(Collections.<String> nCopies(dataColumns.length, null));
+            for (int k = 0; k < fields.length; k++) {
+                values.set(fields[k], entry.getValue().get(k));
+            }
+            entry.setValue(values);
+        }
+        return data;
+    }
+
+    /*
+     * Adds a row to the expected data. values[0] is the client ID and the
+     * rest are the data columns. Client IDs that appear in multiple rows are
+     * thrown out (and remembered in duplicateClientIds).
+     */
+    static void addRow(Map<String, List<String>> data, Set<String> duplicateClientIds, String[] values) {
+        // Get the correct client ID from the table for that row. Note that any
+        // trailing zeroes are trimmed from the Client ID.
+        String clientId = AccuracyChecker.trimTrailingZeroes(values[0]);
+
+        // If this is a duplicate ID, we throw that ID out from the collected
+        // data
+        if (data.containsKey(clientId)) {
+            data.remove(clientId);
+            duplicateClientIds.add(clientId);
+            return;
+        }
+        if (duplicateClientIds.contains(clientId)) {
+            return;
+        }
+
+        // Throw out ones in light pencil or user error
+        /*int notesIndex = toIndex("T");
+        XSSFCell cellT = row.getCell(notesIndex);
+        String valueT = getStringCellContent(cellT);
+        if (valueT != null) {
+            if ((valueT.contains("pencil") && valueT.contains("light")) || valueT.contains("error")) {
+                return;
+            }
+        }*/
+
+        // Collect data from all specified columns and put each piece of data
+        // into the List
+        List<String> currentRowData = new ArrayList<String>(Arrays.asList(values).subList(1, values.length));
+
+        // Add this row to the map (with the clientID as a key)
+        // XSSFCell actualExcelValue = row.getCell(toIndex("Z"));
+        // currentRowData.add(getStringCellContent(actualExcelValue));
+        data.put(clientId, currentRowData);
+    }
+
+    /**
+     * Same as parseCorrectFile(file, sheets, dataColumns), but writes each row
+     * to a SpilledForms writer instead of collecting the rows in a Map.
+     * (Duplicate client IDs are written as they are; SpilledForms treats them
+     * as missing.)
+     */
+    public static void parseCorrectFile(String file, String[] sheets, String[] dataColumns,
+            final SpilledForms.Writer writer) {
+        try {
+            int[] columns = new int[dataColumns.length + 1];
+            columns[0] = CLIENT_ID_COLUMN;
+            for (int i = 0; i < dataColumns.length; i++) {
+                columns[i + 1] = toIndex(dataColumns[i]);
+            }
+            Progress progress = new Progress("Reading Excel rows", 0);
+
+            // Rows go to the writer as they are read, so that no more than a
+            // segment of them is ever on the heap
+            ConcurrentSheetReader.readSheets(file, sheets, columns, progress,
+                    new ConcurrentSheetReader.RowHandler() {
+                        public void handleRow(int sheet, ConcurrentSheetReader.SheetRow row) throws IOException {
+                            String clientId = AccuracyChecker.trimTrailingZeroes(row.values[0]);
+                            writer.add(clientId, null, Arrays.asList(row.values).subList(1, row.values.length));
                         }
-                    }*/
-
-                    // Collect data from all specified columns and put each
-                    // piece of data into the List
-                    for (String colLetters : dataColumns) {
-                        int columnIndex = toIndex(colLetters);
-                        XSSFCell cell = row.getCell(columnIndex);
-                        String value = getStringCellContent(cell);
-                        currentRowData.add(value);
-                    }
-
-                    // Add this row to the map (with the clientID as a key)
-                    // XSSFCell actualExcelValue = row.getCell(toIndex("Z"));
-                    // currentRowData.add(getStringCellContent(actualExcelValue));
-                    data.put(clientId, currentRowData);
-                }
+                    });
+            progress.finish();
+            if (Progress.isCancelled()) {
+                System.err.println("Cancelled while reading " + file + "; using the rows read so far");
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return data;
     }
 
     /*
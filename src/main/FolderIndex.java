@@ -0,0 +1,312 @@
+package main;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A persistent index from client IDs to the output folders that contain them,
+ * spanning any number of root directories. Each root is listed once (in
+ * parallel with the other roots) and the resulting entries are saved to an
+ * index file, so that later runs only re-list the roots whose modification
+ * time has changed since the index was last saved.
+ *
+ * Client IDs are parsed from folder names of the format xxxxxxx_id_yyy (see
+ * FolderUtils.parseClientId). A client ID that appears in more than one folder
+ * (in the same root or across the requested roots) is flagged as a duplicate,
+ * and lookup() returns null for it.
+ *
+ * Several tools share one index file, each with its own roots, so the file
+ * keeps every root that has been indexed (until the root is deleted), while
+ * lookups only cover the roots requested from this instance.
+ */
+public class FolderIndex {
+    // Prefixes of the lines stored in the index file
+    private static final String ROOT_RECORD = "R";
+    private static final String ENTRY_RECORD = "E";
+
+    /**
+     * A single output folder within one of the indexed roots.
+     */
+    public static class Entry {
+        public final String root;
+        public final String clientId;
+        public final String folderName;
+
+        public Entry(String root, String clientId, String folderName) {
+            this.root = root;
+            this.clientId = clientId;
+            this.folderName = folderName;
+        }
+
+        public String getFullPath() {
+            return Paths.get(root, folderName).toString();
+        }
+    }
+
+    private final Path indexFile;
+
+    // Root -> modification time of the root when it was last listed
+    private final Map<String, Long> rootModified = new LinkedHashMap<String, Long>();
+
+    // Root -> entries for each sub-folder that contains a client ID
+    private final Map<String, List<Entry>> entriesByRoot = new LinkedHashMap<String, List<Entry>>();
+
+    // The roots requested by the last refresh, which the lookups cover
+    private final Set<String> requestedRoots = new LinkedHashSet<String>();
+
+    // Lookup tables built from the entries of the requested roots
+    private final Map<String, Entry> byClientId = new HashMap<String, Entry>();
+    private final Set<String> duplicateClientIds = new TreeSet<String>();
+
+    private FolderIndex(Path indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Opens the index stored in "indexFile" (if it exists), refreshes it so
+     * that its lookups cover exactly the given roots, and saves it back if
+     * anything changed.
+     *
+     * @param indexFile The file where the index is persisted
+     * @param roots The root directories containing the output folders
+     * @return The up-to-date index
+     */
+    public static FolderIndex open(String indexFile, List<String> roots) {
+        FolderIndex index = new FolderIndex(Paths.get(indexFile));
+        index.load();
+        if (index.refresh(roots)) {
+            index.save();
+        }
+        return index;
+    }
+
+    /**
+     * Re-lists every requested root whose modification time differs from the
+     * one recorded in the index (or that is not in the index yet), in
+     * parallel. Roots that are not requested are kept as they are (another
+     * tool may request them from the same index file), unless they no longer
+     * exist.
+     *
+     * @param roots The root directories that the lookups should cover
+     * @return true if the index changed
+     */
+    public boolean refresh(List<String> roots) {
+        requestedRoots.clear();
+        requestedRoots.addAll(roots);
+        boolean changed = false;
+        for (Iterator<String> it = entriesByRoot.keySet().iterator(); it.hasNext();) {
+            String root = it.next();
+            if (!roots.contains(root) && !Files.isDirectory(Paths.get(root))) {
+                it.remove();
+                rootModified.remove(root);
+                changed = true;
+            }
+        }
+
+        // Find out which roots are stale
+        List<String> stale = new ArrayList<String>();
+        Map<String, Long> currentModified = new HashMap<String, Long>();
+        for (String root : roots) {
+            long modified = lastModified(root);
+            currentModified.put(root, modified);
+            Long indexed = rootModified.get(root);
+            if (indexed == null || indexed != modified || !entriesByRoot.containsKey(root)) {
+                stale.add(root);
+            }
+        }
+
+        if (!stale.isEmpty()) {
+            ExecutorService pool = Executors.newFixedThreadPool(
+                    Math.min(stale.size(), Runtime.getRuntime().availableProcessors()));
+            try {
+                Map<String, Future<List<Entry>>> listings = new LinkedHashMap<String, Future<List<Entry>>>();
+                for (final String root : stale) {
+                    listings.put(root, pool.submit(new Callable<List<Entry>>() {
+                        public List<Entry> call() throws IOException {
+                            return listRoot(root);
+                        }
+                    }));
+                }
+                for (Map.Entry<String, Future<List<Entry>>> listing : listings.entrySet()) {
+                    String root = listing.getKey();
+                    try {
+                        entriesByRoot.put(root, listing.getValue().get());
+                        rootModified.put(root, currentModified.get(root));
+                    } catch (ExecutionException e) {
+                        System.err.println("Could not index " + root + ": " + e.getCause());
+                        entriesByRoot.remove(root);
+                        rootModified.remove(root);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                pool.shutdown();
+            }
+            changed = true;
+        }
+
+        rebuildLookup();
+        return changed;
+    }
+
+    /**
+     * Returns the folder that contains the given client ID, or null if the
+     * client ID is not indexed or appears in multiple folders.
+     */
+    public Entry lookup(String clientId) {
+        return byClientId.get(clientId);
+    }
+
+    /**
+     * Returns true if the given client ID appears in more than one folder.
+     */
+    public boolean isDuplicate(String clientId) {
+        return duplicateClientIds.contains(clientId);
+    }
+
+    public Set<String> getDuplicateClientIds() {
+        return Collections.unmodifiableSet(duplicateClientIds);
+    }
+
+    /**
+     * Returns the (non-duplicated) client IDs in the index.
+     */
+    public Set<String> getClientIds() {
+        return Collections.unmodifiableSet(byClientId.keySet());
+    }
+
+    /**
+     * Returns a map from each (non-duplicated) client ID to its folder, in the
+     * same form as FolderUtils.buildMap.
+     *
+     * @param fullPath Whether the values should be full paths rather than
+     *        folder names
+     */
+    public Map<String, String> toFolderMap(boolean fullPath) {
+        Map<String, String> idToFolder = new HashMap<String, String>();
+        for (Entry entry : byClientId.values()) {
+            idToFolder.put(entry.clientId, fullPath ? entry.getFullPath() : entry.folderName);
+        }
+        return idToFolder;
+    }
+
+    /**
+     * Writes the index to its index file. The file is written to a temporary
+     * file first and then moved into place, so an interrupted save never
+     * leaves a truncated index behind.
+     */
+    public void save() {
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (String root : entriesByRoot.keySet()) {
+                writer.write(ROOT_RECORD + "\t" + root + "\t" + rootModified.get(root));
+                writer.newLine();
+                for (Entry entry : entriesByRoot.get(root)) {
+                    writer.write(ENTRY_RECORD + "\t" + root + "\t" + entry.clientId + "\t" + entry.folderName);
+                    writer.newLine();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write folder index " + temp + ": " + e);
+            return;
+        }
+        try {
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not replace folder index " + indexFile + ": " + e);
+        }
+    }
+
+    /*
+     * Reads the index file, if there is one. A missing or unreadable index file
+     * simply results in an empty index, which refresh() will then fill.
+     */
+    private void load() {
+        if (!Files.exists(indexFile)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+                if (parts[0].equals(ROOT_RECORD) && parts.length == 3) {
+                    rootModified.put(parts[1], Long.parseLong(parts[2]));
+                    entriesByRoot.put(parts[1], new ArrayList<Entry>());
+                } else if (parts[0].equals(ENTRY_RECORD) && parts.length == 4) {
+                    List<Entry> entries = entriesByRoot.get(parts[1]);
+                    if (entries != null) {
+                        entries.add(new Entry(parts[1], parts[2], parts[3]));
+                    }
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Ignoring unreadable folder index " + indexFile + ": " + e);
+            rootModified.clear();
+            entriesByRoot.clear();
+        }
+    }
+
+    /*
+     * Rebuilds the client ID lookup tables from the entries of the requested
+     * roots.
+     */
+    private void rebuildLookup() {
+        byClientId.clear();
+        duplicateClientIds.clear();
+        for (String root : requestedRoots) {
+            List<Entry> entries = entriesByRoot.get(root);
+            if (entries == null) {
+                continue;
+            }
+            for (Entry entry : entries) {
+                if (duplicateClientIds.contains(entry.clientId)) {
+                    continue;
+                }
+                if (byClientId.containsKey(entry.clientId)) {
+                    byClientId.remove(entry.clientId);
+                    duplicateClientIds.add(entry.clientId);
+                    continue;
+                }
+                byClientId.put(entry.clientId, entry);
+            }
+        }
+    }
+
+    /*
+     * Lists the sub-folders of a single root that contain a client ID.
+     */
+    private static List<Entry> listRoot(String root) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        DirectoryStream.Filter<Path> filter = new DirectoryStream.Filter<Path>() {
+            public boolean accept(Path file) throws IOException {
+                return (Files.isDirectory(file));
+            }
+        };
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(root), filter)) {
+            for (Path entry : stream) {
+                String folderName = entry.getFileName().toString();
+                String clientId = FolderUtils.parseClientId(folderName);
+                if (clientId != null) {
+                    entries.add(new Entry(root, clientId, folderName));
+                }
+            }
+        }
+        return entries;
+    }
+
+    /*
+     * Returns the modification time of the given directory, or -1 if it
+     * cannot be read (which forces the root to be re-listed next time).
+     */
+    private static long lastModified(String root) {
+        try {
+            return Files.getLastModifiedTime(Paths.get(root)).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
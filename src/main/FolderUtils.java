@@ -6,13 +6,15 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 
 public class FolderUtils {
+    // Where the persistent client ID -> folder index (see FolderIndex) is kept
+    public static final String FOLDER_INDEX_FILE = "folder-index.tsv";
 
     public static void createSubset(Set<String> clientIds) {
         List<String> paths = new ArrayList<String>();
         paths.add("C:\\Users\\Joshua\\Downloads\\ScanPreAlignedImages\\August Scan Output");
         paths.add("C:\\Users\\Joshua\\Downloads\\ScanPreAlignedImages\\August Scan Output\\Additional files");
 
-        Map<String, String> clientIdToFolderName = clientIdsToFolderName(paths);
+        Map<String, String> clientIdToFolderName = FolderIndex.open(FOLDER_INDEX_FILE, paths).toFolderMap(true);
         String destination = "C:\\Users\\Joshua\\Downloads\\ScanPreAlignedImages\\relevant-training-examples\\";
         for (String id : clientIds) {
             if (!clientIdToFolderName.containsKey(id)) {
@@ -68,11 +70,10 @@ public class FolderUtils {
 
                 String pathToFolder = entry.toString();
                 String folderName = getFolderName(pathToFolder);
-                String[] underScoreSplit = folderName.split("_");
-                if (underScoreSplit.length < 2 || !underScoreSplit[underScoreSplit.length - 2].equals("id")) {
+                String clientId = parseClientId(folderName);
+                if (clientId == null) {
                     continue;
                 }
-                String clientId = underScoreSplit[underScoreSplit.length - 1];
                 if (idToFolder.containsKey(clientId)) {
                     System.out.println("Duplicate client id " + clientId);
                     idToFolder.remove(clientId);
@@ -92,6 +93,42 @@ public class FolderUtils {
         }
     }
 
+    /**
+     * Extracts the client ID embedded at the end of a folder name of the
+     * format xxxxxxx_id_yyy (where yyy is the client id).
+     * 
+     * @param folderName The name of the folder (without the path)
+     * @return The client ID, or null if the folder name is not of the expected
+     *         format
+     */
+    public static String parseClientId(String folderName) {
+        String[] underScoreSplit = folderName.split("_");
+        if (underScoreSplit.length < 2 || !underScoreSplit[underScoreSplit.length - 2].equals("id")) {
+            return null;
+        }
+        return underScoreSplit[underScoreSplit.length - 1];
+    }
+
+    /**
+     * Counts the sub-folders of a folder (without looking inside them), e.g.
+     * to know up front how many forms a crawl will visit.
+     * 
+     * @return The number of sub-folders, or 0 if the folder cannot be listed
+     */
+    public static int countSubfolders(Path folder) {
+        int count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path entry : stream) {
+                if (Files.isDirectory(entry)) {
+                    count++;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+        return count;
+    }
+
     public static void copyDirectory(String path, String destinationString) {
         Path source = Paths.get(path);
         Path target = Paths.get(destinationString + getFolderName(path));
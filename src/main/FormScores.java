@@ -0,0 +1,103 @@
+package main;
+
+import java.util.*;
+
+/**
+ * Holds the number of correct and total digits/bubbles for every field of
+ * every scored form. The counts are stored form by form in flat arrays (the
+ * entry for form f and field i is at index f * numFields + i), so that
+ * analyses which revisit the forms many times (e.g. resampling) can walk them
+ * without any per-form objects.
+ */
+public class FormScores {
+    private final int numFields;
+    private int numForms;
+    private List<String> clientIds = new ArrayList<String>();
+    private List<String> folderNames = new ArrayList<String>();
+    private int[] correct;
+    private int[] total;
+
+    public FormScores(int numFields) {
+        this.numFields = numFields;
+        this.correct = new int[numFields * 16];
+        this.total = new int[numFields * 16];
+    }
+
+    /**
+     * Adds a form with all counts set to zero.
+     *
+     * @return The index of the new form
+     */
+    public int addForm(String clientId, String folderName) {
+        if ((numForms + 1) * numFields > correct.length) {
+            correct = Arrays.copyOf(correct, correct.length * 2);
+            total = Arrays.copyOf(total, total.length * 2);
+        }
+        clientIds.add(clientId);
+        folderNames.add(folderName);
+        return numForms++;
+    }
+
+    public void set(int form, int field, int numCorrect, int numTotal) {
+        correct[form * numFields + field] = numCorrect;
+        total[form * numFields + field] = numTotal;
+    }
+
+    public int getCorrect(int form, int field) {
+        return correct[form * numFields + field];
+    }
+
+    public int getTotal(int form, int field) {
+        return total[form * numFields + field];
+    }
+
+    public int getNumForms() {
+        return numForms;
+    }
+
+    public int getNumFields() {
+        return numFields;
+    }
+
+    public String getClientId(int form) {
+        return clientIds.get(form);
+    }
+
+    public String getFolderName(int form) {
+        return folderNames.get(form);
+    }
+
+    /**
+     * Returns the flat array of correct counts (form-major, see class comment).
+     * Only the first getNumForms() * getNumFields() entries are meaningful.
+     */
+    int[] correctArray() {
+        return correct;
+    }
+
+    /**
+     * Returns the flat array of total counts (form-major, see class comment).
+     * Only the first getNumForms() * getNumFields() entries are meaningful.
+     */
+    int[] totalArray() {
+        return total;
+    }
+
+    /**
+     * Sums the counts over all forms, in the format expected by
+     * AccuracyChecker.printResults.
+     *
+     * @param numCorrect An output array that will hold the number of correct
+     *        digits for each field.
+     * @param numTotal An output array that will hold the number of total
+     *        digits for each field.
+     */
+    public void sumFields(int[] numCorrect, int[] numTotal) {
+        for (int f = 0; f < numForms; f++) {
+            for (int i = 0; i < numFields; i++) {
+                numCorrect[i] += correct[f * numFields + i];
+                numTotal[i] += total[f * numFields + i];
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package main;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Describes a form template: which sheets of the Excel file hold its expected
+ * data, and, for each field, its Excel column, the index of its entry in the
+ * "fields" array of output.json, and how it is scored. DEFAULT is the form
+ * that AccuracyChecker and JsonParser are set up for; other templates are
+ * read from template files (see load).
+ */
+public class FormTemplate {
+    /**
+     * The template described by the constants of AccuracyChecker and
+     * JsonParser.
+     */
+    public static final FormTemplate DEFAULT = createDefault();
+
+    private final String name;
+    private final String[] sheets;
+    private final String[] fieldNames;
+    private final String[] dataColumns;
+    private final int[] jsonIndexes;
+    private final boolean[] isBubble;
+    private final boolean[] isClientId;
+    private final String[][][] bubbleOptions;
+
+    private FormTemplate(String name, String[] sheets, List<String> fieldNames, List<String> dataColumns,
+            List<Integer> jsonIndexes, List<Boolean> isBubble, List<Boolean> isClientId,
+            List<String[][]> bubbleOptions) {
+        int numFields = fieldNames.size();
+        this.name = name;
+        this.sheets = sheets;
+        this.fieldNames = fieldNames.toArray(new String[numFields]);
+        this.dataColumns = dataColumns.toArray(new String[numFields]);
+        this.jsonIndexes = new int[numFields];
+        this.isBubble = new boolean[numFields];
+        this.isClientId = new boolean[numFields];
+        this.bubbleOptions = bubbleOptions.toArray(new String[numFields][][]);
+        for (int i = 0; i < numFields; i++) {
+            this.jsonIndexes[i] = jsonIndexes.get(i);
+            this.isBubble[i] = isBubble.get(i);
+            this.isClientId[i] = isClientId.get(i);
+        }
+    }
+
+    private static FormTemplate createDefault() {
+        List<String> fieldNames = new ArrayList<String>();
+        List<String> dataColumns = new ArrayList<String>();
+        List<Integer> jsonIndexes = new ArrayList<Integer>();
+        List<Boolean> isBubble = new ArrayList<Boolean>();
+        List<Boolean> isClientId = new ArrayList<Boolean>();
+        List<String[][]> bubbleOptions = new ArrayList<String[][]>();
+        for (int i = 0; i < AccuracyChecker.EXCEL_DATA_COLUMNS.length; i++) {
+            fieldNames.add(AccuracyChecker.COLUMN_NAMES[i]);
+            dataColumns.add(AccuracyChecker.EXCEL_DATA_COLUMNS[i]);
+            jsonIndexes.add(JsonParser.getJsonIndex(i));
+            isBubble.add(AccuracyChecker.IS_BUBBLE[i]);
+            isClientId.add(i == 0);
+            bubbleOptions.add(AccuracyChecker.getBubbleOptions(i));
+        }
+        return new FormTemplate("default", AccuracyChecker.EXCEL_SHEETS, fieldNames, dataColumns, jsonIndexes,
+                isBubble, isClientId, bubbleOptions);
+    }
+
+    /**
+     * Reads a template file. Each line is tab-separated; empty lines and lines
+     * starting with '#' are ignored. The "sheets" line lists the sheets to
+     * read, and every other line describes a field, in order:
+     *
+     * <pre>
+     * sheets   #3   #4
+     * client_id   P   3   client_id
+     * age   AA   5   digit
+     * regCCPF   BY   10   bubble
+     * health_cond   GD   28   bubble   1=diabetes   2=underweight
+     * </pre>
+     *
+     * The columns of a field line are its name, its Excel column (in
+     * upper-case letters), the zero-based index of its entry in the "fields"
+     * array of output.json, and its type: "digit", "bubble" or "client_id" (a
+     * digit field that is zero-padded like AccuracyChecker's field 0). A
+     * bubble field followed by code=text options is a "select-many" field,
+     * scored one option at a time.
+     *
+     * @param file The template file; its name (without extension) names the
+     *        template
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public static FormTemplate load(String file) throws IOException {
+        String[] sheets = null;
+        List<String> fieldNames = new ArrayList<String>();
+        List<String> dataColumns = new ArrayList<String>();
+        List<Integer> jsonIndexes = new ArrayList<Integer>();
+        List<Boolean> isBubble = new ArrayList<Boolean>();
+        List<Boolean> isClientId = new ArrayList<Boolean>();
+        List<String[][]> bubbleOptions = new ArrayList<String[][]>();
+
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+            lineNumber++;
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\t");
+            if (parts[0].equals("sheets")) {
+                sheets = Arrays.copyOfRange(parts, 1, parts.length);
+                continue;
+            }
+            if (parts.length < 4) {
+                throw new IOException(file + ", line " + lineNumber + ": expected name, column, index and type");
+            }
+            String type = parts[3];
+            if (!type.equals("digit") && !type.equals("bubble") && !type.equals("client_id")) {
+                throw new IOException(file + ", line " + lineNumber + ": unknown type " + type);
+            }
+            if (!parts[1].matches("[A-Z]{1,3}")) {
+                throw new IOException(file + ", line " + lineNumber + ": bad Excel column " + parts[1]
+                        + " (expected upper-case letters, e.g. BD)");
+            }
+            fieldNames.add(parts[0]);
+            dataColumns.add(parts[1]);
+            try {
+                int jsonIndex = Integer.parseInt(parts[2]);
+                if (jsonIndex < 0) {
+                    throw new NumberFormatException();
+                }
+                jsonIndexes.add(jsonIndex);
+            } catch (NumberFormatException e) {
+                throw new IOException(file + ", line " + lineNumber + ": bad index " + parts[2]);
+            }
+            isBubble.add(type.equals("bubble"));
+            isClientId.add(type.equals("client_id"));
+            String[][] options = null;
+            if (parts.length > 4) {
+                if (!type.equals("bubble")) {
+                    throw new IOException(file + ", line " + lineNumber + ": only bubble fields have options");
+                }
+                options = new String[parts.length - 4][];
+                for (int k = 0; k < options.length; k++) {
+                    options[k] = parts[4 + k].split("=", 2);
+                    if (options[k].length != 2) {
+                        throw new IOException(file + ", line " + lineNumber + ": bad option " + parts[4 + k]);
+                    }
+                }
+            }
+            bubbleOptions.add(options);
+        }
+        if (sheets == null || sheets.length == 0 || fieldNames.isEmpty()) {
+            throw new IOException(file + ": needs a \"sheets\" line and at least one field");
+        }
+        String name = Paths.get(file).getFileName().toString();
+        if (name.contains(".")) {
+            name = name.substring(0, name.lastIndexOf('.'));
+        }
+        return new FormTemplate(name, sheets, fieldNames, dataColumns, jsonIndexes, isBubble, isClientId,
+                bubbleOptions);
+    }
+
+    /**
+     * Compares the actual vs. expected value of the i-th field of this
+     * template, in the same way as AccuracyChecker.compareField does for the
+     * default template.
+     *
+     * @return An array with the number of correct digits in index 0 and the
+     *         total number of digits in index 1, or null if the field should
+     *         be skipped because either value is missing
+     */
+    public int[] compareField(int i, String actual, String expected) {
+        if (actual == null || expected == null || expected.equals("") || expected.equals("null")) {
+            return null;
+        }
+        if (isClientId[i]) {
+            actual = AccuracyChecker.padWithZeroes(actual);
+            expected = AccuracyChecker.padWithZeroes(expected);
+        }
+        return AccuracyChecker.compareSingleResult(actual, expected, bubbleOptions[i]);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String[] getSheets() {
+        return sheets;
+    }
+
+    public int getNumFields() {
+        return fieldNames.length;
+    }
+
+    public String getFieldName(int i) {
+        return fieldNames[i];
+    }
+
+    public boolean isBubble(int i) {
+        return isBubble[i];
+    }
+
+    /**
+     * Returns the letters of the Excel columns of the fields.
+     */
+    public String[] getDataColumns() {
+        return dataColumns;
+    }
+
+    /**
+     * Returns the indexes of the fields' entries in output.json.
+     */
+    public int[] getJsonIndexes() {
+        return jsonIndexes;
+    }
+}
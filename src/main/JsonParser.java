@@ -5,6 +5,7 @@ import java.nio.file.*;
 import java.util.*;
 
 import javax.json.*;
+import javax.json.stream.JsonParser.Event;
 
 /**
  * Contains methods to parse output.json files found within the directory's
@@ -32,6 +33,21 @@ public class JsonParser {
             48 // V2_date
     };
 
+    /**
+     * Returns the number of fields extracted from each output.json file.
+     */
+    public static int getNumFields() {
+        return JSON_ARRAY_INDEXES.length;
+    }
+
+    /**
+     * Returns the index, within the "fields" array of an output.json file, of
+     * the entry holding the given field.
+     */
+    public static int getJsonIndex(int field) {
+        return JSON_ARRAY_INDEXES[field];
+    }
+
     /**
      * Crawls entire "output" directory by going through each sub-directory.
      * Parses the data stored in each "output.json" file, and returns a map from
@@ -48,6 +64,18 @@ public class JsonParser {
      *         client ID that was duplicated.)
      */
     public static Map<String, ScanOutput> crawlDirectories(String scanOutputRoot) {
+        return crawlDirectories(scanOutputRoot, (int[]) null);
+    }
+
+    /**
+     * Same as crawlDirectories(scanOutputRoot), but extracts only the given
+     * fields from each output.json file (see parseActualJson(reader,
+     * fields)).
+     * 
+     * @param fields The (increasing) indexes of the fields to extract, or null
+     *        to extract every field
+     */
+    public static Map<String, ScanOutput> crawlDirectories(String scanOutputRoot, int[] fields) {
 
         // Filter all items in CURRENT_FOLDER_PATH to select the
         // sub-directories
@@ -62,10 +90,16 @@ public class JsonParser {
         // so keep track of those
         Set<String> duplicateClientIds = new TreeSet<String>();
         Map<String, ScanOutput> actualData = new HashMap<String, ScanOutput>();
+        Progress progress = new Progress("Crawling folders", FolderUtils.countSubfolders(dir));
         try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, filter)) {
 
-            // Loop through all sub-directories
+            // Loop through all sub-directories (until the run is cancelled)
             for (Path entry : stream) {
+                if (Progress.isCancelled()) {
+                    break;
+                }
+                progress.advance();
+
                 // Get the client ID of the current sub-directory (found in the
                 // clientID.txt file)
                 Scanner clientIdScanner = new Scanner(new File(entry.toString() + "\\clientID.txt"));
@@ -75,7 +109,8 @@ public class JsonParser {
                 // Parse the actual results from the JSON, as well as the
                 // correct results from the corresponding row in the Excel file
                 // (with the matching ClientID)
-                List<String> actualResult = JsonParser.parseActualJsonFile(entry.toString() + "\\output.json");
+                List<String> actualResult = JsonParser.parseActualJsonFile(entry.toString() + "\\output.json",
+                        fields);
 
                 // If there are multiple folders with the same Client ID, throw
                 // all of those out
@@ -96,9 +131,56 @@ public class JsonParser {
         } catch (IOException x) {
             System.err.println(x);
         }
+        progress.finish();
         return actualData;
     }
 
+    /**
+     * Same as crawlDirectories(scanOutputRoot), but writes each form to a
+     * SpilledForms writer instead of collecting the forms in a Map.
+     * (Duplicate client IDs are written as they are; SpilledForms treats them
+     * as missing.)
+     */
+    public static void crawlDirectories(String scanOutputRoot, SpilledForms.Writer writer) {
+        DirectoryStream.Filter<Path> filter = new DirectoryStream.Filter<Path>() {
+            public boolean accept(Path file) throws IOException {
+                return (Files.isDirectory(file));
+            }
+        };
+        Progress progress = new Progress("Crawling folders", FolderUtils.countSubfolders(Paths.get(scanOutputRoot)));
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(scanOutputRoot), filter)) {
+            for (Path entry : stream) {
+                if (Progress.isCancelled()) {
+                    break;
+                }
+                progress.advance();
+                String clientId = readClientId(entry);
+                List<String> actualResult = parseActualJsonFile(entry.resolve("output.json").toString());
+                writer.add(clientId, entry.getFileName().toString(), actualResult);
+            }
+        } catch (IOException x) {
+            System.err.println(x);
+        }
+        progress.finish();
+    }
+
+    /**
+     * Reads the client ID stored in the clientID.txt file of a Scan output
+     * folder.
+     * 
+     * @param folder The Scan output folder for a single form
+     * @return The first whitespace-delimited token of clientID.txt
+     * @throws IOException if clientID.txt is missing, unreadable or empty
+     */
+    public static String readClientId(Path folder) throws IOException {
+        try (Scanner clientIdScanner = new Scanner(folder.resolve("clientID.txt"), "UTF-8")) {
+            if (!clientIdScanner.hasNext()) {
+                throw new IOException(folder.resolve("clientID.txt") + " is empty");
+            }
+            return clientIdScanner.next();
+        }
+    }
+
     /**
      * Parses the actual JSON file, and returns a list of the values stored in
      * the JSON at the indexes specified by JSON_ARRAY_INDEXES.
@@ -108,12 +190,45 @@ public class JsonParser {
      *         by JSON_ARRAY_INDEXES.
      */
     public static List<String> parseActualJsonFile(String file) {
+        return parseActualJsonFile(file, null);
+    }
+
+    /**
+     * Same as parseActualJsonFile(file), but extracts only the given fields
+     * (see parseActualJson(reader, fields)).
+     */
+    public static List<String> parseActualJsonFile(String file, int[] fields) {
         FileReader reader = null;
         try {
             reader = new FileReader(file);
         } catch (FileNotFoundException e) {
             e.printStackTrace();
         }
+        if (fields == null) {
+            return parseActualJson(reader);
+        }
+        try {
+            return parseActualJson(reader, fields);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses an output.json document, and returns a list of the values stored
+     * in the JSON at the indexes specified by JSON_ARRAY_INDEXES.
+     * 
+     * @param reader A reader over the contents of the JSON document
+     * @return A list of the entries stored in the JSON at the indexes specified
+     *         by JSON_ARRAY_INDEXES.
+     */
+    public static List<String> parseActualJson(Reader reader) {
         JsonReader jsonReader = Json.createReader(reader);
         JsonObject object = jsonReader.readObject();
         JsonArray array = object.getJsonArray("fields");
@@ -128,4 +243,110 @@ public class JsonParser {
         }
         return actualData;
     }
+
+    /**
+     * Same as parseActualJson(reader), but extracts only the given fields, and
+     * stops reading the document once the last of them has been found. The
+     * list still has one entry for each field, with null for the fields that
+     * were not extracted.
+     * 
+     * @param reader A reader over the contents of the JSON document
+     * @param fields The (increasing) indexes of the fields to extract
+     * @return A list of the entries stored in the JSON at the indexes specified
+     *         by JSON_ARRAY_INDEXES, or null for the fields not extracted
+     * @throws JsonException if the document cannot be parsed, or does not
+     *         have a "fields" array with a "value" string for each of the
+     *         given fields
+     */
+    public static List<String> parseActualJson(Reader reader, int[] fields) {
+        return extractValues(reader, JSON_ARRAY_INDEXES, fields);
+    }
+
+    /**
+     * Parses an output.json document of another form template, and returns a
+     * list of the values stored in the JSON at the given indexes.
+     * 
+     * @param reader A reader over the contents of the JSON document
+     * @param jsonIndexes The (distinct) zero-based indexes, within the
+     *        "fields" array, of the fields of the template
+     * @throws JsonException as parseActualJson(reader, fields)
+     */
+    public static List<String> parseActualJsonAt(Reader reader, int[] jsonIndexes) {
+        int[] fields = new int[jsonIndexes.length];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = i;
+        }
+        return extractValues(reader, jsonIndexes, fields);
+    }
+
+    /*
+     * Streams the document, extracting the given fields, where field i is
+     * stored at index jsonIndexes[i] of the "fields" array (see
+     * parseActualJson(reader, fields)).
+     */
+    private static List<String> extractValues(Reader reader, int[] jsonIndexes, int[] fields) {
+        // slots[j] is the field stored at index j of the "fields" array, or
+        // -1 if that index is not extracted
+        int lastIndex = -1;
+        for (int field : fields) {
+            lastIndex = Math.max(lastIndex, jsonIndexes[field]);
+        }
+        int[] slots = new int[lastIndex + 1];
+        Arrays.fill(slots, -1);
+        for (int field : fields) {
+            slots[jsonIndexes[field]] = field;
+        }
+        List<String> actualData = new ArrayList<String>(Collections.<String> nCopies(jsonIndexes.length, null));
+        int numFound = 0;
+
+        // The document is { ..., "fields": [ { ..., "value": "..." }, ... ] },
+        // so the entries of the array are the objects at depth 3
+        javax.json.stream.JsonParser parser = Json.createParser(reader);
+        try {
+            int depth = 0;
+            boolean inFields = false;
+            String key = null;
+            int index = -1;
+            while (numFound < fields.length && parser.hasNext()) {
+                Event event = parser.next();
+                switch (event) {
+                case START_OBJECT:
+                case START_ARRAY:
+                    depth++;
+                    if (depth == 2 && event == Event.START_ARRAY && "fields".equals(key)) {
+                        inFields = true;
+                    } else if (inFields && depth == 3) {
+                        index++;
+                    }
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    if (inFields && depth == 2) {
+                        inFields = false;
+                    }
+                    depth--;
+                    break;
+                case KEY_NAME:
+                    key = parser.getString();
+                    break;
+                default:
+                    if (inFields && depth == 3 && index < slots.length && slots[index] >= 0 && "value".equals(key)
+                            && actualData.get(slots[index]) == null) {
+                        if (event != Event.VALUE_STRING) {
+                            throw new JsonException("The value of entry " + index + " is not a string");
+                        }
+                        actualData.set(slots[index], parser.getString());
+                        numFound++;
+                    }
+                    break;
+                }
+            }
+        } finally {
+            parser.close();
+        }
+        if (numFound < fields.length) {
+            throw new JsonException("Missing the value of a requested entry of \"fields\"");
+        }
+        return actualData;
+    }
 }
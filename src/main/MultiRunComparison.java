@@ -0,0 +1,204 @@
+package main;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Scores several versions of Scan output (e.g. different Scan builds or
+ * parameter sets) against the same expected data in a single pass. The Excel
+ * file is parsed once, the output folders are crawled concurrently, and only
+ * the client IDs that appear in the Excel file and in every output folder are
+ * compared, so that the per-field accuracies of the different versions can be
+ * compared directly.
+ *
+ * The first output root is treated as the baseline: every other version is
+ * reported with its accuracy delta relative to the baseline, along with the
+ * number of forms on which it got more (win) or fewer (loss) digits/bubbles
+ * correct than the baseline.
+ */
+public class MultiRunComparison {
+
+    /**
+     * Runs the comparison.
+     *
+     * Command-line arguments:
+     *
+     * [0..n-1]: The paths to the roots of the Scan output folders to compare.
+     * The first one is the baseline.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Command-line arguments: <Baseline scan output folder> <Scan output folder> ...");
+            System.exit(1);
+        }
+
+        // Start crawling the output folders while the Excel file is parsed
+        ExecutorService pool = Executors.newFixedThreadPool(args.length);
+        List<Future<Map<String, ScanOutput>>> crawls = new ArrayList<Future<Map<String, ScanOutput>>>();
+        for (final String root : args) {
+            crawls.add(pool.submit(new Callable<Map<String, ScanOutput>>() {
+                public Map<String, ScanOutput> call() {
+                    return JsonParser.crawlDirectories(root);
+                }
+            }));
+        }
+        pool.shutdown();
+
+        Map<String, List<String>> expectedData = ExcelParser.parseCorrectFile(AccuracyChecker.EXCEL_FILE,
+                AccuracyChecker.EXCEL_SHEETS, AccuracyChecker.EXCEL_DATA_COLUMNS);
+
+        List<Map<String, ScanOutput>> actualOutputs = new ArrayList<Map<String, ScanOutput>>();
+        try {
+            for (Future<Map<String, ScanOutput>> crawl : crawls) {
+                actualOutputs.add(crawl.get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        List<FormScores> scores = scoreRuns(actualOutputs, expectedData);
+        printComparison(args, scores);
+    }
+
+    /**
+     * Scores every version on the client IDs common to the expected data and
+     * all versions. Form f of every returned FormScores refers to the same
+     * client ID.
+     *
+     * @param actualOutputs The output of each version, as returned by
+     *        JsonParser.crawlDirectories
+     * @param expected The expected data, as returned by
+     *        ExcelParser.parseCorrectFile
+     * @return The scores of each version, in the same order as actualOutputs
+     */
+    public static List<FormScores> scoreRuns(List<Map<String, ScanOutput>> actualOutputs,
+            Map<String, List<String>> expected) {
+        Set<String> common = new TreeSet<String>(expected.keySet());
+        for (Map<String, ScanOutput> actual : actualOutputs) {
+            common.retainAll(actual.keySet());
+        }
+
+        List<FormScores> scores = new ArrayList<FormScores>();
+        for (Map<String, ScanOutput> actual : actualOutputs) {
+            scores.add(AccuracyChecker.scoreForms(common, actual, expected));
+        }
+        return scores;
+    }
+
+    /*
+     * Prints the per-field accuracy of every version side by side, followed by
+     * the deltas and per-form win/loss counts relative to the baseline.
+     */
+    private static void printComparison(String[] roots, List<FormScores> scores) {
+        int numRuns = scores.size();
+        int numFields = AccuracyChecker.EXCEL_DATA_COLUMNS.length;
+        FormScores baseline = scores.get(0);
+
+        System.out.println();
+        System.out.println("Comparing " + numRuns + " runs on " + baseline.getNumForms() + " common client IDs");
+        for (int run = 0; run < numRuns; run++) {
+            System.out.println("Run " + run + (run == 0 ? " (baseline)" : "") + ": " + roots[run]);
+        }
+
+        int[][] numCorrect = new int[numRuns][numFields];
+        int[][] numTotal = new int[numRuns][numFields];
+        for (int run = 0; run < numRuns; run++) {
+            scores.get(run).sumFields(numCorrect[run], numTotal[run]);
+        }
+
+        // Per-field accuracies, deltas and wins/losses
+        System.out.println();
+        for (int i = 0; i < numFields; i++) {
+            String type = AccuracyChecker.IS_BUBBLE[i] ? "bubble" : "digit";
+            StringBuilder line = new StringBuilder(
+                    "Field " + i + " (" + AccuracyChecker.COLUMN_NAMES[i] + ": " + type + "):");
+            double baselinePercentage = numCorrect[0][i] * 100.0 / numTotal[0][i];
+            line.append(String.format(" %.2f%%", baselinePercentage));
+            for (int run = 1; run < numRuns; run++) {
+                double percentage = numCorrect[run][i] * 100.0 / numTotal[run][i];
+                int[] winLoss = countWinsAndLosses(baseline, scores.get(run), i, i + 1);
+                line.append(String.format(" | %.2f%% (%+.2f, %d W / %d L)", percentage,
+                        percentage - baselinePercentage, winLoss[0], winLoss[1]));
+            }
+            System.out.println(line);
+        }
+
+        // Combined bubble and digit accuracies
+        System.out.println();
+        printCombined("BUBBLE FIELDS", numCorrect, numTotal, true);
+        printCombined("DIGIT FIELDS", numCorrect, numTotal, false);
+
+        // Forms that got better or worse overall
+        System.out.println();
+        for (int run = 1; run < numRuns; run++) {
+            int[] winLoss = countWinsAndLosses(baseline, scores.get(run), 0, numFields);
+            System.out.println("Run " + run + " vs. baseline: " + winLoss[0] + " forms better, " + winLoss[1]
+                    + " forms worse, " + (baseline.getNumForms() - winLoss[0] - winLoss[1]) + " unchanged");
+        }
+    }
+
+    private static void printCombined(String label, int[][] numCorrect, int[][] numTotal, boolean bubble) {
+        StringBuilder line = new StringBuilder(label + ":");
+        double baselinePercentage = 0;
+        for (int run = 0; run < numCorrect.length; run++) {
+            int correct = 0;
+            int total = 0;
+            for (int i = 0; i < numCorrect[run].length; i++) {
+                if (AccuracyChecker.IS_BUBBLE[i] == bubble) {
+                    correct += numCorrect[run][i];
+                    total += numTotal[run][i];
+                }
+            }
+            double percentage = correct * 100.0 / total;
+            if (run == 0) {
+                baselinePercentage = percentage;
+                line.append(String.format(" %d/%d (%.2f%%)", correct, total, percentage));
+            } else {
+                line.append(String.format(" | %d/%d (%.2f%%, %+.2f)", correct, total, percentage,
+                        percentage - baselinePercentage));
+            }
+        }
+        System.out.println(line);
+    }
+
+    /**
+     * Counts the forms on which "other" had a higher (wins) or lower (losses)
+     * accuracy than "baseline" over the fields in [fromField, toField). The
+     * two runs may read a different number of digits/bubbles on a form, so
+     * accuracies are compared rather than correct counts. Forms with nothing
+     * to score in either run are neither wins nor losses.
+     *
+     * @requires baseline and other were produced by scoreRuns in the same call
+     * @return An array with the number of wins at index 0 and the number of
+     *         losses at index 1
+     */
+    public static int[] countWinsAndLosses(FormScores baseline, FormScores other, int fromField, int toField) {
+        int[] winLoss = new int[2];
+        for (int f = 0; f < baseline.getNumForms(); f++) {
+            long baselineCorrect = 0;
+            long baselineTotal = 0;
+            long otherCorrect = 0;
+            long otherTotal = 0;
+            for (int i = fromField; i < toField; i++) {
+                baselineCorrect += baseline.getCorrect(f, i);
+                baselineTotal += baseline.getTotal(f, i);
+                otherCorrect += other.getCorrect(f, i);
+                otherTotal += other.getTotal(f, i);
+            }
+            if (baselineTotal == 0 || otherTotal == 0) {
+                continue;
+            }
+
+            // otherCorrect / otherTotal compared with baselineCorrect /
+            // baselineTotal, without rounding
+            long difference = otherCorrect * baselineTotal - baselineCorrect * otherTotal;
+            if (difference > 0) {
+                winLoss[0]++;
+            } else if (difference < 0) {
+                winLoss[1]++;
+            }
+        }
+        return winLoss;
+    }
+}
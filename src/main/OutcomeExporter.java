@@ -0,0 +1,440 @@
+package main;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Writes the outcome of every field of every compared form (client ID, output
+ * folder, field, actual value, expected value, correct, total, field type) to
+ * a file, as the comparison runs, so that per-form results can be analyzed
+ * without scraping the printed discrepancies.
+ *
+ * Two formats are supported, chosen by the file name:
+ *
+ * - "*.csv.gz": gzip-compressed CSV with a header line.
+ *
+ * - Anything else: a compressed columnar format. Records are buffered in
+ * blocks of BLOCK_RECORDS. Each block is written as its record count followed
+ * by each column, deflated separately. String columns are dictionary-encoded
+ * per block (the distinct values of the block, then a code for each record,
+ * with 0 for null), so a client ID repeated for all fields of a form is
+ * stored once. Numbers are written as variable-length ints. A record count of
+ * 0 ends the file. Use OutcomeExporter.Reader to read it back.
+ *
+ * Fields that are skipped by the comparison (missing values) are exported
+ * with 0 correct and 0 total, as in FormScores.
+ */
+public abstract class OutcomeExporter implements Closeable {
+    private static final int MAGIC = 0x53434f55; // "SCOU"
+    private static final int FORMAT_VERSION = 1;
+    static final int BLOCK_RECORDS = 65536;
+
+    // Column order of the columnar format
+    private static final int CLIENT_ID = 0;
+    private static final int FOLDER_NAME = 1;
+    private static final int FIELD = 2;
+    private static final int ACTUAL = 3;
+    private static final int EXPECTED = 4;
+    private static final int CORRECT = 5;
+    private static final int TOTAL = 6;
+    private static final int TYPE = 7;
+    private static final int NUM_COLUMNS = 8;
+
+    // The first exception thrown by tryAdd
+    private IOException failure;
+
+    /**
+     * Opens an exporter for the given file; the format depends on its name
+     * (see the class comment).
+     */
+    public static OutcomeExporter open(String file) throws IOException {
+        Path path = Paths.get(file);
+        if (file.endsWith(".csv.gz")) {
+            return new CsvExporter(path);
+        }
+        return new ColumnarExporter(path);
+    }
+
+    /**
+     * Adds the outcome of one field of a form.
+     *
+     * @param field The index of the field
+     * @param comparison The result of AccuracyChecker.compareField, or null
+     *        if the field was skipped
+     */
+    public abstract void add(String clientId, String folderName, int field, String actual, String expected,
+            int[] comparison) throws IOException;
+
+    /**
+     * Same as add, but instead of throwing, keeps the first exception (see
+     * getFailure) and then ignores every later outcome, so that a failed
+     * export does not stop the comparison.
+     */
+    public void tryAdd(String clientId, String folderName, int field, String actual, String expected,
+            int[] comparison) {
+        if (failure != null) {
+            return;
+        }
+        try {
+            add(clientId, folderName, field, actual, expected, comparison);
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Returns the exception that stopped tryAdd, or null if there was none.
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Adds the outcome of every field of a form (see add).
+     */
+    public void addForm(String clientId, String folderName, List<String> actualResults,
+            List<String> expectedResults) throws IOException {
+        for (int i = 0; i < actualResults.size(); i++) {
+            String actual = actualResults.get(i);
+            String expected = expectedResults.get(i);
+            add(clientId, folderName, i, actual, expected, AccuracyChecker.compareField(i, actual, expected));
+        }
+    }
+
+    private static String fieldType(int field) {
+        return AccuracyChecker.IS_BUBBLE[field] ? "bubble" : "digit";
+    }
+
+    /*
+     * Gzip-compressed CSV.
+     */
+    private static class CsvExporter extends OutcomeExporter {
+        private final Writer writer;
+
+        CsvExporter(Path file) throws IOException {
+            writer = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(Files.newOutputStream(file), 65536), StandardCharsets.UTF_8), 65536);
+            writer.write("client_id,folder,field,field_name,actual,expected,correct,total,type\n");
+        }
+
+        @Override
+        public void add(String clientId, String folderName, int field, String actual, String expected,
+                int[] comparison) throws IOException {
+            writer.write(quote(clientId) + "," + quote(folderName) + "," + field + ","
+                    + quote(AccuracyChecker.COLUMN_NAMES[field]) + "," + quote(actual) + "," + quote(expected) + ","
+                    + (comparison == null ? 0 : comparison[0]) + "," + (comparison == null ? 0 : comparison[1]) + ","
+                    + fieldType(field) + "\n");
+        }
+
+        public void close() throws IOException {
+            writer.close();
+        }
+
+        /*
+         * Quotes a CSV value if needed; null is written as an empty value.
+         */
+        private static String quote(String s) {
+            if (s == null) {
+                return "";
+            }
+            if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+                return s;
+            }
+            return "\"" + s.replace("\"", "\"\"") + "\"";
+        }
+    }
+
+    /*
+     * The columnar format (see the class comment).
+     */
+    private static class ColumnarExporter extends OutcomeExporter {
+        private final DataOutputStream out;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+        // The records of the current block
+        private final String[][] strings = new String[NUM_COLUMNS][];
+        private final int[][] numbers = new int[NUM_COLUMNS][];
+        private int numRecords;
+
+        ColumnarExporter(Path file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 65536));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            for (int c : new int[] { CLIENT_ID, FOLDER_NAME, ACTUAL, EXPECTED }) {
+                strings[c] = new String[BLOCK_RECORDS];
+            }
+            for (int c : new int[] { FIELD, CORRECT, TOTAL, TYPE }) {
+                numbers[c] = new int[BLOCK_RECORDS];
+            }
+        }
+
+        @Override
+        public void add(String clientId, String folderName, int field, String actual, String expected,
+                int[] comparison) throws IOException {
+            strings[CLIENT_ID][numRecords] = clientId;
+            strings[FOLDER_NAME][numRecords] = folderName;
+            strings[ACTUAL][numRecords] = actual;
+            strings[EXPECTED][numRecords] = expected;
+            numbers[FIELD][numRecords] = field;
+            numbers[CORRECT][numRecords] = comparison == null ? 0 : comparison[0];
+            numbers[TOTAL][numRecords] = comparison == null ? 0 : comparison[1];
+            numbers[TYPE][numRecords] = AccuracyChecker.IS_BUBBLE[field] ? 1 : 0;
+            if (++numRecords == BLOCK_RECORDS) {
+                writeBlock();
+            }
+        }
+
+        public void close() throws IOException {
+            try {
+                writeBlock();
+                out.writeInt(0);
+            } finally {
+                out.close();
+                deflater.end();
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            if (numRecords == 0) {
+                return;
+            }
+            out.writeInt(numRecords);
+            ByteArrayOutputStream column = new ByteArrayOutputStream();
+            byte[] compressed = new byte[65536];
+            for (int c = 0; c < NUM_COLUMNS; c++) {
+                column.reset();
+                if (strings[c] != null) {
+                    encodeStrings(strings[c], numRecords, column);
+                    Arrays.fill(strings[c], 0, numRecords, null);
+                } else {
+                    for (int k = 0; k < numRecords; k++) {
+                        writeVarInt(column, numbers[c][k]);
+                    }
+                }
+
+                byte[] raw = column.toByteArray();
+                ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+                deflater.reset();
+                deflater.setInput(raw);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(compressed);
+                    deflated.write(compressed, 0, n);
+                }
+                out.writeInt(raw.length);
+                out.writeInt(deflated.size());
+                deflated.writeTo(out);
+            }
+            numRecords = 0;
+        }
+
+        /*
+         * Writes the distinct values (in order of first use), then the code of
+         * each value: 0 for null, otherwise 1 + its index among the distinct
+         * values.
+         */
+        private static void encodeStrings(String[] values, int count, ByteArrayOutputStream column) {
+            Map<String, Integer> codes = new HashMap<String, Integer>();
+            List<String> dictionary = new ArrayList<String>();
+            int[] encoded = new int[count];
+            for (int k = 0; k < count; k++) {
+                String value = values[k];
+                if (value == null) {
+                    continue;
+                }
+                Integer code = codes.get(value);
+                if (code == null) {
+                    dictionary.add(value);
+                    code = dictionary.size();
+                    codes.put(value, code);
+                }
+                encoded[k] = code;
+            }
+            writeVarInt(column, dictionary.size());
+            for (String value : dictionary) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                writeVarInt(column, bytes.length);
+                column.write(bytes, 0, bytes.length);
+            }
+            for (int k = 0; k < count; k++) {
+                writeVarInt(column, encoded[k]);
+            }
+        }
+
+        private static void writeVarInt(ByteArrayOutputStream out, int value) {
+            while ((value & ~0x7f) != 0) {
+                out.write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+    }
+
+    /**
+     * A record read back from the columnar format.
+     */
+    public static class Record {
+        public final String clientId;
+        public final String folderName;
+        public final int field;
+        public final String actual;
+        public final String expected;
+        public final int correct;
+        public final int total;
+        public final String type;
+
+        Record(String clientId, String folderName, int field, String actual, String expected, int correct,
+                int total, String type) {
+            this.clientId = clientId;
+            this.folderName = folderName;
+            this.field = field;
+            this.actual = actual;
+            this.expected = expected;
+            this.correct = correct;
+            this.total = total;
+            this.type = type;
+        }
+    }
+
+    /**
+     * Reads a file written in the columnar format, one block at a time.
+     */
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private final Inflater inflater = new Inflater();
+        private final Object[] columns = new Object[NUM_COLUMNS];
+        private int blockRecords;
+        private int next;
+        private boolean ended;
+
+        public Reader(String file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(file)), 65536));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                in.close();
+                throw new IOException(file + " is not an outcome export");
+            }
+        }
+
+        /**
+         * Returns the next record, or null at the end of the file.
+         */
+        public Record next() throws IOException {
+            if (next == blockRecords && !readBlock()) {
+                return null;
+            }
+            int k = next++;
+            int field = ((int[]) columns[FIELD])[k];
+            return new Record(((String[]) columns[CLIENT_ID])[k], ((String[]) columns[FOLDER_NAME])[k], field,
+                    ((String[]) columns[ACTUAL])[k], ((String[]) columns[EXPECTED])[k],
+                    ((int[]) columns[CORRECT])[k], ((int[]) columns[TOTAL])[k],
+                    ((int[]) columns[TYPE])[k] == 1 ? "bubble" : "digit");
+        }
+
+        public void close() throws IOException {
+            in.close();
+            inflater.end();
+        }
+
+        private boolean readBlock() throws IOException {
+            if (ended) {
+                return false;
+            }
+            blockRecords = in.readInt();
+            next = 0;
+            if (blockRecords == 0) {
+                ended = true;
+                return false;
+            }
+            for (int c = 0; c < NUM_COLUMNS; c++) {
+                byte[] raw = new byte[in.readInt()];
+                byte[] deflated = new byte[in.readInt()];
+                in.readFully(deflated);
+                inflater.reset();
+                inflater.setInput(deflated);
+                try {
+                    if (inflater.inflate(raw) != raw.length) {
+                        throw new IOException("Truncated column " + c);
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt column " + c, e);
+                }
+
+                ByteArrayInputStream column = new ByteArrayInputStream(raw);
+                if (c == CLIENT_ID || c == FOLDER_NAME || c == ACTUAL || c == EXPECTED) {
+                    String[] dictionary = new String[readVarInt(column)];
+                    for (int d = 0; d < dictionary.length; d++) {
+                        byte[] bytes = new byte[readVarInt(column)];
+                        if (bytes.length > 0 && column.read(bytes, 0, bytes.length) != bytes.length) {
+                            throw new EOFException("Truncated column " + c);
+                        }
+                        dictionary[d] = new String(bytes, StandardCharsets.UTF_8);
+                    }
+                    String[] values = new String[blockRecords];
+                    for (int k = 0; k < blockRecords; k++) {
+                        int code = readVarInt(column);
+                        values[k] = code == 0 ? null : dictionary[code - 1];
+                    }
+                    columns[c] = values;
+                } else {
+                    int[] values = new int[blockRecords];
+                    for (int k = 0; k < blockRecords; k++) {
+                        values[k] = readVarInt(column);
+                    }
+                    columns[c] = values;
+                }
+            }
+            return true;
+        }
+
+        private static int readVarInt(ByteArrayInputStream in) throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new EOFException();
+                }
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed variable-length int");
+        }
+    }
+
+    /**
+     * Compares the Scan output with the expected data (without printing
+     * every discrepancy) and exports the outcome of every field.
+     *
+     * Command-line arguments:
+     *
+     * [0]: The path to the root of the folder containing the Scan output.
+     *
+     * [1]: The file to export to ("*.csv.gz" for gzip CSV, anything else for
+     * the columnar format).
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Command-line arguments: <Root of scan output folder> <export file>");
+            System.exit(1);
+        }
+        Map<String, List<String>> expectedData = ExcelParser.parseCorrectFile(AccuracyChecker.EXCEL_FILE,
+                AccuracyChecker.EXCEL_SHEETS, AccuracyChecker.EXCEL_DATA_COLUMNS);
+        Map<String, ScanOutput> actualOutput = JsonParser.crawlDirectories(args[0]);
+
+        int numForms = 0;
+        try (OutcomeExporter exporter = open(args[1])) {
+            for (String clientId : expectedData.keySet()) {
+                ScanOutput output = actualOutput.get(clientId);
+                if (output != null) {
+                    exporter.addForm(clientId, output.folderName, output.outputData, expectedData.get(clientId));
+                    numForms++;
+                }
+            }
+        }
+        System.out.println("Exported " + numForms + " forms to " + args[1]);
+    }
+}
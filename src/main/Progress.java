@@ -0,0 +1,174 @@
+package main;
+
+import java.io.PrintStream;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reports the progress of a long-running phase (reading the Excel file,
+ * crawling the Scan output, comparing results): how many items are done, how
+ * many per second, the percentage done and the estimated time left. A line is
+ * printed at most once every REPORT_INTERVAL_MILLIS, so advancing is cheap
+ * enough to do for every row or folder, and may be done from several threads.
+ *
+ * Nothing is printed until a command-line tool calls reportTo (usually with
+ * System.err), so that the parsers stay quiet when used as a library (by
+ * ScoringDaemon, or in tests).
+ *
+ * Also holds the process-wide cancellation flag. Long loops check
+ * isCancelled() and stop early; once a run calls cancelOnInterrupt(), Ctrl-C
+ * sets the flag and gives the run up to CANCEL_GRACE_SECONDS to stop and
+ * write out what it has so far (which it signals by calling finished()).
+ */
+public class Progress {
+    private static final long REPORT_INTERVAL_MILLIS = 1000;
+    private static final int CANCEL_GRACE_SECONDS = 30;
+
+    private static volatile boolean cancelled;
+    private static volatile PrintStream output;
+    private static final CountDownLatch finished = new CountDownLatch(1);
+
+    private final String task;
+    private final AtomicLong total;
+    private final AtomicLong done = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    private volatile long nextReportMillis = System.currentTimeMillis() + REPORT_INTERVAL_MILLIS;
+
+    /**
+     * @param task What is being done, e.g. "Crawling folders"
+     * @param total The number of items to do, or 0 if not known (yet)
+     */
+    public Progress(String task, long total) {
+        this.task = task;
+        this.total = new AtomicLong(total);
+    }
+
+    /**
+     * Sets where progress lines are printed (null to print nothing, the
+     * default).
+     */
+    public static void reportTo(PrintStream stream) {
+        output = stream;
+    }
+
+    /**
+     * Adds to the number of items to do, for totals that are discovered along
+     * the way.
+     */
+    public void addToTotal(long n) {
+        total.addAndGet(n);
+    }
+
+    public void advance() {
+        advance(1);
+    }
+
+    public void advance(long n) {
+        done.addAndGet(n);
+        if (System.currentTimeMillis() >= nextReportMillis) {
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                if (now >= nextReportMillis) {
+                    nextReportMillis = now + REPORT_INTERVAL_MILLIS;
+                    report(false);
+                }
+            }
+        }
+    }
+
+    public long getDone() {
+        return done.get();
+    }
+
+    /**
+     * Prints the final line for this phase.
+     */
+    public synchronized void finish() {
+        report(true);
+    }
+
+    /*
+     * Prints e.g. "Crawling folders: 1200/5000 (24.0%), 350.2/s, ETA 0:10".
+     * Intermediate lines end with a carriage return so that they overwrite
+     * each other on a terminal.
+     */
+    private void report(boolean last) {
+        PrintStream stream = output;
+        if (stream == null) {
+            return;
+        }
+        long doneNow = done.get();
+        long totalNow = total.get();
+        double seconds = Math.max(1e-9, (System.nanoTime() - startNanos) / 1e9);
+        double rate = doneNow / seconds;
+
+        StringBuilder line = new StringBuilder(task).append(": ").append(doneNow);
+        if (totalNow > 0) {
+            line.append('/').append(totalNow);
+            line.append(String.format(" (%.1f%%)", 100.0 * doneNow / totalNow));
+        }
+        line.append(String.format(", %.1f/s", rate));
+        if (last) {
+            line.append(String.format(", %.1f s", seconds));
+            if (cancelled) {
+                line.append(" (cancelled)");
+            }
+        } else if (totalNow > doneNow && rate > 0) {
+            line.append(", ETA ").append(formatDuration((long) ((totalNow - doneNow) / rate)));
+        }
+        stream.print(line.append(last ? "\n" : "   \r"));
+        stream.flush();
+    }
+
+    private static String formatDuration(long seconds) {
+        if (seconds >= 3600) {
+            return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+        }
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+
+    /**
+     * Returns whether the run has been asked to stop.
+     */
+    public static boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Asks the run to stop at the next check.
+     */
+    public static void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Makes Ctrl-C (or any other orderly JVM shutdown) cancel the run instead
+     * of killing it outright: the shutdown is held until finished() is called
+     * or CANCEL_GRACE_SECONDS pass.
+     */
+    public static void cancelOnInterrupt() {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                if (finished.getCount() == 0) {
+                    return;
+                }
+                System.err.println();
+                System.err.println("Cancelling; writing the results so far...");
+                cancel();
+                try {
+                    finished.await(CANCEL_GRACE_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }));
+    }
+
+    /**
+     * Signals that the run has written its (possibly partial) results, so a
+     * pending shutdown may go ahead.
+     */
+    public static void finished() {
+        finished.countDown();
+    }
+}
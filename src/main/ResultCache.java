@@ -0,0 +1,520 @@
+package main;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import javax.json.JsonException;
+
+/**
+ * A persistent cache of per-form comparison results, so that a small change
+ * to the Excel file (or to the Scan output) only re-scores the affected forms.
+ *
+ * Each cached form is keyed by its client ID and stores a hash of both its
+ * expected row and its actual values (plus the digit scoring mode), together
+ * with its per-field correct/total counts. The cache also keeps the per-field
+ * totals over all cached forms. When update() finds a form whose hash changed,
+ * it re-scores only that form, and adjusts the totals by subtracting the old
+ * counts and adding the new ones; forms that are no longer matched are
+ * subtracted and dropped.
+ *
+ * When the cache is brought up to date from a Scan output folder (see
+ * update(scanOutputRoot, ...)), it also keeps the size and modification time
+ * of each folder's output.json and clientID.txt, and of the Excel file, so
+ * that a rerun only parses the output.json files that changed, and only reads
+ * the Excel file if it or one of the folders changed.
+ */
+public class ResultCache {
+    private static final int FORMAT_VERSION = 2;
+
+    // FNV-1a 64-bit constants
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /*
+     * The cached result of a single form.
+     */
+    private static class CachedForm {
+        final long actualHash;
+        final long expectedHash;
+        final int[] correct;
+        final int[] total;
+
+        CachedForm(long actualHash, long expectedHash, int[] correct, int[] total) {
+            this.actualHash = actualHash;
+            this.expectedHash = expectedHash;
+            this.correct = correct;
+            this.total = total;
+        }
+    }
+
+    /*
+     * The client ID of a Scan output folder, and the sizes and modification
+     * times of its files when it was last parsed.
+     */
+    private static class FolderStamp {
+        final String clientId;
+        final long outputSize;
+        final long outputModified;
+        final long clientIdModified;
+
+        FolderStamp(String clientId, long outputSize, long outputModified, long clientIdModified) {
+            this.clientId = clientId;
+            this.outputSize = outputSize;
+            this.outputModified = outputModified;
+            this.clientIdModified = clientIdModified;
+        }
+
+        boolean matches(long outputSize, long outputModified, long clientIdModified) {
+            return this.outputSize == outputSize && this.outputModified == outputModified
+                    && this.clientIdModified == clientIdModified;
+        }
+    }
+
+    private final Path cacheFile;
+    private final int numFields;
+    private final Map<String, CachedForm> forms = new HashMap<String, CachedForm>();
+    private final int[] numCorrect;
+    private final int[] numTotal;
+
+    // Folder name -> stamp of each folder seen by the last
+    // update(scanOutputRoot, ...), and the Excel file it read
+    private Map<String, FolderStamp> folders = new HashMap<String, FolderStamp>();
+    private String workbook = "";
+    private long workbookSize = -1;
+    private long workbookModified = -1;
+
+    // Statistics of the last update
+    private int numRescored;
+    private int numRemoved;
+    private int numParsed;
+
+    private ResultCache(Path cacheFile, int numFields) {
+        this.cacheFile = cacheFile;
+        this.numFields = numFields;
+        this.numCorrect = new int[numFields];
+        this.numTotal = new int[numFields];
+    }
+
+    /**
+     * Loads the cache from the given file. If the file does not exist or was
+     * written for a different number of fields, an empty cache is returned.
+     */
+    public static ResultCache load(String cacheFile, int numFields) {
+        ResultCache cache = new ResultCache(Paths.get(cacheFile), numFields);
+        if (!Files.exists(cache.cacheFile)) {
+            return cache;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(cache.cacheFile)))) {
+            if (in.readInt() != FORMAT_VERSION || in.readInt() != numFields) {
+                return cache;
+            }
+            cache.workbook = in.readUTF();
+            cache.workbookSize = in.readLong();
+            cache.workbookModified = in.readLong();
+            int numFolders = in.readInt();
+            for (int f = 0; f < numFolders; f++) {
+                String folderName = in.readUTF();
+                cache.folders.put(folderName,
+                        new FolderStamp(in.readUTF(), in.readLong(), in.readLong(), in.readLong()));
+            }
+            int numForms = in.readInt();
+            for (int f = 0; f < numForms; f++) {
+                String clientId = in.readUTF();
+                long actualHash = in.readLong();
+                long expectedHash = in.readLong();
+                int[] correct = new int[numFields];
+                int[] total = new int[numFields];
+                for (int i = 0; i < numFields; i++) {
+                    correct[i] = in.readInt();
+                    total[i] = in.readInt();
+                }
+                cache.put(clientId, new CachedForm(actualHash, expectedHash, correct, total));
+            }
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable result cache " + cacheFile + ": " + e);
+            return new ResultCache(Paths.get(cacheFile), numFields);
+        }
+        return cache;
+    }
+
+    /**
+     * Brings the cache up to date with the given data, re-scoring only the
+     * forms whose expected or actual values changed. See
+     * AccuracyChecker.compareResults for the format of the parameters.
+     *
+     * (As the data did not come from files, the next update(scanOutputRoot,
+     * ...) parses every folder again.)
+     *
+     * @return The per-form scores of every form whose client ID appears in
+     *         both data sets
+     */
+    public FormScores update(Map<String, ScanOutput> actual, Map<String, List<String>> expected) {
+        numRescored = 0;
+        numRemoved = 0;
+        numParsed = 0;
+        folders = new HashMap<String, FolderStamp>();
+        workbook = "";
+        FormScores scores = new FormScores(numFields);
+        Set<String> matched = new HashSet<String>();
+
+        for (String clientId : expected.keySet()) {
+            ScanOutput output = actual.get(clientId);
+            if (null == output) {
+                continue;
+            }
+            matched.add(clientId);
+            List<String> actualResults = output.outputData;
+            List<String> expectedResults = expected.get(clientId);
+            long actualHash = hashActual(actualResults);
+            long expectedHash = hashExpected(expectedResults);
+
+            CachedForm cached = forms.get(clientId);
+            if (cached == null || cached.actualHash != actualHash || cached.expectedHash != expectedHash) {
+                cached = rescore(clientId, actualHash, expectedHash, actualResults, expectedResults);
+            }
+            addScores(scores, clientId, output.folderName, cached);
+        }
+        dropUnmatched(matched);
+        return scores;
+    }
+
+    /**
+     * Brings the cache up to date with the Scan output folders under the
+     * given root and the given Excel file, like update(actual, expected) with
+     * the results of JsonParser.crawlDirectories(scanOutputRoot) and
+     * ExcelParser.parseCorrectFile(file, sheets, dataColumns). Only the
+     * output.json files whose size or modification time changed (or whose
+     * clientID.txt changed) are parsed, and the Excel file is only read if it
+     * or one of the folders changed. The output.json of an unchanged folder is
+     * still parsed when its form needs re-scoring, because its expected row
+     * changed or it was previously excluded as a duplicate.
+     *
+     * A folder that cannot be read is skipped (and parsed again by the next
+     * update).
+     *
+     * @return The per-form scores of every form whose client ID appears in
+     *         both data sets
+     */
+    public FormScores update(String scanOutputRoot, String file, String[] sheets, String[] dataColumns) {
+        numRescored = 0;
+        numRemoved = 0;
+        numParsed = 0;
+        Path root = Paths.get(scanOutputRoot);
+
+        // Stat every folder, reading the folders that changed
+        Map<String, FolderStamp> current = new TreeMap<String, FolderStamp>();
+        Map<String, List<String>> parsed = new HashMap<String, List<String>>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, new DirectoryStream.Filter<Path>() {
+            public boolean accept(Path file) throws IOException {
+                return Files.isDirectory(file);
+            }
+        })) {
+            for (Path entry : stream) {
+                String folderName = entry.getFileName().toString();
+                try {
+                    Path json = entry.resolve("output.json");
+                    long outputSize = Files.size(json);
+                    long outputModified = Files.getLastModifiedTime(json).toMillis();
+                    long clientIdModified = Files.getLastModifiedTime(entry.resolve("clientID.txt")).toMillis();
+                    FolderStamp stamp = folders.get(folderName);
+                    if (stamp == null || !stamp.matches(outputSize, outputModified, clientIdModified)) {
+                        stamp = new FolderStamp(JsonParser.readClientId(entry), outputSize, outputModified,
+                                clientIdModified);
+                        parsed.put(folderName, parseFolder(entry));
+                    }
+                    current.put(folderName, stamp);
+                } catch (IOException | JsonException e) {
+                    System.err.println("Skipping " + entry + ": " + e);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+        boolean foldersChanged = !parsed.isEmpty() || !current.keySet().equals(folders.keySet());
+        folders = current;
+
+        // As in JsonParser.crawlDirectories, neither folder of a duplicated
+        // client ID is included
+        Map<String, String> folderNames = new TreeMap<String, String>();
+        Set<String> duplicates = new HashSet<String>();
+        for (Map.Entry<String, FolderStamp> entry : current.entrySet()) {
+            if (folderNames.put(entry.getValue().clientId, entry.getKey()) != null) {
+                duplicates.add(entry.getValue().clientId);
+            }
+        }
+        folderNames.keySet().removeAll(duplicates);
+
+        // If neither the Excel file nor any folder changed, every cached form
+        // is still matched and up to date
+        Map<String, List<String>> expected = null;
+        long size = -1;
+        long modified = -1;
+        try {
+            size = Files.size(Paths.get(file));
+            modified = Files.getLastModifiedTime(Paths.get(file)).toMillis();
+        } catch (IOException e) {
+            // Read (and report) below
+        }
+        if (foldersChanged || !file.equals(workbook) || size != workbookSize || modified != workbookModified
+                || size < 0) {
+            expected = ExcelParser.parseCorrectFile(file, sheets, dataColumns);
+        }
+        workbook = file;
+        workbookSize = size;
+        workbookModified = modified;
+
+        FormScores scores = new FormScores(numFields);
+        Set<String> matched = new HashSet<String>();
+        for (Map.Entry<String, String> entry : folderNames.entrySet()) {
+            String clientId = entry.getKey();
+            String folderName = entry.getValue();
+            CachedForm cached = forms.get(clientId);
+            if (expected == null) {
+                if (cached == null) {
+                    continue;
+                }
+            } else {
+                List<String> expectedResults = expected.get(clientId);
+                if (null == expectedResults) {
+                    continue;
+                }
+                long expectedHash = hashExpected(expectedResults);
+                List<String> actualResults = parsed.get(folderName);
+                if (cached == null || cached.expectedHash != expectedHash
+                        || (actualResults != null && cached.actualHash != hashActual(actualResults))) {
+                    if (actualResults == null) {
+                        try {
+                            actualResults = parseFolder(root.resolve(folderName));
+                        } catch (IOException | JsonException e) {
+                            System.err.println("Skipping " + root.resolve(folderName) + ": " + e);
+                            folders.remove(folderName);
+                            continue;
+                        }
+                    }
+                    cached = rescore(clientId, hashActual(actualResults), expectedHash, actualResults,
+                            expectedResults);
+                }
+            }
+            matched.add(clientId);
+            addScores(scores, clientId, folderName, cached);
+        }
+        dropUnmatched(matched);
+        return scores;
+    }
+
+    private List<String> parseFolder(Path folder) throws IOException {
+        numParsed++;
+        try (Reader reader = Files.newBufferedReader(folder.resolve("output.json"), StandardCharsets.UTF_8)) {
+            return JsonParser.parseActualJson(reader);
+        }
+    }
+
+    /*
+     * Scores a form, replacing its cached result.
+     */
+    private CachedForm rescore(String clientId, long actualHash, long expectedHash, List<String> actualResults,
+            List<String> expectedResults) {
+        int[] correct = new int[numFields];
+        int[] total = new int[numFields];
+        for (int i = 0; i < actualResults.size(); i++) {
+            int[] comparison = AccuracyChecker.compareField(i, actualResults.get(i), expectedResults.get(i));
+            if (comparison != null) {
+                correct[i] = comparison[0];
+                total[i] = comparison[1];
+            }
+        }
+        remove(clientId);
+        CachedForm cached = new CachedForm(actualHash, expectedHash, correct, total);
+        put(clientId, cached);
+        numRescored++;
+        return cached;
+    }
+
+    private void addScores(FormScores scores, String clientId, String folderName, CachedForm cached) {
+        int form = scores.addForm(clientId, folderName);
+        for (int i = 0; i < numFields; i++) {
+            scores.set(form, i, cached.correct[i], cached.total[i]);
+        }
+    }
+
+    /*
+     * Drops the forms that are no longer in both data sets.
+     */
+    private void dropUnmatched(Set<String> matched) {
+        for (String clientId : new ArrayList<String>(forms.keySet())) {
+            if (!matched.contains(clientId)) {
+                remove(clientId);
+                numRemoved++;
+            }
+        }
+    }
+
+    /**
+     * Writes the cache to its file (through a temporary file, so that an
+     * interrupted save keeps the previous cache).
+     */
+    public void save() {
+        Path temp = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(numFields);
+            out.writeUTF(workbook);
+            out.writeLong(workbookSize);
+            out.writeLong(workbookModified);
+            out.writeInt(folders.size());
+            for (Map.Entry<String, FolderStamp> entry : folders.entrySet()) {
+                FolderStamp stamp = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeUTF(stamp.clientId);
+                out.writeLong(stamp.outputSize);
+                out.writeLong(stamp.outputModified);
+                out.writeLong(stamp.clientIdModified);
+            }
+            out.writeInt(forms.size());
+            for (Map.Entry<String, CachedForm> entry : forms.entrySet()) {
+                CachedForm form = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(form.actualHash);
+                out.writeLong(form.expectedHash);
+                for (int i = 0; i < numFields; i++) {
+                    out.writeInt(form.correct[i]);
+                    out.writeInt(form.total[i]);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write result cache " + temp + ": " + e);
+            return;
+        }
+        try {
+            Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not replace result cache " + cacheFile + ": " + e);
+        }
+    }
+
+    /**
+     * Returns the number of correct digits/bubbles for each field, over all
+     * cached forms.
+     */
+    public int[] getNumCorrect() {
+        return numCorrect.clone();
+    }
+
+    /**
+     * Returns the number of total digits/bubbles for each field, over all
+     * cached forms.
+     */
+    public int[] getNumTotal() {
+        return numTotal.clone();
+    }
+
+    public int getNumForms() {
+        return forms.size();
+    }
+
+    /**
+     * Returns the number of forms that were re-scored by the last update.
+     */
+    public int getNumRescored() {
+        return numRescored;
+    }
+
+    /**
+     * Returns the number of forms that were dropped by the last update.
+     */
+    public int getNumRemoved() {
+        return numRemoved;
+    }
+
+    /**
+     * Returns the number of output.json files that were parsed by the last
+     * update.
+     */
+    public int getNumParsed() {
+        return numParsed;
+    }
+
+    private void put(String clientId, CachedForm form) {
+        forms.put(clientId, form);
+        for (int i = 0; i < numFields; i++) {
+            numCorrect[i] += form.correct[i];
+            numTotal[i] += form.total[i];
+        }
+    }
+
+    private void remove(String clientId) {
+        CachedForm form = forms.remove(clientId);
+        if (form != null) {
+            for (int i = 0; i < numFields; i++) {
+                numCorrect[i] -= form.correct[i];
+                numTotal[i] -= form.total[i];
+            }
+        }
+    }
+
+    /*
+     * Hashes the actual values of a form with 64-bit FNV-1a.
+     */
+    static long hashActual(List<String> actualResults) {
+        long hash = FNV_OFFSET_BASIS;
+        for (String value : actualResults) {
+            hash = hashString(hash, value);
+        }
+        return hash;
+    }
+
+    /*
+     * Hashes the expected values of a form (and the digit scoring mode, which
+     * also determines the result) with 64-bit FNV-1a.
+     */
+    static long hashExpected(List<String> expectedResults) {
+        long hash = FNV_OFFSET_BASIS;
+        hash = hashString(hash, AccuracyChecker.DIGIT_SCORING.name());
+        for (String value : expectedResults) {
+            hash = hashString(hash, value);
+        }
+        return hash;
+    }
+
+    private static long hashString(long hash, String s) {
+        if (s == null) {
+            // Distinguish null from "" and from the separator
+            hash = (hash ^ 0xff) * FNV_PRIME;
+        } else {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+                hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+            }
+        }
+        // Separator between values
+        return (hash ^ 0xfe) * FNV_PRIME;
+    }
+
+    /**
+     * Runs the comparison with a result cache, and prints the final results.
+     *
+     * Command-line arguments:
+     *
+     * [0]: The path to the root of the folder containing the Scan output.
+     *
+     * [1]: The path to the cache file (created if it does not exist).
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.out.println("Command-line arguments: <Root of scan output folder> <cache file>");
+            System.exit(1);
+        }
+        ResultCache cache = load(args[1], AccuracyChecker.EXCEL_DATA_COLUMNS.length);
+        cache.update(args[0], AccuracyChecker.EXCEL_FILE, AccuracyChecker.EXCEL_SHEETS,
+                AccuracyChecker.EXCEL_DATA_COLUMNS);
+        cache.save();
+
+        System.out.println("Parsed " + cache.getNumParsed() + " output files, re-scored " + cache.getNumRescored()
+                + " of " + cache.getNumForms() + " forms (" + cache.getNumRemoved() + " dropped from the cache)");
+        AccuracyChecker.printResults(cache.getNumCorrect(), cache.getNumTotal(), "TOTAL");
+    }
+}
@@ -0,0 +1,462 @@
+package main;
+
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * An in-memory, column-oriented store of comparison outcomes, so that
+ * questions such as "digit accuracy of the forms in folder X with an alignment
+ * score above 5" can be answered by a query instead of by editing and
+ * re-running the comparison.
+ *
+ * Each row is the outcome of one field of one form (fields that were skipped
+ * by the comparison are not stored). Row columns (form, field, correct,
+ * total) and form columns (client ID, cohort, alignment score) are kept in
+ * primitive arrays; cohort tags are dictionary-encoded.
+ *
+ * Example:
+ *
+ * store.query().where(ResultStore.digitFields()).where(ResultStore.alignmentAbove(5))
+ * .groupBy(ResultStore.Group.COHORT).run()
+ */
+public class ResultStore {
+    // Alignment scores are bucketed into ranges of this width
+    private static final double ALIGNMENT_BUCKET_WIDTH = 2.0;
+
+    private final boolean[] isBubble;
+    private final String[] fieldNames;
+
+    // Row columns
+    private int numRows;
+    private int[] rowForm = new int[1024];
+    private byte[] rowField = new byte[1024];
+    private int[] rowCorrect = new int[1024];
+    private int[] rowTotal = new int[1024];
+
+    // Form columns
+    private int numForms;
+    private String[] formClientId = new String[64];
+    private int[] formCohort = new int[64];
+    private double[] formAlignment = new double[64];
+
+    // Cohort dictionary
+    private final List<String> cohorts = new ArrayList<String>();
+    private final Map<String, Integer> cohortIds = new HashMap<String, Integer>();
+
+    /**
+     * A condition on rows. Predicates are applied a whole column at a time:
+     * filter() clears the bit of every selected row that does not satisfy the
+     * condition.
+     */
+    public interface RowPredicate {
+        void filter(ResultStore store, long[] selected);
+    }
+
+    /**
+     * What to group rows by when aggregating.
+     */
+    public enum Group {
+        NONE, FIELD, FIELD_TYPE, COHORT, ALIGNMENT_BUCKET
+    }
+
+    public ResultStore(boolean[] isBubble, String[] fieldNames) {
+        this.isBubble = isBubble;
+        this.fieldNames = fieldNames;
+    }
+
+    /**
+     * Builds a store from the per-form scores of a comparison.
+     *
+     * @param scores The per-form scores (e.g. from AccuracyChecker.scoreForms)
+     * @param cohortByClientId The cohort tag of each client ID (forms without
+     *        a tag get the tag "")
+     * @param alignmentByClientId The alignment score of each client ID (forms
+     *        without a score get NaN)
+     */
+    public static ResultStore fromScores(FormScores scores, Map<String, String> cohortByClientId,
+            Map<String, Double> alignmentByClientId) {
+        ResultStore store = new ResultStore(AccuracyChecker.IS_BUBBLE, AccuracyChecker.COLUMN_NAMES);
+        for (int f = 0; f < scores.getNumForms(); f++) {
+            String clientId = scores.getClientId(f);
+            String cohort = cohortByClientId.get(clientId);
+            Double alignment = alignmentByClientId.get(clientId);
+            int form = store.addForm(clientId, cohort == null ? "" : cohort,
+                    alignment == null ? Double.NaN : alignment);
+            for (int i = 0; i < scores.getNumFields(); i++) {
+                if (scores.getTotal(f, i) > 0) {
+                    store.addRow(form, i, scores.getCorrect(f, i), scores.getTotal(f, i));
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Adds a form.
+     *
+     * @return The index of the form, to be passed to addRow
+     */
+    public int addForm(String clientId, String cohort, double alignmentScore) {
+        if (numForms == formClientId.length) {
+            formClientId = Arrays.copyOf(formClientId, numForms * 2);
+            formCohort = Arrays.copyOf(formCohort, numForms * 2);
+            formAlignment = Arrays.copyOf(formAlignment, numForms * 2);
+        }
+        Integer cohortId = cohortIds.get(cohort);
+        if (cohortId == null) {
+            cohortId = cohorts.size();
+            cohorts.add(cohort);
+            cohortIds.put(cohort, cohortId);
+        }
+        formClientId[numForms] = clientId;
+        formCohort[numForms] = cohortId;
+        formAlignment[numForms] = alignmentScore;
+        return numForms++;
+    }
+
+    /**
+     * Adds the outcome of one field of a form.
+     */
+    public void addRow(int form, int field, int correct, int total) {
+        if (numRows == rowForm.length) {
+            rowForm = Arrays.copyOf(rowForm, numRows * 2);
+            rowField = Arrays.copyOf(rowField, numRows * 2);
+            rowCorrect = Arrays.copyOf(rowCorrect, numRows * 2);
+            rowTotal = Arrays.copyOf(rowTotal, numRows * 2);
+        }
+        rowForm[numRows] = form;
+        rowField[numRows] = (byte) field;
+        rowCorrect[numRows] = correct;
+        rowTotal[numRows] = total;
+        numRows++;
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    public int getNumForms() {
+        return numForms;
+    }
+
+    public int getField(int row) {
+        return rowField[row];
+    }
+
+    public int getCorrect(int row) {
+        return rowCorrect[row];
+    }
+
+    public int getTotal(int row) {
+        return rowTotal[row];
+    }
+
+    public boolean isBubble(int row) {
+        return isBubble[rowField[row]];
+    }
+
+    public String getClientId(int row) {
+        return formClientId[rowForm[row]];
+    }
+
+    public String getCohort(int row) {
+        return cohorts.get(formCohort[rowForm[row]]);
+    }
+
+    public double getAlignmentScore(int row) {
+        return formAlignment[rowForm[row]];
+    }
+
+    public Query query() {
+        return new Query(this);
+    }
+
+    // Common predicates
+
+    public static RowPredicate field(final int field) {
+        return new RowPredicate() {
+            public void filter(ResultStore store, long[] selected) {
+                boolean[] keep = new boolean[store.fieldNames.length];
+                keep[field] = true;
+                store.filterByField(selected, keep);
+            }
+        };
+    }
+
+    public static RowPredicate bubbleFields() {
+        return new RowPredicate() {
+            public void filter(ResultStore store, long[] selected) {
+                store.filterByField(selected, store.isBubble);
+            }
+        };
+    }
+
+    public static RowPredicate digitFields() {
+        return new RowPredicate() {
+            public void filter(ResultStore store, long[] selected) {
+                boolean[] keep = new boolean[store.isBubble.length];
+                for (int i = 0; i < keep.length; i++) {
+                    keep[i] = !store.isBubble[i];
+                }
+                store.filterByField(selected, keep);
+            }
+        };
+    }
+
+    public static RowPredicate cohort(final String cohort) {
+        return new RowPredicate() {
+            public void filter(ResultStore store, long[] selected) {
+                Integer id = store.cohortIds.get(cohort);
+                int cohortId = id == null ? -1 : id;
+                boolean[] keep = new boolean[store.numForms];
+                for (int f = 0; f < store.numForms; f++) {
+                    keep[f] = store.formCohort[f] == cohortId;
+                }
+                store.filterByForm(selected, keep);
+            }
+        };
+    }
+
+    /**
+     * Matches rows of forms whose alignment score is greater than the given
+     * value (forms without a score never match).
+     */
+    public static RowPredicate alignmentAbove(final double score) {
+        return new RowPredicate() {
+            public void filter(ResultStore store, long[] selected) {
+                boolean[] keep = new boolean[store.numForms];
+                for (int f = 0; f < store.numForms; f++) {
+                    keep[f] = store.formAlignment[f] > score;
+                }
+                store.filterByForm(selected, keep);
+            }
+        };
+    }
+
+    /**
+     * Matches rows of forms whose alignment score is at most the given value
+     * (forms without a score never match).
+     */
+    public static RowPredicate alignmentAtMost(final double score) {
+        return new RowPredicate() {
+            public void filter(ResultStore store, long[] selected) {
+                boolean[] keep = new boolean[store.numForms];
+                for (int f = 0; f < store.numForms; f++) {
+                    keep[f] = store.formAlignment[f] <= score;
+                }
+                store.filterByForm(selected, keep);
+            }
+        };
+    }
+
+    /**
+     * Deselects the rows whose field is not kept.
+     */
+    public void filterByField(long[] selected, boolean[] keepField) {
+        for (int row = 0; row < numRows; row++) {
+            if (!keepField[rowField[row]]) {
+                selected[row >>> 6] &= ~(1L << row);
+            }
+        }
+    }
+
+    /**
+     * Deselects the rows whose form is not kept.
+     */
+    public void filterByForm(long[] selected, boolean[] keepForm) {
+        for (int row = 0; row < numRows; row++) {
+            if (!keepForm[rowForm[row]]) {
+                selected[row >>> 6] &= ~(1L << row);
+            }
+        }
+    }
+
+    /**
+     * A query over a store: a conjunction of predicates, an optional grouping
+     * and a sum of the correct/total counts of each group.
+     */
+    public static class Query {
+        private final ResultStore store;
+        private final List<RowPredicate> predicates = new ArrayList<RowPredicate>();
+        private Group group = Group.NONE;
+
+        private Query(ResultStore store) {
+            this.store = store;
+        }
+
+        public Query where(RowPredicate predicate) {
+            predicates.add(predicate);
+            return this;
+        }
+
+        public Query groupBy(Group group) {
+            this.group = group;
+            return this;
+        }
+
+        /**
+         * Runs the query.
+         *
+         * @return A map (sorted by group key) from each group's key to the sums
+         *         of the matching rows: {correct, total, number of rows}
+         */
+        public SortedMap<String, long[]> run() {
+            // Start with every row selected, then apply each predicate
+            long[] selected = new long[(store.numRows + 63) >>> 6];
+            Arrays.fill(selected, -1L);
+            if ((store.numRows & 63) != 0) {
+                selected[selected.length - 1] = (1L << store.numRows) - 1;
+            }
+            for (RowPredicate predicate : predicates) {
+                predicate.filter(store, selected);
+            }
+
+            // Group ids are small integers, so the sums can live in arrays
+            int numGroups = numGroups();
+            long[] correct = new long[numGroups];
+            long[] total = new long[numGroups];
+            long[] rows = new long[numGroups];
+
+            for (int word = 0; word < selected.length; word++) {
+                long bits = selected[word];
+                while (bits != 0) {
+                    int row = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    int g = groupOf(row);
+                    if (g < 0) {
+                        continue;
+                    }
+                    correct[g] += store.rowCorrect[row];
+                    total[g] += store.rowTotal[row];
+                    rows[g]++;
+                }
+            }
+
+            SortedMap<String, long[]> result = new TreeMap<String, long[]>();
+            for (int g = 0; g < numGroups; g++) {
+                if (rows[g] > 0) {
+                    result.put(groupName(g), new long[] { correct[g], total[g], rows[g] });
+                }
+            }
+            return result;
+        }
+
+        private int numGroups() {
+            switch (group) {
+            case FIELD:
+                return store.fieldNames.length;
+            case FIELD_TYPE:
+                return 2;
+            case COHORT:
+                return store.cohorts.size();
+            case ALIGNMENT_BUCKET:
+                return alignmentBucket(maxAlignment()) + 1;
+            default:
+                return 1;
+            }
+        }
+
+        /*
+         * Returns the group of the given row, or -1 if the row has no group
+         * (a form without an alignment score, when grouping by alignment).
+         */
+        private int groupOf(int row) {
+            switch (group) {
+            case FIELD:
+                return store.rowField[row];
+            case FIELD_TYPE:
+                return store.isBubble[store.rowField[row]] ? 0 : 1;
+            case COHORT:
+                return store.formCohort[store.rowForm[row]];
+            case ALIGNMENT_BUCKET:
+                double alignment = store.formAlignment[store.rowForm[row]];
+                return Double.isNaN(alignment) ? -1 : alignmentBucket(alignment);
+            default:
+                return 0;
+            }
+        }
+
+        private String groupName(int g) {
+            switch (group) {
+            case FIELD:
+                return String.format("%02d %s", g, store.fieldNames[g]);
+            case FIELD_TYPE:
+                return g == 0 ? "bubble" : "digit";
+            case COHORT:
+                return store.cohorts.get(g);
+            case ALIGNMENT_BUCKET:
+                return String.format("%05.1f-%05.1f", g * ALIGNMENT_BUCKET_WIDTH, (g + 1) * ALIGNMENT_BUCKET_WIDTH);
+            default:
+                return "all";
+            }
+        }
+
+        private double maxAlignment() {
+            double max = 0;
+            for (int f = 0; f < store.numForms; f++) {
+                if (store.formAlignment[f] > max) {
+                    max = store.formAlignment[f];
+                }
+            }
+            return max;
+        }
+
+        private static int alignmentBucket(double alignment) {
+            return (int) (Math.max(alignment, 0) / ALIGNMENT_BUCKET_WIDTH);
+        }
+    }
+
+    /**
+     * Prints the result of a query, one group per line.
+     */
+    public static void printQueryResult(String title, SortedMap<String, long[]> result) {
+        System.out.println();
+        System.out.println(title);
+        for (Map.Entry<String, long[]> group : result.entrySet()) {
+            long[] sums = group.getValue();
+            System.out.printf(group.getKey() + ": " + sums[0] + "/" + sums[1] + " correct (%.2f%%)\n",
+                    sums[0] * 100.0 / sums[1]);
+        }
+    }
+
+    /**
+     * Builds a store for a Scan output folder and prints a few standard
+     * breakdowns.
+     *
+     * Command-line arguments:
+     *
+     * [0]: The path to the root of the folder containing the Scan output.
+     *
+     * [1..n] (optional): Cohort folders. Each client ID found in one of these
+     * folders (see FolderIndex) is tagged with the name of that folder.
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Command-line arguments: <Root of scan output folder> [cohort folder] ...");
+            System.exit(1);
+        }
+
+        Map<String, List<String>> expectedData = ExcelParser.parseCorrectFile(AccuracyChecker.EXCEL_FILE,
+                AccuracyChecker.EXCEL_SHEETS, AccuracyChecker.EXCEL_DATA_COLUMNS);
+        Map<String, ScanOutput> actualOutput = JsonParser.crawlDirectories(args[0]);
+        FormScores scores = AccuracyChecker.scoreForms(actualOutput, expectedData);
+
+        Map<String, String> cohortByClientId = new HashMap<String, String>();
+        if (args.length > 1) {
+            List<String> cohortRoots = Arrays.asList(args).subList(1, args.length);
+            FolderIndex index = FolderIndex.open(FolderUtils.FOLDER_INDEX_FILE, cohortRoots);
+            for (String clientId : index.getClientIds()) {
+                cohortByClientId.put(clientId, Paths.get(index.lookup(clientId).root).getFileName().toString());
+            }
+        }
+        Map<String, Double> alignmentByClientId = AlignmentScore.getAlignmentRatingFromExcel();
+
+        ResultStore store = fromScores(scores, cohortByClientId, alignmentByClientId);
+        printQueryResult("Accuracy by field type", store.query().groupBy(Group.FIELD_TYPE).run());
+        printQueryResult("Digit accuracy by cohort", store.query().where(digitFields()).groupBy(Group.COHORT).run());
+        printQueryResult("Bubble accuracy by cohort",
+                store.query().where(bubbleFields()).groupBy(Group.COHORT).run());
+        printQueryResult("Digit accuracy by alignment score",
+                store.query().where(digitFields()).groupBy(Group.ALIGNMENT_BUCKET).run());
+    }
+}
@@ -0,0 +1,344 @@
+package main;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Crawls a Scan output directory like JsonParser.crawlDirectories, but is
+ * meant for very large output roots:
+ *
+ * - A folder that cannot be read (missing or empty clientID.txt, missing or
+ * malformed output.json, ...) is recorded as an error and skipped, instead of
+ * ending the whole crawl.
+ *
+ * - Every folder that has been processed (successfully or not) is appended to
+ * a checkpoint file, together with the values extracted from it. If the crawl
+ * is interrupted, running it again with the same checkpoint file reads the
+ * finished folders back from the checkpoint and only visits the rest.
+ *
+ * Checkpoint lines are tab-separated: "OK", folder name, client ID, then the
+ * extracted values; or "ERROR", folder name, error message. Values are
+ * escaped with escape() so that they cannot contain tabs or line breaks.
+ *
+ * A crawl of only some fields leaves the other values null (see
+ * JsonParser.crawlDirectories(scanOutputRoot, fields)), so a finished folder
+ * is only read back if its record has every field of the current crawl, and
+ * is crawled again otherwise. The record appended for it then replaces the
+ * earlier one (the last record of a folder is the one that counts).
+ */
+public class ResumableCrawl {
+    private static final String OK_RECORD = "OK";
+    private static final String ERROR_RECORD = "ERROR";
+
+    // Represents a null value in the checkpoint file
+    private static final String NULL_VALUE = "\\N";
+
+    // How many folders to process between flushes of the checkpoint file
+    private static final int FLUSH_INTERVAL = 500;
+
+    /**
+     * A folder that could not be read.
+     */
+    public static class CrawlError {
+        public final String folderName;
+        public final String message;
+
+        public CrawlError(String folderName, String message) {
+            this.folderName = folderName;
+            this.message = message;
+        }
+    }
+
+    private final Map<String, ScanOutput> actualData = new HashMap<String, ScanOutput>();
+    private final Set<String> duplicateClientIds = new TreeSet<String>();
+    private final List<CrawlError> errors = new ArrayList<CrawlError>();
+    private int numResumed;
+
+    private ResumableCrawl() {
+    }
+
+    /**
+     * Crawls the given output directory, resuming from the checkpoint file if
+     * it exists. See JsonParser.crawlDirectories for the meaning of the
+     * result.
+     *
+     * @param scanOutputRoot The root of the scan output directory
+     * @param checkpointFile The checkpoint file to resume from and append to
+     * @return The finished crawl; see getResults() and getErrors()
+     */
+    public static ResumableCrawl crawl(String scanOutputRoot, String checkpointFile) {
+        return crawl(scanOutputRoot, checkpointFile, null);
+    }
+
+    /**
+     * Same as crawl(scanOutputRoot, checkpointFile), but extracts only the
+     * given fields from each output.json file (see
+     * JsonParser.crawlDirectories(scanOutputRoot, fields)).
+     *
+     * @param fields The (increasing) indexes of the fields to extract, or null
+     *        to extract every field
+     */
+    public static ResumableCrawl crawl(String scanOutputRoot, String checkpointFile, int[] fields) {
+        ResumableCrawl crawl = new ResumableCrawl();
+        Path checkpoint = Paths.get(checkpointFile);
+        truncateTornLine(checkpoint);
+        Set<String> finishedFolders = crawl.readCheckpoint(checkpoint, fields);
+
+        DirectoryStream.Filter<Path> filter = new DirectoryStream.Filter<Path>() {
+            public boolean accept(Path file) throws IOException {
+                return (Files.isDirectory(file));
+            }
+        };
+        Progress progress = new Progress("Crawling folders",
+                FolderUtils.countSubfolders(Paths.get(scanOutputRoot)) - finishedFolders.size());
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(scanOutputRoot), filter);
+                BufferedWriter writer = Files.newBufferedWriter(checkpoint, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            int sinceFlush = 0;
+            for (Path entry : stream) {
+                // When cancelled, stop here; closing the writer flushes the
+                // checkpoint so that the next run resumes from this folder
+                if (Progress.isCancelled()) {
+                    break;
+                }
+                String folderName = entry.getFileName().toString();
+                if (finishedFolders.contains(folderName)) {
+                    continue;
+                }
+                progress.advance();
+
+                String record;
+                try {
+                    String clientId = JsonParser.readClientId(entry);
+                    List<String> actualResult;
+                    try (Reader reader = Files.newBufferedReader(entry.resolve("output.json"),
+                            StandardCharsets.UTF_8)) {
+                        actualResult = fields == null ? JsonParser.parseActualJson(reader)
+                                : JsonParser.parseActualJson(reader, fields);
+                    }
+                    crawl.add(clientId, new ScanOutput(actualResult, folderName));
+                    record = okRecord(folderName, clientId, actualResult);
+                } catch (IOException | RuntimeException e) {
+                    crawl.errors.add(new CrawlError(folderName, e.toString()));
+                    record = ERROR_RECORD + "\t" + escape(folderName) + "\t" + escape(e.toString());
+                }
+
+                writer.write(record);
+                writer.newLine();
+                if (++sinceFlush == FLUSH_INTERVAL) {
+                    writer.flush();
+                    sinceFlush = 0;
+                }
+            }
+        } catch (IOException x) {
+            System.err.println(x);
+        }
+        progress.finish();
+        return crawl;
+    }
+
+    /**
+     * Returns a map from each Client ID to the output of Scan for that form.
+     * (Does NOT contain records for any client ID that was duplicated.)
+     */
+    public Map<String, ScanOutput> getResults() {
+        return actualData;
+    }
+
+    /**
+     * Returns the folders that could not be read, including those recorded in
+     * the checkpoint file by an earlier run.
+     */
+    public List<CrawlError> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Returns the number of folders that were read back from the checkpoint
+     * file instead of being crawled again.
+     */
+    public int getNumResumed() {
+        return numResumed;
+    }
+
+    /**
+     * Prints a summary of the crawl, followed by each folder that could not be
+     * read and why.
+     */
+    public void printErrorReport() {
+        System.out.println();
+        System.out.println("Crawl: " + actualData.size() + " forms read, " + numResumed
+                + " folders resumed from checkpoint, " + errors.size() + " errors, " + duplicateClientIds.size()
+                + " duplicate client IDs");
+        for (CrawlError error : errors) {
+            System.out.println("Error in folder " + error.folderName + ": " + error.message);
+        }
+    }
+
+    /*
+     * Adds a form to the results, throwing out client IDs that appear in
+     * multiple folders (like JsonParser.crawlDirectories).
+     */
+    private void add(String clientId, ScanOutput output) {
+        if (actualData.containsKey(clientId)) {
+            actualData.remove(clientId);
+            duplicateClientIds.add(clientId);
+            return;
+        }
+        if (duplicateClientIds.contains(clientId)) {
+            return;
+        }
+        actualData.put(clientId, output);
+    }
+
+    /*
+     * Reads the records of an earlier run back in, and returns the names of
+     * the folders that were already processed with (at least) the given
+     * fields, or with every field if fields is null.
+     */
+    private Set<String> readCheckpoint(Path checkpoint, int[] fields) {
+        Set<String> finishedFolders = new HashSet<String>();
+        if (!Files.exists(checkpoint)) {
+            return finishedFolders;
+        }
+
+        // The last record of each folder
+        Map<String, String[]> records = new LinkedHashMap<String, String[]>();
+        try (BufferedReader reader = Files.newBufferedReader(checkpoint, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", -1);
+                if ((parts[0].equals(OK_RECORD) && parts.length == 3 + JsonParser.getNumFields())
+                        || (parts[0].equals(ERROR_RECORD) && parts.length == 3)) {
+                    String folderName = unescape(parts[1]);
+                    records.remove(folderName);
+                    records.put(folderName, parts);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read checkpoint " + checkpoint + ": " + e);
+        }
+
+        for (Map.Entry<String, String[]> record : records.entrySet()) {
+            String folderName = record.getKey();
+            String[] parts = record.getValue();
+            if (parts[0].equals(OK_RECORD)) {
+                List<String> actualResult = new ArrayList<String>();
+                for (int i = 3; i < parts.length; i++) {
+                    actualResult.add(unescape(parts[i]));
+                }
+                if (!hasFields(actualResult, fields)) {
+                    continue;
+                }
+                add(unescape(parts[2]), new ScanOutput(actualResult, folderName));
+            } else {
+                errors.add(new CrawlError(folderName, unescape(parts[2])));
+            }
+            finishedFolders.add(folderName);
+        }
+        numResumed = finishedFolders.size();
+        return finishedFolders;
+    }
+
+    /*
+     * Returns whether the given fields (every field if null) were extracted.
+     */
+    private static boolean hasFields(List<String> actualResult, int[] fields) {
+        if (fields == null) {
+            return !actualResult.contains(null);
+        }
+        for (int field : fields) {
+            if (actualResult.get(field) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * If the checkpoint file ends in a partially written line (left by a crawl
+     * that was killed mid-write), cuts it off, so that its folder is simply
+     * processed again. (A torn line cannot be kept: if it was cut inside its
+     * last value, it would still parse as a complete record.)
+     */
+    private static void truncateTornLine(Path checkpoint) {
+        if (!Files.exists(checkpoint)) {
+            return;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(checkpoint.toFile(), "rw")) {
+            byte[] block = new byte[8192];
+            long end = file.length();
+            while (end > 0) {
+                int n = (int) Math.min(block.length, end);
+                file.seek(end - n);
+                file.readFully(block, 0, n);
+                int i = n - 1;
+                while (i >= 0 && block[i] != '\n') {
+                    i--;
+                }
+                if (i >= 0) {
+                    end = end - n + i + 1;
+                    break;
+                }
+                end -= n;
+            }
+            if (end < file.length()) {
+                file.setLength(end);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not repair checkpoint " + checkpoint + ": " + e);
+        }
+    }
+
+    private static String okRecord(String folderName, String clientId, List<String> actualResult) {
+        StringBuilder record = new StringBuilder(OK_RECORD);
+        record.append('\t').append(escape(folderName)).append('\t').append(escape(clientId));
+        for (String value : actualResult) {
+            record.append('\t').append(escape(value));
+        }
+        return record.toString();
+    }
+
+    /*
+     * Escapes backslashes, tabs and line breaks, and represents null as \N.
+     */
+    static String escape(String s) {
+        if (s == null) {
+            return NULL_VALUE;
+        }
+        return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    /*
+     * Reverses escape().
+     */
+    static String unescape(String s) {
+        if (s.equals(NULL_VALUE)) {
+            return null;
+        }
+        if (s.indexOf('\\') < 0) {
+            return s;
+        }
+        StringBuilder result = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char next = s.charAt(++i);
+                if (next == 't') {
+                    result.append('\t');
+                } else if (next == 'n') {
+                    result.append('\n');
+                } else if (next == 'r') {
+                    result.append('\r');
+                } else {
+                    result.append(next);
+                }
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
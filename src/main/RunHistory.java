@@ -0,0 +1,649 @@
+package main;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only history of evaluation runs, for following accuracy across
+ * Scan releases without copying printResults output by hand.
+ *
+ * The history is two files. The record file ("base.runs") holds one record
+ * per run: its ID, timestamp and label, fingerprints of its inputs, the
+ * correct/total counts of each field, the bubble and digit totals and the
+ * time taken by each phase. Each record is preceded by its length and CRC-32.
+ * The index file ("base.idx") holds one fixed-size entry per run with the
+ * record's offset, the timestamp and all the counts, so that the N-th last
+ * run is found by position and trend queries only read the (small) index:
+ * "field X over the last N runs" reads N entries, and "runs where digit
+ * accuracy dropped" reads the index once, without touching the records.
+ *
+ * A run of only some fields (AccuracyChecker --fields) has totals over those
+ * fields only, so the set of fields of each run is kept too, and runs are only
+ * compared with runs of the same set.
+ *
+ * Appending writes one record and one index entry at the end of the files.
+ * A run that was interrupted while appending is repaired when the history is
+ * next opened: a torn record is cut off, and records missing from the index
+ * are indexed again. Appending and repairing lock the record file, so several
+ * evaluations (in this or other processes) can append to the same history;
+ * each append first picks up the runs appended by the others.
+ */
+public class RunHistory implements Closeable {
+    private static final int RECORD_MAGIC = 0x52484953;
+    private static final int INDEX_MAGIC = 0x52484958;
+    private static final int FORMAT_VERSION = 1;
+
+    // Magic, version and number of fields
+    private static final int INDEX_HEADER_BYTES = 12;
+
+    // Magic and version
+    private static final int RECORD_HEADER_BYTES = 8;
+
+    // Length and CRC-32 before each record
+    private static final int RECORD_PREFIX_BYTES = 8;
+
+    // FNV-1a 64-bit constants (as in ResultCache)
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // One monitor per record file, held (together with the file lock) by the
+    // instances of this process, since a FileLock only excludes other
+    // processes
+    private static final ConcurrentMap<Path, Object> FILE_MONITORS = new ConcurrentHashMap<Path, Object>();
+
+    /**
+     * The counts of one run, as stored in the index.
+     */
+    public static class RunSummary {
+        public final int runId;
+        public final long timestamp;
+        public final int[] numCorrect;
+        public final int[] numTotal;
+        public final long bubbleCorrect;
+        public final long bubbleTotal;
+        public final long digitCorrect;
+        public final long digitTotal;
+
+        // Bit i is set if field i was evaluated
+        public final long fieldSet;
+        private final long offset;
+
+        RunSummary(int runId, long offset, long timestamp, long fieldSet, int[] numCorrect, int[] numTotal,
+                long bubbleCorrect, long bubbleTotal, long digitCorrect, long digitTotal) {
+            this.runId = runId;
+            this.offset = offset;
+            this.timestamp = timestamp;
+            this.fieldSet = fieldSet;
+            this.numCorrect = numCorrect;
+            this.numTotal = numTotal;
+            this.bubbleCorrect = bubbleCorrect;
+            this.bubbleTotal = bubbleTotal;
+            this.digitCorrect = digitCorrect;
+            this.digitTotal = digitTotal;
+        }
+
+        /**
+         * Returns the accuracy of the given field as a percentage (NaN if the
+         * run had no data for it).
+         */
+        public double getFieldAccuracy(int field) {
+            return numCorrect[field] * 100.0 / numTotal[field];
+        }
+
+        public double getBubbleAccuracy() {
+            return bubbleCorrect * 100.0 / bubbleTotal;
+        }
+
+        public double getDigitAccuracy() {
+            return digitCorrect * 100.0 / digitTotal;
+        }
+
+        public boolean hasField(int field) {
+            return (fieldSet & (1L << field)) != 0;
+        }
+    }
+
+    /**
+     * A whole record: the counts, plus what is only kept in the record file.
+     */
+    public static class Run {
+        public final RunSummary summary;
+        public final String label;
+        public final Map<String, String> fingerprints;
+        public final Map<String, Long> phaseMillis;
+
+        Run(RunSummary summary, String label, Map<String, String> fingerprints, Map<String, Long> phaseMillis) {
+            this.summary = summary;
+            this.label = label;
+            this.fingerprints = fingerprints;
+            this.phaseMillis = phaseMillis;
+        }
+    }
+
+    private final int numFields;
+    private final int entryBytes;
+    private final long allFields;
+    private final FileChannel records;
+    private final FileChannel index;
+    private final Object fileMonitor;
+    private int numRuns;
+
+    private RunHistory(int numFields, FileChannel records, FileChannel index, Path recordsFile) {
+        this.numFields = numFields;
+        this.entryBytes = 40 + 8 * numFields;
+        this.allFields = numFields >= 64 ? -1L : (1L << numFields) - 1;
+        this.records = records;
+        this.index = index;
+        Object monitor = new Object();
+        Object existing = FILE_MONITORS.putIfAbsent(recordsFile.toAbsolutePath().normalize(), monitor);
+        this.fileMonitor = existing != null ? existing : monitor;
+    }
+
+    /**
+     * Opens (or creates) the history stored in base.runs and base.idx, and
+     * repairs the end of the files if the last append was interrupted.
+     *
+     * @param base The path of the history files, without extension
+     * @param numFields The number of fields of each run
+     * @throws IOException if the files cannot be opened, or hold runs with a
+     *         different number of fields
+     */
+    public static RunHistory open(String base, int numFields) throws IOException {
+        Path recordsFile = Paths.get(base + ".runs");
+        FileChannel records = FileChannel.open(recordsFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        FileChannel index = FileChannel.open(Paths.get(base + ".idx"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        RunHistory history = new RunHistory(numFields, records, index, recordsFile);
+        try {
+            synchronized (history.fileMonitor) {
+                try (FileLock lock = records.lock()) {
+                    history.recover();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            history.close();
+            throw e;
+        }
+        return history;
+    }
+
+    /*
+     * Writes the headers of new files, drops a partly written index entry or
+     * record, and indexes any complete records that are not indexed yet. Must
+     * be called with the files locked.
+     */
+    private void recover() throws IOException {
+        if (index.size() < INDEX_HEADER_BYTES) {
+            ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_BYTES);
+            header.putInt(INDEX_MAGIC).putInt(FORMAT_VERSION).putInt(numFields).flip();
+            index.truncate(0);
+            writeFully(index, header, 0);
+        } else {
+            ByteBuffer header = readFully(index, 0, INDEX_HEADER_BYTES);
+            if (header.getInt() != INDEX_MAGIC || header.getInt() != FORMAT_VERSION) {
+                throw new IOException("Not a run history index");
+            }
+            int storedFields = header.getInt();
+            if (storedFields != numFields) {
+                throw new IOException("The history has " + storedFields + " fields, not " + numFields);
+            }
+        }
+        if (records.size() < RECORD_HEADER_BYTES) {
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+            header.putInt(RECORD_MAGIC).putInt(FORMAT_VERSION).flip();
+            records.truncate(0);
+            writeFully(records, header, 0);
+        } else {
+            ByteBuffer header = readFully(records, 0, RECORD_HEADER_BYTES);
+            if (header.getInt() != RECORD_MAGIC || header.getInt() != FORMAT_VERSION) {
+                throw new IOException("Not a run history");
+            }
+        }
+
+        numRuns = (int) ((index.size() - INDEX_HEADER_BYTES) / entryBytes);
+        index.truncate(INDEX_HEADER_BYTES + (long) numRuns * entryBytes);
+
+        // Find the end of the last indexed record, then index the complete
+        // records after it and cut off the rest
+        long end = RECORD_HEADER_BYTES;
+        if (numRuns > 0) {
+            long offset = readSummary(numRuns - 1).offset;
+            end = offset + RECORD_PREFIX_BYTES + readFully(records, offset, 4).getInt();
+        }
+        while (true) {
+            byte[] payload = readRecordAt(end);
+            if (payload == null) {
+                break;
+            }
+            Run run = decode(payload, end);
+            writeFully(index, encodeEntry(run.summary), index.size());
+            numRuns++;
+            end += RECORD_PREFIX_BYTES + payload.length;
+        }
+        records.truncate(end);
+    }
+
+    /**
+     * Appends a run of every field, and returns its summary (with its run ID,
+     * which is one more than that of the previous run).
+     *
+     * @param label A description of the run (e.g. the output root or the
+     *        Scan build)
+     * @param fingerprints Fingerprints of the inputs, by name (see
+     *        fingerprintFile and fingerprintFolder)
+     * @param numCorrect The number of correct digits/bubbles of each field
+     * @param numTotal The number of total digits/bubbles of each field
+     * @param isBubble Whether each field is a bubble field
+     * @param phaseMillis The time taken by each phase, in milliseconds
+     */
+    public RunSummary append(String label, Map<String, String> fingerprints, int[] numCorrect, int[] numTotal,
+            boolean[] isBubble, Map<String, Long> phaseMillis) throws IOException {
+        return append(label, fingerprints, null, numCorrect, numTotal, isBubble, phaseMillis);
+    }
+
+    /**
+     * Same as append(label, fingerprints, numCorrect, numTotal, isBubble,
+     * phaseMillis), for a run of only the given fields (every field if null).
+     * The counts of the other fields are expected to be 0.
+     *
+     * Blocks while another instance (in this or another process) is
+     * appending to the same history.
+     *
+     * @throws IllegalArgumentException if only some fields are given and the
+     *         history has more than 64 fields
+     */
+    public synchronized RunSummary append(String label, Map<String, String> fingerprints, int[] fields,
+            int[] numCorrect, int[] numTotal, boolean[] isBubble, Map<String, Long> phaseMillis)
+            throws IOException {
+        long fieldSet = allFields;
+        if (fields != null) {
+            if (numFields > 64) {
+                throw new IllegalArgumentException("Cannot record a run of some of " + numFields + " fields");
+            }
+            fieldSet = 0;
+            for (int field : fields) {
+                fieldSet |= 1L << field;
+            }
+        }
+        long bubbleCorrect = 0;
+        long bubbleTotal = 0;
+        long digitCorrect = 0;
+        long digitTotal = 0;
+        for (int i = 0; i < numFields; i++) {
+            if (isBubble[i]) {
+                bubbleCorrect += numCorrect[i];
+                bubbleTotal += numTotal[i];
+            } else {
+                digitCorrect += numCorrect[i];
+                digitTotal += numTotal[i];
+            }
+        }
+        synchronized (fileMonitor) {
+            try (FileLock lock = records.lock()) {
+                // Pick up the runs appended by other instances since this one
+                // was opened (and repair an interrupted append of theirs)
+                recover();
+                return append(label, fingerprints, fieldSet, numCorrect, numTotal, bubbleCorrect, bubbleTotal,
+                        digitCorrect, digitTotal, phaseMillis);
+            }
+        }
+    }
+
+    /*
+     * Writes the record and index entry of a run at the end of the files,
+     * which must be locked.
+     */
+    private RunSummary append(String label, Map<String, String> fingerprints, long fieldSet, int[] numCorrect,
+            int[] numTotal, long bubbleCorrect, long bubbleTotal, long digitCorrect, long digitTotal,
+            Map<String, Long> phaseMillis) throws IOException {
+        RunSummary summary = new RunSummary(numRuns + 1, records.size(), System.currentTimeMillis(), fieldSet,
+                numCorrect.clone(), numTotal.clone(), bubbleCorrect, bubbleTotal, digitCorrect, digitTotal);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(summary.runId);
+        out.writeLong(summary.timestamp);
+        out.writeUTF(label);
+        out.writeInt(fingerprints.size());
+        for (Map.Entry<String, String> fingerprint : fingerprints.entrySet()) {
+            out.writeUTF(fingerprint.getKey());
+            out.writeUTF(fingerprint.getValue());
+        }
+        out.writeInt(numFields);
+        for (int i = 0; i < numFields; i++) {
+            out.writeInt(numCorrect[i]);
+            out.writeInt(numTotal[i]);
+        }
+        out.writeLong(bubbleCorrect);
+        out.writeLong(bubbleTotal);
+        out.writeLong(digitCorrect);
+        out.writeLong(digitTotal);
+        out.writeInt(phaseMillis.size());
+        for (Map.Entry<String, Long> phase : phaseMillis.entrySet()) {
+            out.writeUTF(phase.getKey());
+            out.writeLong(phase.getValue());
+        }
+        out.writeLong(fieldSet);
+        out.flush();
+        byte[] payload = bytes.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_PREFIX_BYTES + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        writeFully(records, record, summary.offset);
+        writeFully(index, encodeEntry(summary), INDEX_HEADER_BYTES + (long) numRuns * entryBytes);
+        numRuns++;
+        return summary;
+    }
+
+    public synchronized int getNumRuns() {
+        return numRuns;
+    }
+
+    /**
+     * Returns the summaries of the last n runs (or of every run, if there are
+     * fewer), oldest first. Only those index entries are read.
+     */
+    public synchronized List<RunSummary> lastRuns(int n) throws IOException {
+        int first = Math.max(0, numRuns - n);
+        List<RunSummary> runs = new ArrayList<RunSummary>();
+        ByteBuffer entries = readFully(index, INDEX_HEADER_BYTES + (long) first * entryBytes,
+                (numRuns - first) * entryBytes);
+        for (int r = first; r < numRuns; r++) {
+            runs.add(decodeEntry(r + 1, entries));
+        }
+        return runs;
+    }
+
+    /**
+     * Returns the runs whose digit accuracy is more than the given number of
+     * percentage points below that of the run before with the same set of
+     * fields, each paired with that previous run ({previous, run}). Reads the
+     * index, but no records.
+     */
+    public synchronized List<RunSummary[]> digitAccuracyDrops(double points) throws IOException {
+        List<RunSummary[]> drops = new ArrayList<RunSummary[]>();
+        if (numRuns < 2) {
+            return drops;
+        }
+        MappedByteBuffer entries = index.map(FileChannel.MapMode.READ_ONLY, INDEX_HEADER_BYTES,
+                (long) numRuns * entryBytes);
+        Map<Long, RunSummary> previousRuns = new HashMap<Long, RunSummary>();
+        for (int r = 0; r < numRuns; r++) {
+            RunSummary run = decodeEntry(r + 1, entries);
+            RunSummary previous = previousRuns.put(run.fieldSet, run);
+            if (previous != null && previous.getDigitAccuracy() - run.getDigitAccuracy() > points) {
+                drops.add(new RunSummary[] { previous, run });
+            }
+        }
+        return drops;
+    }
+
+    /**
+     * Reads the whole record of the run with the given ID (from 1 to
+     * getNumRuns()).
+     */
+    public synchronized Run readRun(int runId) throws IOException {
+        long offset = readSummary(runId - 1).offset;
+        byte[] payload = readRecordAt(offset);
+        if (payload == null) {
+            throw new IOException("Damaged record for run " + runId);
+        }
+        return decode(payload, offset);
+    }
+
+    public synchronized void close() throws IOException {
+        try {
+            records.close();
+        } finally {
+            index.close();
+        }
+    }
+
+    /**
+     * Fingerprints a file by hashing its contents with 64-bit FNV-1a.
+     */
+    public static String fingerprintFile(String file) throws IOException {
+        long hash = FNV_OFFSET_BASIS;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(file)))) {
+            int b;
+            while ((b = in.read()) >= 0) {
+                hash = (hash ^ b) * FNV_PRIME;
+            }
+        }
+        return String.format("%016x", hash);
+    }
+
+    /**
+     * Fingerprints a Scan output folder by the names of its sub-folders and
+     * the size and modification time of their output.json files (without
+     * reading them).
+     */
+    public static String fingerprintFolder(String scanOutputRoot) throws IOException {
+        List<Path> folders = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(scanOutputRoot))) {
+            for (Path entry : stream) {
+                if (Files.isDirectory(entry)) {
+                    folders.add(entry);
+                }
+            }
+        }
+        Collections.sort(folders);
+        long hash = FNV_OFFSET_BASIS;
+        for (Path folder : folders) {
+            Path json = folder.resolve("output.json");
+            String key = folder.getFileName() + "\t" + (Files.exists(json)
+                    ? Files.size(json) + "\t" + Files.getLastModifiedTime(json).toMillis() : "-") + "\n";
+            for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+                hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+            }
+        }
+        return String.format("%016x", hash);
+    }
+
+    /*
+     * Returns e.g. " (fields 11, 13)" for a run of only some fields, or "".
+     */
+    private String describeFields(RunSummary run) {
+        if (run.fieldSet == allFields) {
+            return "";
+        }
+        StringBuilder fields = new StringBuilder(" (fields ");
+        for (int i = 0; i < numFields; i++) {
+            if (run.hasField(i)) {
+                fields.append(fields.length() > " (fields ".length() ? ", " : "").append(i);
+            }
+        }
+        return fields.append(")").toString();
+    }
+
+    private RunSummary readSummary(int position) throws IOException {
+        return decodeEntry(position + 1,
+                readFully(index, INDEX_HEADER_BYTES + (long) position * entryBytes, entryBytes));
+    }
+
+    /*
+     * An index entry is the record's offset, the timestamp, the bubble and
+     * digit totals, the set of fields, and the correct and total counts of
+     * each field.
+     */
+    private ByteBuffer encodeEntry(RunSummary summary) {
+        ByteBuffer entry = ByteBuffer.allocate(entryBytes);
+        entry.putLong(summary.offset).putLong(summary.timestamp);
+        entry.putInt((int) summary.bubbleCorrect).putInt((int) summary.bubbleTotal);
+        entry.putInt((int) summary.digitCorrect).putInt((int) summary.digitTotal);
+        entry.putLong(summary.fieldSet);
+        for (int i = 0; i < numFields; i++) {
+            entry.putInt(summary.numCorrect[i]).putInt(summary.numTotal[i]);
+        }
+        entry.flip();
+        return entry;
+    }
+
+    /*
+     * Decodes the index entry at the current position of the buffer.
+     */
+    private RunSummary decodeEntry(int runId, ByteBuffer entry) {
+        long offset = entry.getLong();
+        long timestamp = entry.getLong();
+        long bubbleCorrect = entry.getInt() & 0xffffffffL;
+        long bubbleTotal = entry.getInt() & 0xffffffffL;
+        long digitCorrect = entry.getInt() & 0xffffffffL;
+        long digitTotal = entry.getInt() & 0xffffffffL;
+        long fieldSet = entry.getLong();
+        int[] numCorrect = new int[numFields];
+        int[] numTotal = new int[numFields];
+        for (int i = 0; i < numFields; i++) {
+            numCorrect[i] = entry.getInt();
+            numTotal[i] = entry.getInt();
+        }
+        return new RunSummary(runId, offset, timestamp, fieldSet, numCorrect, numTotal, bubbleCorrect, bubbleTotal,
+                digitCorrect, digitTotal);
+    }
+
+    private Run decode(byte[] payload, long offset) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int runId = in.readInt();
+        long timestamp = in.readLong();
+        String label = in.readUTF();
+        Map<String, String> fingerprints = new LinkedHashMap<String, String>();
+        for (int n = in.readInt(); n > 0; n--) {
+            fingerprints.put(in.readUTF(), in.readUTF());
+        }
+        if (in.readInt() != numFields) {
+            throw new IOException("Run " + runId + " has the wrong number of fields");
+        }
+        int[] numCorrect = new int[numFields];
+        int[] numTotal = new int[numFields];
+        for (int i = 0; i < numFields; i++) {
+            numCorrect[i] = in.readInt();
+            numTotal[i] = in.readInt();
+        }
+        long bubbleCorrect = in.readLong();
+        long bubbleTotal = in.readLong();
+        long digitCorrect = in.readLong();
+        long digitTotal = in.readLong();
+        Map<String, Long> phaseMillis = new LinkedHashMap<String, Long>();
+        for (int n = in.readInt(); n > 0; n--) {
+            phaseMillis.put(in.readUTF(), in.readLong());
+        }
+        long fieldSet = in.readLong();
+        RunSummary summary = new RunSummary(runId, offset, timestamp, fieldSet, numCorrect, numTotal,
+                bubbleCorrect, bubbleTotal, digitCorrect, digitTotal);
+        return new Run(summary, label, fingerprints, phaseMillis);
+    }
+
+    /*
+     * Returns the payload of the record at the given offset, or null if there
+     * is no complete record with a matching CRC there.
+     */
+    private byte[] readRecordAt(long offset) throws IOException {
+        if (offset + RECORD_PREFIX_BYTES > records.size()) {
+            return null;
+        }
+        ByteBuffer prefix = readFully(records, offset, RECORD_PREFIX_BYTES);
+        int length = prefix.getInt();
+        int expectedCrc = prefix.getInt();
+        if (length < 0 || offset + RECORD_PREFIX_BYTES + length > records.size()) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        readFully(records, offset + RECORD_PREFIX_BYTES, length).get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == expectedCrc ? payload : null;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Queries a run history.
+     *
+     * Command-line arguments:
+     *
+     * [0]: The path of the history files, without extension.
+     *
+     * [1]: One of "last [n]" (the bubble and digit accuracy of the last n runs,
+     * default 10), "field [name or index] [n]" (the accuracy of a field over
+     * the last n runs), "drops [points]" (runs whose digit accuracy dropped by
+     * more than the given number of percentage points, default 1), or "show
+     * [run ID]" (the whole record of a run).
+     */
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 4) {
+            System.out.println("Command-line arguments: <history file without extension>"
+                    + " last [n] | field <name or index> [n] | drops [points] | show <run ID>");
+            System.exit(1);
+        }
+        try (RunHistory history = open(args[0], AccuracyChecker.EXCEL_DATA_COLUMNS.length)) {
+            String command = args[1];
+            if (command.equals("last")) {
+                for (RunSummary run : history.lastRuns(args.length > 2 ? Integer.parseInt(args[2]) : 10)) {
+                    System.out.printf("Run %d (%tF %<tT): bubble %.2f%%, digit %.2f%%%s\n", run.runId,
+                            new Date(run.timestamp), run.getBubbleAccuracy(), run.getDigitAccuracy(),
+                            history.describeFields(run));
+                }
+            } else if (command.equals("field") && args.length > 2) {
+                int[] fields = AccuracyChecker.parseFields(args[2]);
+                if (fields.length != 1) {
+                    System.exit(1);
+                }
+                int field = fields[0];
+                for (RunSummary run : history.lastRuns(args.length > 3 ? Integer.parseInt(args[3]) : 10)) {
+                    if (!run.hasField(field)) {
+                        continue;
+                    }
+                    System.out.printf("Run %d (%tF %<tT): " + AccuracyChecker.COLUMN_NAMES[field] + " "
+                            + run.numCorrect[field] + "/" + run.numTotal[field] + " correct (%.2f%%)\n", run.runId,
+                            new Date(run.timestamp), run.getFieldAccuracy(field));
+                }
+            } else if (command.equals("drops")) {
+                double points = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+                for (RunSummary[] drop : history.digitAccuracyDrops(points)) {
+                    System.out.printf("Run %d: digit %.2f%% -> %.2f%% (run %d)%s\n", drop[1].runId,
+                            drop[0].getDigitAccuracy(), drop[1].getDigitAccuracy(), drop[0].runId,
+                            history.describeFields(drop[1]));
+                }
+            } else if (command.equals("show") && args.length > 2) {
+                Run run = history.readRun(Integer.parseInt(args[2]));
+                System.out.printf("Run %d (%tF %<tT): %s\n", run.summary.runId, new Date(run.summary.timestamp),
+                        run.label);
+                System.out.println("Fingerprints: " + run.fingerprints + history.describeFields(run.summary));
+                System.out.println("Phases (ms): " + run.phaseMillis);
+                AccuracyChecker.printResults(run.summary.numCorrect, run.summary.numTotal,
+                        "run " + run.summary.runId);
+            } else {
+                System.out.println("Unknown command: " + command);
+                System.exit(1);
+            }
+        } catch (IOException e) {
+            System.err.println(e);
+            System.exit(1);
+        }
+    }
+}
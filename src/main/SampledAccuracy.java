@@ -0,0 +1,451 @@
+package main;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Estimates the accuracy of each field from a sample of the Scan output
+ * folders instead of all of them, for quick checks of a new Scan build. The
+ * folders are visited in a random (or stratified random) order and read and
+ * scored in batches; after each batch, a confidence interval is computed for
+ * the accuracy of each field, and sampling stops as soon as every requested
+ * field's interval is narrower than the target (or every folder has been
+ * read).
+ *
+ * The accuracy of a field is a ratio (correct / total digits or bubbles) over
+ * forms, so each folder is one sampling unit and the interval is that of the
+ * ratio estimator, with the finite population correction for sampling
+ * without replacement. Folders that cannot be read, or whose client ID is not
+ * in the Excel file, count as units with no data. So do folders whose client
+ * ID appears in more than one folder, which JsonParser.crawlDirectories leaves
+ * out. These are taken from the folder names, through the persistent
+ * FolderIndex, so that no folder is opened before it is sampled. A client ID
+ * that is duplicated only in clientID.txt (under folder names with different
+ * client IDs) is not found: such folders are scored here but left out of a
+ * full crawl, which slightly biases the estimate.
+ *
+ * Stratified sampling groups the folders by their name without the client ID
+ * (the xxxxxxx of xxxxxxx_id_yyy; see FolderUtils.parseClientId), and
+ * interleaves the groups so that every prefix of the order holds each group
+ * in proportion to its size. The interval is computed as for simple random
+ * sampling, which can only overstate its width.
+ */
+public class SampledAccuracy {
+    private static final double DEFAULT_TARGET = 0.5;
+
+    // Two-sided 95% normal quantile
+    private static final double Z = 1.96;
+
+    // Folders read (in parallel) between two checks of the intervals
+    private static final int BATCH_SIZE = 256;
+
+    // Intervals from fewer forms with data for the field than this are not
+    // trusted to stop sampling
+    private static final int MIN_FORMS = 30;
+
+    /**
+     * How the folders are ordered for sampling.
+     */
+    public enum Sampling {
+        RANDOM, STRATIFIED
+    }
+
+    /**
+     * The running sums of one field over the sampled forms, from which the
+     * ratio estimate and its interval are computed.
+     */
+    public static class RatioEstimate {
+        private long numForms;
+        private long numFormsWithData;
+        private long correct;
+        private long total;
+        private double correctSquares;
+        private double totalSquares;
+        private double products;
+
+        /**
+         * Adds a sampled form, with its correct and total counts for the
+         * field (both 0 if the form has no data for it).
+         */
+        public void add(int formCorrect, int formTotal) {
+            numForms++;
+            if (formTotal > 0) {
+                numFormsWithData++;
+            }
+            correct += formCorrect;
+            total += formTotal;
+            correctSquares += (double) formCorrect * formCorrect;
+            totalSquares += (double) formTotal * formTotal;
+            products += (double) formCorrect * formTotal;
+        }
+
+        public long getNumForms() {
+            return numForms;
+        }
+
+        public long getNumFormsWithData() {
+            return numFormsWithData;
+        }
+
+        public long getCorrect() {
+            return correct;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        /**
+         * Returns the estimated accuracy as a percentage, or NaN if no form
+         * had any data.
+         */
+        public double getAccuracy() {
+            return total == 0 ? Double.NaN : correct * 100.0 / total;
+        }
+
+        /**
+         * Returns the half-width of the 95% confidence interval of the
+         * accuracy, in percentage points, or NaN if fewer than 2 forms had
+         * data.
+         *
+         * @param populationSize The number of forms sampled from
+         */
+        public double getHalfWidth(long populationSize) {
+            if (numFormsWithData < 2) {
+                return Double.NaN;
+            }
+            double ratio = (double) correct / total;
+            double residualSquares = correctSquares - 2 * ratio * products + ratio * ratio * totalSquares;
+            double variance = Math.max(0, residualSquares) / (numForms - 1);
+            double meanTotal = (double) total / numForms;
+            double fraction = Math.min(1, (double) numForms / populationSize);
+            return 100 * Z * Math.sqrt((1 - fraction) * variance / (numForms * meanTotal * meanTotal));
+        }
+    }
+
+    private final int[] fields;
+    private final RatioEstimate[] estimates;
+    private final RatioEstimate bubbleEstimate = new RatioEstimate();
+    private final RatioEstimate digitEstimate = new RatioEstimate();
+    private final int numFolders;
+    private int numSampled;
+    private int numErrors;
+    private boolean converged;
+
+    private SampledAccuracy(int[] fields, int numFields, int numFolders) {
+        this.fields = fields;
+        this.numFolders = numFolders;
+        estimates = new RatioEstimate[numFields];
+        for (int i = 0; i < numFields; i++) {
+            estimates[i] = new RatioEstimate();
+        }
+    }
+
+    /**
+     * Runs the sampler.
+     *
+     * Command-line arguments:
+     *
+     * [0]: The path to the root of the folder containing the Scan output.
+     *
+     * [1] (optional): The target half-width of the confidence intervals, in
+     * percentage points (default 0.5, i.e. +/-0.5%).
+     *
+     * [2] (optional): "random" (default) or "stratified".
+     *
+     * [3] (optional): The seed of the random number generator.
+     *
+     * --fields=[list] (optional, anywhere): Sample only the listed fields (see
+     * AccuracyChecker.main).
+     */
+    public static void main(String[] args) {
+        List<String> arguments = new ArrayList<String>();
+        int[] fields = null;
+        for (String arg : args) {
+            if (arg.startsWith("--fields=")) {
+                fields = AccuracyChecker.parseFields(arg.substring("--fields=".length()));
+            } else {
+                arguments.add(arg);
+            }
+        }
+        if (arguments.size() < 1 || arguments.size() > 4 || (fields != null && fields.length == 0)) {
+            System.out.println("Command-line arguments: <Root of scan output folder> [target half-width %]"
+                    + " [random|stratified] [seed] [--fields=<field name or index>,...]");
+            System.exit(1);
+        }
+        double target = arguments.size() > 1 ? Double.parseDouble(arguments.get(1)) : DEFAULT_TARGET;
+        Sampling sampling = arguments.size() > 2 ? Sampling.valueOf(arguments.get(2).toUpperCase())
+                : Sampling.RANDOM;
+        long seed = arguments.size() > 3 ? Long.parseLong(arguments.get(3)) : System.nanoTime();
+
+        Progress.reportTo(System.err);
+        Progress.cancelOnInterrupt();
+        try {
+            Map<String, List<String>> expectedData = ExcelParser.parseCorrectFile(AccuracyChecker.EXCEL_FILE,
+                    AccuracyChecker.EXCEL_SHEETS, AccuracyChecker.EXCEL_DATA_COLUMNS, fields);
+            SampledAccuracy result = sample(arguments.get(0), expectedData, fields, target, sampling, seed,
+                    FolderUtils.FOLDER_INDEX_FILE);
+            result.printEstimates(target);
+        } finally {
+            Progress.finished();
+        }
+    }
+
+    /**
+     * Samples the output folders until the interval of every requested field
+     * is at most targetHalfWidth wide on either side of the estimate.
+     *
+     * @param scanOutputRoot The root of the scan output directory
+     * @param expected The expected data (see ExcelParser.parseCorrectFile)
+     * @param fields The (increasing) indexes of the fields to read and
+     *        estimate, or null for every field
+     * @param targetHalfWidth The target half-width, in percentage points
+     * @param sampling How the folders are ordered
+     * @param seed The seed of the random number generator
+     * @param indexFile The FolderIndex file in which to look up the client IDs
+     *        that appear in more than one folder of the root
+     */
+    public static SampledAccuracy sample(String scanOutputRoot, Map<String, List<String>> expected, int[] fields,
+            double targetHalfWidth, Sampling sampling, long seed, String indexFile) {
+        Set<String> duplicateClientIds = FolderIndex.open(indexFile, Arrays.asList(scanOutputRoot))
+                .getDuplicateClientIds();
+        List<Path> folders = sampleOrder(listFolders(Paths.get(scanOutputRoot)), sampling, seed);
+        SampledAccuracy result = new SampledAccuracy(fields, AccuracyChecker.EXCEL_DATA_COLUMNS.length,
+                folders.size());
+
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        Progress progress = null;
+        try {
+            progress = new Progress("Sampling folders", folders.size());
+            for (int start = 0; start < folders.size() && !result.converged; start += BATCH_SIZE) {
+                if (Progress.isCancelled()) {
+                    break;
+                }
+
+                // Read the batch in parallel, then score it in sample order
+                List<Future<ScanOutput>> batch = new ArrayList<Future<ScanOutput>>();
+                int batchSize = Math.min(BATCH_SIZE, folders.size() - start);
+                final String[] clientIds = new String[batchSize];
+                for (int k = 0; k < batchSize; k++) {
+                    final Path folder = folders.get(start + k);
+                    final int index = k;
+                    final int[] readFields = fields;
+                    batch.add(pool.submit(new Callable<ScanOutput>() {
+                        public ScanOutput call() throws IOException {
+                            clientIds[index] = JsonParser.readClientId(folder);
+                            try (Reader reader = Files.newBufferedReader(folder.resolve("output.json"),
+                                    StandardCharsets.UTF_8)) {
+                                List<String> values = readFields == null ? JsonParser.parseActualJson(reader)
+                                        : JsonParser.parseActualJson(reader, readFields);
+                                return new ScanOutput(values, folder.getFileName().toString());
+                            }
+                        }
+                    }));
+                }
+                for (int k = 0; k < batch.size(); k++) {
+                    ScanOutput output = null;
+                    try {
+                        output = batch.get(k).get();
+                    } catch (ExecutionException e) {
+                        result.numErrors++;
+                    }
+                    String clientId = clientIds[k];
+                    List<String> expectedValues = null;
+                    if (output != null && !duplicateClientIds.contains(clientId)) {
+                        expectedValues = expected.get(clientId);
+                    }
+                    result.add(output == null ? null : output.outputData, expectedValues);
+                }
+                progress.advance(batch.size());
+                result.converged = result.isConverged(targetHalfWidth);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+        if (progress != null) {
+            progress.finish();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the folders in the order they are sampled in: shuffled, or
+     * (when stratified) each group shuffled and the groups interleaved in
+     * proportion to their sizes.
+     */
+    public static List<Path> sampleOrder(List<Path> folders, Sampling sampling, long seed) {
+        Random random = new Random(seed);
+        List<Path> order = new ArrayList<Path>(folders);
+        Collections.shuffle(order, random);
+        if (sampling == Sampling.RANDOM) {
+            return order;
+        }
+
+        Map<String, List<Path>> strata = new TreeMap<String, List<Path>>();
+        for (Path folder : order) {
+            String stratum = stratumOf(folder.getFileName().toString());
+            if (!strata.containsKey(stratum)) {
+                strata.put(stratum, new ArrayList<Path>());
+            }
+            strata.get(stratum).add(folder);
+        }
+        List<List<Path>> groups = new ArrayList<List<Path>>(strata.values());
+        int[] taken = new int[groups.size()];
+        List<Path> interleaved = new ArrayList<Path>(order.size());
+        for (int n = 1; n <= order.size(); n++) {
+            // Take from the group that is furthest behind its share
+            int best = -1;
+            double bestDeficit = Double.NEGATIVE_INFINITY;
+            for (int g = 0; g < groups.size(); g++) {
+                if (taken[g] == groups.get(g).size()) {
+                    continue;
+                }
+                double deficit = (double) n * groups.get(g).size() / order.size() - taken[g];
+                if (deficit > bestDeficit) {
+                    best = g;
+                    bestDeficit = deficit;
+                }
+            }
+            interleaved.add(groups.get(best).get(taken[best]++));
+        }
+        return interleaved;
+    }
+
+    /*
+     * Returns the name of the folder without its client ID, or the whole
+     * name if it has none.
+     */
+    private static String stratumOf(String folderName) {
+        String clientId = FolderUtils.parseClientId(folderName);
+        if (clientId == null) {
+            return folderName;
+        }
+        return folderName.substring(0, folderName.length() - clientId.length() - "_id_".length());
+    }
+
+    private static List<Path> listFolders(Path root) {
+        List<Path> folders = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+            for (Path entry : stream) {
+                if (Files.isDirectory(entry)) {
+                    folders.add(entry);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+
+        // Directory listings are not in a fixed order, so sort them to make
+        // the sample depend only on the seed
+        Collections.sort(folders);
+        return folders;
+    }
+
+    /*
+     * Scores one sampled form (either list may be null if the form has no
+     * data).
+     */
+    private void add(List<String> actualValues, List<String> expectedValues) {
+        int bubbleCorrect = 0;
+        int bubbleTotal = 0;
+        int digitCorrect = 0;
+        int digitTotal = 0;
+        for (int i : getFields()) {
+            int[] comparison = null;
+            if (actualValues != null && expectedValues != null) {
+                comparison = AccuracyChecker.compareField(i, actualValues.get(i), expectedValues.get(i));
+            }
+            int correct = comparison == null ? 0 : comparison[0];
+            int total = comparison == null ? 0 : comparison[1];
+            estimates[i].add(correct, total);
+            if (AccuracyChecker.IS_BUBBLE[i]) {
+                bubbleCorrect += correct;
+                bubbleTotal += total;
+            } else {
+                digitCorrect += correct;
+                digitTotal += total;
+            }
+        }
+        bubbleEstimate.add(bubbleCorrect, bubbleTotal);
+        digitEstimate.add(digitCorrect, digitTotal);
+        numSampled++;
+    }
+
+    private boolean isConverged(double targetHalfWidth) {
+        for (int i : getFields()) {
+            RatioEstimate estimate = estimates[i];
+            if (numSampled < numFolders && (estimate.getNumFormsWithData() < MIN_FORMS
+                    || !(estimate.getHalfWidth(numFolders) <= targetHalfWidth))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the indexes of the estimated fields.
+     */
+    public int[] getFields() {
+        if (fields != null) {
+            return fields;
+        }
+        int[] all = new int[estimates.length];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        return all;
+    }
+
+    public RatioEstimate getEstimate(int field) {
+        return estimates[field];
+    }
+
+    public int getNumSampled() {
+        return numSampled;
+    }
+
+    public int getNumFolders() {
+        return numFolders;
+    }
+
+    /**
+     * Returns the number of sampled folders that could not be read.
+     */
+    public int getNumErrors() {
+        return numErrors;
+    }
+
+    /**
+     * Returns whether sampling stopped because every interval reached the
+     * target (or every folder was read), rather than being cancelled.
+     */
+    public boolean isConverged() {
+        return converged;
+    }
+
+    /**
+     * Prints the estimate and interval of each field, in the same layout as
+     * AccuracyChecker.printResults.
+     */
+    public void printEstimates(double targetHalfWidth) {
+        System.out.println();
+        System.out.printf("Sampled results: %d of %d folders (%d unreadable), target +/-%.2f%%%s\n", numSampled,
+                numFolders, numErrors, targetHalfWidth, converged ? "" : " NOT REACHED");
+        for (int i : getFields()) {
+            String type = AccuracyChecker.IS_BUBBLE[i] ? "bubble" : "digit";
+            System.out.printf("Field " + i + " (" + AccuracyChecker.COLUMN_NAMES[i] + ": " + type
+                    + "): %.2f%% +/- %.2f%% (" + estimates[i].getCorrect() + "/" + estimates[i].getTotal()
+                    + " correct)\n", estimates[i].getAccuracy(), estimates[i].getHalfWidth(numFolders));
+        }
+        System.out.println();
+        System.out.printf("BUBBLE FIELDS: %.2f%% +/- %.2f%%\n", bubbleEstimate.getAccuracy(),
+                bubbleEstimate.getHalfWidth(numFolders));
+        System.out.printf("DIGIT FIELDS: %.2f%% +/- %.2f%%\n", digitEstimate.getAccuracy(),
+                digitEstimate.getHalfWidth(numFolders));
+    }
+}
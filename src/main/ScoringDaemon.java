@@ -0,0 +1,297 @@
+package main;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.json.*;
+
+import com.sun.net.httpserver.*;
+
+/**
+ * A long-running local server that scores single forms on request. The Excel
+ * file is parsed once at startup and kept in memory (and re-parsed in the
+ * background whenever the file changes), so a request only pays for parsing
+ * one output.json and comparing its fields.
+ *
+ * The server only listens on the loopback interface and handles requests
+ * concurrently. It accepts:
+ *
+ * POST /score?clientId=<id> with the contents of an output.json file as the
+ * request body. If clientId is omitted, the client ID read by Scan is used.
+ *
+ * GET /score?folder=<path> to score the Scan output folder at the given path
+ * (which must contain clientID.txt and output.json).
+ *
+ * GET /status to check which version of the Excel file is loaded.
+ *
+ * Scores are returned as JSON; see toJson for the format.
+ */
+public class ScoringDaemon {
+    private static final int DEFAULT_PORT = 8765;
+
+    // How often to check whether the Excel file has changed
+    private static final long RELOAD_CHECK_SECONDS = 5;
+
+    /*
+     * The expected data loaded from one version of the Excel file. Snapshots
+     * are never modified after they are published, so request threads can read
+     * them without locking.
+     */
+    private static class GroundTruth {
+        final Map<String, List<String>> expected;
+        final long lastModified;
+
+        GroundTruth(Map<String, List<String>> expected, long lastModified) {
+            this.expected = expected;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final String excelFile;
+    private volatile GroundTruth groundTruth;
+
+    // The modification time of the last version of the Excel file that could
+    // not be parsed (so that the failure is only reported once)
+    private long failedModified = -1;
+
+    // Set by start, and shut down by stop
+    private HttpServer server;
+    private ExecutorService requestPool;
+    private ScheduledExecutorService watcher;
+
+    public ScoringDaemon(String excelFile) {
+        this.excelFile = excelFile;
+        this.groundTruth = loadGroundTruth();
+    }
+
+    /**
+     * Starts the daemon.
+     *
+     * Command-line arguments:
+     *
+     * [0] (optional): The port to listen on (default 8765).
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        ScoringDaemon daemon = new ScoringDaemon(AccuracyChecker.EXCEL_FILE);
+        daemon.start(port);
+        System.out.println("Scoring daemon listening on " + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+                + port + " (" + daemon.groundTruth.expected.size() + " client IDs loaded)");
+    }
+
+    /**
+     * Starts serving requests on the given port, and starts watching the Excel
+     * file for changes, until stop is called.
+     */
+    public HttpServer start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/score", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                handleScore(exchange);
+            }
+        });
+        server.createContext("/status", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                GroundTruth current = groundTruth;
+                JsonObject status = Json.createObjectBuilder().add("excelFile", excelFile)
+                        .add("lastModified", current.lastModified).add("clientIds", current.expected.size())
+                        .build();
+                respond(exchange, 200, status);
+            }
+        });
+        requestPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        server.setExecutor(requestPool);
+        server.start();
+
+        watcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ground-truth-watcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        watcher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                reloadIfChanged();
+            }
+        }, RELOAD_CHECK_SECONDS, RELOAD_CHECK_SECONDS, TimeUnit.SECONDS);
+        return server;
+    }
+
+    /**
+     * Stops serving requests and watching the Excel file, and shuts down the
+     * threads of both (HttpServer.stop leaves the request threads running).
+     */
+    public void stop() {
+        server.stop(0);
+        requestPool.shutdownNow();
+        watcher.shutdownNow();
+    }
+
+    /**
+     * Re-parses the Excel file if its modification time has changed since it
+     * was last loaded. Requests keep using the previous data until the new
+     * data is completely parsed. If the new version cannot be parsed (e.g. it
+     * is still being saved), or holds no client IDs, the previous data is kept
+     * and the file is parsed again at the next check.
+     */
+    public void reloadIfChanged() {
+        long modified = lastModified(excelFile);
+        if (modified == groundTruth.lastModified) {
+            return;
+        }
+        GroundTruth loaded = loadGroundTruth();
+        if (loaded.expected.isEmpty()) {
+            if (modified != failedModified) {
+                failedModified = modified;
+                System.err.println("Could not reload " + excelFile + ", keeping the previous version ("
+                        + groundTruth.expected.size() + " client IDs)");
+            }
+            return;
+        }
+        groundTruth = loaded;
+        System.out.println("Reloaded " + excelFile + " (" + groundTruth.expected.size() + " client IDs)");
+    }
+
+    private GroundTruth loadGroundTruth() {
+        // Record the modification time first, so that a change made while
+        // parsing triggers another reload
+        long modified = lastModified(excelFile);
+        Map<String, List<String>> expected = ExcelParser.parseCorrectFile(excelFile, AccuracyChecker.EXCEL_SHEETS,
+                AccuracyChecker.EXCEL_DATA_COLUMNS);
+        return new GroundTruth(Collections.unmodifiableMap(expected), modified);
+    }
+
+    private void handleScore(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            List<String> actualResult;
+            String clientId = query.get("clientId");
+            String folder = query.get("folder");
+
+            if (folder != null) {
+                Path folderPath = Paths.get(folder);
+                if (clientId == null) {
+                    clientId = JsonParser.readClientId(folderPath);
+                }
+                try (Reader reader = Files.newBufferedReader(folderPath.resolve("output.json"),
+                        StandardCharsets.UTF_8)) {
+                    actualResult = JsonParser.parseActualJson(reader);
+                }
+            } else if (exchange.getRequestMethod().equals("POST")) {
+                try (Reader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+                    actualResult = JsonParser.parseActualJson(reader);
+                }
+                if (clientId == null) {
+                    clientId = actualResult.get(0);
+                }
+            } else {
+                respondError(exchange, 400, "POST an output.json document or pass ?folder=<path>");
+                return;
+            }
+
+            if (clientId == null) {
+                respondError(exchange, 400, "The document has no client ID; pass ?clientId=<id>");
+                return;
+            }
+
+            // Look the client ID up the way ExcelParser stores it
+            clientId = AccuracyChecker.trimTrailingZeroes(clientId.trim());
+
+            List<String> expectedResult = groundTruth.expected.get(clientId);
+            if (expectedResult == null) {
+                respondError(exchange, 404, "Client ID " + clientId + " is not in the Excel file");
+                return;
+            }
+            respond(exchange, 200, toJson(clientId, actualResult, expectedResult));
+        } catch (IOException | JsonException | ClassCastException | IndexOutOfBoundsException e) {
+            respondError(exchange, 400, e.toString());
+        } catch (RuntimeException e) {
+            respondError(exchange, 500, e.toString());
+        }
+    }
+
+    /**
+     * Scores a single form and returns the result as a JSON object of the form
+     * { "clientId": ..., "fields": [ { "index", "name", "type", "actual",
+     * "expected", "correct", "total" }, ... ], "bubbleCorrect", "bubbleTotal",
+     * "digitCorrect", "digitTotal" }. Fields that are skipped by the comparison
+     * (missing values) have correct = total = 0.
+     */
+    public static JsonObject toJson(String clientId, List<String> actualResult, List<String> expectedResult) {
+        JsonArrayBuilder fields = Json.createArrayBuilder();
+        int bubbleCorrect = 0;
+        int bubbleTotal = 0;
+        int digitCorrect = 0;
+        int digitTotal = 0;
+        for (int i = 0; i < actualResult.size(); i++) {
+            String actual = actualResult.get(i);
+            String expected = expectedResult.get(i);
+            int[] comparison = AccuracyChecker.compareField(i, actual, expected);
+            if (comparison == null) {
+                comparison = new int[2];
+            }
+            JsonObjectBuilder field = Json.createObjectBuilder().add("index", i)
+                    .add("name", AccuracyChecker.COLUMN_NAMES[i])
+                    .add("type", AccuracyChecker.IS_BUBBLE[i] ? "bubble" : "digit");
+            if (actual == null) {
+                field.addNull("actual");
+            } else {
+                field.add("actual", actual);
+            }
+            if (expected == null) {
+                field.addNull("expected");
+            } else {
+                field.add("expected", expected);
+            }
+            fields.add(field.add("correct", comparison[0]).add("total", comparison[1]));
+
+            if (AccuracyChecker.IS_BUBBLE[i]) {
+                bubbleCorrect += comparison[0];
+                bubbleTotal += comparison[1];
+            } else {
+                digitCorrect += comparison[0];
+                digitTotal += comparison[1];
+            }
+        }
+        return Json.createObjectBuilder().add("clientId", clientId).add("fields", fields)
+                .add("bubbleCorrect", bubbleCorrect).add("bubbleTotal", bubbleTotal)
+                .add("digitCorrect", digitCorrect).add("digitTotal", digitTotal).build();
+    }
+
+    private static void respondError(HttpExchange exchange, int status, String message) throws IOException {
+        respond(exchange, status, Json.createObjectBuilder().add("error", message).build());
+    }
+
+    private static void respond(HttpExchange exchange, int status, JsonObject body) throws IOException {
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> query = new HashMap<String, String>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+
+    private static long lastModified(String file) {
+        return new File(file).lastModified();
+    }
+}
@@ -0,0 +1,367 @@
+package main;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The field values of many forms (either the Scan output or the expected
+ * data), kept in a scratch file outside of the Java heap instead of in a Map,
+ * so that evaluations of millions of forms fit in a small heap.
+ *
+ * Forms are written through a Writer, which buffers SEGMENT_FORMS forms at a
+ * time and then spills them to the scratch file as one columnar segment: for
+ * each column (client ID, folder name, then each field), the end offset of
+ * every value followed by the UTF-8 bytes of all values. Once written, the
+ * segments are memory-mapped and values are decoded straight from the
+ * mapping when they are asked for; nothing but a hash index of the client IDs
+ * is kept on the heap.
+ *
+ * As with JsonParser.crawlDirectories and ExcelParser.parseCorrectFile, a
+ * client ID that was written more than once is treated as missing.
+ */
+public class SpilledForms implements Closeable {
+    // Number of forms per segment
+    static final int SEGMENT_FORMS = 16384;
+
+    // Set on the end offset of a null value
+    private static final int NULL_FLAG = 0x80000000;
+
+    // The client ID and folder name come before the fields
+    private static final int CLIENT_ID = 0;
+    private static final int FOLDER_NAME = 1;
+    private static final int FIRST_FIELD = 2;
+
+    /**
+     * Spills forms to a scratch file.
+     */
+    public static class Writer implements Closeable {
+        private final Path file;
+        private final FileChannel channel;
+        private final int numFields;
+        private int numForms;
+
+        // The forms of the current segment, one column at a time
+        private final int[][] ends;
+        private final ByteArrayOutputStream[] bytes;
+        private int segmentForms;
+
+        private Writer(Path file, int numFields) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.numFields = numFields;
+            this.ends = new int[FIRST_FIELD + numFields][SEGMENT_FORMS];
+            this.bytes = new ByteArrayOutputStream[FIRST_FIELD + numFields];
+            for (int c = 0; c < bytes.length; c++) {
+                bytes[c] = new ByteArrayOutputStream();
+            }
+        }
+
+        /**
+         * Adds a form. The values are copied, so the list may be reused.
+         *
+         * @param clientId The client ID of the form
+         * @param folderName The output folder of the form, or null for
+         *        expected data
+         * @param values The value of each field (values may be null)
+         */
+        public void add(String clientId, String folderName, List<String> values) throws IOException {
+            if (values.size() != numFields) {
+                throw new IllegalArgumentException(
+                        "Expected " + numFields + " fields for " + clientId + ", got " + values.size());
+            }
+            append(CLIENT_ID, clientId);
+            append(FOLDER_NAME, folderName);
+            for (int i = 0; i < numFields; i++) {
+                append(FIRST_FIELD + i, values.get(i));
+            }
+            numForms++;
+            if (++segmentForms == SEGMENT_FORMS) {
+                flushSegment();
+            }
+        }
+
+        public int getNumForms() {
+            return numForms;
+        }
+
+        /**
+         * Writes the last segment and maps the scratch file for reading. The
+         * writer is closed afterwards.
+         */
+        public SpilledForms finish() throws IOException {
+            flushSegment();
+            channel.close();
+            return new SpilledForms(file, numFields, numForms);
+        }
+
+        /**
+         * Closes the writer without reading the forms back, and deletes the
+         * scratch file.
+         */
+        public void close() throws IOException {
+            if (channel.isOpen()) {
+                channel.close();
+                Files.deleteIfExists(file);
+            }
+        }
+
+        private void append(int column, String value) {
+            int end = bytes[column].size();
+            if (value != null) {
+                byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+                bytes[column].write(encoded, 0, encoded.length);
+                end += encoded.length;
+            }
+            ends[column][segmentForms] = value == null ? end | NULL_FLAG : end;
+        }
+
+        /*
+         * Writes the buffered forms as a segment: the number of forms, then
+         * for each column the length of its bytes, the end offsets and the
+         * bytes.
+         */
+        private void flushSegment() throws IOException {
+            if (segmentForms == 0) {
+                return;
+            }
+            ByteBuffer header = ByteBuffer.allocate(4 + 4 * segmentForms);
+            header.putInt(segmentForms).flip();
+            writeFully(header);
+            for (int c = 0; c < ends.length; c++) {
+                header.clear();
+                header.putInt(bytes[c].size());
+                for (int k = 0; k < segmentForms; k++) {
+                    header.putInt(ends[c][k]);
+                }
+                header.flip();
+                writeFully(header);
+                writeFully(ByteBuffer.wrap(bytes[c].toByteArray()));
+                bytes[c].reset();
+            }
+            segmentForms = 0;
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private final Path file;
+    private final int numFields;
+    private final int numForms;
+
+    // The mapping of each segment, and the position of each column's end
+    // offsets and bytes within it
+    private final MappedByteBuffer[] segments;
+    private final int[][] endsPosition;
+    private final int[][] bytesPosition;
+
+    // Open-addressing hash table of client IDs; each slot holds a form index
+    // plus one (0 is an empty slot)
+    private final int[] index;
+    private final BitSet duplicates = new BitSet();
+
+    private SpilledForms(Path file, int numFields, int numForms) throws IOException {
+        this.file = file;
+        this.numFields = numFields;
+        this.numForms = numForms;
+        int numSegments = (numForms + SEGMENT_FORMS - 1) / SEGMENT_FORMS;
+        segments = new MappedByteBuffer[numSegments];
+        endsPosition = new int[numSegments][FIRST_FIELD + numFields];
+        bytesPosition = new int[numSegments][FIRST_FIELD + numFields];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = 0;
+            for (int s = 0; s < numSegments; s++) {
+                // Work out the size of the segment from its column headers
+                ByteBuffer intBuffer = ByteBuffer.allocate(4);
+                int count = readInt(channel, position, intBuffer);
+                long size = 4;
+                for (int c = 0; c < FIRST_FIELD + numFields; c++) {
+                    int numBytes = readInt(channel, position + size, intBuffer);
+                    endsPosition[s][c] = (int) size + 4;
+                    bytesPosition[s][c] = (int) size + 4 + 4 * count;
+                    size += 4 + 4 * count + numBytes;
+                }
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("Segment " + s + " of " + file + " is too large to map");
+                }
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                position += size;
+            }
+        }
+
+        // Index the client IDs
+        int capacity = Integer.highestOneBit(Math.max(1, numForms) * 2) * 2;
+        index = new int[capacity];
+        for (int form = 0; form < numForms; form++) {
+            String clientId = getClientId(form);
+            if (clientId == null) {
+                // Never matches (a Scan output folder always has a client ID)
+                continue;
+            }
+            int slot = slot(clientId);
+            while (index[slot] != 0 && !clientId.equals(getClientId(index[slot] - 1))) {
+                slot = (slot + 1) & (index.length - 1);
+            }
+            if (index[slot] == 0) {
+                index[slot] = form + 1;
+            } else {
+                duplicates.set(index[slot] - 1);
+                duplicates.set(form);
+            }
+        }
+    }
+
+    /**
+     * Creates a writer that spills to a new scratch file in the given
+     * directory. The file is deleted when the forms are closed.
+     */
+    public static Writer create(Path scratchDirectory, int numFields) throws IOException {
+        Path file = Files.createTempFile(scratchDirectory, "forms", ".spill");
+        file.toFile().deleteOnExit();
+        return new Writer(file, numFields);
+    }
+
+    public int getNumForms() {
+        return numForms;
+    }
+
+    public int getNumFields() {
+        return numFields;
+    }
+
+    /**
+     * Returns the form with the given client ID, or -1 if there is no such
+     * form or the client ID is duplicated.
+     */
+    public int find(String clientId) {
+        if (clientId == null) {
+            return -1;
+        }
+        int slot = slot(clientId);
+        while (index[slot] != 0) {
+            int form = index[slot] - 1;
+            if (clientId.equals(getClientId(form))) {
+                return duplicates.get(form) ? -1 : form;
+            }
+            slot = (slot + 1) & (index.length - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Returns whether the client ID of the given form was written more than
+     * once.
+     */
+    public boolean isDuplicate(int form) {
+        return duplicates.get(form);
+    }
+
+    public String getClientId(int form) {
+        return getValue(form, CLIENT_ID);
+    }
+
+    public String getFolderName(int form) {
+        return getValue(form, FOLDER_NAME);
+    }
+
+    /**
+     * Returns the value of the i-th field of a form (may be null).
+     */
+    public String getFieldValue(int form, int i) {
+        return getValue(form, FIRST_FIELD + i);
+    }
+
+    /**
+     * Unmaps and deletes the scratch file. The forms must not be read (by any
+     * thread) afterwards.
+     */
+    public void close() throws IOException {
+        for (int s = 0; s < segments.length; s++) {
+            MappedByteBuffer segment = segments[s];
+            segments[s] = null;
+            if (segment != null) {
+                unmap(segment);
+            }
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Still mapped (Windows does not delete mapped files), so leave it
+            // to deleteOnExit
+        }
+    }
+
+    /*
+     * Releases a mapping right away instead of when the buffer is garbage
+     * collected, which is the only way Java has of unmapping a file. Uses
+     * Unsafe.invokeCleaner on Java 9 and later, and the buffer's cleaner on
+     * Java 8; if neither is accessible, the mapping is left to the garbage
+     * collector. (Also used by SpilledScores.) The buffer, and any view of
+     * it, must not be used afterwards.
+     */
+    static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (NoSuchMethodException e) {
+            try {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            } catch (Exception | LinkageError e2) {
+                // Left to the garbage collector
+            }
+        } catch (Exception | LinkageError e) {
+            // Left to the garbage collector
+        }
+    }
+
+    private String getValue(int form, int column) {
+        int s = form / SEGMENT_FORMS;
+        int k = form % SEGMENT_FORMS;
+        ByteBuffer segment = segments[s];
+        int end = segment.getInt(endsPosition[s][column] + 4 * k);
+        if ((end & NULL_FLAG) != 0) {
+            return null;
+        }
+        int start = k == 0 ? 0 : segment.getInt(endsPosition[s][column] + 4 * (k - 1)) & ~NULL_FLAG;
+        if (start == end) {
+            return "";
+        }
+
+        // Decode straight from the mapping
+        ByteBuffer bytes = segment.duplicate();
+        bytes.position(bytesPosition[s][column] + start);
+        bytes.limit(bytesPosition[s][column] + end);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    private int slot(String clientId) {
+        int hash = clientId.hashCode() * 0x9e3779b9;
+        return (hash ^ (hash >>> 16)) & (index.length - 1);
+    }
+
+    private static int readInt(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Truncated spill file");
+            }
+        }
+        return buffer.getInt(0);
+    }
+}
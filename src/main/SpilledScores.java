@@ -0,0 +1,188 @@
+package main;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * The per-form, per-field correct/total counts of an evaluation (like
+ * FormScores), kept in a memory-mapped scratch file instead of on the heap.
+ * Together with SpilledForms this lets an evaluation of millions of forms run
+ * in a heap of a few hundred MB.
+ *
+ * The scratch file holds one int column for the expected form of each scored
+ * form, one for its actual form, and then a correct column and a total column
+ * for each field.
+ */
+public class SpilledScores implements Closeable {
+    private static final int EXPECTED_FORM = 0;
+    private static final int ACTUAL_FORM = 1;
+    private static final int FIRST_COUNT = 2;
+
+    private final Path file;
+    private final SpilledForms actual;
+    private final SpilledForms expected;
+    private final int numFields;
+    private final MappedByteBuffer[] mappings;
+    private final IntBuffer[] columns;
+    private int numForms;
+
+    private SpilledScores(Path file, SpilledForms actual, SpilledForms expected) throws IOException {
+        this.file = file;
+        this.actual = actual;
+        this.expected = expected;
+        this.numFields = expected.getNumFields();
+
+        // At most every expected form is scored
+        long columnBytes = 4L * Math.max(1, expected.getNumForms());
+        mappings = new MappedByteBuffer[FIRST_COUNT + 2 * numFields];
+        columns = new IntBuffer[mappings.length];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            for (int c = 0; c < columns.length; c++) {
+                mappings[c] = channel.map(FileChannel.MapMode.READ_WRITE, c * columnBytes, columnBytes);
+                columns[c] = mappings[c].asIntBuffer();
+            }
+        }
+    }
+
+    /**
+     * Scores every form whose client ID appears (exactly once) in both data
+     * sets, in the order of the expected forms, with the same per-field
+     * comparison as AccuracyChecker.compareResults.
+     *
+     * @param scratchDirectory The directory in which to create the scratch
+     *        file (deleted when the scores are closed)
+     */
+    public static SpilledScores score(SpilledForms actual, SpilledForms expected, Path scratchDirectory)
+            throws IOException {
+        if (actual.getNumFields() != expected.getNumFields()) {
+            throw new IllegalArgumentException("The actual and expected forms have different numbers of fields");
+        }
+        Path file = Files.createTempFile(scratchDirectory, "scores", ".spill");
+        file.toFile().deleteOnExit();
+        SpilledScores scores = new SpilledScores(file, actual, expected);
+
+        for (int e = 0; e < expected.getNumForms(); e++) {
+            if (expected.isDuplicate(e)) {
+                continue;
+            }
+            int a = actual.find(expected.getClientId(e));
+            if (a < 0) {
+                continue;
+            }
+            int form = scores.numForms++;
+            scores.columns[EXPECTED_FORM].put(form, e);
+            scores.columns[ACTUAL_FORM].put(form, a);
+            for (int i = 0; i < scores.numFields; i++) {
+                int[] comparison = AccuracyChecker.compareField(i, actual.getFieldValue(a, i),
+                        expected.getFieldValue(e, i));
+                if (comparison != null) {
+                    scores.columns[FIRST_COUNT + 2 * i].put(form, comparison[0]);
+                    scores.columns[FIRST_COUNT + 2 * i + 1].put(form, comparison[1]);
+                }
+            }
+        }
+        return scores;
+    }
+
+    public int getNumForms() {
+        return numForms;
+    }
+
+    public int getNumFields() {
+        return numFields;
+    }
+
+    public int getCorrect(int form, int field) {
+        return columns[FIRST_COUNT + 2 * field].get(form);
+    }
+
+    public int getTotal(int form, int field) {
+        return columns[FIRST_COUNT + 2 * field + 1].get(form);
+    }
+
+    public String getClientId(int form) {
+        return expected.getClientId(columns[EXPECTED_FORM].get(form));
+    }
+
+    public String getFolderName(int form) {
+        return actual.getFolderName(columns[ACTUAL_FORM].get(form));
+    }
+
+    /**
+     * Sums the counts over all forms, in the format expected by
+     * AccuracyChecker.printResults (see FormScores.sumFields).
+     */
+    public void sumFields(int[] numCorrect, int[] numTotal) {
+        for (int i = 0; i < numFields; i++) {
+            IntBuffer correct = columns[FIRST_COUNT + 2 * i];
+            IntBuffer total = columns[FIRST_COUNT + 2 * i + 1];
+            for (int form = 0; form < numForms; form++) {
+                numCorrect[i] += correct.get(form);
+                numTotal[i] += total.get(form);
+            }
+        }
+    }
+
+    /**
+     * Unmaps and deletes the scratch file. (The forms that were scored are
+     * not closed.) The scores must not be read (by any thread) afterwards.
+     */
+    public void close() throws IOException {
+        for (int c = 0; c < columns.length; c++) {
+            MappedByteBuffer mapping = mappings[c];
+            mappings[c] = null;
+            columns[c] = null;
+            if (mapping != null) {
+                SpilledForms.unmap(mapping);
+            }
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Still mapped (Windows does not delete mapped files), so leave it
+            // to deleteOnExit
+        }
+    }
+
+    /**
+     * Runs the comparison with the field values and results spilled to
+     * scratch files, and prints the final results.
+     *
+     * Command-line arguments:
+     *
+     * [0]: The path to the root of the folder containing the Scan output.
+     *
+     * [1]: The directory in which to create the scratch files.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Command-line arguments: <Root of scan output folder> <scratch directory>");
+            System.exit(1);
+        }
+        Path scratchDirectory = Paths.get(args[1]);
+        int numFields = AccuracyChecker.EXCEL_DATA_COLUMNS.length;
+        Progress.reportTo(System.err);
+
+        // The writers delete their scratch files if the parsing fails (and do
+        // nothing once finished)
+        try (SpilledForms.Writer expectedWriter = SpilledForms.create(scratchDirectory, numFields);
+                SpilledForms.Writer actualWriter = SpilledForms.create(scratchDirectory, numFields)) {
+            ExcelParser.parseCorrectFile(AccuracyChecker.EXCEL_FILE, AccuracyChecker.EXCEL_SHEETS,
+                    AccuracyChecker.EXCEL_DATA_COLUMNS, expectedWriter);
+            JsonParser.crawlDirectories(args[0], actualWriter);
+
+            try (SpilledForms expected = expectedWriter.finish();
+                    SpilledForms actual = actualWriter.finish();
+                    SpilledScores scores = score(actual, expected, scratchDirectory)) {
+                int[] numCorrect = new int[numFields];
+                int[] numTotal = new int[numFields];
+                scores.sumFields(numCorrect, numTotal);
+                AccuracyChecker.printResults(numCorrect, numTotal, "TOTAL");
+                System.out.println();
+                System.out.println("Matching Client IDs: " + scores.getNumForms());
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import main.*;
+
+public class TestAlignmentCorrelation {
+	// (alignment score, accuracy) of each form: ties in both, and values
+	// closer together than any fixed binning would tell apart
+	private static final double[][] FORMS = { { 0.0, 1.0 }, { 0.02, 0.999 }, { 0.04, 0.998 }, { 0.5, 0.95 },
+	        { 0.5, 0.95 }, { 0.5, 0.9 }, { 1.25, 0.951 }, { 1.25, 0.7 }, { 2.0, 0.85 }, { 3.5, 0.6 },
+	        { 3.5, 0.601 }, { 5.0, 0.65 }, { 7.25, 0.3 }, { 10.0, 0.0 } };
+
+	@Test
+	public void testMatchesExactCorrelations() {
+		AlignmentCorrelation correlation = new AlignmentCorrelation(3);
+		double[] x = new double[FORMS.length];
+		double[] y = new double[FORMS.length];
+		for (int f = 0; f < FORMS.length; f++) {
+			x[f] = FORMS[f][0];
+			y[f] = FORMS[f][1];
+			correlation.add(new AlignmentCorrelation.FormAccuracy(String.valueOf(f), "form_id_" + f, y[f], x[f]));
+		}
+		assertEquals(FORMS.length, correlation.getCount());
+		assertEquals(pearson(x, y), correlation.pearson(), 1e-12);
+		assertEquals(pearson(midRanks(x), midRanks(y)), correlation.spearman(), 1e-12);
+
+		List<AlignmentCorrelation.FormAccuracy> worst = correlation.getWorstForms();
+		assertEquals(Arrays.asList("13", "12", "9"),
+		        Arrays.asList(worst.get(0).clientId, worst.get(1).clientId, worst.get(2).clientId));
+	}
+
+	@Test
+	public void testPerfectRankCorrelation() {
+		// Accuracy falls with every step of the alignment score, but not
+		// linearly
+		AlignmentCorrelation correlation = new AlignmentCorrelation(0);
+		for (int f = 0; f < 50; f++) {
+			correlation.add(new AlignmentCorrelation.FormAccuracy(String.valueOf(f), "form_id_" + f,
+			        1 - f * f / 2500.0, f * 0.001));
+		}
+		assertEquals(-1.0, correlation.spearman(), 1e-12);
+		assertEquals(true, correlation.pearson() > -1.0);
+	}
+
+	/*
+	 * Two-pass Pearson correlation.
+	 */
+	private static double pearson(double[] x, double[] y) {
+		double meanX = 0;
+		double meanY = 0;
+		for (int i = 0; i < x.length; i++) {
+			meanX += x[i] / x.length;
+			meanY += y[i] / y.length;
+		}
+		double sxx = 0;
+		double syy = 0;
+		double sxy = 0;
+		for (int i = 0; i < x.length; i++) {
+			sxx += (x[i] - meanX) * (x[i] - meanX);
+			syy += (y[i] - meanY) * (y[i] - meanY);
+			sxy += (x[i] - meanX) * (y[i] - meanY);
+		}
+		return sxy / Math.sqrt(sxx * syy);
+	}
+
+	/*
+	 * The 1-based rank of each value, with tied values given the average of
+	 * their ranks.
+	 */
+	private static double[] midRanks(double[] values) {
+		double[] ranks = new double[values.length];
+		for (int i = 0; i < values.length; i++) {
+			int below = 0;
+			int equal = 0;
+			for (double value : values) {
+				if (value < values[i]) {
+					below++;
+				} else if (value == values[i]) {
+					equal++;
+				}
+			}
+			ranks[i] = below + (equal + 1) / 2.0;
+		}
+		return ranks;
+	}
+}
@@ -0,0 +1,213 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import main.*;
+
+public class TestBatchEvaluation {
+	private static final long SEED = 45;
+
+	// Column P, which holds the client ID of every row
+	private static final int CLIENT_ID_COLUMN = 15;
+
+	private static final String CUSTOM_TEMPLATE = "sheets\t#1\n" + "# name, column, index, type\n"
+	        + "id\tP\t0\tclient_id\n" + "score\tA\t1\tdigit\n" + "colour\tB\t2\tbubble\t1=red\t2=blue\n";
+
+	private static Path dir;
+	private static FormTemplate custom;
+	private static int[][] defaultCounts;
+	private static int[][] customCounts;
+
+	@BeforeClass
+	public static void writeJobs() throws IOException {
+		dir = Files.createTempDirectory("batch");
+		Files.write(dir.resolve("custom.tsv"), CUSTOM_TEMPLATE.getBytes(StandardCharsets.UTF_8));
+		custom = FormTemplate.load(dir.resolve("custom.tsv").toString());
+
+		Random random = new Random(SEED);
+		defaultCounts = writeJob(FormTemplate.DEFAULT, "default", 700, random);
+		customCounts = writeJob(custom, "custom", 300, random);
+	}
+
+	@AfterClass
+	public static void deleteJobs() throws IOException {
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path folder, IOException e) throws IOException {
+				Files.delete(folder);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	@Test
+	public void testTemplate() {
+		assertEquals("custom", custom.getName());
+		assertArrayEquals(new String[] { "#1" }, custom.getSheets());
+		assertArrayEquals(new String[] { "P", "A", "B" }, custom.getDataColumns());
+		assertArrayEquals(new int[] { 0, 1, 2 }, custom.getJsonIndexes());
+		assertArrayEquals(new int[] { 2, 2 }, custom.compareField(2, "red and blue", "1,2"));
+		assertArrayEquals(new int[] { 1, 2 }, custom.compareField(2, "red", "1,2"));
+		assertArrayEquals(new int[] { 5, 5 }, custom.compareField(0, "123", "00123"));
+	}
+
+	@Test
+	public void testJobsMatchSequentialScoring() {
+		for (int ioLimit : new int[] { 1, 4 }) {
+			List<BatchEvaluation.Job> jobs = new ArrayList<BatchEvaluation.Job>();
+			jobs.add(job(FormTemplate.DEFAULT, "default"));
+			jobs.add(job(custom, "custom"));
+			jobs.add(job(custom, "custom"));
+			BatchEvaluation.run(jobs, ioLimit);
+
+			assertArrayEquals(defaultCounts[0], jobs.get(0).getNumCorrect());
+			assertArrayEquals(defaultCounts[1], jobs.get(0).getNumTotal());
+			assertEquals(700, jobs.get(0).getNumCompared());
+			for (BatchEvaluation.Job job : jobs.subList(1, 3)) {
+				assertArrayEquals(customCounts[0], job.getNumCorrect());
+				assertArrayEquals(customCounts[1], job.getNumTotal());
+				assertEquals(300, job.getNumCompared());
+				assertEquals(0, job.getNumErrors());
+			}
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testFailedJobDoesNotStopBatch() throws IOException {
+		// A workbook that does not exist, and one that is not a workbook
+		Path corrupt = dir.resolve("corrupt.xlsx");
+		Files.write(corrupt, "not a zip file".getBytes(StandardCharsets.UTF_8));
+		List<BatchEvaluation.Job> jobs = new ArrayList<BatchEvaluation.Job>();
+		jobs.add(new BatchEvaluation.Job(custom, dir.resolve("missing.csv").toString(),
+		        dir.resolve("custom").toString()));
+		jobs.add(job(custom, "custom"));
+		jobs.add(new BatchEvaluation.Job(custom, corrupt.toString(), dir.resolve("custom").toString()));
+		BatchEvaluation.run(jobs, 2);
+
+		assertTrue(jobs.get(0).getFailure() instanceof NoSuchFileException);
+		assertEquals(0, jobs.get(0).getNumCompared());
+		assertNull(jobs.get(1).getFailure());
+		assertArrayEquals(customCounts[0], jobs.get(1).getNumCorrect());
+		assertNotNull(jobs.get(2).getFailure());
+		assertEquals(0, jobs.get(2).getNumCompared());
+
+		// The failed jobs have no accuracies
+		PrintStream out = System.out;
+		ByteArrayOutputStream report = new ByteArrayOutputStream();
+		try {
+			System.setOut(new PrintStream(report, true, "UTF-8"));
+			BatchEvaluation.printReport(jobs);
+		} finally {
+			System.setOut(out);
+		}
+		String text = report.toString("UTF-8");
+		assertTrue(text.contains("1\tcustom\t0\t0\tn/a\tn/a\t"));
+		assertTrue(text.contains("Field 1 (score: digit): 0/0 correct (n/a)"));
+		assertFalse(text.contains("NaN"));
+	}
+
+	@Test(expected = IOException.class)
+	public void testBadColumn() throws IOException {
+		Path file = dir.resolve("lower-case.tsv");
+		Files.write(file, CUSTOM_TEMPLATE.replace("\tA\t", "\taa\t").getBytes(StandardCharsets.UTF_8));
+		FormTemplate.load(file.toString());
+	}
+
+	private static BatchEvaluation.Job job(FormTemplate template, String name) {
+		return new BatchEvaluation.Job(template, dir.resolve(name + ".csv").toString(),
+		        dir.resolve(name).toString());
+	}
+
+	/*
+	 * Writes a CSV ground truth and an output root for the given template, and
+	 * returns the correct and total counts of each field, as scored by the
+	 * template.
+	 */
+	private static int[][] writeJob(FormTemplate template, String name, int numForms, Random random)
+	        throws IOException {
+		int numFields = template.getNumFields();
+		int[] columns = new int[numFields];
+		int numColumns = CLIENT_ID_COLUMN + 1;
+		for (int i = 0; i < numFields; i++) {
+			String letters = template.getDataColumns()[i];
+			for (int c = 0; c < letters.length(); c++) {
+				columns[i] = columns[i] * 26 + (letters.charAt(c) - 'A' + 1);
+			}
+			columns[i]--;
+			numColumns = Math.max(numColumns, columns[i] + 1);
+		}
+		int numEntries = 0;
+		for (int index : template.getJsonIndexes()) {
+			numEntries = Math.max(numEntries, index + 1);
+		}
+
+		int[][] counts = new int[2][numFields];
+		StringBuilder csv = new StringBuilder("header\n");
+		Path root = Files.createDirectory(dir.resolve(name));
+		for (int f = 0; f < numForms; f++) {
+			String clientId = String.valueOf(1000 + f);
+			String[] row = new String[numColumns];
+			Arrays.fill(row, "");
+			row[CLIENT_ID_COLUMN] = clientId;
+			String[] entries = new String[numEntries];
+			Arrays.fill(entries, "");
+			for (int i = 0; i < numFields; i++) {
+				String expected;
+				String actual;
+				if (template.getDataColumns()[i].equals("P")) {
+					expected = clientId;
+					actual = random.nextInt(5) == 0 ? String.valueOf(1000 + random.nextInt(numForms)) : clientId;
+				} else if (template == custom && i == 2) {
+					expected = random.nextBoolean() ? "1" : "1,2";
+					actual = random.nextBoolean() ? "red" : "red blue";
+				} else {
+					expected = String.valueOf(random.nextInt(1000));
+					actual = random.nextInt(3) == 0 ? String.valueOf(random.nextInt(1000)) : expected;
+				}
+				row[columns[i]] = expected;
+				entries[template.getJsonIndexes()[i]] = actual;
+				int[] comparison = template.compareField(i, actual, expected);
+				if (template == FormTemplate.DEFAULT) {
+					assertArrayEquals(AccuracyChecker.compareField(i, actual, expected), comparison);
+				}
+				counts[0][i] += comparison[0];
+				counts[1][i] += comparison[1];
+			}
+			for (int c = 0; c < numColumns; c++) {
+				csv.append(c == 0 ? "" : ",").append("\"").append(row[c]).append("\"");
+			}
+			csv.append("\n");
+
+			Path folder = Files.createDirectory(root.resolve("form_id_" + clientId));
+			Files.write(folder.resolve("clientID.txt"), clientId.getBytes(StandardCharsets.UTF_8));
+			StringBuilder json = new StringBuilder("{\"fields\": [");
+			for (int j = 0; j < numEntries; j++) {
+				json.append(j == 0 ? "" : ", ").append("{\"value\": \"").append(entries[j]).append("\"}");
+			}
+			Files.write(folder.resolve("output.json"), json.append("]}").toString().getBytes(StandardCharsets.UTF_8));
+		}
+		Files.write(dir.resolve(name + ".csv"), csv.toString().getBytes(StandardCharsets.UTF_8));
+		return counts;
+	}
+}
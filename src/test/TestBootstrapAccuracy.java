@@ -0,0 +1,106 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import main.*;
+
+public class TestBootstrapAccuracy {
+	private static final int NUM_FIELDS = 4;
+	private static final boolean[] IS_BUBBLE = { false, true, false, true };
+	private static final int REPLICATES = 1000;
+	private static final long SEED = 27;
+
+	@Test
+	public void testSameSeedWhateverParallelism() {
+		FormScores scores = randomScores(new Random(SEED), 500);
+		double[][] reference = BootstrapAccuracy.confidenceIntervals(scores, IS_BUBBLE, REPLICATES, 0.95, SEED);
+		for (int parallelism : new int[] { 1, 2, 3, 8 }) {
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				double[][] intervals = BootstrapAccuracy.confidenceIntervals(scores, IS_BUBBLE, REPLICATES, 0.95,
+				        SEED, pool);
+				for (int m = 0; m < reference.length; m++) {
+					assertArrayEquals(reference[m], intervals[m], 0);
+				}
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+
+	@Test
+	public void testIntervalsContainPointEstimate() {
+		FormScores scores = randomScores(new Random(SEED + 1), 300);
+		double[][] intervals = BootstrapAccuracy.confidenceIntervals(scores, IS_BUBBLE, REPLICATES, 0.95, SEED);
+		assertEquals(NUM_FIELDS + 2, intervals.length);
+
+		int[] correct = new int[NUM_FIELDS];
+		int[] total = new int[NUM_FIELDS];
+		scores.sumFields(correct, total);
+		long[] combinedCorrect = new long[2];
+		long[] combinedTotal = new long[2];
+		for (int i = 0; i < NUM_FIELDS; i++) {
+			assertContains(intervals[i], correct[i] * 100.0 / total[i]);
+			int metric = IS_BUBBLE[i] ? 0 : 1;
+			combinedCorrect[metric] += correct[i];
+			combinedTotal[metric] += total[i];
+		}
+		assertContains(intervals[NUM_FIELDS], combinedCorrect[0] * 100.0 / combinedTotal[0]);
+		assertContains(intervals[NUM_FIELDS + 1], combinedCorrect[1] * 100.0 / combinedTotal[1]);
+	}
+
+	@Test
+	public void testDegenerateFields() {
+		// Field 0 is always correct, field 1 never has any data, and there are
+		// no other bubble fields
+		FormScores scores = new FormScores(2);
+		Random random = new Random(SEED);
+		for (int f = 0; f < 50; f++) {
+			int form = scores.addForm(String.valueOf(f), "form" + f);
+			int total = 1 + random.nextInt(4);
+			scores.set(form, 0, total, total);
+		}
+		double[][] intervals = BootstrapAccuracy.confidenceIntervals(scores, new boolean[] { false, true }, 200,
+		        0.95, SEED);
+		assertArrayEquals(new double[] { 100, 100 }, intervals[0], 0);
+		assertTrue(Double.isNaN(intervals[1][0]));
+		assertTrue(Double.isNaN(intervals[1][1]));
+
+		// Combined bubble accuracy (only field 1), then combined digits
+		assertTrue(Double.isNaN(intervals[2][0]));
+		assertTrue(Double.isNaN(intervals[2][1]));
+		assertArrayEquals(new double[] { 100, 100 }, intervals[3], 0);
+	}
+
+	private static FormScores randomScores(Random random, int numForms) {
+		FormScores scores = new FormScores(NUM_FIELDS);
+		for (int f = 0; f < numForms; f++) {
+			int form = scores.addForm(String.valueOf(f), "form" + f);
+			for (int i = 0; i < NUM_FIELDS; i++) {
+				// Field i is correct with probability (i + 5) / 10
+				int total = random.nextInt(5);
+				int correct = 0;
+				for (int d = 0; d < total; d++) {
+					if (random.nextInt(10) < i + 5) {
+						correct++;
+					}
+				}
+				scores.set(form, i, correct, total);
+			}
+		}
+		return scores;
+	}
+
+	private static void assertContains(double[] interval, double value) {
+		assertTrue(interval[0] + " > " + value, interval[0] <= value);
+		assertTrue(interval[1] + " < " + value, value <= interval[1]);
+		assertTrue(interval[0] < interval[1]);
+	}
+}
@@ -0,0 +1,253 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.Test;
+
+import main.*;
+
+public class TestCsvParser {
+	private static final String EXCEL_FILE = "src/data/Master Excel_with column codes_a.xlsx";
+	private static final String[] EXCEL_SHEETS = { "#3" };
+	private static final String[] EXCEL_DATA_COLUMNS = { "P", "AA", "AP", "BB", "BM", "BY", "CK", "CZ", "DH", "EB",
+	        "EW", "GD", "HF", "IY", "JH" };
+
+	// The client ID is in column P
+	private static final int CLIENT_ID_COLUMN = 15;
+	private static final String[] COLUMNS = { "A", "C", "P" };
+
+	@Test
+	public void testQuotingAndLineEndings() throws IOException {
+		String csv = "header\r\n" + line("00123", "plain", "\"a, b\"") + "\r\n" + line("456", "\"say \"\"yes\"\"\"", "")
+		        + "\n\n" + "x,y\n";
+		Map<String, List<String>> data = parse(csv, ".csv");
+		// Only the key is trimmed of leading zeroes
+		assertEquals(Arrays.asList("plain", "a, b", "00123"), data.get("123"));
+		assertEquals(Arrays.asList("say \"yes\"", "", "456"), data.get("456"));
+
+		// A short line has "" for its missing columns
+		assertEquals(Arrays.asList("x", "", ""), data.get(""));
+		assertEquals(3, data.size());
+	}
+
+	@Test
+	public void testTabSeparated() throws IOException {
+		String tsv = "header\n" + line("7", "a,b", "c").replace(',', '\t').replace("a\tb", "a,b") + "\n";
+		Map<String, List<String>> data = parse(tsv, ".tsv");
+		assertEquals(Arrays.asList("a,b", "c", "7"), data.get("7"));
+	}
+
+	@Test
+	public void testDuplicatesExcluded() throws IOException {
+		String csv = "header\n" + line("1", "a", "b") + "\n" + line("2", "c", "d") + "\n" + line("01", "e", "f")
+		        + "\n" + line("1", "g", "h") + "\n";
+		Map<String, List<String>> data = parse(csv, ".csv");
+		assertFalse(data.containsKey("1"));
+		assertTrue(data.containsKey("2"));
+		assertEquals(1, data.size());
+	}
+
+	@Test
+	public void testChunksMatchSingleChunk() throws IOException {
+		Random random = new Random(41);
+		StringBuilder csv = new StringBuilder("header\n");
+		for (int row = 0; row < 20000; row++) {
+			String value = random.nextInt(10) == 0 ? "\"" + random.nextInt(100) + ",x\"" : "v" + random.nextInt(1000);
+			csv.append(line(String.valueOf(random.nextInt(30000)), value, String.valueOf(row)));
+			csv.append(random.nextBoolean() ? "\n" : "\r\n");
+		}
+		File file = write(csv.toString(), ".csv");
+		try {
+			Map<String, List<String>> single = CsvParser.parseCorrectFile(file.getPath(), COLUMNS, 1);
+			for (int numChunks : new int[] { 2, 7, 64 }) {
+				assertEquals(single, CsvParser.parseCorrectFile(file.getPath(), COLUMNS, numChunks));
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testQuotedLineBreaks() throws IOException {
+		// A note over two lines, as Excel's "Save as CSV" writes it
+		String csv = "header\n" + line("11111", "\"first line\nsecond, line\"", "7") + "\r\n"
+		        + line("22222", "\"a\r\n\r\nb\"", "8") + "\n";
+		Map<String, List<String>> data = parse(csv, ".csv");
+		assertEquals(Arrays.asList("first line\nsecond, line", "7", "11111"), data.get("11111"));
+		assertEquals(Arrays.asList("a\r\n\r\nb", "8", "22222"), data.get("22222"));
+		assertEquals(2, data.size());
+	}
+
+	@Test
+	public void testChunksWithQuotedLineBreaks() throws IOException {
+		Random random = new Random(41);
+		StringBuilder csv = new StringBuilder("header\n");
+		for (int row = 0; row < 20000; row++) {
+			String value = "v" + random.nextInt(1000);
+			if (row == 5000) {
+				// A value spanning several chunks
+				StringBuilder lines = new StringBuilder("\"");
+				for (int k = 0; k < 20000; k++) {
+					lines.append("line ").append(k).append('\n');
+				}
+				value = lines.append("\"").toString();
+			} else if (random.nextInt(5) == 0) {
+				value = "\"" + random.nextInt(100) + "\n\n\"\"x\"\",\n\"";
+			}
+			csv.append(line(String.valueOf(row), value, String.valueOf(row)));
+			csv.append(random.nextBoolean() ? "\n" : "\r\n");
+		}
+		File file = write(csv.toString(), ".csv");
+		try {
+			Map<String, List<String>> single = CsvParser.parseCorrectFile(file.getPath(), COLUMNS, 1);
+			assertEquals(20000, single.size());
+			for (int numChunks : new int[] { 2, 7, 64, 500 }) {
+				assertEquals(single, CsvParser.parseCorrectFile(file.getPath(), COLUMNS, numChunks));
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testMatchesExcelFile() throws Exception {
+		// Export the sheet as CSV, writing every column up to the last data
+		// column
+		int numColumns = ExcelParserColumns.maxIndex(EXCEL_DATA_COLUMNS) + 1;
+		int[] columns = new int[numColumns];
+		for (int c = 0; c < numColumns; c++) {
+			columns[c] = c;
+		}
+		StringBuilder csv = new StringBuilder("header\n");
+		for (ConcurrentSheetReader.SheetRow row : ConcurrentSheetReader.readSheets(EXCEL_FILE, EXCEL_SHEETS, columns)
+		        .get(0)) {
+			for (int c = 0; c < numColumns; c++) {
+				String value = row.values[c] == null ? "" : row.values[c];
+				csv.append(c == 0 ? "" : ",").append("\"").append(value.replace("\"", "\"\"")).append("\"");
+			}
+			csv.append("\n");
+		}
+		File file = write(csv.toString(), ".csv");
+		try {
+			Map<String, List<String>> fromExcel = ExcelParser.parseCorrectFile(EXCEL_FILE, EXCEL_SHEETS,
+			        EXCEL_DATA_COLUMNS);
+			Map<String, List<String>> fromCsv = ExcelParser.parseCorrectFile(file.getPath(), EXCEL_SHEETS,
+			        EXCEL_DATA_COLUMNS);
+			assertEquals(fromExcel.keySet(), fromCsv.keySet());
+			for (String clientId : fromExcel.keySet()) {
+				// CSV cannot tell a blank cell (null) from a missing one ("")
+				List<String> expected = new ArrayList<String>();
+				for (String value : fromExcel.get(clientId)) {
+					expected.add(value == null ? "" : value);
+				}
+				assertEquals(expected, fromCsv.get(clientId));
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testMissingSheet() throws Exception {
+		// The sheets before a missing sheet are still used
+		Map<String, List<String>> fromExcel = ExcelParser.parseCorrectFile(EXCEL_FILE, EXCEL_SHEETS,
+		        EXCEL_DATA_COLUMNS);
+		assertFalse(fromExcel.isEmpty());
+		assertEquals(fromExcel, ExcelParser.parseCorrectFile(EXCEL_FILE, new String[] { EXCEL_SHEETS[0], "missing" },
+		        EXCEL_DATA_COLUMNS));
+		assertTrue(ExcelParser.parseCorrectFile(EXCEL_FILE, new String[] { "missing", EXCEL_SHEETS[0] },
+		        EXCEL_DATA_COLUMNS).isEmpty());
+
+		List<List<ConcurrentSheetReader.SheetRow>> sheetRows = ConcurrentSheetReader.readSheets(EXCEL_FILE,
+		        new String[] { EXCEL_SHEETS[0], "missing", EXCEL_SHEETS[0] }, new int[] { 0 });
+		assertEquals(2, sheetRows.size());
+		assertFalse(sheetRows.get(0).isEmpty());
+		assertNull(sheetRows.get(1));
+	}
+
+	@Test
+	public void testSpilledExcelRows() throws IOException {
+		Map<String, List<String>> fromExcel = ExcelParser.parseCorrectFile(EXCEL_FILE, EXCEL_SHEETS,
+		        EXCEL_DATA_COLUMNS);
+		Path scratch = Files.createTempDirectory("spill");
+		try {
+			SpilledForms.Writer writer = SpilledForms.create(scratch, EXCEL_DATA_COLUMNS.length);
+			ExcelParser.parseCorrectFile(EXCEL_FILE, EXCEL_SHEETS, EXCEL_DATA_COLUMNS, writer);
+			try (SpilledForms forms = writer.finish()) {
+				Set<String> clientIds = new HashSet<String>();
+				for (int form = 0; form < forms.getNumForms(); form++) {
+					String clientId = forms.getClientId(form);
+					if (forms.find(clientId) < 0) {
+						continue;
+					}
+					clientIds.add(clientId);
+					List<String> values = new ArrayList<String>();
+					for (int i = 0; i < forms.getNumFields(); i++) {
+						values.add(forms.getFieldValue(form, i));
+					}
+					assertEquals(fromExcel.get(clientId), values);
+				}
+				assertEquals(fromExcel.keySet(), clientIds);
+			}
+
+			// Closing the forms deletes the scratch file
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(scratch)) {
+				assertFalse(files.iterator().hasNext());
+			}
+		} finally {
+			Files.delete(scratch);
+		}
+	}
+
+	/*
+	 * Returns a line with the given values in columns A, C and P (the client
+	 * ID) and empty values elsewhere.
+	 */
+	private static String line(String clientId, String a, String c) {
+		StringBuilder line = new StringBuilder(a).append(",,").append(c);
+		for (int column = 3; column <= CLIENT_ID_COLUMN; column++) {
+			line.append(',');
+		}
+		return line.append(clientId).append(",,").toString();
+	}
+
+	private static Map<String, List<String>> parse(String contents, String extension) throws IOException {
+		File file = write(contents, extension);
+		try {
+			return CsvParser.parseCorrectFile(file.getPath(), COLUMNS);
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static File write(String contents, String extension) throws IOException {
+		File file = File.createTempFile("ground-truth", extension);
+		Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	/*
+	 * Excel column letters to indexes (ExcelParser.toIndex is not public).
+	 */
+	private static class ExcelParserColumns {
+		static int maxIndex(String[] columnLetters) {
+			int max = 0;
+			for (String letters : columnLetters) {
+				int index = 0;
+				for (int i = 0; i < letters.length(); i++) {
+					index = index * 26 + (letters.charAt(i) - 'A' + 1);
+				}
+				max = Math.max(max, index - 1);
+			}
+			return max;
+		}
+	}
+}
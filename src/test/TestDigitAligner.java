@@ -0,0 +1,177 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+
+import main.AccuracyChecker;
+import main.AccuracyChecker.DigitScoring;
+import main.DigitAligner;
+import main.ScanOutput;
+
+public class TestDigitAligner {
+
+	@Test
+	public void testDroppedDigit() {
+		int[] counts = new int[4];
+		assertTrue(DigitAligner.get().align("1245", "12345", counts));
+		assertEquals(4, counts[DigitAligner.MATCHES]);
+		assertEquals(0, counts[DigitAligner.SUBSTITUTIONS]);
+		assertEquals(0, counts[DigitAligner.INSERTIONS]);
+		assertEquals(1, counts[DigitAligner.DELETIONS]);
+	}
+
+	@Test
+	public void testInsertedDigit() {
+		int[] counts = new int[4];
+		assertTrue(DigitAligner.get().align("123745", "12345", counts));
+		assertEquals(5, counts[DigitAligner.MATCHES]);
+		assertEquals(1, counts[DigitAligner.INSERTIONS]);
+	}
+
+	@Test
+	public void testIgnoresNonDigitExpectedCharacters() {
+		int[] counts = new int[4];
+		assertTrue(DigitAligner.get().align("1234", "12-34", counts));
+		assertEquals(4, counts[DigitAligner.MATCHES]);
+		assertEquals(0, counts[DigitAligner.DELETIONS]);
+	}
+
+	@Test
+	public void testTooLong() {
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < DigitAligner.MAX_PATTERN_LENGTH + 1; i++) {
+			expected.append(i % 10);
+		}
+		assertFalse(DigitAligner.get().align("1", expected.toString(), new int[4]));
+	}
+
+	@Test
+	public void testExactMatch() {
+		// Every count is written, even when the alignment is skipped
+		int[] counts = { 9, 9, 9, 9 };
+		assertTrue(DigitAligner.get().align("1234", "12-34", counts));
+		assertEquals(4, counts[DigitAligner.MATCHES]);
+		assertEquals(0, counts[DigitAligner.SUBSTITUTIONS]);
+		assertEquals(0, counts[DigitAligner.INSERTIONS]);
+		assertEquals(0, counts[DigitAligner.DELETIONS]);
+		assertEquals(4, DigitAligner.exactMatches("1234", "12-34"));
+		assertEquals(-1, DigitAligner.exactMatches("123", "12-34"));
+		assertEquals(-1, DigitAligner.exactMatches("12345", "12-34"));
+
+		// A string too long to align is still all matches if read exactly
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < DigitAligner.MAX_PATTERN_LENGTH + 6; i++) {
+			expected.append(i % 10);
+		}
+		assertTrue(DigitAligner.get().align(expected.toString(), expected.toString(), counts));
+		assertEquals(DigitAligner.MAX_PATTERN_LENGTH + 6, counts[DigitAligner.MATCHES]);
+	}
+
+	@Test
+	public void testMatchesDynamicProgramming() {
+		Random random = new Random(31);
+		int[] counts = new int[4];
+		for (int trial = 0; trial < 20000; trial++) {
+			String actual = randomDigits(random, random.nextInt(12));
+			String expected = randomDigits(random, random.nextInt(random.nextInt(10) == 0 ? 65 : 12));
+			assertTrue(DigitAligner.get().align(actual, expected, counts));
+			int errors = counts[DigitAligner.SUBSTITUTIONS] + counts[DigitAligner.INSERTIONS]
+			        + counts[DigitAligner.DELETIONS];
+			assertEquals(actual + " vs " + expected, editDistance(actual, expected), errors);
+			assertEquals(expected.length(), counts[DigitAligner.MATCHES] + counts[DigitAligner.SUBSTITUTIONS]
+			        + counts[DigitAligner.DELETIONS]);
+			assertEquals(actual.length(), counts[DigitAligner.MATCHES] + counts[DigitAligner.SUBSTITUTIONS]
+			        + counts[DigitAligner.INSERTIONS]);
+		}
+	}
+
+	@Test
+	public void testAlignedDates() {
+		int[] comparison = AccuracyChecker.compareSingleResult("5/7/2015", "05/07/15", null, DigitScoring.ALIGNED);
+		assertEquals(4, comparison[0]);
+		assertEquals(4, comparison[1]);
+		comparison = AccuracyChecker.compareSingleResult("1245", "12345", null, DigitScoring.ALIGNED);
+		assertEquals(4, comparison[0]);
+		assertEquals(5, comparison[1]);
+	}
+
+	@Test
+	public void testAlignedComparison() throws Exception {
+		// Form 1 drops a digit of field 1 and misreads one of field 3, form 2
+		// inserts a digit into field 1; every other field is skipped
+		Map<String, List<String>> expected = new HashMap<String, List<String>>();
+		Map<String, ScanOutput> actual = new HashMap<String, ScanOutput>();
+		addForm(expected, actual, "1", "245", "2345", "13", "12");
+		addForm(expected, actual, "2", "3012", "312", "7", "7");
+
+		PrintStream out = System.out;
+		ByteArrayOutputStream aligned = new ByteArrayOutputStream();
+		ByteArrayOutputStream positional = new ByteArrayOutputStream();
+		int[][] counts;
+		try {
+			System.setOut(new PrintStream(aligned, true, "UTF-8"));
+			counts = AccuracyChecker.compareResults(actual, expected, null, null, DigitScoring.ALIGNED);
+			System.setOut(new PrintStream(positional, true, "UTF-8"));
+			AccuracyChecker.compareResults(actual, expected, null, null, DigitScoring.POSITIONAL);
+		} finally {
+			System.setOut(out);
+		}
+		assertEquals(6, counts[0][1]);
+		assertEquals(8, counts[1][1]);
+		assertEquals(2, counts[0][3]);
+		assertEquals(3, counts[1][3]);
+		assertTrue(aligned.toString("UTF-8").contains("Field 1 (age): 0/1/1"));
+		assertTrue(aligned.toString("UTF-8").contains("Field 3 (num_preg): 1/0/0"));
+		assertFalse(positional.toString("UTF-8").contains("Digit errors"));
+
+		// Aligned digits are never batched
+		int[] correct = new int[15];
+		int[] total = new int[15];
+		AccuracyChecker.scoreForms(expected.keySet(), actual, expected, true, DigitScoring.ALIGNED)
+		        .sumFields(correct, total);
+		assertArrayEquals(counts[0], correct);
+		assertArrayEquals(counts[1], total);
+	}
+
+	private static void addForm(Map<String, List<String>> expected, Map<String, ScanOutput> actual,
+	        String clientId, String actual1, String expected1, String actual3, String expected3) {
+		List<String> actualValues = new ArrayList<String>(Collections.<String> nCopies(15, null));
+		List<String> expectedValues = new ArrayList<String>(Collections.<String> nCopies(15, null));
+		actualValues.set(1, actual1);
+		expectedValues.set(1, expected1);
+		actualValues.set(3, actual3);
+		expectedValues.set(3, expected3);
+		actual.put(clientId, new ScanOutput(actualValues, "form_id_" + clientId));
+		expected.put(clientId, expectedValues);
+	}
+
+	private static String randomDigits(Random random, int length) {
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			s.append(random.nextInt(8) == 0 ? ' ' : (char) ('0' + random.nextInt(4)));
+		}
+		return s.toString();
+	}
+
+	private static int editDistance(String a, String b) {
+		int[][] d = new int[a.length() + 1][b.length() + 1];
+		for (int i = 0; i <= a.length(); i++) {
+			for (int j = 0; j <= b.length(); j++) {
+				if (i == 0 || j == 0) {
+					d[i][j] = i + j;
+				} else {
+					int substitution = d[i - 1][j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+					d[i][j] = Math.min(substitution, Math.min(d[i - 1][j], d[i][j - 1]) + 1);
+				}
+			}
+		}
+		return d[a.length()][b.length()];
+	}
+}
@@ -0,0 +1,179 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import main.*;
+
+public class TestDuplicateScans {
+	private Path root;
+	private Path cacheFile;
+
+	@Before
+	public void writeFolders() throws IOException {
+		root = Files.createTempDirectory("scan-output");
+		cacheFile = Files.createTempFile("content-hashes", ".tsv");
+		Files.delete(cacheFile);
+
+		// a, b and c share their image or output.json, as do e and f; d is
+		// unique (notes.txt is not hashed, and copy.tif is e's primary image,
+		// being as large as scan.tif and first by name)
+		write("a_id_1", "output.json", "{\"fields\": [1]}");
+		write("a_id_1", "page1.jpg", "image P");
+		write("b_id_2", "output.json", "{\"fields\": [2]}");
+		write("b_id_2", "page1.JPG", "image P");
+		write("c_id_3", "output.json", "{\"fields\": [1]}");
+		write("d_id_4", "output.json", "{\"fields\": [4]}");
+		write("d_id_4", "page1.png", "image P, cropped");
+		write("d_id_4", "notes.txt", "image Q");
+		write("e_id_5", "scan.tif", "image Q");
+		write("e_id_5", "copy.tif", "image Q");
+		write("f_id_6", "output.json", "{\"fields\": [6]}");
+		write("f_id_6", "scan.tif", "image Q");
+	}
+
+	@After
+	public void deleteFolders() throws IOException {
+		Files.deleteIfExists(cacheFile);
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	@Test
+	public void testGroups() {
+		DuplicateScans scans = DuplicateScans.scan(root.toString(), cacheFile.toString());
+		assertEquals(Arrays.asList(Arrays.asList("a_id_1", "b_id_2", "c_id_3"), Arrays.asList("e_id_5", "f_id_6")),
+		        scans.getGroups());
+		assertFalse(scans.isDuplicate("a_id_1"));
+		assertTrue(scans.isDuplicate("c_id_3"));
+		assertFalse(scans.isDuplicate("d_id_4"));
+
+		Map<String, ScanOutput> actual = new HashMap<String, ScanOutput>();
+		for (int f = 0; f < 6; f++) {
+			String folderName = (char) ('a' + f) + "_id_" + (f + 1);
+			actual.put(String.valueOf(f + 1), new ScanOutput(new ArrayList<String>(), folderName));
+		}
+		assertEquals(new HashSet<String>(Arrays.asList("1", "4", "5")), scans.skipDuplicates(actual).keySet());
+	}
+
+	@Test
+	public void testCache() throws IOException {
+		// Every output.json and primary image (not e's scan.tif)
+		DuplicateScans first = DuplicateScans.scan(root.toString(), cacheFile.toString());
+		assertEquals(10, first.getNumFilesHashed());
+		assertEquals(0, first.getNumFilesCached());
+
+		DuplicateScans second = DuplicateScans.scan(root.toString(), cacheFile.toString());
+		assertEquals(0, second.getNumFilesHashed());
+		assertEquals(10, second.getNumFilesCached());
+		assertEquals(first.getGroups(), second.getGroups());
+
+		// A changed file is hashed again, and splits c from a and b
+		write("c_id_3", "output.json", "{\"fields\": [3, 3]}");
+		DuplicateScans third = DuplicateScans.scan(root.toString(), cacheFile.toString());
+		assertEquals(1, third.getNumFilesHashed());
+		assertEquals(Arrays.asList(Arrays.asList("a_id_1", "b_id_2"), Arrays.asList("e_id_5", "f_id_6")),
+		        third.getGroups());
+	}
+
+	@Test
+	public void testCommonFilesDoNotChain() throws IOException {
+		// The same placeholder image, as the primary image of more folders
+		// than the limit; a is then only linked to c (by output.json), and d
+		// to nothing
+		List<String> common = Arrays.asList("a_id_1", "d_id_4", "g_id_7", "h_id_8", "i_id_9");
+		for (int f = 0; f < common.size(); f++) {
+			write(common.get(f), "z_blank.png", "a blank page, larger than the other images");
+			if (f >= 2) {
+				write(common.get(f), "output.json", "{\"fields\": [" + (f + 7) + "]}");
+			}
+		}
+
+		// Empty output.json files, and a smaller image shared by g and h that
+		// is not their primary image
+		write("j_id_10", "output.json", "");
+		write("j_id_10", "page1.jpg", "image J");
+		write("k_id_11", "output.json", "");
+		write("k_id_11", "page1.jpg", "image K");
+		write("g_id_7", "thumb.jpg", "thumb");
+		write("h_id_8", "thumb.jpg", "thumb");
+
+		DuplicateScans scans = DuplicateScans.scan(root.toString(), cacheFile.toString());
+		assertEquals(1, scans.getNumCommonHashes());
+		assertEquals(Arrays.asList(Arrays.asList("a_id_1", "c_id_3"), Arrays.asList("e_id_5", "f_id_6")),
+		        scans.getGroups());
+		assertFalse(scans.isDuplicate("g_id_7"));
+		assertFalse(scans.isDuplicate("k_id_11"));
+	}
+
+	@Test
+	public void testManyCopies() throws IOException {
+		// The same scan in 5 folders: the image is more common than the
+		// limit, but output.json still groups them
+		for (String folderName : new String[] { "g_id_7", "h_id_8", "i_id_9", "j_id_10", "k_id_11" }) {
+			write(folderName, "output.json", "{\"fields\": [7]}");
+			write(folderName, "page1.jpg", "image G");
+		}
+		DuplicateScans scans = DuplicateScans.scan(root.toString(), cacheFile.toString());
+		assertEquals(1, scans.getNumCommonHashes());
+		assertEquals(Arrays.asList("g_id_7", "h_id_8", "i_id_9", "j_id_10", "k_id_11"), scans.getGroups().get(2));
+		assertTrue(scans.isDuplicate("k_id_11"));
+	}
+
+	@Test
+	public void testCacheSharedByRoots() throws IOException {
+		Path other = Files.createTempDirectory("scan-output");
+		try {
+			Path folder = Files.createDirectory(other.resolve("x_id_1"));
+			Files.write(folder.resolve("output.json"), "{\"fields\": [1]}".getBytes(StandardCharsets.UTF_8));
+			DuplicateScans.scan(root.toString(), cacheFile.toString());
+			assertEquals(1, DuplicateScans.scan(other.toString(), cacheFile.toString()).getNumFilesHashed());
+
+			// Scanning the other root kept this root's hashes, and the other
+			// way round
+			DuplicateScans again = DuplicateScans.scan(root.toString(), cacheFile.toString());
+			assertEquals(0, again.getNumFilesHashed());
+			assertEquals(10, again.getNumFilesCached());
+			assertEquals(1, DuplicateScans.scan(other.toString(), cacheFile.toString()).getNumFilesCached());
+
+			// A deleted file is dropped from the cache, and only from its root
+			Files.delete(root.resolve("c_id_3").resolve("output.json"));
+			DuplicateScans.scan(root.toString(), cacheFile.toString());
+			List<String> lines = Files.readAllLines(cacheFile, StandardCharsets.UTF_8);
+			assertEquals(10, lines.size());
+			assertEquals(1, DuplicateScans.scan(other.toString(), cacheFile.toString()).getNumFilesCached());
+		} finally {
+			Files.delete(other.resolve("x_id_1").resolve("output.json"));
+			Files.delete(other.resolve("x_id_1"));
+			Files.delete(other);
+		}
+	}
+
+	private void write(String folderName, String fileName, String contents) throws IOException {
+		Path folder = root.resolve(folderName);
+		Files.createDirectories(folder);
+		Files.write(folder.resolve(fileName), contents.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,520 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.util.*;
+
+import javax.json.JsonObject;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import main.*;
+
+/**
+ * Checks that every alternative way of scoring forms produces exactly the same
+ * per-field correct/total counts as the reference, sequential
+ * AccuracyChecker.compareResults, on large random data sets. The reference
+ * counts themselves are pinned to the output of compareResults before any of
+ * the scoring engines were added, since they share its field comparisons.
+ */
+public class TestEngineDeterminism {
+	private static final int NUM_FIELDS = 15;
+	private static final int NUM_FORMS = 20000;
+	private static final long SEED = 36;
+
+	private static final String[] HEALTH_CONDITIONS = { "hypertension/pre-eclampsia", "diabetes",
+	        "under the age of 20", "underweight", "carrying twins or triplets", "history of preterm delivery",
+	        "history of stillbirth or neonatal death", "other1", "other2" };
+	private static final String[] V1_TOPICS = { "pregnancy danger signs", "malaria prophylaxis", "HIV/TB counseling",
+	        "activity level", "nutrition", "birth plan", "breastfeeding", "family planning",
+	        "postnatal danger signs", "neonatal care/ danger signs" };
+
+	// The counts of the original, sequential compareResults on the data
+	// generated from SEED
+	private static final int[] BASELINE_CORRECT = { 44499, 23400, 36392, 23176, 22736, 6740, 6856, 22990, 35987,
+	        35357, 35794, 83049, 35658, 93068, 35395 };
+	private static final int[] BASELINE_TOTAL = { 71635, 41673, 44670, 41268, 41286, 28964, 29082, 41428, 44300,
+	        43895, 44151, 129564, 43854, 144690, 43878 };
+
+	private static Map<String, List<String>> expected;
+	private static Map<String, ScanOutput> actual;
+	private static int[] referenceCorrect;
+	private static int[] referenceTotal;
+
+	@BeforeClass
+	public static void scoreWithReference() {
+		Random random = new Random(SEED);
+		expected = new HashMap<String, List<String>>();
+		actual = new HashMap<String, ScanOutput>();
+		for (int f = 0; f < NUM_FORMS; f++) {
+			String clientId = String.valueOf(f);
+			List<String> expectedValues = new ArrayList<String>();
+			List<String> actualValues = new ArrayList<String>();
+			for (int i = 0; i < NUM_FIELDS; i++) {
+				expectedValues.add(randomExpected(random, i));
+				actualValues.add(randomActual(random, i, expectedValues.get(i)));
+			}
+			expected.put(clientId, expectedValues);
+			// Some forms are only in one of the data sets
+			if (random.nextInt(20) != 0) {
+				actual.put(clientId, new ScanOutput(actualValues, "form_id_" + clientId));
+			}
+		}
+		for (int f = 0; f < NUM_FORMS / 100; f++) {
+			actual.put("extra" + f, new ScanOutput(Arrays.asList(new String[NUM_FIELDS]), "extra"));
+		}
+
+		// The reference implementation prints every discrepancy, so silence it
+		referenceCorrect = new int[NUM_FIELDS];
+		referenceTotal = new int[NUM_FIELDS];
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new ByteArrayOutputStream() {
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		}));
+		try {
+			for (String clientId : expected.keySet()) {
+				ScanOutput output = actual.get(clientId);
+				if (output != null) {
+					AccuracyChecker.compareResults(output.outputData, expected.get(clientId), referenceCorrect,
+					        referenceTotal, clientId, output.folderName);
+				}
+			}
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	@Test
+	public void testReferenceMatchesBaseline() {
+		assertArrayEquals(BASELINE_CORRECT, referenceCorrect);
+		assertArrayEquals(BASELINE_TOTAL, referenceTotal);
+	}
+
+	@Test
+	public void testScoreForms() {
+		FormScores scores = AccuracyChecker.scoreForms(actual, expected);
+		assertTotals(scores);
+
+		// Batched digit comparisons, whichever kernel is in use
+		assertTotals(AccuracyChecker.scoreForms(expected.keySet(), actual, expected, true));
+		assertTotals(AccuracyChecker.scoreForms(expected.keySet(), actual, expected, false));
+	}
+
+	@Test
+	public void testMultiRunComparison() {
+		List<Map<String, ScanOutput>> runs = new ArrayList<Map<String, ScanOutput>>();
+		runs.add(actual);
+		runs.add(actual);
+		List<FormScores> scores = MultiRunComparison.scoreRuns(runs, expected);
+		assertTotals(scores.get(0));
+		assertTotals(scores.get(1));
+		int[] winLoss = MultiRunComparison.countWinsAndLosses(scores.get(0), scores.get(1), 0, NUM_FIELDS);
+		assertEquals(0, winLoss[0]);
+		assertEquals(0, winLoss[1]);
+	}
+
+	@Test
+	public void testWinsAndLossesCompareAccuracy() {
+		FormScores baseline = new FormScores(2);
+		FormScores other = new FormScores(2);
+		for (int f = 0; f < 5; f++) {
+			baseline.addForm(String.valueOf(f), "form_id_" + f);
+			other.addForm(String.valueOf(f), "form_id_" + f);
+		}
+		// More digits correct but more read: 6/10 vs. 5/5 is a loss
+		baseline.set(0, 0, 5, 5);
+		other.set(0, 0, 6, 10);
+		// Fewer digits correct out of fewer: 3/3 vs. 4/8 is a win
+		baseline.set(1, 0, 4, 8);
+		other.set(1, 0, 3, 3);
+		// The same accuracy out of different totals: 2/4 vs. 3/6
+		baseline.set(2, 0, 3, 6);
+		other.set(2, 0, 2, 4);
+		// Nothing to score in the baseline
+		other.set(3, 0, 1, 1);
+		// Summed over both fields: 3/4 vs. 2/4
+		baseline.set(4, 0, 2, 2);
+		other.set(4, 0, 1, 2);
+		other.set(4, 1, 2, 2);
+		baseline.set(4, 1, 0, 2);
+
+		assertArrayEquals(new int[] { 2, 1 }, MultiRunComparison.countWinsAndLosses(baseline, other, 0, 2));
+		assertArrayEquals(new int[] { 1, 2 }, MultiRunComparison.countWinsAndLosses(baseline, other, 0, 1));
+	}
+
+	@Test
+	public void testResultCache() throws IOException {
+		File cacheFile = File.createTempFile("result-cache", ".bin");
+		cacheFile.delete();
+		try {
+			ResultCache cache = ResultCache.load(cacheFile.getPath(), NUM_FIELDS);
+			assertTotals(cache.update(actual, expected));
+			assertArrayEquals(referenceCorrect, cache.getNumCorrect());
+			assertArrayEquals(referenceTotal, cache.getNumTotal());
+			cache.save();
+
+			// Reloaded, nothing needs to be re-scored and the totals must match
+			cache = ResultCache.load(cacheFile.getPath(), NUM_FIELDS);
+			assertTotals(cache.update(actual, expected));
+			assertEquals(0, cache.getNumRescored());
+			assertArrayEquals(referenceCorrect, cache.getNumCorrect());
+			assertArrayEquals(referenceTotal, cache.getNumTotal());
+		} finally {
+			cacheFile.delete();
+		}
+	}
+
+	@Test
+	public void testResultStore() {
+		ResultStore store = ResultStore.fromScores(AccuracyChecker.scoreForms(actual, expected),
+		        new HashMap<String, String>(), new HashMap<String, Double>());
+		SortedMap<String, long[]> byField = store.query().groupBy(ResultStore.Group.FIELD).run();
+		int[] correct = new int[NUM_FIELDS];
+		int[] total = new int[NUM_FIELDS];
+		for (Map.Entry<String, long[]> group : byField.entrySet()) {
+			int field = Integer.parseInt(group.getKey().substring(0, 2));
+			correct[field] = (int) group.getValue()[0];
+			total[field] = (int) group.getValue()[1];
+		}
+		assertArrayEquals(referenceCorrect, correct);
+		assertArrayEquals(referenceTotal, total);
+	}
+
+	@Test
+	public void testScoringDaemon() {
+		int[] correct = new int[NUM_FIELDS];
+		int[] total = new int[NUM_FIELDS];
+		for (String clientId : expected.keySet()) {
+			ScanOutput output = actual.get(clientId);
+			if (output != null) {
+				JsonObject result = ScoringDaemon.toJson(clientId, output.outputData, expected.get(clientId));
+				for (int i = 0; i < NUM_FIELDS; i++) {
+					JsonObject field = result.getJsonArray("fields").getJsonObject(i);
+					correct[i] += field.getInt("correct");
+					total[i] += field.getInt("total");
+				}
+			}
+		}
+		assertArrayEquals(referenceCorrect, correct);
+		assertArrayEquals(referenceTotal, total);
+	}
+
+	@Test
+	public void testSpilledScores() throws IOException {
+		File scratch = File.createTempFile("spill", "");
+		scratch.delete();
+		scratch.mkdir();
+		try {
+			SpilledForms.Writer expectedWriter = SpilledForms.create(scratch.toPath(), NUM_FIELDS);
+			for (Map.Entry<String, List<String>> entry : expected.entrySet()) {
+				expectedWriter.add(entry.getKey(), null, entry.getValue());
+			}
+			SpilledForms.Writer actualWriter = SpilledForms.create(scratch.toPath(), NUM_FIELDS);
+			for (Map.Entry<String, ScanOutput> entry : actual.entrySet()) {
+				actualWriter.add(entry.getKey(), entry.getValue().folderName, entry.getValue().outputData);
+			}
+			// A duplicated client ID must be treated as missing
+			actualWriter.add("extra0", "extra", Arrays.asList(new String[NUM_FIELDS]));
+
+			try (SpilledForms expectedForms = expectedWriter.finish();
+			        SpilledForms actualForms = actualWriter.finish();
+			        SpilledScores scores = SpilledScores.score(actualForms, expectedForms, scratch.toPath())) {
+				int[] correct = new int[NUM_FIELDS];
+				int[] total = new int[NUM_FIELDS];
+				scores.sumFields(correct, total);
+				assertArrayEquals(referenceCorrect, correct);
+				assertArrayEquals(referenceTotal, total);
+				assertEquals(-1, actualForms.find("extra0"));
+				for (int form = 0; form < scores.getNumForms(); form += 997) {
+					String clientId = scores.getClientId(form);
+					assertEquals("form_id_" + clientId, scores.getFolderName(form));
+					assertEquals(expected.get(clientId), Arrays.asList(fieldValues(expectedForms,
+					        expectedForms.find(clientId))));
+				}
+			}
+			// Every scratch file is unmapped and deleted on close
+			assertEquals(0, scratch.list().length);
+		} finally {
+			for (File file : scratch.listFiles()) {
+				file.delete();
+			}
+			scratch.delete();
+		}
+	}
+
+	@Test
+	public void testOutcomeExport() throws IOException {
+		File columnar = File.createTempFile("outcomes", ".bin");
+		File csv = File.createTempFile("outcomes", ".csv.gz");
+		PrintStream out = System.out;
+		try {
+			System.setOut(new PrintStream(new ByteArrayOutputStream()));
+			try (OutcomeExporter columnarExporter = OutcomeExporter.open(columnar.getPath());
+			        OutcomeExporter csvExporter = OutcomeExporter.open(csv.getPath())) {
+				for (String clientId : expected.keySet()) {
+					ScanOutput output = actual.get(clientId);
+					if (output != null) {
+						AccuracyChecker.compareResults(output.outputData, expected.get(clientId),
+						        new int[NUM_FIELDS], new int[NUM_FIELDS], null, columnarExporter, clientId,
+						        output.folderName);
+						csvExporter.addForm(clientId, output.folderName, output.outputData, expected.get(clientId));
+					}
+				}
+			} finally {
+				System.setOut(out);
+			}
+
+			// Every exported record must match its form, and the records must
+			// add up to the reference totals
+			int[] correct = new int[NUM_FIELDS];
+			int[] total = new int[NUM_FIELDS];
+			int numRecords = 0;
+			try (OutcomeExporter.Reader reader = new OutcomeExporter.Reader(columnar.getPath())) {
+				for (OutcomeExporter.Record record = reader.next(); record != null; record = reader.next()) {
+					assertEquals("form_id_" + record.clientId, record.folderName);
+					assertEquals(actual.get(record.clientId).outputData.get(record.field), record.actual);
+					assertEquals(expected.get(record.clientId).get(record.field), record.expected);
+					correct[record.field] += record.correct;
+					total[record.field] += record.total;
+					numRecords++;
+				}
+			}
+			assertArrayEquals(referenceCorrect, correct);
+			assertArrayEquals(referenceTotal, total);
+
+			// The CSV has a header line and then the same records
+			int numLines = 0;
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+			        new java.util.zip.GZIPInputStream(new FileInputStream(csv)), "UTF-8"))) {
+				while (reader.readLine() != null) {
+					numLines++;
+				}
+			}
+			assertEquals(numRecords + 1, numLines);
+		} finally {
+			columnar.delete();
+			csv.delete();
+		}
+	}
+
+	@Test
+	public void testExportFailureDoesNotStopComparison() {
+		// Every write to /dev/full fails with "No space left on device" (only
+		// on Linux)
+		if (!new File("/dev/full").exists()) {
+			return;
+		}
+		PrintStream out = System.out;
+		PrintStream err = System.err;
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		int[][] counts;
+		try {
+			System.setOut(new PrintStream(new ByteArrayOutputStream()));
+			System.setErr(new PrintStream(errors));
+			counts = AccuracyChecker.compareResults(actual, expected, null, "/dev/full");
+		} finally {
+			System.setOut(out);
+			System.setErr(err);
+		}
+		assertArrayEquals(referenceCorrect, counts[0]);
+		assertArrayEquals(referenceTotal, counts[1]);
+		assertTrue(errors.toString().contains("Stopped exporting outcomes"));
+	}
+
+	@Test
+	public void testFieldProjection() {
+		int[] fields = AccuracyChecker.parseFields("V1_topics,0,health_cond,EDD");
+		assertArrayEquals(new int[] { 0, 2, 11, 13 }, fields);
+
+		// The projected JSON extractor must find the same values as the full
+		// parser, skipping nested "value" keys and stopping early
+		Random random = new Random(SEED);
+		for (int f = 0; f < 200; f++) {
+			ScanOutput output = actual.get(String.valueOf(f));
+			if (output == null) {
+				continue;
+			}
+			javax.json.JsonArrayBuilder entries = javax.json.Json.createArrayBuilder();
+			for (int j = 0; j < 60; j++) {
+				String value = j < NUM_FIELDS && output.outputData.get(j) != null ? output.outputData.get(j)
+				        : randomDigits(random, 3);
+				entries.add(javax.json.Json.createObjectBuilder().add("meta",
+				        javax.json.Json.createObjectBuilder().add("value", "decoy").add("fields", "[]"))
+				        .add("value", value).add("options", javax.json.Json.createArrayBuilder().add("1")));
+			}
+			JsonObject document = javax.json.Json.createObjectBuilder().add("value", "top")
+			        .add("fields", entries).build();
+			List<String> full = JsonParser.parseActualJson(new StringReader(document.toString()));
+			List<String> projected = JsonParser.parseActualJson(new StringReader(document.toString()), fields);
+			assertEquals(NUM_FIELDS, projected.size());
+			for (int i = 0; i < NUM_FIELDS; i++) {
+				assertEquals(Arrays.binarySearch(fields, i) >= 0 ? full.get(i) : null, projected.get(i));
+			}
+		}
+
+		// Comparing only the selected fields gives their reference counts
+		int[] correct = new int[NUM_FIELDS];
+		int[] total = new int[NUM_FIELDS];
+		PrintStream out = System.out;
+		try {
+			System.setOut(new PrintStream(new ByteArrayOutputStream()));
+			for (String clientId : expected.keySet()) {
+				ScanOutput output = actual.get(clientId);
+				if (output != null) {
+					AccuracyChecker.compareResults(output.outputData, expected.get(clientId), correct, total, null,
+					        null, fields, clientId, output.folderName);
+				}
+			}
+		} finally {
+			System.setOut(out);
+		}
+		for (int i = 0; i < NUM_FIELDS; i++) {
+			boolean selected = Arrays.binarySearch(fields, i) >= 0;
+			assertEquals(selected ? referenceCorrect[i] : 0, correct[i]);
+			assertEquals(selected ? referenceTotal[i] : 0, total[i]);
+		}
+	}
+
+	private static String[] fieldValues(SpilledForms forms, int form) {
+		String[] values = new String[NUM_FIELDS];
+		for (int i = 0; i < NUM_FIELDS; i++) {
+			values[i] = forms.getFieldValue(form, i);
+		}
+		return values;
+	}
+
+	private static void assertTotals(FormScores scores) {
+		int[] correct = new int[NUM_FIELDS];
+		int[] total = new int[NUM_FIELDS];
+		scores.sumFields(correct, total);
+		assertArrayEquals(referenceCorrect, correct);
+		assertArrayEquals(referenceTotal, total);
+	}
+
+	/*
+	 * Generates an expected (Excel) value for the i-th field.
+	 */
+	private static String randomExpected(Random random, int i) {
+		switch (random.nextInt(20)) {
+		case 0:
+			return null;
+		case 1:
+			return "";
+		case 2:
+			return "null";
+		case 3:
+			return "inconclusive";
+		case 4:
+			return random.nextBoolean() ? "yes" : "no";
+		default:
+		}
+		if (i == 11) {
+			return randomBubbleCodes(random, HEALTH_CONDITIONS.length);
+		}
+		if (i == 13) {
+			return randomBubbleCodes(random, V1_TOPICS.length);
+		}
+		if (i == 5 || i == 6) {
+			return random.nextBoolean() ? "yes" : "no";
+		}
+		if (i == 2 || i == 8 || i == 9 || i == 10 || i == 12 || i == 14) {
+			return randomDate(random);
+		}
+		return randomDigits(random, 1 + random.nextInt(6));
+	}
+
+	/*
+	 * Generates an actual (Scan) value for the i-th field, often close to the
+	 * expected value.
+	 */
+	private static String randomActual(Random random, int i, String expectedValue) {
+		switch (random.nextInt(20)) {
+		case 0:
+			return null;
+		case 1:
+			return "";
+		case 2:
+			return randomDigits(random, random.nextInt(8));
+		default:
+		}
+		if (i == 11) {
+			return randomBubbleText(random, HEALTH_CONDITIONS);
+		}
+		if (i == 13) {
+			return randomBubbleText(random, V1_TOPICS);
+		}
+		if (expectedValue == null || random.nextInt(4) == 0) {
+			return random.nextInt(3) == 0 ? randomDate(random) : randomDigits(random, 1 + random.nextInt(6));
+		}
+		// Perturb the expected value
+		StringBuilder value = new StringBuilder(expectedValue);
+		int edits = random.nextInt(3);
+		for (int e = 0; e < edits && value.length() > 0; e++) {
+			int position = random.nextInt(value.length());
+			switch (random.nextInt(3)) {
+			case 0:
+				// Mostly digits, sometimes a character that is not one
+				value.setCharAt(position, random.nextInt(8) == 0 ? "O l/-\u00e9".charAt(random.nextInt(6))
+				        : (char) ('0' + random.nextInt(10)));
+				break;
+			case 1:
+				value.insert(position, (char) ('0' + random.nextInt(10)));
+				break;
+			default:
+				value.deleteCharAt(position);
+			}
+		}
+		return value.toString();
+	}
+
+	private static String randomDigits(Random random, int length) {
+		StringBuilder s = new StringBuilder();
+		for (int k = 0; k < length; k++) {
+			s.append(random.nextInt(10) == 0 ? ' ' : (char) ('0' + random.nextInt(10)));
+		}
+		return s.toString();
+	}
+
+	private static String randomDate(Random random) {
+		String day = String.valueOf(1 + random.nextInt(31));
+		String month = String.valueOf(1 + random.nextInt(12));
+		if (random.nextBoolean() && day.length() == 1) {
+			day = "0" + day;
+		}
+		if (random.nextBoolean() && month.length() == 1) {
+			month = "0" + month;
+		}
+		int year = 10 + random.nextInt(10);
+		String yearString = random.nextBoolean() ? "20" + year : String.valueOf(year);
+		if (random.nextInt(20) == 0) {
+			yearString = " " + year;
+		}
+		return day + "/" + month + "/" + yearString;
+	}
+
+	private static String randomBubbleCodes(Random random, int numOptions) {
+		StringBuilder codes = new StringBuilder();
+		for (int option = 1; option <= numOptions; option++) {
+			if (random.nextInt(4) == 0) {
+				codes.append(codes.length() == 0 ? "" : ",").append(option);
+			}
+		}
+		return codes.length() == 0 ? String.valueOf(1 + random.nextInt(numOptions)) : codes.toString();
+	}
+
+	private static String randomBubbleText(Random random, String[] options) {
+		StringBuilder text = new StringBuilder();
+		for (String option : options) {
+			if (random.nextInt(4) == 0) {
+				text.append(text.length() == 0 ? "" : " ").append(option);
+			}
+		}
+		return text.toString();
+	}
+}
@@ -0,0 +1,94 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import main.*;
+
+public class TestFolderIndex {
+	private Path dir;
+	private String indexFile;
+	private String august;
+	private String additional;
+
+	@Before
+	public void createRoots() throws IOException {
+		dir = Files.createTempDirectory("folder-index");
+		indexFile = dir.resolve("folder-index.tsv").toString();
+		august = Files.createDirectory(dir.resolve("august")).toString();
+		additional = Files.createDirectory(dir.resolve("additional")).toString();
+		for (String folderName : new String[] { "form_id_1", "form_id_2", "no-client-id" }) {
+			Files.createDirectory(Paths.get(august, folderName));
+		}
+		for (String folderName : new String[] { "form_id_3", "other_id_2" }) {
+			Files.createDirectory(Paths.get(additional, folderName));
+		}
+	}
+
+	@After
+	public void deleteRoots() throws IOException {
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path folder, IOException e) throws IOException {
+				Files.delete(folder);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	@Test
+	public void testLookups() {
+		FolderIndex index = FolderIndex.open(indexFile, Arrays.asList(august, additional));
+		assertEquals(new HashSet<String>(Arrays.asList("1", "3")), index.getClientIds());
+		assertEquals(Paths.get(august, "form_id_1").toString(), index.lookup("1").getFullPath());
+		assertNull(index.lookup("2"));
+		assertTrue(index.isDuplicate("2"));
+
+		// Lookups only cover the requested roots
+		index = FolderIndex.open(indexFile, Arrays.asList(august));
+		assertEquals(new HashSet<String>(Arrays.asList("1", "2")), index.getClientIds());
+		assertFalse(index.isDuplicate("2"));
+	}
+
+	@Test
+	public void testRootsOfOtherCallersAreKept() throws IOException {
+		FolderIndex.open(indexFile, Arrays.asList(august));
+		FolderIndex.open(indexFile, Arrays.asList(additional));
+
+		// A folder added without changing the root's modification time is
+		// only seen if the root is listed again, which it must not be
+		FileTime modified = Files.getLastModifiedTime(Paths.get(august));
+		Files.createDirectory(Paths.get(august, "form_id_4"));
+		Files.setLastModifiedTime(Paths.get(august), modified);
+		FolderIndex index = FolderIndex.open(indexFile, Arrays.asList(august));
+		assertEquals(new HashSet<String>(Arrays.asList("1", "2")), index.getClientIds());
+
+		// A deleted root is dropped from the index file
+		Files.delete(Paths.get(additional, "form_id_3"));
+		Files.delete(Paths.get(additional, "other_id_2"));
+		Files.delete(Paths.get(additional));
+		FolderIndex.open(indexFile, Arrays.asList(august));
+		String contents = new String(Files.readAllBytes(Paths.get(indexFile)), StandardCharsets.UTF_8);
+		assertTrue(contents.contains(august));
+		assertFalse(contents.contains(additional));
+	}
+}
@@ -0,0 +1,239 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import main.*;
+
+/**
+ * Checks that a ResultCache brought up to date from a Scan output folder keeps
+ * the same totals as a full rescore of the folder, while only parsing the
+ * output.json files that changed.
+ */
+public class TestResultCache {
+	private static final int NUM_FIELDS = 15;
+	private static final int NUM_FORMS = 200;
+	private static final long SEED = 34;
+
+	// The client ID is in column P, after the columns of the fields
+	private static final String[] DATA_COLUMNS = { "A", "B", "C", "D", "E", "F", "G", "H", "I", "J", "K", "L", "M",
+	        "N", "O" };
+
+	private Path root;
+	private Path workbook;
+	private Path cacheFile;
+	private Map<String, List<String>> rows;
+
+	@Before
+	public void writeFolders() throws IOException {
+		Random random = new Random(SEED);
+		root = Files.createTempDirectory("scan-output");
+		workbook = Files.createTempFile("expected", ".csv");
+		cacheFile = Files.createTempFile("result-cache", ".bin");
+		Files.delete(cacheFile);
+		rows = new TreeMap<String, List<String>>();
+		for (int f = 0; f < NUM_FORMS; f++) {
+			String clientId = String.valueOf(10000 + f);
+			List<String> expectedValues = new ArrayList<String>();
+			List<String> actualValues = new ArrayList<String>();
+			for (int i = 0; i < NUM_FIELDS; i++) {
+				String value = String.valueOf(100 + random.nextInt(900));
+				expectedValues.add(value);
+				actualValues.add(random.nextInt(4) == 0 ? String.valueOf(100 + random.nextInt(900)) : value);
+			}
+			rows.put(clientId, expectedValues);
+			writeFolder("form_id_" + clientId, clientId, actualValues);
+		}
+		writeWorkbook();
+	}
+
+	@After
+	public void deleteFolders() throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, java.nio.file.attribute.BasicFileAttributes attrs)
+			        throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		Files.delete(workbook);
+		Files.deleteIfExists(cacheFile);
+	}
+
+	@Test
+	public void testUnchangedRerunParsesNothing() {
+		ResultCache cache = update();
+		assertEquals(NUM_FORMS, cache.getNumParsed());
+		assertEquals(NUM_FORMS, cache.getNumRescored());
+		assertFullRescore(cache);
+
+		cache = update();
+		assertEquals(0, cache.getNumParsed());
+		assertEquals(0, cache.getNumRescored());
+		assertEquals(0, cache.getNumRemoved());
+		assertEquals(NUM_FORMS, cache.getNumForms());
+		assertFullRescore(cache);
+	}
+
+	@Test
+	public void testChangedRowAndDeletedFolder() throws IOException {
+		update();
+
+		// One expected row changes (its unchanged folder must be parsed to
+		// re-score it), and the folder of another form is deleted
+		List<String> row = rows.get("10007");
+		for (int i = 0; i < NUM_FIELDS; i++) {
+			row.set(i, String.valueOf(1099 - Integer.parseInt(row.get(i))));
+		}
+		writeWorkbook();
+		deleteFolder("form_id_10011");
+
+		ResultCache cache = update();
+		assertEquals(1, cache.getNumParsed());
+		assertEquals(1, cache.getNumRescored());
+		assertEquals(1, cache.getNumRemoved());
+		assertEquals(NUM_FORMS - 1, cache.getNumForms());
+		assertFullRescore(cache);
+	}
+
+	@Test
+	public void testChangedOutput() throws IOException {
+		update();
+
+		List<String> values = new ArrayList<String>(rows.get("10003"));
+		values.set(2, "");
+		Path json = root.resolve("form_id_10003").resolve("output.json");
+		FileTime modified = Files.getLastModifiedTime(json);
+		writeJson(json, values);
+		Files.setLastModifiedTime(json, FileTime.fromMillis(modified.toMillis() + 2000));
+
+		ResultCache cache = update();
+		assertEquals(1, cache.getNumParsed());
+		assertEquals(1, cache.getNumRescored());
+		assertEquals(0, cache.getNumRemoved());
+		assertFullRescore(cache);
+	}
+
+	@Test
+	public void testDuplicateFolder() throws IOException {
+		update();
+
+		// Neither folder of a duplicated client ID is scored...
+		writeFolder("copy_id_10005", "10005", rows.get("10005"));
+		ResultCache cache = update();
+		assertEquals(1, cache.getNumParsed());
+		assertEquals(1, cache.getNumRemoved());
+		assertEquals(NUM_FORMS - 1, cache.getNumForms());
+		assertFullRescore(cache);
+
+		// ...until the copy is deleted, when the original folder is parsed
+		// again
+		deleteFolder("copy_id_10005");
+		cache = update();
+		assertEquals(1, cache.getNumParsed());
+		assertEquals(1, cache.getNumRescored());
+		assertEquals(NUM_FORMS, cache.getNumForms());
+		assertFullRescore(cache);
+	}
+
+	/*
+	 * Loads the cache, brings it up to date and saves it again.
+	 */
+	private ResultCache update() {
+		ResultCache cache = ResultCache.load(cacheFile.toString(), NUM_FIELDS);
+		FormScores scores = cache.update(root.toString(), workbook.toString(), null, DATA_COLUMNS);
+		cache.save();
+		assertEquals(cache.getNumForms(), scores.getNumForms());
+		return cache;
+	}
+
+	/*
+	 * Scores every folder under the root from scratch, and checks the totals
+	 * of the cache against it.
+	 */
+	private void assertFullRescore(ResultCache cache) {
+		Map<String, ScanOutput> actual = new HashMap<String, ScanOutput>();
+		Set<String> duplicates = new HashSet<String>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+			for (Path folder : stream) {
+				String clientId = JsonParser.readClientId(folder);
+				try (Reader reader = Files.newBufferedReader(folder.resolve("output.json"), StandardCharsets.UTF_8)) {
+					ScanOutput output = new ScanOutput(JsonParser.parseActualJson(reader),
+					        folder.getFileName().toString());
+					if (actual.put(clientId, output) != null) {
+						duplicates.add(clientId);
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		actual.keySet().removeAll(duplicates);
+		Map<String, List<String>> expected = ExcelParser.parseCorrectFile(workbook.toString(), null, DATA_COLUMNS);
+
+		int[] correct = new int[NUM_FIELDS];
+		int[] total = new int[NUM_FIELDS];
+		AccuracyChecker.scoreForms(actual, expected).sumFields(correct, total);
+		assertArrayEquals(correct, cache.getNumCorrect());
+		assertArrayEquals(total, cache.getNumTotal());
+	}
+
+	private void writeWorkbook() throws IOException {
+		FileTime modified = Files.getLastModifiedTime(workbook);
+		StringBuilder csv = new StringBuilder("header\n");
+		for (Map.Entry<String, List<String>> row : rows.entrySet()) {
+			for (String value : row.getValue()) {
+				csv.append(value).append(',');
+			}
+			csv.append(row.getKey()).append('\n');
+		}
+		Files.write(workbook, csv.toString().getBytes(StandardCharsets.UTF_8));
+
+		// The rewritten file may have the same size, so make sure that its
+		// modification time changes
+		Files.setLastModifiedTime(workbook, FileTime.fromMillis(modified.toMillis() + 2000));
+	}
+
+	private void writeFolder(String name, String clientId, List<String> values) throws IOException {
+		Path folder = Files.createDirectory(root.resolve(name));
+		Files.write(folder.resolve("clientID.txt"), clientId.getBytes(StandardCharsets.UTF_8));
+		writeJson(folder.resolve("output.json"), values);
+	}
+
+	private static void writeJson(Path json, List<String> values) throws IOException {
+		String[] entries = new String[JsonParser.getJsonIndex(NUM_FIELDS - 1) + 2];
+		Arrays.fill(entries, "");
+		for (int i = 0; i < NUM_FIELDS; i++) {
+			entries[JsonParser.getJsonIndex(i)] = values.get(i);
+		}
+		StringBuilder text = new StringBuilder("{\"fields\": [");
+		for (int j = 0; j < entries.length; j++) {
+			text.append(j == 0 ? "" : ", ").append("{\"value\": \"").append(entries[j]).append("\"}");
+		}
+		Files.write(json, text.append("]}").toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void deleteFolder(String name) throws IOException {
+		Path folder = root.resolve(name);
+		Files.delete(folder.resolve("clientID.txt"));
+		Files.delete(folder.resolve("output.json"));
+		Files.delete(folder);
+	}
+}
@@ -0,0 +1,213 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import main.*;
+
+/**
+ * Checks the results of ResultStore queries against a naive scan of the rows.
+ */
+public class TestResultStore {
+	private static final boolean[] IS_BUBBLE = { false, true, false, true, true, false, false, true, false, false };
+	private static final String[] FIELD_NAMES = { "Client ID", "Sex", "Date of birth", "Smoker", "Diabetic",
+	        "Height", "Weight", "Pregnant", "Phone", "Date of visit" };
+	private static final int NUM_FIELDS = FIELD_NAMES.length;
+	private static final String[] COHORTS = { "", "shadow-little", "shadow-major", "batch2" };
+
+	@Test
+	public void testEveryFilterMatchesScan() {
+		// 64 * 50 rows exactly, so that the last bitmap word is full, and a
+		// store whose last word is partly filled
+		for (int numForms : new int[] { 50, 37 }) {
+			ResultStore store = randomStore(new Random(32 + numForms), numForms);
+			if (numForms == 50) {
+				assertEquals(64 * 50, store.getNumRows());
+			}
+			for (Filter[] filters : filterSets()) {
+				for (ResultStore.Group group : ResultStore.Group.values()) {
+					ResultStore.Query query = store.query().groupBy(group);
+					for (Filter filter : filters) {
+						query.where(filter.predicate);
+					}
+					assertResult(scan(store, filters, group), query.run());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testEmptyResults() {
+		ResultStore store = randomStore(new Random(32), 20);
+		assertTrue(store.query().where(ResultStore.cohort("no such cohort")).run().isEmpty());
+		assertTrue(store.query().where(ResultStore.bubbleFields()).where(ResultStore.digitFields()).run().isEmpty());
+		assertTrue(store.query().where(ResultStore.alignmentAbove(1000)).groupBy(ResultStore.Group.ALIGNMENT_BUCKET)
+		        .run().isEmpty());
+
+		// Forms without an alignment score never match, and have no bucket
+		ResultStore unscored = new ResultStore(IS_BUBBLE, FIELD_NAMES);
+		int form = unscored.addForm("1", "", Double.NaN);
+		unscored.addRow(form, 0, 1, 2);
+		assertTrue(unscored.query().where(ResultStore.alignmentAbove(-1)).run().isEmpty());
+		assertTrue(unscored.query().where(ResultStore.alignmentAtMost(1000)).run().isEmpty());
+		assertTrue(unscored.query().groupBy(ResultStore.Group.ALIGNMENT_BUCKET).run().isEmpty());
+		assertArrayEquals(new long[] { 1, 2, 1 }, unscored.query().run().get("all"));
+
+		// A store with no rows at all
+		ResultStore empty = new ResultStore(IS_BUBBLE, FIELD_NAMES);
+		for (ResultStore.Group group : ResultStore.Group.values()) {
+			assertTrue(empty.query().groupBy(group).run().isEmpty());
+		}
+	}
+
+	/*
+	 * A predicate of the store, with the same condition checked on one row at
+	 * a time through the getters.
+	 */
+	private abstract static class Filter {
+		final ResultStore.RowPredicate predicate;
+
+		Filter(ResultStore.RowPredicate predicate) {
+			this.predicate = predicate;
+		}
+
+		abstract boolean accepts(ResultStore store, int row);
+	}
+
+	/*
+	 * No filter, a filter on every column, and a few combinations.
+	 */
+	private static List<Filter[]> filterSets() {
+		List<Filter> single = new ArrayList<Filter>();
+		for (int i = 0; i < NUM_FIELDS; i++) {
+			final int field = i;
+			single.add(new Filter(ResultStore.field(field)) {
+				boolean accepts(ResultStore store, int row) {
+					return store.getField(row) == field;
+				}
+			});
+		}
+		single.add(new Filter(ResultStore.bubbleFields()) {
+			boolean accepts(ResultStore store, int row) {
+				return store.isBubble(row);
+			}
+		});
+		single.add(new Filter(ResultStore.digitFields()) {
+			boolean accepts(ResultStore store, int row) {
+				return !store.isBubble(row);
+			}
+		});
+		List<String> cohorts = new ArrayList<String>(Arrays.asList(COHORTS));
+		cohorts.add("no such cohort");
+		for (final String cohort : cohorts) {
+			single.add(new Filter(ResultStore.cohort(cohort)) {
+				boolean accepts(ResultStore store, int row) {
+					return store.getCohort(row).equals(cohort);
+				}
+			});
+		}
+		for (final double score : new double[] { -1, 0, 2.5, 5, 9.99, 10 }) {
+			single.add(new Filter(ResultStore.alignmentAbove(score)) {
+				boolean accepts(ResultStore store, int row) {
+					return store.getAlignmentScore(row) > score;
+				}
+			});
+			single.add(new Filter(ResultStore.alignmentAtMost(score)) {
+				boolean accepts(ResultStore store, int row) {
+					return store.getAlignmentScore(row) <= score;
+				}
+			});
+		}
+
+		List<Filter[]> sets = new ArrayList<Filter[]>();
+		sets.add(new Filter[0]);
+		for (Filter filter : single) {
+			sets.add(new Filter[] { filter });
+		}
+		// Pairs of filters on different columns, and an empty conjunction
+		Random random = new Random(32);
+		for (int i = 0; i < 40; i++) {
+			sets.add(new Filter[] { single.get(random.nextInt(single.size())),
+			        single.get(random.nextInt(single.size())) });
+		}
+		sets.add(new Filter[] { single.get(NUM_FIELDS), single.get(NUM_FIELDS + 1) });
+		return sets;
+	}
+
+	/*
+	 * A store whose forms have 64 rows each on average (a form may have
+	 * several rows for a field, or none); about one form in ten has no
+	 * alignment score, and some have a score of 0 or below.
+	 */
+	private static ResultStore randomStore(Random random, int numForms) {
+		ResultStore store = new ResultStore(IS_BUBBLE, FIELD_NAMES);
+		int numRows = numForms * 64 - (numForms % 2 == 0 ? 0 : 17);
+		for (int f = 0; f < numForms; f++) {
+			double alignment = random.nextInt(10) == 0 ? Double.NaN : random.nextInt(45) / 4.0 - 1;
+			store.addForm(String.valueOf(1000 + f), COHORTS[random.nextInt(COHORTS.length)], alignment);
+		}
+		for (int row = 0; row < numRows; row++) {
+			int total = 1 + random.nextInt(10);
+			store.addRow(random.nextInt(numForms), random.nextInt(NUM_FIELDS), random.nextInt(total + 1), total);
+		}
+		return store;
+	}
+
+	/*
+	 * Computes a query by looking at every row.
+	 */
+	private static SortedMap<String, long[]> scan(ResultStore store, Filter[] filters, ResultStore.Group group) {
+		SortedMap<String, long[]> result = new TreeMap<String, long[]>();
+		rows: for (int row = 0; row < store.getNumRows(); row++) {
+			for (Filter filter : filters) {
+				if (!filter.accepts(store, row)) {
+					continue rows;
+				}
+			}
+			String key = groupKey(store, row, group);
+			if (key == null) {
+				continue;
+			}
+			if (!result.containsKey(key)) {
+				result.put(key, new long[3]);
+			}
+			long[] sums = result.get(key);
+			sums[0] += store.getCorrect(row);
+			sums[1] += store.getTotal(row);
+			sums[2]++;
+		}
+		return result;
+	}
+
+	private static String groupKey(ResultStore store, int row, ResultStore.Group group) {
+		switch (group) {
+		case FIELD:
+			return String.format("%02d %s", store.getField(row), FIELD_NAMES[store.getField(row)]);
+		case FIELD_TYPE:
+			return store.isBubble(row) ? "bubble" : "digit";
+		case COHORT:
+			return store.getCohort(row);
+		case ALIGNMENT_BUCKET:
+			double alignment = store.getAlignmentScore(row);
+			if (Double.isNaN(alignment)) {
+				return null;
+			}
+			int bucket = (int) (Math.max(alignment, 0) / 2.0);
+			return String.format("%05.1f-%05.1f", bucket * 2.0, (bucket + 1) * 2.0);
+		default:
+			return "all";
+		}
+	}
+
+	private static void assertResult(SortedMap<String, long[]> expected, SortedMap<String, long[]> actual) {
+		assertEquals(expected.keySet(), actual.keySet());
+		for (String key : expected.keySet()) {
+			assertArrayEquals(key, expected.get(key), actual.get(key));
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import main.*;
+
+public class TestResumableCrawl {
+	private Path root;
+	private Path checkpoint;
+
+	@Before
+	public void writeFolders() throws IOException {
+		root = Files.createTempDirectory("scan-output");
+		checkpoint = Files.createTempFile("checkpoint", ".tsv");
+		Files.delete(checkpoint);
+		for (String clientId : new String[] { "111", "222", "333" }) {
+			Path folder = Files.createDirectory(root.resolve("form_id_" + clientId));
+			Files.write(folder.resolve("clientID.txt"), clientId.getBytes(StandardCharsets.UTF_8));
+			StringBuilder json = new StringBuilder("{\"fields\": [");
+			for (int j = 0; j < 49; j++) {
+				String value = j == 3 ? clientId : j == 48 ? "12/05/2016" : "";
+				json.append(j == 0 ? "" : ", ").append("{\"value\": \"").append(value).append("\"}");
+			}
+			Files.write(folder.resolve("output.json"), json.append("]}").toString().getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	@After
+	public void deleteFolders() throws IOException {
+		Files.deleteIfExists(checkpoint);
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	@Test
+	public void testTornRecordIsRedone() throws IOException {
+		ResumableCrawl first = ResumableCrawl.crawl(root.toString(), checkpoint.toString());
+		assertEquals(new HashSet<String>(Arrays.asList("111", "222", "333")), first.getResults().keySet());
+
+		// A crawl killed while writing the last record, inside its last value
+		// (which would otherwise still parse as a complete record)
+		try (FileChannel channel = FileChannel.open(checkpoint, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - System.lineSeparator().length() - 2);
+		}
+		ResumableCrawl second = ResumableCrawl.crawl(root.toString(), checkpoint.toString());
+		assertEquals(2, second.getNumResumed());
+		assertEquals(first.getResults().keySet(), second.getResults().keySet());
+		assertEquals("12/05/2016", second.getResults().get("333").outputData.get(14));
+
+		// The redone record replaces the torn one
+		ResumableCrawl third = ResumableCrawl.crawl(root.toString(), checkpoint.toString());
+		assertEquals(3, third.getNumResumed());
+		assertEquals(3, Files.readAllLines(checkpoint, StandardCharsets.UTF_8).size());
+	}
+
+	@Test
+	public void testFocusedCrawl() throws IOException {
+		// Only field 14 is extracted and checkpointed
+		ResumableCrawl first = ResumableCrawl.crawl(root.toString(), checkpoint.toString(), new int[] { 14 });
+		assertEquals("12/05/2016", first.getResults().get("111").outputData.get(14));
+		assertNull(first.getResults().get("111").outputData.get(0));
+
+		// The same fields (or fewer) resume from the checkpoint
+		ResumableCrawl second = ResumableCrawl.crawl(root.toString(), checkpoint.toString(), new int[] { 14 });
+		assertEquals(3, second.getNumResumed());
+
+		// Every field needs the folders to be crawled again, and the new
+		// records replace the old ones
+		ResumableCrawl third = ResumableCrawl.crawl(root.toString(), checkpoint.toString());
+		assertEquals(0, third.getNumResumed());
+		assertEquals(3, third.getResults().size());
+		assertEquals("111", third.getResults().get("111").outputData.get(0));
+
+		ResumableCrawl fourth = ResumableCrawl.crawl(root.toString(), checkpoint.toString(), new int[] { 0, 14 });
+		assertEquals(3, fourth.getNumResumed());
+		assertEquals(3, fourth.getResults().size());
+		assertEquals("111", fourth.getResults().get("111").outputData.get(0));
+	}
+}
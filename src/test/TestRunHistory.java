@@ -0,0 +1,235 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import main.*;
+
+public class TestRunHistory {
+	private static final boolean[] IS_BUBBLE = { false, true, false };
+
+	// Digit accuracy of each run: 90%, 95%, 93.5%, 93%, 80%
+	private static final int[] DIGIT_CORRECT = { 180, 190, 187, 186, 160 };
+
+	private Path dir;
+	private String base;
+
+	@Before
+	public void createDirectory() throws IOException {
+		dir = Files.createTempDirectory("history");
+		base = dir.resolve("runs").toString();
+	}
+
+	@After
+	public void deleteDirectory() throws IOException {
+		for (String extension : new String[] { ".runs", ".idx" }) {
+			Files.deleteIfExists(Paths.get(base + extension));
+		}
+		Files.delete(dir);
+	}
+
+	@Test
+	public void testQueries() throws IOException {
+		try (RunHistory history = RunHistory.open(base, 3)) {
+			appendRuns(history);
+		}
+		try (RunHistory history = RunHistory.open(base, 3)) {
+			assertEquals(5, history.getNumRuns());
+
+			List<RunHistory.RunSummary> last = history.lastRuns(2);
+			assertEquals(2, last.size());
+			assertEquals(4, last.get(0).runId);
+			assertEquals(5, last.get(1).runId);
+			assertEquals(80.0, last.get(1).getDigitAccuracy(), 1e-9);
+			assertEquals(50.0, last.get(1).getBubbleAccuracy(), 1e-9);
+			assertEquals(70.0, last.get(1).getFieldAccuracy(2), 1e-9);
+			assertEquals(5, history.lastRuns(10).size());
+
+			List<RunHistory.RunSummary[]> drops = history.digitAccuracyDrops(1.0);
+			assertEquals(2, drops.size());
+			assertEquals(2, drops.get(0)[0].runId);
+			assertEquals(3, drops.get(0)[1].runId);
+			assertEquals(5, drops.get(1)[1].runId);
+
+			RunHistory.Run run = history.readRun(3);
+			assertEquals("build 3", run.label);
+			assertEquals("abc3", run.fingerprints.get("excel"));
+			assertEquals(Long.valueOf(30), run.phaseMillis.get("compare"));
+			assertArrayEquals(new int[] { 87, 25, 100 }, run.summary.numCorrect);
+		}
+	}
+
+	@Test
+	public void testRecovery() throws IOException {
+		try (RunHistory history = RunHistory.open(base, 3)) {
+			appendRuns(history);
+		}
+		Path records = Paths.get(base + ".runs");
+		Path index = Paths.get(base + ".idx");
+		long recordsSize = Files.size(records);
+		long indexSize = Files.size(index);
+
+		// A torn record is cut off, and the index entry of a run that was
+		// interrupted after writing its record is written again
+		long lastRecord = truncateIndex(index, indexSize, 1);
+		try (FileChannel channel = FileChannel.open(records, StandardOpenOption.WRITE)) {
+			channel.truncate(recordsSize - 3);
+		}
+		try (RunHistory history = RunHistory.open(base, 3)) {
+			assertEquals(4, history.getNumRuns());
+			assertEquals(lastRecord, Files.size(records));
+		}
+
+		truncateIndex(index, Files.size(index), 2);
+		try (RunHistory history = RunHistory.open(base, 3)) {
+			assertEquals(4, history.getNumRuns());
+			assertEquals(4, history.readRun(4).summary.runId);
+			assertEquals(1, history.digitAccuracyDrops(1.0).size());
+			history.append("build 5", new HashMap<String, String>(), new int[] { 160, 1, 1 },
+			        new int[] { 200, 2, 1 }, IS_BUBBLE, new HashMap<String, Long>());
+		}
+		try (RunHistory history = RunHistory.open(base, 3)) {
+			assertEquals(5, history.getNumRuns());
+			assertEquals("build 5", history.readRun(5).label);
+		}
+	}
+
+	@Test
+	public void testFocusedRuns() throws IOException {
+		try (RunHistory history = RunHistory.open(base, 3)) {
+			appendRuns(history);
+
+			// A run of field 2 only (70% digit accuracy), which is not a drop
+			// from the full runs, and one of field 2 at 60%, which is
+			history.append("field 2", new HashMap<String, String>(), new int[] { 2 }, new int[] { 0, 0, 70 },
+			        new int[] { 0, 0, 100 }, IS_BUBBLE, new HashMap<String, Long>());
+			history.append("field 2 again", new HashMap<String, String>(), new int[] { 2 },
+			        new int[] { 0, 0, 60 }, new int[] { 0, 0, 100 }, IS_BUBBLE, new HashMap<String, Long>());
+
+			// A full run at 90%, compared with run 5 (80%) and not run 7
+			history.append("build 6", new HashMap<String, String>(), new int[] { 90, 25, 90 },
+			        new int[] { 100, 50, 100 }, IS_BUBBLE, new HashMap<String, Long>());
+		}
+		Path index = Paths.get(base + ".idx");
+		truncateIndex(index, Files.size(index), 3);
+		try (RunHistory history = RunHistory.open(base, 3)) {
+			// The field sets are recovered from the records
+			List<RunHistory.RunSummary> last = history.lastRuns(4);
+			assertEquals(true, last.get(0).hasField(0));
+			assertEquals(false, last.get(1).hasField(0));
+			assertEquals(true, last.get(1).hasField(2));
+			assertEquals(last.get(1).fieldSet, last.get(2).fieldSet);
+			assertEquals(last.get(0).fieldSet, last.get(3).fieldSet);
+
+			List<RunHistory.RunSummary[]> drops = history.digitAccuracyDrops(1.0);
+			assertEquals(3, drops.size());
+			assertEquals(6, drops.get(2)[0].runId);
+			assertEquals(7, drops.get(2)[1].runId);
+		}
+	}
+
+	@Test
+	public void testConcurrentAppends() throws Exception {
+		final int numThreads = 4;
+		final int runsPerThread = 20;
+		try (RunHistory history = RunHistory.open(base, 3)) {
+			appendRuns(history);
+		}
+
+		// Each thread appends through its own instance, opened before any of
+		// them has appended
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			final CountDownLatch opened = new CountDownLatch(numThreads);
+			for (int t = 0; t < numThreads; t++) {
+				final int thread = t;
+				futures.add(pool.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						try (RunHistory history = RunHistory.open(base, 3)) {
+							opened.countDown();
+							opened.await();
+							for (int r = 0; r < runsPerThread; r++) {
+								history.append("thread " + thread + " run " + r, new HashMap<String, String>(),
+								        new int[] { thread, r, 1 }, new int[] { 100, 50, 100 }, IS_BUBBLE,
+								        new HashMap<String, Long>());
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		int numRuns = DIGIT_CORRECT.length + numThreads * runsPerThread;
+		try (RunHistory history = RunHistory.open(base, 3)) {
+			assertEquals(numRuns, history.getNumRuns());
+			Set<String> labels = new HashSet<String>();
+			for (int runId = 1; runId <= numRuns; runId++) {
+				RunHistory.Run run = history.readRun(runId);
+				assertEquals(runId, run.summary.runId);
+				labels.add(run.label);
+				if (run.label.startsWith("thread ")) {
+					String[] words = run.label.split(" ");
+					assertArrayEquals(new int[] { Integer.parseInt(words[1]), Integer.parseInt(words[3]), 1 },
+					        run.summary.numCorrect);
+				}
+			}
+			assertEquals(numRuns, labels.size());
+			assertEquals(numRuns, history.lastRuns(numRuns).get(numRuns - 1).runId);
+		}
+	}
+
+	/*
+	 * Drops the last n index entries (the last one partly), and returns the
+	 * offset of the record of the last run.
+	 */
+	private static long truncateIndex(Path index, long size, int n) throws IOException {
+		long entryBytes = 40 + 8 * 3;
+		long offset;
+		try (DataInputStream in = new DataInputStream(new FileInputStream(index.toFile()))) {
+			in.skipBytes((int) (size - entryBytes));
+			offset = in.readLong();
+		}
+		try (FileChannel channel = FileChannel.open(index, StandardOpenOption.WRITE)) {
+			channel.truncate(size - n * entryBytes + 5);
+		}
+		return offset;
+	}
+
+	/*
+	 * Appends 5 runs. Fields 0 and 2 are digit fields with 100 digits each,
+	 * and field 1 a bubble field with 50 bubbles.
+	 */
+	private static void appendRuns(RunHistory history) throws IOException {
+		for (int r = 0; r < DIGIT_CORRECT.length; r++) {
+			Map<String, String> fingerprints = new LinkedHashMap<String, String>();
+			fingerprints.put("excel", "abc" + (r + 1));
+			Map<String, Long> phaseMillis = new LinkedHashMap<String, Long>();
+			phaseMillis.put("crawl", 100L * (r + 1));
+			phaseMillis.put("compare", 10L * (r + 1));
+			int[] numCorrect = { DIGIT_CORRECT[r] - 100, 25, 100 };
+			if (r == 4) {
+				numCorrect = new int[] { 90, 25, 70 };
+			}
+			RunHistory.RunSummary run = history.append("build " + (r + 1), fingerprints, numCorrect,
+			        new int[] { 100, 50, 100 }, IS_BUBBLE, phaseMillis);
+			assertEquals(r + 1, run.runId);
+		}
+	}
+}
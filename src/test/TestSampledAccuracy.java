@@ -0,0 +1,190 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import main.*;
+
+public class TestSampledAccuracy {
+	private static final int NUM_FIELDS = 15;
+	private static final int NUM_FORMS = 3000;
+	private static final long SEED = 43;
+
+	private static Path root;
+	private static Path indexFile;
+	private static Map<String, List<String>> expected;
+	private static int[] referenceCorrect;
+	private static int[] referenceTotal;
+
+	@BeforeClass
+	public static void writeFolders() throws IOException {
+		Random random = new Random(SEED);
+		root = Files.createTempDirectory("scan-output");
+		indexFile = Files.createTempFile("folder-index", ".tsv");
+		expected = new HashMap<String, List<String>>();
+		referenceCorrect = new int[NUM_FIELDS];
+		referenceTotal = new int[NUM_FIELDS];
+		for (int f = 0; f < NUM_FORMS; f++) {
+			String clientId = String.valueOf(10000 + f);
+			List<String> expectedValues = new ArrayList<String>();
+			String[] entries = new String[JsonParser.getJsonIndex(NUM_FIELDS - 1) + 2];
+			Arrays.fill(entries, "");
+			for (int i = 0; i < NUM_FIELDS; i++) {
+				String value = String.valueOf(100 + random.nextInt(900));
+				String actualValue = value;
+				if (random.nextInt(10) < 1 + i % 3) {
+					actualValue = String.valueOf(100 + random.nextInt(900));
+				}
+				expectedValues.add(value);
+				entries[JsonParser.getJsonIndex(i)] = actualValue;
+				int[] comparison = AccuracyChecker.compareField(i, actualValue, value);
+				referenceCorrect[i] += comparison[0];
+				referenceTotal[i] += comparison[1];
+			}
+			expected.put(clientId, expectedValues);
+
+			// Two strata, one twice as large as the other
+			writeFolder(root, (f % 3 == 0 ? "batchA" : "batchB") + "_id_" + clientId, clientId, entries);
+		}
+	}
+
+	private static void writeFolder(Path root, String name, String clientId, String[] entries) throws IOException {
+		Path folder = Files.createDirectory(root.resolve(name));
+		Files.write(folder.resolve("clientID.txt"), clientId.getBytes(StandardCharsets.UTF_8));
+		StringBuilder json = new StringBuilder("{\"fields\": [");
+		for (int j = 0; j < entries.length; j++) {
+			json.append(j == 0 ? "" : ", ").append("{\"value\": \"").append(entries[j]).append("\"}");
+		}
+		Files.write(folder.resolve("output.json"), json.append("]}").toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	@AfterClass
+	public static void deleteFolders() throws IOException {
+		delete(root);
+		Files.delete(indexFile);
+	}
+
+	private static void delete(Path root) throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, java.nio.file.attribute.BasicFileAttributes attrs)
+			        throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	@Test
+	public void testZeroTargetReadsEverything() {
+		SampledAccuracy result = SampledAccuracy.sample(root.toString(), expected, null, 0,
+		        SampledAccuracy.Sampling.RANDOM, SEED, indexFile.toString());
+		assertTrue(result.isConverged());
+		assertEquals(NUM_FORMS, result.getNumSampled());
+		assertEquals(0, result.getNumErrors());
+		for (int i = 0; i < NUM_FIELDS; i++) {
+			assertEquals(referenceCorrect[i], result.getEstimate(i).getCorrect());
+			assertEquals(referenceTotal[i], result.getEstimate(i).getTotal());
+
+			// With every folder read, there is no uncertainty left
+			assertEquals(0, result.getEstimate(i).getHalfWidth(NUM_FORMS), 1e-9);
+		}
+	}
+
+	@Test
+	public void testStopsAtTarget() {
+		int[] fields = { 1, 2, 3 };
+		double target = 2;
+		SampledAccuracy result = SampledAccuracy.sample(root.toString(), expected, fields, target,
+		        SampledAccuracy.Sampling.STRATIFIED, SEED, indexFile.toString());
+		assertTrue(result.isConverged());
+		assertTrue(result.getNumSampled() < NUM_FORMS);
+		for (int i : fields) {
+			SampledAccuracy.RatioEstimate estimate = result.getEstimate(i);
+			double halfWidth = estimate.getHalfWidth(NUM_FORMS);
+			assertTrue(halfWidth <= target);
+			double accuracy = referenceCorrect[i] * 100.0 / referenceTotal[i];
+			assertTrue(Math.abs(estimate.getAccuracy() - accuracy) <= halfWidth);
+		}
+		// Fields that were not requested are not read
+		assertEquals(0, result.getEstimate(0).getTotal());
+	}
+
+	@Test
+	public void testDuplicateClientIdsExcluded() throws IOException {
+		// As in JsonParser.crawlDirectories, neither folder of a duplicated
+		// client ID is scored, whichever of them is sampled first
+		Path duplicates = Files.createTempDirectory("scan-output");
+		try {
+			String[] entries = new String[JsonParser.getJsonIndex(NUM_FIELDS - 1) + 2];
+			Arrays.fill(entries, "");
+			for (int i = 0; i < NUM_FIELDS; i++) {
+				entries[JsonParser.getJsonIndex(i)] = expected.get("10000").get(i);
+			}
+			writeFolder(duplicates, "a_id_10000", "10000", entries);
+			writeFolder(duplicates, "b_id_10000", "10000", entries);
+			writeFolder(duplicates, "c_id_10001", "10001", entries);
+			SampledAccuracy result = SampledAccuracy.sample(duplicates.toString(), expected, null, 0,
+			        SampledAccuracy.Sampling.RANDOM, SEED, indexFile.toString());
+			assertEquals(3, result.getNumSampled());
+			assertEquals(0, result.getNumErrors());
+			for (int i = 0; i < NUM_FIELDS; i++) {
+				int[] comparison = AccuracyChecker.compareField(i, entries[JsonParser.getJsonIndex(i)],
+				        expected.get("10001").get(i));
+				assertEquals(comparison[0], result.getEstimate(i).getCorrect());
+				assertEquals(comparison[1], result.getEstimate(i).getTotal());
+			}
+		} finally {
+			delete(duplicates);
+		}
+	}
+
+	@Test
+	public void testHalfWidth() {
+		// Three forms scoring 2/3, 3/3 and 0/3: the ratio is 5/9, and the
+		// residuals c - R t are 1/3, 4/3 and -5/3
+		SampledAccuracy.RatioEstimate estimate = new SampledAccuracy.RatioEstimate();
+		estimate.add(2, 3);
+		estimate.add(3, 3);
+		estimate.add(0, 3);
+		double variance = (1.0 / 9 + 16.0 / 9 + 25.0 / 9) / 2;
+		double expectedHalfWidth = 100 * 1.96 * Math.sqrt(0.7 * variance / (3 * 9));
+		assertEquals(5 * 100.0 / 9, estimate.getAccuracy(), 1e-9);
+		assertEquals(expectedHalfWidth, estimate.getHalfWidth(10), 1e-9);
+	}
+
+	@Test
+	public void testStratifiedOrder() {
+		List<Path> folders = new ArrayList<Path>();
+		for (int f = 0; f < 300; f++) {
+			folders.add(Paths.get((f % 3 == 0 ? "a" : "b") + "_id_" + f));
+		}
+		List<Path> order = SampledAccuracy.sampleOrder(folders, SampledAccuracy.Sampling.STRATIFIED, SEED);
+		assertEquals(new HashSet<Path>(folders), new HashSet<Path>(order));
+		assertEquals(order, SampledAccuracy.sampleOrder(folders, SampledAccuracy.Sampling.STRATIFIED, SEED));
+
+		// Every prefix holds each stratum in proportion (to within one folder)
+		int numA = 0;
+		for (int n = 1; n <= order.size(); n++) {
+			if (order.get(n - 1).toString().startsWith("a_")) {
+				numA++;
+			}
+			assertTrue(Math.abs(numA - n / 3.0) <= 1);
+		}
+	}
+}
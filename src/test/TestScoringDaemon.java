@@ -0,0 +1,113 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+
+import javax.json.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import main.*;
+
+public class TestScoringDaemon {
+	private Path csv;
+	private ScoringDaemon daemon;
+	private HttpServer server;
+
+	@Before
+	public void startDaemon() throws IOException {
+		csv = Files.createTempFile("ground-truth", ".csv");
+		writeGroundTruth("12345", "678");
+		daemon = new ScoringDaemon(csv.toString());
+		server = daemon.start(0);
+	}
+
+	@After
+	public void stopDaemon() throws IOException {
+		daemon.stop();
+		Files.delete(csv);
+	}
+
+	@Test
+	public void testPaddedClientId() throws IOException {
+		// The client ID read by Scan, with leading zeroes and whitespace
+		HttpURLConnection connection = post("/score", " 0012345");
+		assertEquals(200, connection.getResponseCode());
+		assertEquals("12345", read(connection).getString("clientId"));
+
+		assertEquals(200, post("/score?clientId=000678", "").getResponseCode());
+		assertEquals(404, post("/score?clientId=679", "").getResponseCode());
+	}
+
+	@Test
+	public void testReloadKeepsSnapshotOnFailure() throws IOException {
+		// A half-saved file (no rows) keeps the previous version...
+		long modified = status().getJsonNumber("lastModified").longValue();
+		Files.write(csv, "header\n".getBytes(StandardCharsets.UTF_8));
+		FileTime failed = FileTime.fromMillis(System.currentTimeMillis() + 10000);
+		Files.setLastModifiedTime(csv, failed);
+		daemon.reloadIfChanged();
+		assertEquals(2, status().getInt("clientIds"));
+		assertEquals(modified, status().getJsonNumber("lastModified").longValue());
+
+		// ...and is parsed again at the next check, even if its modification
+		// time has not changed since
+		writeGroundTruth("12345", "678", "9");
+		Files.setLastModifiedTime(csv, failed);
+		daemon.reloadIfChanged();
+		assertEquals(3, status().getInt("clientIds"));
+		assertTrue(status().getJsonNumber("lastModified").longValue() > modified);
+	}
+
+	private void writeGroundTruth(String... clientIds) throws IOException {
+		StringBuilder rows = new StringBuilder("header\n");
+		for (String clientId : clientIds) {
+			rows.append(",,,,,,,,,,,,,,,").append(clientId).append("\n");
+		}
+		Files.write(csv, rows.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/*
+	 * Posts an output.json document whose client ID entry holds the given
+	 * value.
+	 */
+	private HttpURLConnection post(String path, String clientId) throws IOException {
+		StringBuilder json = new StringBuilder("{\"fields\": [");
+		for (int j = 0; j < 49; j++) {
+			json.append(j == 0 ? "" : ", ").append("{\"value\": \"").append(j == 3 ? clientId : "").append("\"}");
+		}
+		HttpURLConnection connection = connect(path);
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(json.append("]}").toString().getBytes(StandardCharsets.UTF_8));
+		}
+		return connection;
+	}
+
+	private JsonObject status() throws IOException {
+		return read(connect("/status"));
+	}
+
+	private HttpURLConnection connect(String path) throws IOException {
+		URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), server.getAddress().getPort(),
+		        path);
+		return (HttpURLConnection) url.openConnection();
+	}
+
+	private static JsonObject read(HttpURLConnection connection) throws IOException {
+		try (JsonReader reader = Json.createReader(connection.getInputStream())) {
+			return reader.readObject();
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package main;
+
+import jdk.incubator.vector.*;
+
+/**
+ * The DigitBatch kernel implemented with the Vector API: each packed lane is
+ * loaded as one vector and compared as bytes, and its counts are the
+ * population counts of the comparison masks.
+ *
+ * This class is kept out of the "src" folder (and out of the Eclipse build:
+ * .classpath excludes "vector/") because it needs the incubating
+ * jdk.incubator.vector module (JDK 16 or later) both to compile and to run.
+ * Build it by hand into the project's output folder, after Eclipse has built
+ * DigitBatch there:
+ *
+ * javac --add-modules jdk.incubator.vector -cp bin -d bin
+ * vector/main/VectorDigitKernel.java
+ *
+ * java --add-modules jdk.incubator.vector ...
+ *
+ * DigitBatch falls back to its own kernel when this class or the module is
+ * missing.
+ */
+class VectorDigitKernel implements DigitBatch.Kernel {
+    // One lane per vector
+    private static final VectorSpecies<Long> SPECIES = VectorSpecies.of(long.class,
+            VectorShape.forBitSize(DigitBatch.LANE_WIDTH * 8));
+
+    VectorDigitKernel() {
+        // Fail now (and let DigitBatch fall back) if the vectors cannot be used
+        LongVector.zero(SPECIES).reinterpretAsBytes();
+    }
+
+    public void count(long[] actual, long[] expected, int numLanes, int[] correct, int[] total) {
+        for (int k = 0; k < numLanes; k++) {
+            int offset = k * DigitBatch.WORDS_PER_LANE;
+            ByteVector a = LongVector.fromArray(SPECIES, actual, offset).reinterpretAsBytes();
+            ByteVector e = LongVector.fromArray(SPECIES, expected, offset).reinterpretAsBytes();
+            VectorMask<Byte> used = e.compare(VectorOperators.NE, (byte) 0);
+            total[k] = used.trueCount();
+            correct[k] = a.compare(VectorOperators.EQ, e).and(used).trueCount();
+        }
+    }
+}